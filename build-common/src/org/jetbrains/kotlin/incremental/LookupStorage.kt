@@ -18,7 +18,9 @@ package org.jetbrains.kotlin.incremental
 
 import com.intellij.util.containers.MultiMap
 import com.intellij.util.containers.StringInterner
+import gnu.trove.TIntHashSet
 import org.jetbrains.annotations.TestOnly
+import org.jetbrains.kotlin.config.IncrementalCompilation
 import org.jetbrains.kotlin.incremental.components.LookupTracker
 import org.jetbrains.kotlin.incremental.components.Position
 import org.jetbrains.kotlin.incremental.components.ScopeKind
@@ -30,16 +32,26 @@ import java.io.IOException
 import java.util.*
 
 
-open class LookupStorage(targetDataDir: File) : BasicMapsOwner(targetDataDir) {
+/**
+ * @param useCompactLookupMap if true, lookups are stored in [CompactLookupMap] instead of PersistentHashMap based [LookupMap].
+ *        Lookups stored by the other backend are migrated on the first use.
+ */
+open class LookupStorage(
+    targetDataDir: File,
+    private val useCompactLookupMap: Boolean = IncrementalCompilation.isCompactLookupStorageEnabled()
+) : BasicMapsOwner(targetDataDir) {
     companion object {
         private val DELETED_TO_SIZE_TRESHOLD = 0.5
         private val MINIMUM_GARBAGE_COLLECTIBLE_SIZE = 10000
+        private val MAX_UNCOMPACTED_RUNS = 16
     }
 
     private val countersFile = "counters".storageFile
     private val idToFile = registerMap(IdToFileMap("id-to-file".storageFile))
     private val fileToId = registerMap(FileToIdMap("file-to-id".storageFile))
-    private val lookupMap = registerMap(LookupMap("lookups".storageFile))
+    private val hashMapLookupMap = registerMap(LookupMap("lookups".storageFile))
+    private val compactLookupMap = CompactLookupMap("lookups-compact".storageFile)
+    private val lookupMap: LookupFileIdsMap = if (useCompactLookupMap) compactLookupMap else hashMapLookupMap
 
     @Volatile
     private var size: Int = 0
@@ -58,6 +70,7 @@ open class LookupStorage(targetDataDir: File) : BasicMapsOwner(targetDataDir) {
             throw IOException("Could not read $countersFile", e)
         }
 
+        migrateLookupsIfNeeded()
     }
 
     @Synchronized
@@ -77,9 +90,7 @@ open class LookupStorage(targetDataDir: File) : BasicMapsOwner(targetDataDir) {
 
         for ((lookupSymbol, paths) in lookups) {
             val key = LookupSymbolKey(lookupSymbol.name, lookupSymbol.scope)
-            val fileIds = paths.mapTo(HashSet<Int>()) { pathToId[it]!! }
-            fileIds.addAll(lookupMap[key] ?: emptySet())
-            lookupMap[key] = fileIds
+            lookupMap.addAll(key, paths.mapTo(HashSet<Int>()) { pathToId[it]!! })
         }
     }
 
@@ -102,13 +113,32 @@ open class LookupStorage(targetDataDir: File) : BasicMapsOwner(targetDataDir) {
         size = 0
         deletedCount = 0
 
+        compactLookupMap.clean()
         super.clean()
     }
 
+    @Synchronized
+    override fun close() {
+        try {
+            compactLookupMap.close()
+        }
+        finally {
+            super.close()
+        }
+    }
+
     @Synchronized
     override fun flush(memoryCachesOnly: Boolean) {
         try {
-            removeGarbageIfNeeded()
+            if (useCompactLookupMap) {
+                compactLookupMap.flush(memoryCachesOnly)
+                if (!memoryCachesOnly) {
+                    compactIfNeeded()
+                }
+            }
+            else {
+                removeGarbageIfNeeded()
+            }
 
             if (size > 0) {
                 if (!countersFile.exists()) {
@@ -134,12 +164,49 @@ open class LookupStorage(targetDataDir: File) : BasicMapsOwner(targetDataDir) {
         return id
     }
 
+    private fun isGarbageCollectionNeeded(): Boolean =
+        size > MINIMUM_GARBAGE_COLLECTIBLE_SIZE && deletedCount.toDouble() / size > DELETED_TO_SIZE_TRESHOLD
+
     private fun removeGarbageIfNeeded(force: Boolean = false) {
-        if (force || (size > MINIMUM_GARBAGE_COLLECTIBLE_SIZE && deletedCount.toDouble() / size > DELETED_TO_SIZE_TRESHOLD)) {
+        if (force || isGarbageCollectionNeeded()) {
             doRemoveGarbage()
         }
     }
 
+    /**
+     * Unlike [removeGarbageIfNeeded], does not renumber files: compaction runs in background and drops only the ids
+     * which were already removed from [idToFile], so the rest of the storage stays valid while it is in progress.
+     */
+    private fun compactIfNeeded(force: Boolean = false) {
+        if (force || isGarbageCollectionNeeded() || compactLookupMap.runCount > MAX_UNCOMPACTED_RUNS) {
+            val liveFileIds = TIntHashSet()
+            idToFile.keys.forEach { liveFileIds.add(it) }
+            // the deletions are counted towards the next compaction if this one is not started
+            if (compactLookupMap.compactInBackground(liveFileIds)) {
+                deletedCount = 0
+            }
+        }
+    }
+
+    private fun migrateLookupsIfNeeded() {
+        val source: LookupFileIdsMap = if (useCompactLookupMap) hashMapLookupMap else compactLookupMap
+        val keys = source.keys
+        if (keys.isEmpty()) return
+
+        for (key in keys) {
+            lookupMap[key] = source[key]!!.toSet()
+        }
+
+        if (useCompactLookupMap) {
+            compactLookupMap.flush(memoryCachesOnly = false)
+            hashMapLookupMap.clean()
+        }
+        else {
+            hashMapLookupMap.flush(memoryCachesOnly = false)
+            compactLookupMap.clean()
+        }
+    }
+
     private fun doRemoveGarbage() {
         for (hash in lookupMap.keys) {
             lookupMap[hash] = lookupMap[hash]!!.filter { it in idToFile }.toSet()
@@ -170,7 +237,14 @@ open class LookupStorage(targetDataDir: File) : BasicMapsOwner(targetDataDir) {
     }
 
     @TestOnly fun forceGC() {
-        removeGarbageIfNeeded(force = true)
+        if (useCompactLookupMap) {
+            compactLookupMap.flush(memoryCachesOnly = false)
+            compactIfNeeded(force = true)
+            compactLookupMap.waitForCompaction()
+        }
+        else {
+            removeGarbageIfNeeded(force = true)
+        }
         flush(false)
     }
 
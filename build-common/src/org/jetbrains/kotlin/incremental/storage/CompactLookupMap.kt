@@ -0,0 +1,436 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.incremental.storage
+
+import gnu.trove.TIntHashSet
+import gnu.trove.TLongHashSet
+import gnu.trove.TLongObjectHashMap
+import java.io.ByteArrayOutputStream
+import java.io.File
+import java.io.IOException
+import java.io.RandomAccessFile
+import java.nio.ByteBuffer
+import java.nio.MappedByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.util.concurrent.ExecutorService
+import java.util.concurrent.Executors
+import java.util.concurrent.Future
+
+/**
+ * Append-only alternative to [LookupMap].
+ *
+ * The file consists of a header followed by sorted runs. Each flush appends one run containing the entries changed since
+ * the previous flush, sorted by key. An entry is either an addition to the file ids of the key, or a replacement of all
+ * of them (so [remove] is a replacement with an empty list). File ids are stored as delta/varint encoded posting lists.
+ *
+ * Runs are read in place from a memory-mapped buffer, only their keys and offsets are kept on heap.
+ * Old runs are merged by [compactInBackground], which never blocks readers and writers for longer than it takes
+ * to copy the runs appended during the compaction.
+ */
+internal class CompactLookupMap(private val storageFile: File) : LookupFileIdsMap {
+    companion object {
+        private const val MAGIC = 0x4B4C4B50 // "KLKP"
+        private const val VERSION = 1
+        private const val HEADER_SIZE = 8
+        private const val RUN_MAGIC = 0x52554E31 // "RUN1"
+        private const val RUN_HEADER_SIZE = 8
+        private const val ENTRY_HEADER_SIZE = 9
+
+        private const val ADD: Byte = 0
+        private const val REPLACE: Byte = 1
+
+        private val compactionExecutor: ExecutorService = Executors.newSingleThreadExecutor { runnable ->
+            Thread(runnable, "Kotlin lookup storage compaction").apply { isDaemon = true }
+        }
+    }
+
+    private class Run(val start: Int, val end: Int, val keys: LongArray, val offsets: IntArray)
+
+    private class PendingEntry(var replace: Boolean) {
+        val fileIds = TIntHashSet()
+    }
+
+    private var channel: FileChannel? = null
+    private var buffer: MappedByteBuffer? = null
+    private var runs: List<Run> = emptyList()
+    private val pending = TLongObjectHashMap<PendingEntry>()
+
+    @Volatile
+    private var compaction: Future<*>? = null
+
+    val runCount: Int
+        @Synchronized get() = runs.size
+
+    init {
+        if (storageFile.exists()) {
+            try {
+                openExisting()
+            } catch (e: IOException) {
+                closeChannel()
+                throw IOException("Could not read $storageFile", e)
+            }
+        }
+    }
+
+    @Synchronized
+    override fun get(key: LookupSymbolKey): Collection<Int>? {
+        val result = TIntHashSet()
+        if (!collect(key.packed(), result)) return null
+        return result.toArray().asList()
+    }
+
+    @Synchronized
+    override fun addAll(key: LookupSymbolKey, fileIds: Collection<Int>) {
+        val entry = pendingEntry(key.packed(), replace = false)
+        fileIds.forEach { entry.fileIds.add(it) }
+    }
+
+    @Synchronized
+    override fun set(key: LookupSymbolKey, fileIds: Set<Int>) {
+        val entry = pendingEntry(key.packed(), replace = true)
+        entry.fileIds.clear()
+        fileIds.forEach { entry.fileIds.add(it) }
+    }
+
+    @Synchronized
+    override fun remove(key: LookupSymbolKey) {
+        pendingEntry(key.packed(), replace = true).fileIds.clear()
+    }
+
+    override val keys: Collection<LookupSymbolKey>
+        @Synchronized get() {
+            val allKeys = TLongHashSet()
+            for (run in runs) {
+                allKeys.addAll(run.keys)
+            }
+            allKeys.addAll(pending.keys())
+
+            val result = ArrayList<LookupSymbolKey>()
+            val fileIds = TIntHashSet()
+            allKeys.forEach { key ->
+                fileIds.clear()
+                if (collect(key, fileIds) && !fileIds.isEmpty) {
+                    result.add(key.toLookupSymbolKey())
+                }
+                true
+            }
+            return result
+        }
+
+    @Synchronized
+    fun flush(memoryCachesOnly: Boolean) {
+        if (memoryCachesOnly || pending.isEmpty) return
+
+        val keys = pending.keys().apply { sort() }
+        val bytes = ByteArrayOutputStream()
+        val offsets = IntArray(keys.size)
+        val start = appendPosition()
+
+        writeInt(bytes, RUN_MAGIC)
+        writeInt(bytes, keys.size)
+        for ((i, key) in keys.withIndex()) {
+            val entry = pending[key]
+            offsets[i] = start + bytes.size()
+            writeEntry(bytes, key, if (entry.replace) REPLACE else ADD, entry.fileIds.toArray())
+        }
+
+        val end = start.toLong() + bytes.size()
+        if (end > Int.MAX_VALUE) throw IOException("Lookup storage $storageFile exceeds 2Gb, it should be rebuilt")
+
+        val channel = getOrCreateChannel()
+        channel.write(ByteBuffer.wrap(bytes.toByteArray()), start.toLong())
+        channel.force(false)
+
+        runs = runs + Run(start, end.toInt(), keys, offsets)
+        pending.clear()
+        remap()
+    }
+
+    /**
+     * Merges all flushed runs into one, dropping file ids that are not [liveFileIds].
+     * Does nothing and returns `false` if a compaction is already in progress or there is nothing to compact.
+     */
+    @Synchronized
+    fun compactInBackground(liveFileIds: TIntHashSet): Boolean {
+        if (compaction?.isDone == false) return false
+        val snapshot = runs.takeIf { it.isNotEmpty() } ?: return false
+        val snapshotBuffer = buffer ?: return false
+
+        compaction = compactionExecutor.submit {
+            compact(snapshot, snapshotBuffer, liveFileIds)
+        }
+        return true
+    }
+
+    fun waitForCompaction() {
+        try {
+            compaction?.get()
+        } catch (e: Exception) {
+            // the storage stays consistent if compaction fails, it just contains some garbage
+        }
+    }
+
+    fun clean() {
+        waitForCompaction()
+        synchronized(this) {
+            closeChannel()
+            pending.clear()
+            runs = emptyList()
+            storageFile.delete()
+        }
+    }
+
+    fun close() {
+        waitForCompaction()
+        synchronized(this) {
+            closeChannel()
+        }
+    }
+
+    private fun collect(key: Long, result: TIntHashSet): Boolean {
+        var found = false
+
+        val pendingEntry = pending[key]
+        if (pendingEntry != null) {
+            result.addAll(pendingEntry.fileIds.toArray())
+            if (pendingEntry.replace) return true
+            found = true
+        }
+
+        val buffer = buffer ?: return found
+        for (run in runs.asReversed()) {
+            val index = run.keys.binarySearch(key)
+            if (index < 0) continue
+
+            found = true
+            if (readEntry(buffer, run.offsets[index], result) == REPLACE) break
+        }
+
+        return found
+    }
+
+    private fun pendingEntry(key: Long, replace: Boolean): PendingEntry {
+        val existing = pending[key]
+        if (existing != null) {
+            existing.replace = existing.replace || replace
+            return existing
+        }
+
+        return PendingEntry(replace).also { pending.put(key, it) }
+    }
+
+    private fun compact(snapshot: List<Run>, snapshotBuffer: ByteBuffer, liveFileIds: TIntHashSet) {
+        val merged = TLongObjectHashMap<TIntHashSet>()
+        val fileIds = TIntHashSet()
+        for (run in snapshot) {
+            for ((i, key) in run.keys.withIndex()) {
+                fileIds.clear()
+                val kind = readEntry(snapshotBuffer, run.offsets[i], fileIds)
+                val existing = merged[key]
+                if (existing == null || kind == REPLACE) {
+                    merged.put(key, TIntHashSet(fileIds.toArray()))
+                } else {
+                    existing.addAll(fileIds.toArray())
+                }
+            }
+        }
+
+        val liveIds = liveFileIds.toArray()
+        val liveKeys = merged.keys().apply { sort() }.filter { key ->
+            val ids = merged[key]
+            ids.retainAll(liveIds)
+            !ids.isEmpty
+        }
+
+        val tmpFile = File(storageFile.parentFile, storageFile.name + ".tmp")
+        val bytes = ByteArrayOutputStream()
+        writeInt(bytes, MAGIC)
+        writeInt(bytes, VERSION)
+        writeInt(bytes, RUN_MAGIC)
+        writeInt(bytes, liveKeys.size)
+        for (key in liveKeys) {
+            writeEntry(bytes, key, REPLACE, merged[key].toArray())
+        }
+
+        synchronized(this) {
+            val channel = channel ?: return
+            val snapshotEnd = snapshot.last().end
+
+            RandomAccessFile(tmpFile, "rw").use { tmp ->
+                tmp.setLength(0)
+                tmp.write(bytes.toByteArray())
+
+                // copy the runs which were appended while compaction was in progress
+                val tail = channel.size() - snapshotEnd
+                if (tail > 0) {
+                    channel.transferTo(snapshotEnd.toLong(), tail, tmp.channel)
+                }
+                tmp.channel.force(false)
+            }
+
+            closeChannel()
+            try {
+                Files.move(tmpFile.toPath(), storageFile.toPath(), StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE)
+            } catch (e: IOException) {
+                // e.g. the old file is still mapped on Windows; keep the uncompacted storage
+                tmpFile.delete()
+            }
+            openExisting()
+        }
+    }
+
+    private fun openExisting() {
+        val channel = getOrCreateChannel()
+        val size = channel.size()
+        if (size > Int.MAX_VALUE) throw IOException("Lookup storage is too big: $size bytes")
+
+        val buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, size)
+        if (size < HEADER_SIZE || buffer.getInt(0) != MAGIC || buffer.getInt(4) != VERSION) {
+            throw IOException("Unknown lookup storage format")
+        }
+
+        val runs = ArrayList<Run>()
+        var position = HEADER_SIZE
+        while (position < size) {
+            val run = readRun(buffer, position, size.toInt()) ?: break
+            runs.add(run)
+            position = run.end
+        }
+
+        if (position < size) {
+            // a run was not written completely, e.g. the build was killed during flush
+            channel.truncate(position.toLong())
+            this.buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, position.toLong())
+        } else {
+            this.buffer = buffer
+        }
+        this.runs = runs
+    }
+
+    private fun readRun(buffer: ByteBuffer, start: Int, limit: Int): Run? {
+        if (start + RUN_HEADER_SIZE > limit || buffer.getInt(start) != RUN_MAGIC) return null
+
+        val count = buffer.getInt(start + 4)
+        val keys = LongArray(count)
+        val offsets = IntArray(count)
+        var offset = start + RUN_HEADER_SIZE
+        for (i in 0 until count) {
+            if (offset + ENTRY_HEADER_SIZE >= limit) return null
+            keys[i] = buffer.getLong(offset)
+            offsets[i] = offset
+
+            val input = buffer.duplicate()
+            input.position(offset + ENTRY_HEADER_SIZE)
+            val payloadSize = input.readVarInt()
+            offset = input.position() + payloadSize
+            if (offset > limit) return null
+        }
+
+        return Run(start, offset, keys, offsets)
+    }
+
+    private fun readEntry(buffer: ByteBuffer, offset: Int, result: TIntHashSet): Byte {
+        val input = buffer.duplicate()
+        input.position(offset + 8)
+        val kind = input.get()
+        input.readVarInt() // payload size
+
+        val count = input.readVarInt()
+        var fileId = 0
+        for (i in 0 until count) {
+            fileId += input.readVarInt()
+            result.add(fileId)
+        }
+
+        return kind
+    }
+
+    private fun writeEntry(output: ByteArrayOutputStream, key: Long, kind: Byte, fileIds: IntArray) {
+        fileIds.sort()
+
+        val payload = ByteArrayOutputStream()
+        writeVarInt(payload, fileIds.size)
+        var previous = 0
+        for (fileId in fileIds) {
+            writeVarInt(payload, fileId - previous)
+            previous = fileId
+        }
+
+        writeLong(output, key)
+        output.write(kind.toInt())
+        writeVarInt(output, payload.size())
+        payload.writeTo(output)
+    }
+
+    private fun appendPosition(): Int {
+        val channel = getOrCreateChannel()
+        if (channel.size() == 0L) {
+            channel.write(ByteBuffer.allocate(HEADER_SIZE).putInt(MAGIC).putInt(VERSION).apply { flip() }, 0)
+        }
+        return runs.lastOrNull()?.end ?: HEADER_SIZE
+    }
+
+    private fun remap() {
+        val channel = channel ?: return
+        buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+    }
+
+    private fun getOrCreateChannel(): FileChannel {
+        channel?.let { return it }
+
+        storageFile.parentFile?.mkdirs()
+        return RandomAccessFile(storageFile, "rw").channel.also { channel = it }
+    }
+
+    private fun closeChannel() {
+        try {
+            channel?.close()
+        } catch (ignored: IOException) {
+        }
+        channel = null
+        buffer = null
+    }
+}
+
+private fun LookupSymbolKey.packed(): Long =
+    (nameHash.toLong() shl 32) or (scopeHash.toLong() and 0xFFFFFFFFL)
+
+private fun Long.toLookupSymbolKey(): LookupSymbolKey =
+    LookupSymbolKey((this ushr 32).toInt(), this.toInt())
+
+private fun ByteBuffer.readVarInt(): Int {
+    var result = 0
+    var shift = 0
+    while (true) {
+        val b = get().toInt()
+        result = result or ((b and 0x7F) shl shift)
+        if (b and 0x80 == 0) return result
+        shift += 7
+    }
+}
+
+private fun writeVarInt(output: ByteArrayOutputStream, value: Int) {
+    var v = value
+    while (v and 0x7F.inv() != 0) {
+        output.write((v and 0x7F) or 0x80)
+        v = v ushr 7
+    }
+    output.write(v)
+}
+
+private fun writeInt(output: ByteArrayOutputStream, value: Int) {
+    output.write(value ushr 24)
+    output.write(value ushr 16)
+    output.write(value ushr 8)
+    output.write(value)
+}
+
+private fun writeLong(output: ByteArrayOutputStream, value: Long) {
+    writeInt(output, (value ushr 32).toInt())
+    writeInt(output, value.toInt())
+}
@@ -35,4 +35,7 @@ internal class IdToFileMap(file: File) : BasicMap<Int, File>(file, ExternalInteg
     fun remove(id: Int) {
         storage.remove(id)
     }
+
+    val keys: Collection<Int>
+        get() = storage.keys
 }
@@ -18,7 +18,21 @@ package org.jetbrains.kotlin.incremental.storage
 
 import java.io.File
 
-internal class LookupMap(storage: File) : BasicMap<LookupSymbolKey, Collection<Int>>(storage, LookupSymbolKeyDescriptor, IntCollectionExternalizer) {
+internal interface LookupFileIdsMap {
+    operator fun get(key: LookupSymbolKey): Collection<Int>?
+
+    fun addAll(key: LookupSymbolKey, fileIds: Collection<Int>)
+
+    operator fun set(key: LookupSymbolKey, fileIds: Set<Int>)
+
+    fun remove(key: LookupSymbolKey)
+
+    val keys: Collection<LookupSymbolKey>
+}
+
+internal class LookupMap(storage: File) :
+    BasicMap<LookupSymbolKey, Collection<Int>>(storage, LookupSymbolKeyDescriptor, IntCollectionExternalizer),
+    LookupFileIdsMap {
     override fun dumpKey(key: LookupSymbolKey): String = key.toString()
 
     override fun dumpValue(value: Collection<Int>): String = value.toString()
@@ -27,16 +41,22 @@ internal class LookupMap(storage: File) : BasicMap<LookupSymbolKey, Collection<I
         storage.append(LookupSymbolKey(name, scope), fileId)
     }
 
-    operator fun get(key: LookupSymbolKey): Collection<Int>? = storage[key]
+    override operator fun get(key: LookupSymbolKey): Collection<Int>? = storage[key]
 
-    operator fun set(key: LookupSymbolKey, fileIds: Set<Int>) {
+    override fun addAll(key: LookupSymbolKey, fileIds: Collection<Int>) {
+        val newFileIds = fileIds.toHashSet()
+        newFileIds.addAll(storage[key] ?: emptySet())
+        storage[key] = newFileIds
+    }
+
+    override operator fun set(key: LookupSymbolKey, fileIds: Set<Int>) {
         storage[key] = fileIds
     }
 
-    fun remove(key: LookupSymbolKey) {
+    override fun remove(key: LookupSymbolKey) {
         storage.remove(key)
     }
 
-    val keys: Collection<LookupSymbolKey>
+    override val keys: Collection<LookupSymbolKey>
         get() = storage.keys
 }
@@ -26,6 +26,7 @@ import org.jetbrains.annotations.Nullable;
 import org.jetbrains.annotations.TestOnly;
 import org.jetbrains.kotlin.backend.common.output.OutputFile;
 import org.jetbrains.kotlin.backend.common.output.OutputFileCollection;
+import org.jetbrains.kotlin.backend.common.output.SimpleOutputBinaryFile;
 import org.jetbrains.kotlin.codegen.state.GenerationState;
 import org.jetbrains.kotlin.config.AnalysisFlags;
 import org.jetbrains.kotlin.config.JvmAnalysisFlags;
@@ -57,11 +58,16 @@ import static org.jetbrains.kotlin.codegen.JvmCodegenUtil.getMappingFileName;
 public class ClassFileFactory implements OutputFileCollection {
     private final GenerationState state;
     private final ClassBuilderFactory builderFactory;
-    private final Map<String, OutAndSourceFileList> generators = new LinkedHashMap<>();
+    private final Map<String, OutAndSourceFileList> generators = Collections.synchronizedMap(new LinkedHashMap<>());
+
+    // Classes generated by a task of the parallel codegen are kept separately until the task is committed, see generateInPartition
+    private final ThreadLocal<OutputPartition> currentPartition = new ThreadLocal<>();
+    // The output as it was before the parallel generation started, which is the only output visible to the tasks besides their own
+    private volatile Map<String, OutAndSourceFileList> outputBeforePartitions = null;
 
     private boolean isDone = false;
 
-    private final Set<File> sourceFiles = new HashSet<>();
+    private final Set<File> sourceFiles = Collections.synchronizedSet(new HashSet<>());
     private final PackagePartRegistry packagePartRegistry = new PackagePartRegistry();
 
     public ClassFileFactory(@NotNull GenerationState state, @NotNull ClassBuilderFactory builderFactory) {
@@ -93,7 +99,7 @@ public class ClassFileFactory implements OutputFileCollection {
             @NotNull Collection<? extends PsiFile> sourceFiles
     ) {
         ClassBuilder answer = builderFactory.newClassBuilder(origin);
-        generators.put(
+        registerOutput(
                 asmType.getInternalName() + ".class",
                 new ClassBuilderAndSourceFileList(answer, toIoFilesIgnoringNonPhysical(sourceFiles))
         );
@@ -107,13 +113,88 @@ public class ClassFileFactory implements OutputFileCollection {
             @NotNull List<File> sourceFiles
     ) {
         ClassBuilder answer = builderFactory.newClassBuilder(origin);
-        generators.put(
+        registerOutput(
                 asmType.getInternalName() + ".class",
                 new ClassBuilderAndSourceFileList(answer, sourceFiles)
         );
         return answer;
     }
 
+    private void registerOutput(@NotNull String relativePath, @NotNull OutAndSourceFileList output) {
+        OutputPartition partition = currentPartition.get();
+        if (partition != null) {
+            partition.generators.put(relativePath, output);
+            partition.removed.remove(relativePath);
+        }
+        else {
+            generators.put(relativePath, output);
+        }
+    }
+
+    /**
+     * Starts the generation of independent parts of the module in parallel threads with {@link #generateInPartition}.
+     * Until {@link #endPartitions} is called, each part sees only its own classes and the classes generated before this call,
+     * so the output doesn't depend on the order in which the parts are generated and committed.
+     */
+    public void beginPartitions() {
+        synchronized (generators) {
+            outputBeforePartitions = new HashMap<>(generators);
+        }
+    }
+
+    public void endPartitions() {
+        outputBeforePartitions = null;
+    }
+
+    public boolean isGeneratingInPartition() {
+        return currentPartition.get() != null;
+    }
+
+    /**
+     * Runs {@code generation} so that the classes it creates are not visible in the output until the returned partition is committed
+     * with {@link #commitPartition}. This allows generating independent parts of the module in parallel threads, and then adding
+     * their results to the output in a deterministic order. If {@code generation} fails, its classes are discarded.
+     */
+    @NotNull
+    public OutputPartition generateInPartition(@NotNull Runnable generation) {
+        assert currentPartition.get() == null : "Partitions can't be nested";
+        assert outputBeforePartitions != null : "Partitions should be generated between beginPartitions and endPartitions";
+
+        OutputPartition partition = new OutputPartition();
+        currentPartition.set(partition);
+        try {
+            generation.run();
+        }
+        finally {
+            currentPartition.remove();
+        }
+        return partition;
+    }
+
+    public void commitPartition(@NotNull OutputPartition partition) {
+        synchronized (generators) {
+            for (String relativePath : partition.removed) {
+                generators.remove(relativePath);
+            }
+            generators.putAll(partition.generators);
+        }
+    }
+
+    @Nullable
+    private OutAndSourceFileList findOutput(@NotNull String relativePath) {
+        OutputPartition partition = currentPartition.get();
+        if (partition == null) {
+            return generators.get(relativePath);
+        }
+
+        // Parts generated in parallel don't see each other's classes, whether they are already committed or not
+        OutAndSourceFileList output = partition.generators.get(relativePath);
+        if (output != null || partition.removed.contains(relativePath)) return output;
+
+        Map<String, OutAndSourceFileList> outputBefore = outputBeforePartitions;
+        return outputBefore != null ? outputBefore.get(relativePath) : null;
+    }
+
     public void done() {
         if (!isDone) {
             isDone = true;
@@ -125,6 +206,32 @@ public class ClassFileFactory implements OutputFileCollection {
         generators.clear();
     }
 
+    /**
+     * Returns the contents of the classes which are currently in the output and removes them from this factory, so that they're
+     * not kept in memory until the whole module is generated. Classes of uncommitted partitions (see {@link #generateInPartition})
+     * are not affected, so this may be called while other threads are generating their partitions.
+     */
+    @NotNull
+    public List<OutputFile> drainCurrentOutput() {
+        synchronized (generators) {
+            List<OutputFile> result = new ArrayList<>(generators.size());
+            for (Map.Entry<String, OutAndSourceFileList> entry : generators.entrySet()) {
+                String relativePath = entry.getKey();
+                OutAndSourceFileList output = entry.getValue();
+                byte[] bytes;
+                try {
+                    bytes = output.asBytes(builderFactory);
+                }
+                catch (RuntimeException e) {
+                    throw new RuntimeException("Error generating class file " + relativePath + ": " + e.getMessage(), e);
+                }
+                result.add(new SimpleOutputBinaryFile(output.sourceFiles, relativePath, bytes));
+            }
+            generators.clear();
+            return result;
+        }
+    }
+
     private void writeModuleMappings() {
         JvmModuleProtoBuf.Module.Builder builder = JvmModuleProtoBuf.Module.newBuilder();
         String outputFilePath = getMappingFileName(state.getModuleName());
@@ -140,7 +247,7 @@ public class ClassFileFactory implements OutputFileCollection {
 
         JvmModuleProtoBuf.Module moduleProto = builder.build();
 
-        generators.put(outputFilePath, new OutAndSourceFileList(CollectionsKt.toList(sourceFiles)) {
+        generators.put(outputFilePath, new OutAndSourceFileList(getSourceFilesSnapshot()) {
             @Override
             public byte[] asBytes(ClassBuilderFactory factory) {
                 int flags = 0;
@@ -189,13 +296,22 @@ public class ClassFileFactory implements OutputFileCollection {
 
     @NotNull
     public List<OutputFile> getCurrentOutput() {
-        return CollectionsKt.map(generators.keySet(), OutputClassFile::new);
+        synchronized (generators) {
+            return CollectionsKt.map(generators.keySet(), OutputClassFile::new);
+        }
     }
 
     @Override
     @Nullable
     public OutputFile get(@NotNull String relativePath) {
-        return generators.containsKey(relativePath) ? new OutputClassFile(relativePath) : null;
+        return findOutput(relativePath) != null ? new OutputClassFile(relativePath) : null;
+    }
+
+    @NotNull
+    private List<File> getSourceFilesSnapshot() {
+        synchronized (sourceFiles) {
+            return CollectionsKt.toList(sourceFiles);
+        }
     }
 
     @NotNull
@@ -297,7 +413,7 @@ public class ClassFileFactory implements OutputFileCollection {
         @NotNull
         @Override
         public List<File> getSourceFiles() {
-            OutAndSourceFileList pair = generators.get(relativeClassFilePath);
+            OutAndSourceFileList pair = findOutput(relativeClassFilePath);
             if (pair == null) {
                 throw new IllegalStateException("No record for binary file " + relativeClassFilePath);
             }
@@ -309,7 +425,7 @@ public class ClassFileFactory implements OutputFileCollection {
         @Override
         public byte[] asByteArray() {
             try {
-                return generators.get(relativeClassFilePath).asBytes(builderFactory);
+                return findOutput(relativeClassFilePath).asBytes(builderFactory);
             }
             catch (RuntimeException e) {
                 throw new RuntimeException("Error generating class file " + this.toString() + ": " + e.getMessage(), e);
@@ -320,7 +436,7 @@ public class ClassFileFactory implements OutputFileCollection {
         @Override
         public String asText() {
             try {
-                return generators.get(relativeClassFilePath).asText(builderFactory);
+                return findOutput(relativeClassFilePath).asText(builderFactory);
             }
             catch (RuntimeException e) {
                 throw new RuntimeException("Error generating class file " + this.toString() + ": " + e.getMessage(), e);
@@ -367,8 +483,25 @@ public class ClassFileFactory implements OutputFileCollection {
     }
 
     public void removeClasses(Set<String> classNamesToRemove) {
+        OutputPartition partition = currentPartition.get();
         for (String classInternalName : classNamesToRemove) {
-            generators.remove(classInternalName + ".class");
+            String relativePath = classInternalName + ".class";
+            if (partition != null) {
+                partition.generators.remove(relativePath);
+                partition.removed.add(relativePath);
+            }
+            else {
+                generators.remove(relativePath);
+            }
+        }
+    }
+
+    // Accessed only by the thread generating the partition, and then by the one committing it
+    public static final class OutputPartition {
+        private final Map<String, OutAndSourceFileList> generators = new LinkedHashMap<>();
+        private final Set<String> removed = new LinkedHashSet<>();
+
+        private OutputPartition() {
         }
     }
 
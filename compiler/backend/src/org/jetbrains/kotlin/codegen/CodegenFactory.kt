@@ -23,6 +23,10 @@ import org.jetbrains.kotlin.fileClasses.JvmFileClassUtil
 import org.jetbrains.kotlin.name.FqName
 import org.jetbrains.kotlin.progress.ProgressIndicatorAndCompilationCanceledStatus
 import org.jetbrains.kotlin.psi.KtFile
+import java.util.concurrent.Callable
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.concurrent.atomic.AtomicInteger
 
 interface CodegenFactory {
     fun generateModule(state: GenerationState, files: Collection<KtFile?>, errorHandler: CompilationErrorHandler)
@@ -58,16 +62,59 @@ object DefaultCodegenFactory : CodegenFactory {
             }
         }
 
+        val tasks = ArrayList<() -> Unit>()
+
         val obsoleteMultifileClasses = HashSet(state.obsoleteMultifileClasses)
         for (multifileClassFqName in filesInMultifileClasses.keySet() + obsoleteMultifileClasses) {
-            CodegenFactory.doCheckCancelled(state)
-            generateMultifileClass(state, multifileClassFqName, filesInMultifileClasses.get(multifileClassFqName), errorHandler)
+            tasks.add { generateMultifileClass(state, multifileClassFqName, filesInMultifileClasses.get(multifileClassFqName), errorHandler) }
         }
 
         val packagesWithObsoleteParts = HashSet(state.packagesWithObsoleteParts)
         for (packageFqName in packagesWithObsoleteParts + filesInPackages.keySet()) {
-            CodegenFactory.doCheckCancelled(state)
-            generatePackage(state, packageFqName, filesInPackages.get(packageFqName), errorHandler)
+            tasks.add { generatePackage(state, packageFqName, filesInPackages.get(packageFqName), errorHandler) }
+        }
+
+        if (state.parallelBackendThreads > 1 && tasks.size > 1) {
+            generateInParallel(state, tasks)
+        } else {
+            for (task in tasks) {
+                CodegenFactory.doCheckCancelled(state)
+                task()
+            }
+        }
+    }
+
+    /**
+     * Runs [tasks] in [GenerationState.parallelBackendThreads] threads. Classes generated by each task are added to the output
+     * in the order of [tasks], so the result doesn't depend on scheduling.
+     */
+    private fun generateInParallel(state: GenerationState, tasks: List<() -> Unit>) {
+        val threadCounter = AtomicInteger()
+        val executor = Executors.newFixedThreadPool(minOf(state.parallelBackendThreads, tasks.size)) { runnable ->
+            Thread(runnable, "Kotlin codegen worker #${threadCounter.incrementAndGet()}").apply { isDaemon = true }
+        }
+
+        state.factory.beginPartitions()
+        try {
+            val partitions = tasks.map { task ->
+                executor.submit(Callable {
+                    CodegenFactory.doCheckCancelled(state)
+                    state.factory.generateInPartition(Runnable(task))
+                })
+            }
+
+            for (partition in partitions) {
+                val result = try {
+                    partition.get()
+                } catch (e: ExecutionException) {
+                    throw e.cause ?: e
+                }
+                state.factory.commitPartition(result)
+                state.afterIndependentPart()
+            }
+        } finally {
+            executor.shutdownNow()
+            state.factory.endPartitions()
         }
     }
 
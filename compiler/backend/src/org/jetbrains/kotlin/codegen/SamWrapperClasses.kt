@@ -38,8 +38,10 @@ class SamWrapperClasses(private val state: GenerationState) {
     ): Type {
         val isInsideInline = InlineUtil.isInlineOrContainingInline(expressionCodegen.context.contextDescriptor) ||
                 isInsideInlineLambdaContext(expressionCodegen.context, state)
-        return samInterfaceToWrapperClass.getOrPut(WrapperKey(samType, file, isInsideInline)) {
-            SamWrapperCodegen(state, samType, expressionCodegen.parentCodegen, isInsideInline).genWrapper(file, contextDescriptor)
+        return synchronized(samInterfaceToWrapperClass) {
+            samInterfaceToWrapperClass.getOrPut(WrapperKey(samType, file, isInsideInline)) {
+                SamWrapperCodegen(state, samType, expressionCodegen.parentCodegen, isInsideInline).genWrapper(file, contextDescriptor)
+            }
         }
     }
 
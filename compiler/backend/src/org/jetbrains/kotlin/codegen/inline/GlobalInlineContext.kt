@@ -11,10 +11,19 @@ import org.jetbrains.kotlin.resolve.calls.model.ResolvedCall
 import java.util.*
 
 class GlobalInlineContext(diagnostics: DiagnosticSink) {
+    // Inlining is recursive within one thread, so the parallel codegen needs a separate stack for each thread
+    private class State(diagnostics: DiagnosticSink) {
+        val inlineCycleReporter = InlineCycleReporter(diagnostics)
+        val typesUsedInInlineFunctions = LinkedList<MutableSet<String>>()
+    }
+
+    private val state = ThreadLocal.withInitial { State(diagnostics) }
 
-    private val inlineCycleReporter: InlineCycleReporter = InlineCycleReporter(diagnostics)
+    private val inlineCycleReporter: InlineCycleReporter
+        get() = state.get().inlineCycleReporter
 
-    private val typesUsedInInlineFunctions = LinkedList<MutableSet<String>>()
+    private val typesUsedInInlineFunctions: LinkedList<MutableSet<String>>
+        get() = state.get().typesUsedInInlineFunctions
 
     fun enterIntoInlining(call: ResolvedCall<*>?) =
         inlineCycleReporter.enterIntoInlining(call).also {
@@ -16,24 +16,162 @@
 
 package org.jetbrains.kotlin.codegen.inline
 
-import com.intellij.util.containers.SLRUMap
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.util.io.URLUtil
 import org.jetbrains.kotlin.name.ClassId
 import org.jetbrains.org.objectweb.asm.commons.Method
+import java.io.File
+import java.security.MessageDigest
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.atomic.AtomicLong
 
-data class MethodId(val ownerInternalName: String, val method: Method)
+/**
+ * Caches the bytes of compiled classes containing inline functions, and the bodies of those functions.
+ *
+ * Entries are keyed by the path of the class file and its stamp, which allows [shared] storage to be reused by subsequent
+ * compilations in the same process (e.g. in the daemon) without picking up outdated bytecode. Class files in directories,
+ * which are usually outputs of the build being recompiled, are stamped with a hash of their contents, since they may be rewritten
+ * with the same size within the resolution of the modification time. Class files in jars are stamped with the length and
+ * the modification time of the jar.
+ * The storage is limited by the approximate number of retained bytes, the least recently used entries are evicted first.
+ * The limit of the [shared] storage is set once per process with [configureShared].
+ *
+ * Hit and miss counters are collected per instance, i.e. per [org.jetbrains.kotlin.codegen.state.GenerationState].
+ */
+class InlineCache private constructor(private val storage: Storage) {
+    constructor(maxBytes: Long = DEFAULT_MAX_BYTES) : this(Storage(maxBytes))
 
-class InlineCache {
-    val classBytes: SLRUMap<ClassId, ByteArray> = SLRUMap(30, 20)
-    val methodNodeById: SLRUMap<MethodId, SMAPAndMethodNode> = SLRUMap(60, 50)
-}
+    private val hits = AtomicLong()
+    private val misses = AtomicLong()
+    private val stamps = ConcurrentHashMap<String, FileStamp>()
+    private val containers = ConcurrentHashMap<ClassId, Container>()
+
+    val statistics: Statistics
+        get() = Statistics(hits.get(), misses.get(), storage.evictions, storage.weight)
+
+    fun getClassBytes(file: VirtualFile): ByteArray =
+        getOrPut(ClassBytesKey(keyOf(file)), { file.contentsToByteArray() }, { it.size.toLong() })!!
+
+    /**
+     * Returns the body of [method] declared in the class [containerId]. The class file is located with [findFile] only once per
+     * compilation, so the subsequent lookups of methods of the same class don't touch the file system.
+     */
+    fun getMethodNode(
+        containerId: ClassId,
+        method: Method,
+        findFile: () -> VirtualFile,
+        compute: (VirtualFile) -> SMAPAndMethodNode?
+    ): SMAPAndMethodNode? {
+        val container = containers.getOrPut(containerId) {
+            val file = findFile()
+            Container(file, keyOf(file))
+        }
+        return getOrPut(MethodNodeKey(container.key, method), { compute(container.file) }) {
+            it.node.instructions.size() * INSTRUCTION_WEIGHT + METHOD_WEIGHT
+        }
+    }
+
+    // The value is computed outside of the lock, so that the cache doesn't serialize the parallel codegen
+    // (see GenerationState.parallelBackendThreads). Two threads may compute the same value, which is harmless.
+    private fun <V : Any> getOrPut(key: Any, compute: () -> V?, weigher: (V) -> Long): V? {
+        @Suppress("UNCHECKED_CAST")
+        val cached = storage[key] as V?
+        if (cached != null) {
+            hits.incrementAndGet()
+            return cached
+        }
+
+        misses.incrementAndGet()
+        return compute()?.also { storage.put(key, it, weigher(it)) }
+    }
+
+    private fun keyOf(file: VirtualFile): ClassFileKey {
+        val path = file.path
+        val containerPath = path.substringBefore(URLUtil.JAR_SEPARATOR)
+        // Class files are not expected to change during one compilation, so each jar or file is checked only once
+        val stamp = stamps.getOrPut(containerPath) {
+            val container = File(containerPath)
+            if (containerPath != path && container.exists()) FileStamp(container.length(), container.lastModified(), null)
+            else file.contentsToByteArray().let { bytes -> FileStamp(bytes.size.toLong(), 0, contentHash(bytes)) }
+        }
+        return ClassFileKey(path, stamp)
+    }
+
+    private fun contentHash(bytes: ByteArray): String =
+        MessageDigest.getInstance("SHA-1").digest(bytes).joinToString("") { String.format("%02x", it) }
+
+    data class Statistics(val hits: Long, val misses: Long, val evictions: Long, val retainedBytes: Long)
+
+    private data class FileStamp(val length: Long, val lastModified: Long, val contentHash: String?)
+
+    private data class ClassFileKey(val path: String, val stamp: FileStamp)
+
+    private class Container(val file: VirtualFile, val key: ClassFileKey)
+
+    private data class ClassBytesKey(val file: ClassFileKey)
+
+    private data class MethodNodeKey(val file: ClassFileKey, val method: Method)
+
+    private class Storage(private val maxBytes: Long) {
+        private class Entry(val value: Any, val weight: Long)
+
+        private val entries = LinkedHashMap<Any, Entry>(16, 0.75f, /* accessOrder = */ true)
+
+        @Volatile
+        var weight: Long = 0
+            private set
+
+        @Volatile
+        var evictions: Long = 0
+            private set
+
+        @Synchronized
+        operator fun get(key: Any): Any? = entries[key]?.value
+
+        @Synchronized
+        fun put(key: Any, value: Any, weight: Long) {
+            if (weight > maxBytes) return
+
+            val previous = entries.put(key, Entry(value, weight))
+            this.weight += weight - (previous?.weight ?: 0)
+            evictIfNeeded()
+        }
+
+        private fun evictIfNeeded() {
+            val iterator = entries.values.iterator()
+            while (weight > maxBytes && iterator.hasNext()) {
+                weight -= iterator.next().weight
+                iterator.remove()
+                evictions++
+            }
+        }
+    }
+
+    companion object {
+        const val DEFAULT_MAX_BYTES = 16L * 1024 * 1024
+
+        // Rough estimate of the memory retained by a parsed instruction, including labels, frames and line numbers
+        private const val INSTRUCTION_WEIGHT = 48L
+        private const val METHOD_WEIGHT = 256L
+
+        @Volatile
+        private var sharedMaxBytes = DEFAULT_MAX_BYTES
+
+        private val sharedStorage by lazy { Storage(sharedMaxBytes) }
+
+        /**
+         * Sets the size of the storage shared by all compilations in this process, e.g. from the options of the daemon.
+         * The size is fixed when the storage is first used, so this should be called before any compilation.
+         */
+        @JvmStatic
+        fun configureShared(maxBytes: Long) {
+            sharedMaxBytes = maxBytes
+        }
 
-inline fun <K, V> SLRUMap<K, V>.getOrPut(key: K, defaultValue: () -> V): V {
-    val value = get(key)
-    return if (value == null) {
-        val answer = defaultValue()
-        put(key, answer)
-        answer
-    } else {
-        value
+        /**
+         * Creates a cache backed by the storage shared by all compilations in this process, see [configureShared].
+         */
+        @JvmStatic
+        fun shared(): InlineCache = InlineCache(sharedStorage)
     }
 }
@@ -5,6 +5,7 @@
 
 package org.jetbrains.kotlin.codegen.inline
 
+import com.intellij.openapi.vfs.VirtualFile
 import com.intellij.psi.PsiElement
 import com.intellij.util.ArrayUtil
 import org.jetbrains.kotlin.builtins.KotlinBuiltIns
@@ -19,6 +20,7 @@ import org.jetbrains.kotlin.codegen.state.GenerationState
 import org.jetbrains.kotlin.codegen.state.KotlinTypeMapper
 import org.jetbrains.kotlin.config.isReleaseCoroutines
 import org.jetbrains.kotlin.descriptors.*
+import org.jetbrains.kotlin.name.ClassId
 import org.jetbrains.kotlin.name.Name
 import org.jetbrains.kotlin.psi.KtCallableReferenceExpression
 import org.jetbrains.kotlin.psi.KtExpression
@@ -549,23 +551,31 @@ abstract class InlineCodegen<out T : BaseExpressionCodegen>(
             else
                 mangleSuspendInlineFunctionAsmMethodIfNeeded(functionDescriptor, jvmSignature.asmMethod)
 
-            val owner = state.typeMapper.mapImplementationOwner(functionDescriptor)
-            val methodId = MethodId(owner.internalName, asmMethod)
             val directMember = getDirectMemberAndCallableFromObject(functionDescriptor)
-            if (!isBuiltInArrayIntrinsic(functionDescriptor) && directMember !is DeserializedCallableMemberDescriptor) {
+            if (isBuiltInArrayIntrinsic(directMember)) {
+                return createArrayIntrinsicMethodNode(directMember, asmMethod)
+            }
+            if (directMember !is DeserializedCallableMemberDescriptor) {
                 return sourceCompilerForInline.doCreateMethodNodeFromSource(functionDescriptor, jvmSignature, callDefault, asmMethod)
             }
 
-            val resultInCache = state.inlineCache.methodNodeById.getOrPut(methodId) {
-                val result = doCreateMethodNodeFromCompiled(directMember, state, asmMethod)
+            val containerId = KotlinTypeMapper.getContainingClassesForDeserializedCallable(directMember).implClassId
+            val resultInCache = state.inlineCache.getMethodNode(
+                containerId, asmMethod,
+                findFile = {
+                    findVirtualFile(state, containerId) ?: throw IllegalStateException("Couldn't find declaration file for " + containerId)
+                }
+            ) { containerFile ->
+                doCreateMethodNodeFromCompiled(directMember, state, containerFile, containerId, asmMethod)
                     ?: if (functionDescriptor.isSuspend)
-                        doCreateMethodNodeFromCompiled(directMember, state, jvmSignature.asmMethod)
+                        doCreateMethodNodeFromCompiled(directMember, state, containerFile, containerId, jvmSignature.asmMethod)
                     else
                         null
-                result ?: throw IllegalStateException("Couldn't obtain compiled function body for $functionDescriptor")
-            }
+            } ?: throw IllegalStateException("Couldn't obtain compiled function body for $functionDescriptor")
 
-            return resultInCache.copyWithNewNode(cloneMethodNode(resultInCache.node))
+            // The cached node may be used by several threads (see GenerationState.parallelBackendThreads), and cloning resets its labels
+            val node = synchronized(resultInCache.node) { cloneMethodNode(resultInCache.node) }
+            return resultInCache.copyWithNewNode(node)
         }
 
         private fun createDefaultFakeSMAP() = SMAPParser.parseOrCreateDefault(null, null, "fake", -1, -1)
@@ -591,32 +601,24 @@ abstract class InlineCodegen<out T : BaseExpressionCodegen>(
             ).also(methodNode::accept)
         }
 
+        private fun createArrayIntrinsicMethodNode(callableDescriptor: CallableMemberDescriptor, asmMethod: Method): SMAPAndMethodNode {
+            val body = when {
+                callableDescriptor is FictitiousArrayConstructor -> IntrinsicArrayConstructors.generateArrayConstructorBody(asmMethod)
+                callableDescriptor.name.asString() == "emptyArray" -> IntrinsicArrayConstructors.generateEmptyArrayBody(asmMethod)
+                callableDescriptor.name.asString() == "arrayOf" -> IntrinsicArrayConstructors.generateArrayOfBody(asmMethod)
+                else -> throw UnsupportedOperationException("Not an array intrinsic: $callableDescriptor")
+            }
+            return SMAPAndMethodNode(body, SMAP(listOf(FileMapping.SKIP)))
+        }
+
         private fun doCreateMethodNodeFromCompiled(
-            callableDescriptor: CallableMemberDescriptor,
+            callableDescriptor: DeserializedCallableMemberDescriptor,
             state: GenerationState,
+            containerFile: VirtualFile,
+            containerId: ClassId,
             asmMethod: Method
         ): SMAPAndMethodNode? {
-            if (isBuiltInArrayIntrinsic(callableDescriptor)) {
-                val body = when {
-                    callableDescriptor is FictitiousArrayConstructor -> IntrinsicArrayConstructors.generateArrayConstructorBody(asmMethod)
-                    callableDescriptor.name.asString() == "emptyArray" -> IntrinsicArrayConstructors.generateEmptyArrayBody(asmMethod)
-                    callableDescriptor.name.asString() == "arrayOf" -> IntrinsicArrayConstructors.generateArrayOfBody(asmMethod)
-                    else -> throw UnsupportedOperationException("Not an array intrinsic: $callableDescriptor")
-                }
-                return SMAPAndMethodNode(body, SMAP(listOf(FileMapping.SKIP)))
-            }
-
-            assert(callableDescriptor is DeserializedCallableMemberDescriptor) { "Not a deserialized function or proper: " + callableDescriptor }
-
-            val containingClasses =
-                KotlinTypeMapper.getContainingClassesForDeserializedCallable(callableDescriptor as DeserializedCallableMemberDescriptor)
-
-            val containerId = containingClasses.implClassId
-
-            val bytes = state.inlineCache.classBytes.getOrPut(containerId) {
-                findVirtualFile(state, containerId)?.contentsToByteArray()
-                    ?: throw IllegalStateException("Couldn't find declaration file for " + containerId)
-            }
+            val bytes = state.inlineCache.getClassBytes(containerFile)
 
             val methodNode =
                 getMethodNode(bytes, asmMethod.name, asmMethod.descriptor, AsmUtil.asmTypeByClassId(containerId)) ?: return null
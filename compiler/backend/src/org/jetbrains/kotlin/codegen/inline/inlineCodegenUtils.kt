@@ -344,7 +344,7 @@ internal fun buildClassReaderByInternalName(state: GenerationState, internalName
 
     val file = findVirtualFileImprecise(state, internalName) ?: throw RuntimeException("Couldn't find virtual file for " + internalName)
 
-    return ClassReader(file.contentsToByteArray())
+    return ClassReader(state.inlineCache.getClassBytes(file))
 }
 
 fun generateFinallyMarker(v: InstructionAdapter, depth: Int, start: Boolean) {
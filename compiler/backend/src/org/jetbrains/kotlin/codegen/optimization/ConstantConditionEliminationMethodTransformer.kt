@@ -18,6 +18,7 @@ package org.jetbrains.kotlin.codegen.optimization
 
 import org.jetbrains.kotlin.codegen.inline.insnText
 import org.jetbrains.kotlin.codegen.optimization.common.OptimizationBasicInterpreter
+import org.jetbrains.kotlin.codegen.optimization.common.SparseFramesMethodAnalyzer
 import org.jetbrains.kotlin.codegen.optimization.common.StrictBasicValue
 import org.jetbrains.kotlin.codegen.optimization.fixStack.peek
 import org.jetbrains.kotlin.codegen.optimization.fixStack.top
@@ -30,17 +31,36 @@ import org.jetbrains.org.objectweb.asm.tree.*
 import org.jetbrains.org.objectweb.asm.tree.analysis.BasicValue
 import org.jetbrains.org.objectweb.asm.tree.analysis.Frame
 
-class ConstantConditionEliminationMethodTransformer : MethodTransformer() {
+/**
+ * If [checkCastElimination] is specified, it's performed before the first iteration using the same frames,
+ * because constant propagation computes the same types of values as [OptimizationBasicInterpreter].
+ */
+class ConstantConditionEliminationMethodTransformer(
+    private val checkCastElimination: RedundantCheckCastEliminationMethodTransformer? = null
+) : MethodTransformer() {
     private val deadCodeElimination = DeadCodeEliminationMethodTransformer()
 
     override fun transform(internalClassName: String, methodNode: MethodNode) {
+        var firstIteration = true
         do {
-            val changes = ConstantConditionsOptimization(internalClassName, methodNode).run()
+            val frames = SparseFramesMethodAnalyzer(internalClassName, methodNode, ConstantPropagationInterpreter()) {
+                isIntComparison(it) || firstIteration && checkCastElimination?.isCheckCast(it) == true
+            }.analyze()
+
+            if (firstIteration) {
+                checkCastElimination?.removeRedundantCheckCasts(methodNode, frames)
+                firstIteration = false
+            }
+
+            val changes = ConstantConditionsOptimization(methodNode, frames).run()
             if (changes) deadCodeElimination.transform(internalClassName, methodNode)
         } while (changes)
     }
 
-    private class ConstantConditionsOptimization(val internalClassName: String, val methodNode: MethodNode) {
+    private fun isIntComparison(insn: AbstractInsnNode) =
+        insn.opcode in Opcodes.IFEQ..Opcodes.IFLE || insn.opcode in Opcodes.IF_ICMPEQ..Opcodes.IF_ICMPLE
+
+    private class ConstantConditionsOptimization(val methodNode: MethodNode, val frames: Map<AbstractInsnNode, Frame<BasicValue>>) {
         fun run(): Boolean {
             val actions = collectRewriteActions()
             actions.forEach { it() }
@@ -49,11 +69,9 @@ class ConstantConditionEliminationMethodTransformer : MethodTransformer() {
 
         private fun collectRewriteActions(): List<() -> Unit> =
             arrayListOf<() -> Unit>().also { actions ->
-                val frames = analyze(internalClassName, methodNode, ConstantPropagationInterpreter())
-                val insns = methodNode.instructions.toArray()
-                for (i in frames.indices) {
-                    val frame = frames[i] ?: continue
-                    val insn = insns[i] as? JumpInsnNode ?: continue
+                for (insn in methodNode.instructions.toArray()) {
+                    if (insn !is JumpInsnNode) continue
+                    val frame = frames[insn] ?: continue
                     when (insn.opcode) {
                         in Opcodes.IFEQ..Opcodes.IFLE ->
                             tryRewriteComparisonWithZero(insn, frame, actions)
@@ -17,13 +17,10 @@
 package org.jetbrains.kotlin.codegen.optimization
 
 import org.jetbrains.kotlin.codegen.inline.remove
-import org.jetbrains.kotlin.codegen.optimization.common.OptimizationBasicInterpreter
 import org.jetbrains.kotlin.codegen.optimization.common.removeEmptyCatchBlocks
 import org.jetbrains.kotlin.codegen.optimization.transformer.MethodTransformer
-import org.jetbrains.org.objectweb.asm.tree.AbstractInsnNode
-import org.jetbrains.org.objectweb.asm.tree.LabelNode
-import org.jetbrains.org.objectweb.asm.tree.LineNumberNode
-import org.jetbrains.org.objectweb.asm.tree.MethodNode
+import org.jetbrains.org.objectweb.asm.Opcodes
+import org.jetbrains.org.objectweb.asm.tree.*
 
 class DeadCodeEliminationMethodTransformer : MethodTransformer() {
     override fun transform(internalClassName: String, methodNode: MethodNode) {
@@ -31,17 +28,18 @@ class DeadCodeEliminationMethodTransformer : MethodTransformer() {
     }
 
     fun transformWithResult(internalClassName: String, methodNode: MethodNode): Result {
-        val frames = analyze(internalClassName, methodNode, OptimizationBasicInterpreter())
-        return removeDeadCodeByFrames(methodNode, frames)
+        // Instructions are live if they are reachable, so there's no need to compute frames for them
+        val reachable = findReachableInstructions(methodNode)
+        return removeDeadCode(methodNode) { reachable[it] }
     }
 
-    fun removeDeadCodeByFrames(methodNode: MethodNode, frames: Array<out Any?>): Result {
+    private fun removeDeadCode(methodNode: MethodNode, isLive: (Int) -> Boolean): Result {
         val insnsToRemove = ArrayList<AbstractInsnNode>()
 
         val insns = methodNode.instructions.toArray()
         for (i in insns.indices) {
             val insn = insns[i]
-            if (shouldRemove(insn, i, frames)) {
+            if (shouldRemove(insn, i, isLive)) {
                 insnsToRemove.add(insn)
             }
         }
@@ -54,18 +52,18 @@ class DeadCodeEliminationMethodTransformer : MethodTransformer() {
         return Result(insnsToRemove.toSet())
     }
 
-    private fun shouldRemove(insn: AbstractInsnNode, index: Int, frames: Array<out Any?>): Boolean =
+    private fun shouldRemove(insn: AbstractInsnNode, index: Int, isLive: (Int) -> Boolean): Boolean =
         when (insn) {
             is LabelNode ->
                 // Do not remove label nodes because they can be referred by try/catch blocks or local variables table
                 false
             is LineNumberNode ->
-                isDeadLineNumber(insn, index, frames)
+                isDeadLineNumber(insn, index, isLive)
             else ->
-                frames[index] == null
+                !isLive(index)
         }
 
-    private fun isDeadLineNumber(insn: LineNumberNode, index: Int, frames: Array<out Any?>): Boolean {
+    private fun isDeadLineNumber(insn: LineNumberNode, index: Int, isLive: (Int) -> Boolean): Boolean {
         // Line number node is "dead" if the corresponding line number interval
         // contains at least one "dead" meaningful instruction and no "live" meaningful instructions.
         var finger: AbstractInsnNode = insn
@@ -80,7 +78,7 @@ class DeadCodeEliminationMethodTransformer : MethodTransformer() {
                 is LineNumberNode ->
                     if (finger.line != insn.line) return hasDeadInsn
                 else -> {
-                    if (frames[fingerIndex] != null) return false
+                    if (isLive(fingerIndex)) return false
                     hasDeadInsn = true
                 }
             }
@@ -88,6 +86,54 @@ class DeadCodeEliminationMethodTransformer : MethodTransformer() {
         return true
     }
 
+    private fun findReachableInstructions(methodNode: MethodNode): BooleanArray {
+        val instructions = methodNode.instructions
+        val reachable = BooleanArray(instructions.size())
+        if (reachable.isEmpty()) return reachable
+
+        val handlers = arrayOfNulls<MutableList<LabelNode>>(reachable.size)
+        for (tcb in methodNode.tryCatchBlocks) {
+            for (i in instructions.indexOf(tcb.start) until instructions.indexOf(tcb.end)) {
+                (handlers[i] ?: ArrayList<LabelNode>().also { handlers[i] = it }).add(tcb.handler)
+            }
+        }
+
+        val queue = IntArray(reachable.size)
+        var top = 0
+
+        fun visit(index: Int) {
+            if (index < reachable.size && !reachable[index]) {
+                reachable[index] = true
+                queue[top++] = index
+            }
+        }
+
+        visit(0)
+        while (top > 0) {
+            val index = queue[--top]
+            val insn = instructions[index]
+            handlers[index]?.forEach { visit(instructions.indexOf(it)) }
+
+            when (insn) {
+                is JumpInsnNode -> {
+                    visit(instructions.indexOf(insn.label))
+                    if (insn.opcode != Opcodes.GOTO) visit(index + 1)
+                }
+                is TableSwitchInsnNode -> {
+                    visit(instructions.indexOf(insn.dflt))
+                    insn.labels.forEach { visit(instructions.indexOf(it)) }
+                }
+                is LookupSwitchInsnNode -> {
+                    visit(instructions.indexOf(insn.dflt))
+                    insn.labels.forEach { visit(instructions.indexOf(it)) }
+                }
+                else ->
+                    if (insn.opcode != Opcodes.ATHROW && insn.opcode !in Opcodes.IRETURN..Opcodes.RETURN) visit(index + 1)
+            }
+        }
+        return reachable
+    }
+
     class Result(private val removedNodes: Set<AbstractInsnNode>) {
         fun hasRemovedAnything() = removedNodes.isNotEmpty()
         fun isRemoved(node: AbstractInsnNode) = removedNodes.contains(node)
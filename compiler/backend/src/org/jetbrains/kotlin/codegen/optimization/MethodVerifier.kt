@@ -16,6 +16,7 @@
 
 package org.jetbrains.kotlin.codegen.optimization
 
+import org.jetbrains.kotlin.codegen.optimization.common.SparseFramesMethodAnalyzer
 import org.jetbrains.kotlin.codegen.optimization.transformer.MethodTransformer
 import org.jetbrains.org.objectweb.asm.tree.MethodNode
 import org.jetbrains.org.objectweb.asm.tree.analysis.BasicVerifier
@@ -23,7 +24,8 @@ import org.jetbrains.org.objectweb.asm.tree.analysis.BasicVerifier
 class MethodVerifier(private val checkPoint: String) : MethodTransformer() {
     override fun transform(internalClassName: String, methodNode: MethodNode) {
         try {
-            analyze(internalClassName, methodNode, BasicVerifier())
+            // Frames are not needed, so verify the method without storing a frame for each instruction
+            SparseFramesMethodAnalyzer(internalClassName, methodNode, BasicVerifier()).analyze()
         } catch (e: Throwable) {
             throw AssertionError("$checkPoint: incorrect bytecode", e)
         }
@@ -44,14 +44,19 @@ class OptimizationMethodVisitor(
         MethodVerifier("AFTER mandatory stack transformations")
     )
 
-    val optimizationTransformer = CompositeMethodTransformer(
-        CapturedVarsOptimizationMethodTransformer(),
-        RedundantNullCheckMethodTransformer(generationState),
-        RedundantCheckCastEliminationMethodTransformer(),
-        ConstantConditionEliminationMethodTransformer(),
-        RedundantBoxingMethodTransformer(generationState),
+    val optimizationTransformer = createOptimizationTransformer(withFullFramesAnalysis = true)
+
+    // Transformers which need a frame for each instruction are skipped for methods too large for such analysis
+    val largeMethodOptimizationTransformer = createOptimizationTransformer(withFullFramesAnalysis = false)
+
+    private fun createOptimizationTransformer(withFullFramesAnalysis: Boolean) = CompositeMethodTransformer(
+        if (withFullFramesAnalysis) CapturedVarsOptimizationMethodTransformer() else null,
+        if (withFullFramesAnalysis) RedundantNullCheckMethodTransformer(generationState) else null,
+        // Redundant casts are removed using the constant propagation frames
+        ConstantConditionEliminationMethodTransformer(RedundantCheckCastEliminationMethodTransformer()),
+        if (withFullFramesAnalysis) RedundantBoxingMethodTransformer(generationState) else null,
         StackPeepholeOptimizationsTransformer(),
-        PopBackwardPropagationTransformer(),
+        if (withFullFramesAnalysis) PopBackwardPropagationTransformer() else null,
         DeadCodeEliminationMethodTransformer(),
         RedundantGotoMethodTransformer(),
         RedundantNopsCleanupMethodTransformer(),
@@ -62,8 +67,12 @@ class OptimizationMethodVisitor(
         normalizationMethodTransformer.transform("fake", methodNode)
         constructorCallNormalizationTransformer.transform("fake", methodNode)
 
-        if (canBeOptimized(methodNode) && !generationState.disableOptimization) {
-            optimizationTransformer.transform("fake", methodNode)
+        if (!generationState.disableOptimization) {
+            if (canBeOptimized(methodNode)) {
+                optimizationTransformer.transform("fake", methodNode)
+            } else {
+                largeMethodOptimizationTransformer.transform("fake", methodNode)
+            }
         }
 
         DeadCodeEliminationMethodTransformer().transform("fake", methodNode)
@@ -18,38 +18,46 @@ package org.jetbrains.kotlin.codegen.optimization
 
 import org.jetbrains.kotlin.codegen.inline.ReifiedTypeInliner
 import org.jetbrains.kotlin.codegen.optimization.common.OptimizationBasicInterpreter
+import org.jetbrains.kotlin.codegen.optimization.common.SparseFramesMethodAnalyzer
 import org.jetbrains.kotlin.codegen.optimization.fixStack.top
 import org.jetbrains.kotlin.codegen.optimization.transformer.MethodTransformer
 import org.jetbrains.org.objectweb.asm.Opcodes
 import org.jetbrains.org.objectweb.asm.Type
+import org.jetbrains.org.objectweb.asm.tree.AbstractInsnNode
 import org.jetbrains.org.objectweb.asm.tree.MethodNode
 import org.jetbrains.org.objectweb.asm.tree.TypeInsnNode
+import org.jetbrains.org.objectweb.asm.tree.analysis.BasicValue
+import org.jetbrains.org.objectweb.asm.tree.analysis.Frame
 
 class RedundantCheckCastEliminationMethodTransformer : MethodTransformer() {
     override fun transform(internalClassName: String, methodNode: MethodNode) {
-        val insns = methodNode.instructions.toArray()
-        if (!insns.any { it.opcode == Opcodes.CHECKCAST }) return
+        if (!methodNode.instructions.toArray().any(::isCheckCast)) return
 
+        val frames = SparseFramesMethodAnalyzer(internalClassName, methodNode, OptimizationBasicInterpreter(), ::isCheckCast).analyze()
+        removeRedundantCheckCasts(methodNode, frames)
+    }
+
+    /**
+     * Removes the casts of values which are known to have the target type.
+     * [frames] should contain frames computed by [OptimizationBasicInterpreter] or its subclass before each reachable CHECKCAST,
+     * this allows [ConstantConditionEliminationMethodTransformer] to share its analysis with this transformer.
+     */
+    fun removeRedundantCheckCasts(methodNode: MethodNode, frames: Map<AbstractInsnNode, Frame<BasicValue>>) {
         val redundantCheckCasts = ArrayList<TypeInsnNode>()
 
-        val frames = analyze(internalClassName, methodNode, OptimizationBasicInterpreter())
-        for (i in insns.indices) {
-            val valueType = frames[i]?.top()?.type ?: continue
-            val insn = insns[i]
+        for (insn in methodNode.instructions.toArray()) {
+            if (!isCheckCast(insn)) continue
+            val valueType = frames[insn]?.top()?.type ?: continue
             if (ReifiedTypeInliner.isOperationReifiedMarker(insn.previous)) continue
 
-            if (insn is TypeInsnNode) {
-                val insnType = Type.getObjectType(insn.desc)
-                if (!isTrivialSubtype(insnType, valueType)) continue
+            val insnType = Type.getObjectType((insn as TypeInsnNode).desc)
+            if (!isTrivialSubtype(insnType, valueType)) continue
 
-                //Keep casts to multiarray types cause dex doesn't recognize ANEWARRAY [Ljava/lang/Object; as Object [][], but Object [] type
-                //It's not clear is it bug in dex or not and maybe best to distinguish such types from MULTINEWARRRAY ones in method analyzer
-                if (isMultiArrayType(insnType)) continue
+            //Keep casts to multiarray types cause dex doesn't recognize ANEWARRAY [Ljava/lang/Object; as Object [][], but Object [] type
+            //It's not clear is it bug in dex or not and maybe best to distinguish such types from MULTINEWARRRAY ones in method analyzer
+            if (isMultiArrayType(insnType)) continue
 
-                if (insn.opcode == Opcodes.CHECKCAST) {
-                    redundantCheckCasts.add(insn)
-                }
-            }
+            redundantCheckCasts.add(insn)
         }
 
         redundantCheckCasts.forEach {
@@ -57,6 +65,8 @@ class RedundantCheckCastEliminationMethodTransformer : MethodTransformer() {
         }
     }
 
+    fun isCheckCast(insn: AbstractInsnNode) = insn.opcode == Opcodes.CHECKCAST
+
     private fun isTrivialSubtype(superType: Type, subType: Type) =
         superType == subType
 
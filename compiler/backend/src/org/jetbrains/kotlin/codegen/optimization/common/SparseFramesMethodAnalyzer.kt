@@ -0,0 +1,232 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.codegen.optimization.common
+
+import org.jetbrains.kotlin.codegen.inline.insnText
+import org.jetbrains.org.objectweb.asm.Opcodes
+import org.jetbrains.org.objectweb.asm.Type
+import org.jetbrains.org.objectweb.asm.tree.*
+import org.jetbrains.org.objectweb.asm.tree.analysis.AnalyzerException
+import org.jetbrains.org.objectweb.asm.tree.analysis.Frame
+import org.jetbrains.org.objectweb.asm.tree.analysis.Interpreter
+import org.jetbrains.org.objectweb.asm.tree.analysis.Value
+
+/**
+ * Computes the same frames as [MethodAnalyzer], but stores them only at the entries of basic blocks during the analysis,
+ * and returns the frames only for the instructions accepted by [keepFrame].
+ *
+ * The frames inside a basic block are obtained by executing the block from its entry frame,
+ * so the memory footprint is proportional to the number of basic blocks rather than to the number of instructions.
+ * This allows to analyze methods which are too large to be analyzed by [MethodAnalyzer] (see OptimizationMethodVisitor.canBeOptimized).
+ *
+ * Instructions may be executed more than once, so [interpreter] is not supposed to record anything while executing them.
+ */
+class SparseFramesMethodAnalyzer<V : Value>(
+    private val owner: String,
+    private val method: MethodNode,
+    private val interpreter: Interpreter<V>,
+    private val keepFrame: (AbstractInsnNode) -> Boolean = { false }
+) {
+    private val insns: Array<AbstractInsnNode> = method.instructions.toArray()
+    private val nInsns: Int = insns.size
+
+    private val isBlockStart: BooleanArray = BooleanArray(nInsns)
+    private val entryFrames: Array<Frame<V>?> = arrayOfNulls(nInsns)
+
+    private val handlers: Array<MutableList<TryCatchBlockNode>?> = arrayOfNulls(nInsns)
+    private val queued: BooleanArray = BooleanArray(nInsns)
+    private val queue: IntArray = IntArray(nInsns)
+    private var top: Int = 0
+
+    /**
+     * Returns the frames before the instructions accepted by [keepFrame]. Unreachable instructions have no frames.
+     */
+    fun analyze(): Map<AbstractInsnNode, Frame<V>> {
+        if (nInsns == 0) return emptyMap()
+
+        if (insns.any { it.opcode == Opcodes.JSR || it.opcode == Opcodes.RET })
+            throw AssertionError("Subroutines are deprecated since Java 6")
+
+        computeExceptionHandlersForEachInsn()
+        computeBlockStarts()
+
+        val current = Frame<V>(method.maxLocals, method.maxStack)
+        val handler = Frame<V>(method.maxLocals, method.maxStack)
+        initControlFlowAnalysis(current)
+
+        while (top > 0) {
+            val block = queue[--top]
+            queued[block] = false
+            executeBlock(block, current, handler, null)
+        }
+
+        val result = HashMap<AbstractInsnNode, Frame<V>>()
+        if (insns.any(keepFrame)) {
+            for (block in 0 until nInsns) {
+                if (entryFrames[block] != null) {
+                    executeBlock(block, current, handler, result)
+                }
+            }
+        }
+        return result
+    }
+
+    // If 'result' is not null, the block is executed with its final entry frame to collect the frames, and successors are not updated
+    private fun executeBlock(block: Int, current: Frame<V>, handler: Frame<V>, result: MutableMap<AbstractInsnNode, Frame<V>>?) {
+        current.init(entryFrames[block]!!)
+
+        var insn = block
+        while (true) {
+            val insnNode = insns[insn]
+            try {
+                if (result != null) {
+                    if (keepFrame(insnNode)) {
+                        result[insnNode] = Frame(current)
+                    }
+                } else {
+                    handlers[insn]?.forEach { tcb ->
+                        val exnType = Type.getObjectType(tcb.type ?: "java/lang/Throwable")
+                        handler.init(current)
+                        handler.clearStack()
+                        handler.push(interpreter.newValue(exnType))
+                        mergeControlFlowEdge(method.instructions.indexOf(tcb.handler), handler)
+                    }
+                }
+
+                val insnType = insnNode.type
+                if (insnType != AbstractInsnNode.LABEL && insnType != AbstractInsnNode.LINE && insnType != AbstractInsnNode.FRAME) {
+                    current.execute(insnNode, interpreter)
+
+                    if (executeJumps(insnNode, current, result == null)) return
+                }
+            } catch (e: AnalyzerException) {
+                throw AnalyzerException(e.node, "Error at instruction #$insn ${insnNode.insnText}: ${e.message}", e)
+            } catch (e: Exception) {
+                throw AnalyzerException(insnNode, "Error at instruction #$insn ${insnNode.insnText}: ${e.message}", e)
+            }
+
+            val next = insn + 1
+            if (next == nInsns) throw AnalyzerException(insnNode, "Execution can fall off the end of the code")
+
+            if (isBlockStart[next]) {
+                if (result == null) mergeControlFlowEdge(next, current)
+                return
+            }
+            insn = next
+        }
+    }
+
+    // Returns true if the instruction doesn't pass control to the next one unconditionally
+    private fun executeJumps(insnNode: AbstractInsnNode, current: Frame<V>, updateSuccessors: Boolean): Boolean {
+        val opcode = insnNode.opcode
+        when (insnNode) {
+            is JumpInsnNode -> {
+                if (updateSuccessors) {
+                    mergeControlFlowEdge(method.instructions.indexOf(insnNode.label), current)
+                }
+                return opcode == Opcodes.GOTO
+            }
+            is TableSwitchInsnNode -> {
+                if (updateSuccessors) {
+                    mergeControlFlowEdge(method.instructions.indexOf(insnNode.dflt), current)
+                    insnNode.labels.forEach { mergeControlFlowEdge(method.instructions.indexOf(it), current) }
+                }
+                return true
+            }
+            is LookupSwitchInsnNode -> {
+                if (updateSuccessors) {
+                    mergeControlFlowEdge(method.instructions.indexOf(insnNode.dflt), current)
+                    insnNode.labels.forEach { mergeControlFlowEdge(method.instructions.indexOf(it), current) }
+                }
+                return true
+            }
+            else ->
+                return opcode == Opcodes.ATHROW || opcode in Opcodes.IRETURN..Opcodes.RETURN
+        }
+    }
+
+    private fun computeBlockStarts() {
+        isBlockStart[0] = true
+
+        fun markBlockStart(index: Int) {
+            if (index < nInsns) isBlockStart[index] = true
+        }
+
+        for (i in insns.indices) {
+            val insn = insns[i]
+            when (insn) {
+                is JumpInsnNode -> {
+                    markBlockStart(method.instructions.indexOf(insn.label))
+                    markBlockStart(i + 1)
+                }
+                is TableSwitchInsnNode -> {
+                    markBlockStart(method.instructions.indexOf(insn.dflt))
+                    insn.labels.forEach { markBlockStart(method.instructions.indexOf(it)) }
+                    markBlockStart(i + 1)
+                }
+                is LookupSwitchInsnNode -> {
+                    markBlockStart(method.instructions.indexOf(insn.dflt))
+                    insn.labels.forEach { markBlockStart(method.instructions.indexOf(it)) }
+                    markBlockStart(i + 1)
+                }
+                else -> {
+                    if (insn.opcode == Opcodes.ATHROW || insn.opcode in Opcodes.IRETURN..Opcodes.RETURN) {
+                        markBlockStart(i + 1)
+                    }
+                }
+            }
+        }
+
+        for (tcb in method.tryCatchBlocks) {
+            markBlockStart(method.instructions.indexOf(tcb.handler))
+        }
+    }
+
+    private fun computeExceptionHandlersForEachInsn() {
+        for (tcb in method.tryCatchBlocks) {
+            val begin = method.instructions.indexOf(tcb.start)
+            val end = method.instructions.indexOf(tcb.end)
+            for (j in begin until end) {
+                val insnHandlers = handlers[j] ?: ArrayList<TryCatchBlockNode>().also { handlers[j] = it }
+                insnHandlers.add(tcb)
+            }
+        }
+    }
+
+    private fun initControlFlowAnalysis(current: Frame<V>) {
+        current.setReturn(interpreter.newValue(Type.getReturnType(method.desc)))
+        val args = Type.getArgumentTypes(method.desc)
+        var local = 0
+        if ((method.access and Opcodes.ACC_STATIC) == 0) {
+            current.setLocal(local++, interpreter.newValue(Type.getObjectType(owner)))
+        }
+        for (arg in args) {
+            current.setLocal(local++, interpreter.newValue(arg))
+            if (arg.size == 2) {
+                current.setLocal(local++, interpreter.newValue(null))
+            }
+        }
+        while (local < method.maxLocals) {
+            current.setLocal(local++, interpreter.newValue(null))
+        }
+        mergeControlFlowEdge(0, current)
+    }
+
+    private fun mergeControlFlowEdge(insn: Int, frame: Frame<V>) {
+        val oldFrame = entryFrames[insn]
+        val changes =
+            if (oldFrame != null)
+                oldFrame.merge(frame, interpreter)
+            else {
+                entryFrames[insn] = Frame(frame)
+                true
+            }
+        if (changes && !queued[insn]) {
+            queued[insn] = true
+            queue[top++] = insn
+        }
+    }
+}
@@ -60,11 +60,13 @@ class BuilderFactoryForDuplicateSignatureDiagnostics(
     )
     private val reportDiagnosticsTasks = ArrayList<() -> Unit>()
 
+    @Synchronized
     fun reportDiagnostics() {
         reportDiagnosticsTasks.forEach { it() }
         reportDiagnosticsTasks.clear()
     }
 
+    @Synchronized
     override fun handleClashingSignatures(data: ConflictingJvmDeclarationsData) {
         reportDiagnosticsTasks.add { reportConflictingJvmSignatures(data) }
     }
@@ -93,6 +95,7 @@ class BuilderFactoryForDuplicateSignatureDiagnostics(
         }
     }
 
+    @Synchronized
     override fun onClassDone(
             classOrigin: JvmDeclarationOrigin,
             classInternalName: String,
@@ -135,7 +135,12 @@ class GenerationState private constructor(
         }
     }
 
-    val inlineCache: InlineCache = InlineCache()
+    // The size of the shared cache is configured once per process, see InlineCache.configureShared
+    val inlineCache: InlineCache =
+        if (configuration.getBoolean(JVMConfigurationKeys.SHARE_INLINE_CACHE))
+            InlineCache.shared()
+        else
+            InlineCache(configuration.get(JVMConfigurationKeys.INLINE_CACHE_SIZE)?.let { it * 1024L * 1024L } ?: InlineCache.DEFAULT_MAX_BYTES)
 
     val incrementalCacheForThisTarget: IncrementalCache?
     val packagesWithObsoleteParts: Set<FqName>
@@ -168,8 +173,26 @@ class GenerationState private constructor(
         }
     }
 
+    /**
+     * Number of threads in which [DefaultCodegenFactory] generates different packages and multifile classes.
+     * Parallel generation is only supported in the old backend with full class builder mode.
+     */
+    val parallelBackendThreads: Int = run {
+        val threads = configuration.get(JVMConfigurationKeys.PARALLEL_BACKEND_THREADS, 1)
+        when {
+            builderFactory.classBuilderMode != ClassBuilderMode.FULL -> 1
+            configuration.getBoolean(JVMConfigurationKeys.IR) -> 1
+            configuration.get(JVMConfigurationKeys.DECLARATIONS_JSON_PATH) != null -> 1
+            threads == 0 -> Runtime.getRuntime().availableProcessors()
+            else -> threads
+        }
+    }
+
     val extraJvmDiagnosticsTrace: BindingTrace =
-        DelegatingBindingTrace(bindingContext, "For extra diagnostics in ${this::class.java}", false)
+        if (parallelBackendThreads > 1)
+            SynchronizedBindingTrace(bindingContext, "For extra diagnostics in ${this::class.java}", false)
+        else
+            DelegatingBindingTrace(bindingContext, "For extra diagnostics in ${this::class.java}", false)
     private val interceptedBuilderFactory: ClassBuilderFactory
     private var used = false
 
@@ -185,10 +208,17 @@ class GenerationState private constructor(
 
     val moduleName: String = moduleName ?: JvmCodegenUtil.getModuleName(module)
     val classBuilderMode: ClassBuilderMode = builderFactory.classBuilderMode
-    val bindingTrace: BindingTrace = DelegatingBindingTrace(
-        bindingContext, "trace in GenerationState",
-        filter = if (wantsDiagnostics) BindingTraceFilter.ACCEPT_ALL else BindingTraceFilter.NO_DIAGNOSTICS
-    )
+    val bindingTrace: BindingTrace =
+        if (parallelBackendThreads > 1)
+            SynchronizedBindingTrace(
+                bindingContext, "synchronized trace in GenerationState",
+                filter = if (wantsDiagnostics) BindingTraceFilter.ACCEPT_ALL else BindingTraceFilter.NO_DIAGNOSTICS
+            )
+        else
+            DelegatingBindingTrace(
+                bindingContext, "trace in GenerationState",
+                filter = if (wantsDiagnostics) BindingTraceFilter.ACCEPT_ALL else BindingTraceFilter.NO_DIAGNOSTICS
+            )
     val bindingContext: BindingContext = bindingTrace.bindingContext
     val mainFunctionDetector = MainFunctionDetector(bindingContext, languageVersionSettings)
     private val isIrBackend = configuration.get(JVMConfigurationKeys.IR) ?: false
@@ -292,6 +322,8 @@ class GenerationState private constructor(
     }
 
     fun afterIndependentPart() {
+        // parts generated in parallel are reported by the thread committing them, see CodegenFactory.generateInParallel
+        if (factory.isGeneratingInPartition) return
         onIndependentPartCompilationEnd(this)
     }
 
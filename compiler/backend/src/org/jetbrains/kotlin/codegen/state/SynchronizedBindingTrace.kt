@@ -0,0 +1,80 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.codegen.state
+
+import com.google.common.collect.ImmutableMap
+import org.jetbrains.kotlin.diagnostics.Diagnostic
+import org.jetbrains.kotlin.psi.KtExpression
+import org.jetbrains.kotlin.resolve.BindingContext
+import org.jetbrains.kotlin.resolve.BindingTrace
+import org.jetbrains.kotlin.resolve.BindingTraceFilter
+import org.jetbrains.kotlin.resolve.DelegatingBindingTrace
+import org.jetbrains.kotlin.resolve.diagnostics.Diagnostics
+import org.jetbrains.kotlin.types.KotlinType
+import org.jetbrains.kotlin.util.slicedMap.ReadOnlySlice
+import org.jetbrains.kotlin.util.slicedMap.WritableSlice
+
+/**
+ * Binding trace which can be shared between threads generating different packages, see [GenerationState.parallelBackendThreads].
+ * All accesses to the trace and to its binding context go through one lock, and [getKeys] returns a copy of the keys.
+ * The parent context is expected to be immutable at this point.
+ *
+ * [BindingContext.getDiagnostics] returns the live diagnostics of the trace, which should be read after the generation is finished.
+ */
+class SynchronizedBindingTrace(
+    parentContext: BindingContext,
+    name: String,
+    withParentDiagnostics: Boolean = true,
+    filter: BindingTraceFilter = BindingTraceFilter.ACCEPT_ALL
+) : BindingTrace {
+    private val delegate = DelegatingBindingTrace(parentContext, name, withParentDiagnostics, filter)
+    private val lock = Any()
+
+    private val bindingContext = object : BindingContext {
+        override fun getDiagnostics(): Diagnostics = synchronized(lock) { delegate.bindingContext.diagnostics }
+
+        override fun <K, V> get(slice: ReadOnlySlice<K, V>, key: K): V? = this@SynchronizedBindingTrace.get(slice, key)
+
+        override fun getType(expression: KtExpression): KotlinType? = this@SynchronizedBindingTrace.getType(expression)
+
+        override fun <K, V> getKeys(slice: WritableSlice<K, V>): Collection<K> = this@SynchronizedBindingTrace.getKeys(slice)
+
+        override fun addOwnDataTo(trace: BindingTrace, commitDiagnostics: Boolean) {
+            synchronized(lock) { delegate.bindingContext.addOwnDataTo(trace, commitDiagnostics) }
+        }
+
+        override fun <K, V> getSliceContents(slice: ReadOnlySlice<K, V>): ImmutableMap<K, V> =
+            synchronized(lock) { delegate.bindingContext.getSliceContents(slice) }
+    }
+
+    override fun getBindingContext(): BindingContext = bindingContext
+
+    override fun <K, V> record(slice: WritableSlice<K, V>, key: K, value: V) {
+        synchronized(lock) { delegate.record(slice, key, value) }
+    }
+
+    override fun <K> record(slice: WritableSlice<K, Boolean>, key: K) {
+        synchronized(lock) { delegate.record(slice, key) }
+    }
+
+    override fun <K, V> get(slice: ReadOnlySlice<K, V>, key: K): V? = synchronized(lock) { delegate.get(slice, key) }
+
+    override fun <K, V> getKeys(slice: WritableSlice<K, V>): Collection<K> = synchronized(lock) { delegate.getKeys(slice).toList() }
+
+    override fun getType(expression: KtExpression): KotlinType? = synchronized(lock) { delegate.getType(expression) }
+
+    override fun recordType(expression: KtExpression, type: KotlinType?) {
+        synchronized(lock) { delegate.recordType(expression, type) }
+    }
+
+    override fun report(diagnostic: Diagnostic) {
+        synchronized(lock) { delegate.report(diagnostic) }
+    }
+
+    override fun wantsDiagnostics(): Boolean = delegate.wantsDiagnostics()
+
+    override fun toString(): String = delegate.toString()
+}
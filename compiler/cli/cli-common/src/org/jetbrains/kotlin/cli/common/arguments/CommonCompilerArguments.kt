@@ -262,6 +262,19 @@ abstract class CommonCompilerArguments : CommonToolArguments() {
     )
     var profilePhases: Boolean by FreezableVar(false)
 
+    @Argument(
+        value = "-Xprofile-phases-report",
+        valueDescription = "<path>",
+        description = "Dump time and allocations of backend phases to the specified file (JSON if it ends with .json, CSV otherwise)"
+    )
+    var profilePhasesReport: String? by NullableStringFreezableVar(null)
+
+    @Argument(
+        value = "-Xprofile-phases-ir-elements",
+        description = "Also count IR elements before and after every phase in the report of -Xprofile-phases-report (slow)"
+    )
+    var profilePhasesIrElements: Boolean by FreezableVar(false)
+
     @Argument(
         value = "-Xcheck-phase-conditions",
         description = "Check pre- and postconditions on phases"
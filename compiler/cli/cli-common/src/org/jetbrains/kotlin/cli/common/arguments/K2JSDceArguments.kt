@@ -42,6 +42,13 @@ class K2JSDceArguments : CommonToolArguments() {
     )
     var printReachabilityInfo: Boolean by FreezableVar(false)
 
+    @Argument(
+            value = "-Xcache-dir",
+            valueDescription = "<path>",
+            description = "Directory where parsed inputs and information about outputs are cached between runs"
+    )
+    var cacheDirectory: String? by NullableStringFreezableVar(null)
+
     @Argument(
             value = "-dev-mode",
             description = "Development mode: don't strip out any code, just copy dependencies"
@@ -107,6 +107,29 @@ class K2JVMCompilerArguments : CommonCompilerArguments() {
     @Argument(value = "-Xno-optimize", description = "Disable optimizations")
     var noOptimize: Boolean by FreezableVar(false)
 
+    @Argument(
+        value = "-Xparallel-backend-threads",
+        valueDescription = "<N>",
+        description = "Generate class files of different packages in N parallel threads (experimental),\n" +
+                "0 means the number of available processors"
+    )
+    var parallelBackendThreads: String? by NullableStringFreezableVar(null)
+
+    @Argument(
+        value = "-Xinline-cache-size",
+        valueDescription = "<megabytes>",
+        description = "Maximum size of the cache of library class files containing inline functions,\n" +
+                "the cache shared by the compilations in the daemon is sized by its option instead"
+    )
+    var inlineCacheSize: String? by NullableStringFreezableVar(null)
+
+    @Argument(
+        value = "-Xstreaming-output",
+        description = "Write class files to the destination in background while the module is being generated,\n" +
+                "instead of keeping all of them in memory until the end of the compilation"
+    )
+    var streamingOutput: Boolean by FreezableVar(false)
+
     @Argument(
         value = "-Xnormalize-constructor-calls",
         valueDescription = "{disable|enable}",
@@ -161,9 +184,23 @@ class K2JVMCompilerArguments : CommonCompilerArguments() {
     )
     var declarationsOutputPath: String? by NullableStringFreezableVar(null)
 
+    @Argument(
+        value = "-Xdependencies-index-cache",
+        valueDescription = "<path>",
+        description = "Path to the directory where the packages and module mappings of classpath jars are cached between compilations"
+    )
+    var dependenciesIndexCache: String? by NullableStringFreezableVar(null)
+
     @Argument(value = "-Xsingle-module", description = "Combine modules for source files and binary dependencies into a single module")
     var singleModule: Boolean by FreezableVar(false)
 
+    @Argument(
+        value = "-Xconcurrent-resolve",
+        description = "Compute lazy declarations of the module under per-value locks instead of one lock,\n" +
+                "so that they can be resolved by several threads at the same time (experimental)"
+    )
+    var concurrentResolve: Boolean by FreezableVar(false)
+
     @Argument(
         value = "-Xsuppress-missing-builtins-error",
         description = "Suppress the \"cannot access built-in declaration\" error (useful with -no-stdlib)"
@@ -93,6 +93,10 @@ abstract class CLICompiler<A : CommonCompilerArguments> : CLITool<A>() {
                     performanceManager.dumpPerformanceReport(File(arguments.dumpPerf!!))
                 }
 
+                if (arguments.profilePhasesReport != null) {
+                    configuration.get(CLIConfigurationKeys.PHASE_CONFIG)?.profiler?.writeReport(File(arguments.profilePhasesReport!!))
+                }
+
                 return if (messageCollector.hasErrors()) COMPILATION_ERROR else code
             } catch (e: CompilationCanceledException) {
                 messageCollector.report(INFO, "Compilation was canceled", null)
@@ -55,6 +55,10 @@ abstract class CommonCompilerPerformanceManager(private val presentableName: Str
         measurements += CodeGenerationMeasurement(lines, files, TimeUnit.NANOSECONDS.toMillis(time), additionalDescription)
     }
 
+    open fun notifyInlineCacheUsed(hits: Long, misses: Long, evictions: Long, retainedBytes: Long) {
+        measurements += InlineCacheMeasurement(hits, misses, evictions, retainedBytes)
+    }
+
     fun dumpPerformanceReport(destination: File) {
         destination.writeBytes(createPerformanceReport())
     }
@@ -8,6 +8,7 @@ package org.jetbrains.kotlin.cli.common
 import org.jetbrains.kotlin.backend.common.phaser.AnyNamedPhase
 import org.jetbrains.kotlin.backend.common.phaser.CompilerPhase
 import org.jetbrains.kotlin.backend.common.phaser.PhaseConfig
+import org.jetbrains.kotlin.backend.common.phaser.PhaseProfiler
 import org.jetbrains.kotlin.backend.common.phaser.toPhaseMap
 import org.jetbrains.kotlin.cli.common.arguments.CommonCompilerArguments
 import org.jetbrains.kotlin.cli.common.messages.CompilerMessageSeverity
@@ -44,7 +45,8 @@ fun createPhaseConfig(
     return PhaseConfig(
         compoundPhase, phases, enabled, verbose, toDumpStateBefore, toDumpStateAfter, toValidateStateBefore, toValidateStateAfter,
         namesOfElementsExcludedFromDumping,
-        needProfiling, checkConditions, checkStickyConditions
+        needProfiling, checkConditions, checkStickyConditions,
+        profiler = if (arguments.profilePhasesReport != null) PhaseProfiler(arguments.profilePhasesIrElements) else null
     ).also {
         if (arguments.listPhases) {
             it.list()
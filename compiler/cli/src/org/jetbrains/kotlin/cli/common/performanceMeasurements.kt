@@ -40,6 +40,14 @@ class CodeGenerationMeasurement(private val files: Int, val lines: Int, private
 }
 
 
+class InlineCacheMeasurement(private val hits: Long, private val misses: Long, private val evictions: Long, private val retainedBytes: Long) :
+    PerformanceMeasurement {
+
+    override fun render(): String =
+        "INLINE CACHE: $hits hits, $misses misses, $evictions evictions, ${retainedBytes / 1024} Kb retained"
+}
+
+
 class GarbageCollectionMeasurement(private val garbageCollectionKind: String, private val milliseconds: Long) : PerformanceMeasurement {
     override fun render(): String = "GC time for $garbageCollectionKind is $milliseconds ms"
 }
@@ -163,6 +163,12 @@ public class K2JSCompiler extends CLICompiler<K2JSCompilerArguments> {
     ) {
         MessageCollector messageCollector = configuration.getNotNull(CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY);
 
+        // Backend phases are only run by the IR backends, which are not available from the JS command line
+        if (arguments.getProfilePhasesReport() != null) {
+            messageCollector.report(ERROR, "-Xprofile-phases-report is not supported by the JS compiler", null);
+            return COMPILATION_ERROR;
+        }
+
         if (arguments.getFreeArgs().isEmpty() && !IncrementalCompilation.isEnabledForJs()) {
             if (arguments.getVersion()) {
                 return OK;
@@ -80,7 +80,10 @@ class K2JSDce : CLITool<K2JSDceArguments>() {
             messageCollector.report(severity, message)
         }
 
-        val dceResult = DeadCodeElimination.run(files, includedDeclarations, logConsumer)
+        val cache = arguments.cacheDirectory?.let { DeadCodeEliminationCache(File(it)) }
+
+        // Reachability info is collected during the analysis, which must not be skipped even if the outputs are up to date
+        val dceResult = DeadCodeElimination.run(files, includedDeclarations, logConsumer, cache, arguments.printReachabilityInfo)
         if (dceResult.status == DeadCodeEliminationStatus.FAILED) return ExitCode.COMPILATION_ERROR
         val nodes = dceResult.reachableNodes.filterTo(mutableSetOf()) { it.reachable }
 
@@ -20,6 +20,9 @@ import com.intellij.openapi.vfs.VirtualFile
 import com.intellij.psi.search.GlobalSearchScope
 import org.jetbrains.kotlin.cli.jvm.index.JavaRoot
 import org.jetbrains.kotlin.cli.jvm.index.JvmDependenciesIndex
+import org.jetbrains.kotlin.cli.jvm.index.JvmDependenciesIndexSnapshot
+import org.jetbrains.kotlin.load.kotlin.KotlinBinaryClassCache
+import org.jetbrains.kotlin.load.kotlin.KotlinClassFinder
 import org.jetbrains.kotlin.load.kotlin.VirtualFileFinder
 import org.jetbrains.kotlin.name.ClassId
 import org.jetbrains.kotlin.name.FqName
@@ -30,11 +33,18 @@ import java.io.InputStream
 
 class CliVirtualFileFinder(
     private val index: JvmDependenciesIndex,
-    private val scope: GlobalSearchScope
+    private val scope: GlobalSearchScope,
+    private val snapshot: JvmDependenciesIndexSnapshot? = null
 ) : VirtualFileFinder() {
     override fun findVirtualFileWithHeader(classId: ClassId): VirtualFile? =
         findBinaryClass(classId, classId.relativeClassName.asString().replace('.', '$') + ".class")
 
+    override fun findKotlinClassOrContent(classId: ClassId): KotlinClassFinder.Result? {
+        val file = findVirtualFileWithHeader(classId) ?: return null
+        // headers of Kotlin classes in snapshotted jars are taken from the snapshot, other class files are read as usual
+        return snapshot?.getKotlinClass(file) ?: KotlinBinaryClassCache.getKotlinBinaryClassOrClassFileContent(file)
+    }
+
     override fun findMetadata(classId: ClassId): InputStream? {
         assert(!classId.isNestedClass) { "Nested classes are not supported here: $classId" }
 
@@ -62,7 +72,7 @@ class CliVirtualFileFinder(
     }
 
     private fun findBinaryClass(classId: ClassId, fileName: String): VirtualFile? =
-        index.findClass(classId, acceptedRootTypes = JavaRoot.OnlyBinary) { dir, _ ->
+        index.findClass(classId, acceptedRootTypes = JavaRoot.OnlyBinary, fileName = fileName) { dir, _ ->
             dir.findChild(fileName)?.takeIf(VirtualFile::isValid)
         }?.takeIf { it in scope }
 }
@@ -54,14 +54,7 @@ public class CompileEnvironmentUtil {
             OutputFileCollection outputFiles, OutputStream fos, @Nullable FqName mainClass, boolean includeRuntime
     ) {
         try {
-            Manifest manifest = new Manifest();
-            Attributes mainAttributes = manifest.getMainAttributes();
-            mainAttributes.putValue("Manifest-Version", "1.0");
-            mainAttributes.putValue("Created-By", "JetBrains Kotlin");
-            if (mainClass != null) {
-                mainAttributes.putValue("Main-Class", mainClass.asString());
-            }
-            JarOutputStream stream = new JarOutputStream(fos, manifest);
+            JarOutputStream stream = createJarOutputStream(fos, mainClass);
             for (OutputFile outputFile : outputFiles.asList()) {
                 stream.putNextEntry(new JarEntry(outputFile.getRelativePath()));
                 stream.write(outputFile.asByteArray());
@@ -76,6 +69,18 @@ public class CompileEnvironmentUtil {
         }
     }
 
+    @NotNull
+    static JarOutputStream createJarOutputStream(@NotNull OutputStream fos, @Nullable FqName mainClass) throws IOException {
+        Manifest manifest = new Manifest();
+        Attributes mainAttributes = manifest.getMainAttributes();
+        mainAttributes.putValue("Manifest-Version", "1.0");
+        mainAttributes.putValue("Created-By", "JetBrains Kotlin");
+        if (mainClass != null) {
+            mainAttributes.putValue("Main-Class", mainClass.asString());
+        }
+        return new JarOutputStream(fos, manifest);
+    }
+
     public static void writeToJar(File jarPath, boolean jarRuntime, FqName mainClass, OutputFileCollection outputFiles) {
         FileOutputStream outputStream = null;
         try {
@@ -94,7 +99,7 @@ public class CompileEnvironmentUtil {
         }
     }
 
-    private static void writeRuntimeToJar(JarOutputStream stream) throws IOException {
+    static void writeRuntimeToJar(JarOutputStream stream) throws IOException {
         File stdlibPath = PathUtil.getKotlinPathsForCompiler().getStdlibPath();
         if (!stdlibPath.exists()) {
             throw new CompileEnvironmentException("Couldn't find kotlin-stdlib at " + stdlibPath);
@@ -24,6 +24,8 @@ import org.jetbrains.kotlin.cli.common.messages.CompilerMessageSeverity.ERROR
 import org.jetbrains.kotlin.cli.common.messages.CompilerMessageSeverity.LOGGING
 import org.jetbrains.kotlin.cli.common.messages.MessageCollector
 import org.jetbrains.kotlin.cli.jvm.index.JavaRoot
+import org.jetbrains.kotlin.cli.jvm.index.JvmClasspathIndexPool
+import org.jetbrains.kotlin.cli.jvm.index.JvmDependenciesIndexSnapshot
 import org.jetbrains.kotlin.config.LanguageVersionSettings
 import org.jetbrains.kotlin.load.kotlin.PackagePartProvider
 import org.jetbrains.kotlin.load.kotlin.loadModuleMapping
@@ -39,7 +41,9 @@ import java.io.PrintStream
 
 class JvmPackagePartProvider(
     languageVersionSettings: LanguageVersionSettings,
-    private val scope: GlobalSearchScope
+    private val scope: GlobalSearchScope,
+    private val snapshot: JvmDependenciesIndexSnapshot? = null,
+    private val classpathIndexLease: JvmClasspathIndexPool.Lease? = null
 ) : PackagePartProvider, MetadataPartProvider {
     private data class ModuleMappingInfo(val root: VirtualFile, val mapping: ModuleMapping, val name: String)
 
@@ -85,37 +89,60 @@ class JvmPackagePartProvider(
     }
 
     fun addRoots(roots: List<JavaRoot>, messageCollector: MessageCollector) {
-        for ((root, type) in roots) {
+        for (javaRoot in roots) {
+            val (root, type) = javaRoot
             if (type != JavaRoot.RootType.BINARY) continue
             if (root !in scope) continue
 
+            val moduleMappings = classpathIndexLease?.getModuleMappings(javaRoot, snapshot) ?: snapshot?.getModuleMappings(javaRoot)
+            if (moduleMappings != null) {
+                for ((fileName, bytes) in moduleMappings) {
+                    val path = root.path.removeSuffix("/") + "/META-INF/" + fileName
+                    val moduleName = fileName.removeSuffix("." + ModuleMapping.MAPPING_FILE_EXT)
+                    loadModuleMapping(root, moduleName, bytes, path, path, messageCollector)
+                }
+                continue
+            }
+
             val metaInf = root.findChild("META-INF") ?: continue
             for (moduleFile in metaInf.children) {
                 if (!moduleFile.name.endsWith(ModuleMapping.MAPPING_FILE_EXT)) continue
 
-                try {
-                    val mapping = ModuleMapping.loadModuleMapping(
-                        moduleFile.contentsToByteArray(), moduleFile.toString(), deserializationConfiguration
-                    ) { incompatibleVersion ->
-                        messageCollector.report(
-                            ERROR,
-                            "Module was compiled with an incompatible version of Kotlin. The binary version of its metadata is " +
-                                    "$incompatibleVersion, expected version is ${JvmMetadataVersion.INSTANCE}.",
-                            CompilerMessageLocation.create(moduleFile.path)
-                        )
-                    }
-                    loadedModules.add(ModuleMappingInfo(root, mapping, moduleFile.nameWithoutExtension))
-                } catch (e: EOFException) {
-                    messageCollector.report(
-                        ERROR, "Error occurred when reading the module: ${e.message}", CompilerMessageLocation.create(moduleFile.path)
-                    )
-                    messageCollector.report(
-                        LOGGING,
-                        String(ByteArrayOutputStream().also { e.printStackTrace(PrintStream(it)) }.toByteArray()),
-                        CompilerMessageLocation.create(moduleFile.path)
-                    )
-                }
+                loadModuleMapping(
+                    root, moduleFile.nameWithoutExtension, moduleFile.contentsToByteArray(), moduleFile.path, moduleFile.toString(),
+                    messageCollector
+                )
+            }
+        }
+    }
+
+    private fun loadModuleMapping(
+        root: VirtualFile,
+        moduleName: String,
+        bytes: ByteArray,
+        path: String,
+        debugName: String,
+        messageCollector: MessageCollector
+    ) {
+        try {
+            val mapping = ModuleMapping.loadModuleMapping(bytes, debugName, deserializationConfiguration) { incompatibleVersion ->
+                messageCollector.report(
+                    ERROR,
+                    "Module was compiled with an incompatible version of Kotlin. The binary version of its metadata is " +
+                            "$incompatibleVersion, expected version is ${JvmMetadataVersion.INSTANCE}.",
+                    CompilerMessageLocation.create(path)
+                )
             }
+            loadedModules.add(ModuleMappingInfo(root, mapping, moduleName))
+        } catch (e: EOFException) {
+            messageCollector.report(
+                ERROR, "Error occurred when reading the module: ${e.message}", CompilerMessageLocation.create(path)
+            )
+            messageCollector.report(
+                LOGGING,
+                String(ByteArrayOutputStream().also { e.printStackTrace(PrintStream(it)) }.toByteArray()),
+                CompilerMessageLocation.create(path)
+            )
         }
     }
 }
@@ -151,6 +151,7 @@ class KotlinCoreEnvironment private constructor(
 
     private val sourceFiles = mutableListOf<KtFile>()
     private val rootsIndex: JvmDependenciesDynamicCompoundIndex
+    private val classpathIndexLease: JvmClasspathIndexPool.Lease?
     private val packagePartProviders = mutableListOf<JvmPackagePartProvider>()
 
     private val classpathRootsResolver: ClasspathRootsResolver
@@ -158,6 +159,9 @@ class KotlinCoreEnvironment private constructor(
 
     val configuration: CompilerConfiguration = initialConfiguration.apply { setupJdkClasspathRoots(configFiles) }.copy()
 
+    private val dependenciesIndexSnapshot: JvmDependenciesIndexSnapshot? =
+        configuration.get(JVMConfigurationKeys.DEPENDENCIES_INDEX_SNAPSHOT_DIR)?.let(::JvmDependenciesIndexSnapshot)
+
     init {
         PersistentFSConstants::class.java.getDeclaredField("ourMaxIntellisenseFileSize")
             .apply { isAccessible = true }
@@ -238,9 +242,20 @@ class KotlinCoreEnvironment private constructor(
         val (roots, singleJavaFileRoots) =
                 initialRoots.partition { (file) -> file.isDirectory || file.extension != JavaFileType.DEFAULT_EXTENSION }
 
+        classpathIndexLease =
+            if (configuration.getBoolean(JVMConfigurationKeys.SHARE_CLASSPATH_INDEX))
+                JvmClasspathIndexPool.shared.acquire(roots, dependenciesIndexSnapshot).also { lease ->
+                    Disposer.register(parentDisposable, Disposable { lease.release() })
+                }
+            else null
+
         // REPL and kapt2 update classpath dynamically
         rootsIndex = JvmDependenciesDynamicCompoundIndex().apply {
-            addIndex(JvmDependenciesIndexImpl(roots))
+            if (classpathIndexLease != null) {
+                classpathIndexLease.indices.forEach(this::addIndex)
+            } else {
+                addIndex(JvmDependenciesIndexImpl(roots, dependenciesIndexSnapshot))
+            }
             updateClasspathFromRootsIndex(this)
         }
 
@@ -256,7 +271,7 @@ class KotlinCoreEnvironment private constructor(
             CliJavaModuleResolver(classpathRootsResolver.javaModuleGraph, javaModules, javaModuleFinder.systemModules.toList())
         )
 
-        val finderFactory = CliVirtualFileFinderFactory(rootsIndex)
+        val finderFactory = CliVirtualFileFinderFactory(rootsIndex, dependenciesIndexSnapshot)
         project.registerService(MetadataFinderFactory::class.java, finderFactory)
         project.registerService(VirtualFileFinderFactory::class.java, finderFactory)
 
@@ -292,7 +307,7 @@ class KotlinCoreEnvironment private constructor(
     }
 
     fun createPackagePartProvider(scope: GlobalSearchScope): JvmPackagePartProvider {
-        return JvmPackagePartProvider(configuration.languageVersionSettings, scope).apply {
+        return JvmPackagePartProvider(configuration.languageVersionSettings, scope, dependenciesIndexSnapshot, classpathIndexLease).apply {
             addRoots(initialRoots, configuration.getNotNull(CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY))
             packagePartProviders += this
             (ModuleAnnotationsResolver.getInstance(project) as CliModuleAnnotationsResolver).addPackagePartProvider(this)
@@ -442,6 +457,28 @@ class KotlinCoreEnvironment private constructor(
             return environment
         }
 
+        /**
+         * Keeps the application environment shared by the environments created with [createForProduction] alive until
+         * [parentDisposable] is disposed, so that the compilations performed meanwhile one after another don't have to create it anew,
+         * and may share the caches bound to it (see [JVMConfigurationKeys.SHARE_CLASSPATH_INDEX]).
+         */
+        @JvmStatic
+        fun retainApplicationEnvironmentForProduction(parentDisposable: Disposable, configuration: CompilerConfiguration) {
+            synchronized(APPLICATION_LOCK) {
+                getOrCreateApplicationEnvironmentForProduction(configuration)
+                if (System.getProperty(KOTLIN_COMPILER_ENVIRONMENT_KEEPALIVE_PROPERTY).toBooleanLenient() == true) return
+
+                ourProjectCount++
+                Disposer.register(parentDisposable, Disposable {
+                    synchronized(APPLICATION_LOCK) {
+                        if (--ourProjectCount <= 0) {
+                            disposeApplicationEnvironment()
+                        }
+                    }
+                })
+            }
+        }
+
         @TestOnly
         @JvmStatic
         fun createForTests(
@@ -483,6 +520,8 @@ class KotlinCoreEnvironment private constructor(
                 ourApplicationEnvironment = null
                 Disposer.dispose(environment.parentDisposable)
                 ZipHandler.clearFileAccessorCache()
+                // the pooled indices refer to the virtual files of the disposed jar file system
+                JvmClasspathIndexPool.shared.clearUnused()
             }
         }
 
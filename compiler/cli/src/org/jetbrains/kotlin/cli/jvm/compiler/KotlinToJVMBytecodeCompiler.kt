@@ -55,6 +55,7 @@ import org.jetbrains.kotlin.modules.TargetId
 import org.jetbrains.kotlin.name.FqName
 import org.jetbrains.kotlin.progress.ProgressIndicatorAndCompilationCanceledStatus
 import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.resolve.BindingContext
 import org.jetbrains.kotlin.resolve.jvm.KotlinJavaPsiFacade
 import org.jetbrains.kotlin.script.tryConstructClassFromStringArgs
 import org.jetbrains.kotlin.utils.newLinkedHashMapWithExpectedSize
@@ -89,12 +90,14 @@ object KotlinToJVMBytecodeCompiler {
         if (configuration.get(JVMConfigurationKeys.OUTPUT_DIRECTORY) == null) {
             return GenerationStateEventCallback.DO_NOTHING
         }
+        val retainOutput = configuration.get(JVMConfigurationKeys.RETAIN_OUTPUT_IN_MEMORY, false)
         return GenerationStateEventCallback { state ->
-            val currentOutput = SimpleOutputFileCollection(state.factory.currentOutput)
+            // Draining rather than releasing the whole output keeps the classes of parts which are still being generated
+            // by other threads of the parallel backend
+            val currentOutput = SimpleOutputFileCollection(
+                if (retainOutput) state.factory.currentOutput else state.factory.drainCurrentOutput()
+            )
             writeOutput(configuration, currentOutput, mainClass = null)
-            if (!configuration.get(JVMConfigurationKeys.RETAIN_OUTPUT_IN_MEMORY, false)) {
-                state.factory.releaseGeneratedOutput()
-            }
         }
     }
 
@@ -123,51 +126,62 @@ object KotlinToJVMBytecodeCompiler {
         result.throwIfError()
 
         val outputs = newLinkedHashMapWithExpectedSize<Module, GenerationState>(chunk.size)
+        val outputWriters = newLinkedHashMapWithExpectedSize<Module, StreamingOutputWriter>(chunk.size)
 
         val localFileSystem = VirtualFileManager.getInstance().getFileSystem(StandardFileSystems.FILE_PROTOCOL)
 
-        for (module in chunk) {
-            ProgressIndicatorAndCompilationCanceledStatus.checkCanceled()
-
-            val ktFiles = if (chunk.size > 1) {
-                // filter out source files from other modules
-                assert(buildFile != null) { "Compiling multiple modules, but build file is null" }
-                val (moduleSourceDirs, moduleSourceFiles) =
-                    getBuildFilePaths(buildFile, module.getSourceFiles())
-                        .mapNotNull(localFileSystem::findFileByPath)
-                        .partition(VirtualFile::isDirectory)
-
-                environment.getSourceFiles().filter { file ->
-                    val virtualFile = file.virtualFile
-                    virtualFile in moduleSourceFiles || moduleSourceDirs.any { dir ->
-                        VfsUtilCore.isAncestor(dir, virtualFile, true)
+        try {
+            for (module in chunk) {
+                ProgressIndicatorAndCompilationCanceledStatus.checkCanceled()
+
+                val ktFiles = if (chunk.size > 1) {
+                    // filter out source files from other modules
+                    assert(buildFile != null) { "Compiling multiple modules, but build file is null" }
+                    val (moduleSourceDirs, moduleSourceFiles) =
+                        getBuildFilePaths(buildFile, module.getSourceFiles())
+                            .mapNotNull(localFileSystem::findFileByPath)
+                            .partition(VirtualFile::isDirectory)
+
+                    environment.getSourceFiles().filter { file ->
+                        val virtualFile = file.virtualFile
+                        virtualFile in moduleSourceFiles || moduleSourceDirs.any { dir ->
+                            VfsUtilCore.isAncestor(dir, virtualFile, true)
+                        }
                     }
+                } else {
+                    environment.getSourceFiles()
                 }
-            } else {
-                environment.getSourceFiles()
-            }
 
-            if (!checkKotlinPackageUsage(environment, ktFiles)) return false
+                if (!checkKotlinPackageUsage(environment, ktFiles)) return false
 
-            val moduleConfiguration = projectConfiguration.copy().apply {
-                if (buildFile != null) {
-                    fun checkKeyIsNull(key: CompilerConfigurationKey<*>, name: String) {
-                        assert(get(key) == null) { "$name should be null, when buildFile is used" }
+                val moduleConfiguration = projectConfiguration.copy().apply {
+                    if (buildFile != null) {
+                        fun checkKeyIsNull(key: CompilerConfigurationKey<*>, name: String) {
+                            assert(get(key) == null) { "$name should be null, when buildFile is used" }
+                        }
+
+                        checkKeyIsNull(JVMConfigurationKeys.OUTPUT_DIRECTORY, "OUTPUT_DIRECTORY")
+                        checkKeyIsNull(JVMConfigurationKeys.OUTPUT_JAR, "OUTPUT_JAR")
+                        put(JVMConfigurationKeys.OUTPUT_DIRECTORY, File(module.getOutputDirectory()))
                     }
+                }
 
-                    checkKeyIsNull(JVMConfigurationKeys.OUTPUT_DIRECTORY, "OUTPUT_DIRECTORY")
-                    checkKeyIsNull(JVMConfigurationKeys.OUTPUT_JAR, "OUTPUT_JAR")
-                    put(JVMConfigurationKeys.OUTPUT_DIRECTORY, File(module.getOutputDirectory()))
+                val outputWriter = StreamingOutputWriter.createIfEnabled(moduleConfiguration, mainClass = null)
+                if (outputWriter != null) {
+                    outputWriters[module] = outputWriter
                 }
-            }
 
-            outputs[module] = generate(environment, moduleConfiguration, result, ktFiles, module)
-        }
+                outputs[module] = generate(environment, moduleConfiguration, result, ktFiles, module, outputWriter)
+            }
 
-        try {
-            for ((_, state) in outputs) {
+            for ((module, state) in outputs) {
                 ProgressIndicatorAndCompilationCanceledStatus.checkCanceled()
-                writeOutput(state.configuration, state.factory, null)
+                val outputWriter = outputWriters[module]
+                if (outputWriter != null) {
+                    outputWriter.commit(state.factory)
+                } else {
+                    writeOutput(state.configuration, state.factory, null)
+                }
             }
 
             if (projectConfiguration.getBoolean(JVMConfigurationKeys.COMPILE_JAVA)) {
@@ -188,6 +202,7 @@ object KotlinToJVMBytecodeCompiler {
 
             return true
         } finally {
+            outputWriters.values.forEach(StreamingOutputWriter::abort)
             outputs.values.forEach(GenerationState::destroy)
         }
     }
@@ -244,8 +259,12 @@ object KotlinToJVMBytecodeCompiler {
             (File(path).takeIf(File::isAbsolute) ?: buildFile.resolveSibling(path)).absolutePath
         }
 
-    private fun findMainClass(generationState: GenerationState, files: List<KtFile>): FqName? {
-        val mainFunctionDetector = MainFunctionDetector(generationState.bindingContext, generationState.languageVersionSettings)
+    private fun findMainClass(
+        bindingContext: BindingContext,
+        languageVersionSettings: LanguageVersionSettings,
+        files: List<KtFile>
+    ): FqName? {
+        val mainFunctionDetector = MainFunctionDetector(bindingContext, languageVersionSettings)
         return files.asSequence()
             .map { file ->
                 if (mainFunctionDetector.hasMain(file.declarations))
@@ -266,15 +285,26 @@ object KotlinToJVMBytecodeCompiler {
 
         if (!checkKotlinPackageUsage(environment, environment.getSourceFiles())) return false
 
-        val generationState = analyzeAndGenerate(environment) ?: return false
+        val result = analyzeForGeneration(environment) ?: return false
 
-        val mainClass = findMainClass(generationState, environment.getSourceFiles())
+        val sourceFiles = environment.getSourceFiles()
+        val configuration = environment.configuration
+        val mainClass = findMainClass(result.bindingContext, configuration.languageVersionSettings, sourceFiles)
 
+        // The main class is known before the generation, so that it can be written to the manifest of a streamed jar
+        val outputWriter = StreamingOutputWriter.createIfEnabled(configuration, mainClass)
+        var generationState: GenerationState? = null
         try {
-            writeOutput(environment.configuration, generationState.factory, mainClass)
+            generationState = generate(environment, configuration, result, sourceFiles, null, outputWriter)
+            if (outputWriter != null) {
+                outputWriter.commit(generationState.factory)
+            } else {
+                writeOutput(configuration, generationState.factory, mainClass)
+            }
             return true
         } finally {
-            generationState.destroy()
+            outputWriter?.abort()
+            generationState?.destroy()
         }
     }
 
@@ -365,13 +395,19 @@ object KotlinToJVMBytecodeCompiler {
 
     @Suppress("MemberVisibilityCanBePrivate") // Used in ExecuteKotlinScriptMojo
     fun analyzeAndGenerate(environment: KotlinCoreEnvironment): GenerationState? {
+        val result = analyzeForGeneration(environment) ?: return null
+
+        return generate(environment, environment.configuration, result, environment.getSourceFiles(), null)
+    }
+
+    private fun analyzeForGeneration(environment: KotlinCoreEnvironment): AnalysisResult? {
         val result = repeatAnalysisIfNeeded(analyze(environment, null), environment, null) ?: return null
 
         if (!result.shouldGenerateCode) return null
 
         result.throwIfError()
 
-        return generate(environment, environment.configuration, result, environment.getSourceFiles(), null)
+        return result
     }
 
     private fun analyze(environment: KotlinCoreEnvironment, targetDescription: String?): AnalysisResult? {
@@ -445,7 +481,8 @@ object KotlinToJVMBytecodeCompiler {
         configuration: CompilerConfiguration,
         result: AnalysisResult,
         sourceFiles: List<KtFile>,
-        module: Module?
+        module: Module?,
+        outputWriter: StreamingOutputWriter? = null
     ): GenerationState {
         val isIR = configuration.getBoolean(JVMConfigurationKeys.IR)
         val generationState = GenerationState.Builder(
@@ -462,7 +499,10 @@ object KotlinToJVMBytecodeCompiler {
                 ) else DefaultCodegenFactory
             )
             .withModule(module)
-            .onIndependentPartCompilationEnd(createOutputFilesFlushingCallbackIfPossible(configuration))
+            .onIndependentPartCompilationEnd(
+                if (outputWriter != null) GenerationStateEventCallback { state -> outputWriter.write(state.factory.drainCurrentOutput()) }
+                else createOutputFilesFlushingCallbackIfPossible(configuration)
+            )
             .build()
 
         ProgressIndicatorAndCompilationCanceledStatus.checkCanceled()
@@ -477,6 +517,9 @@ object KotlinToJVMBytecodeCompiler {
             environment.countLinesOfCode(sourceFiles),
             additionalDescription = if (module != null) "target " + module.getModuleName() + "-" + module.getModuleType() + " " else ""
         )
+        generationState.inlineCache.statistics.let {
+            performanceManager?.notifyInlineCacheUsed(it.hits, it.misses, it.evictions, it.retainedBytes)
+        }
 
         ProgressIndicatorAndCompilationCanceledStatus.checkCanceled()
 
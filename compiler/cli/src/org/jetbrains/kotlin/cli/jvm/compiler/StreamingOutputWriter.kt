@@ -0,0 +1,339 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.cli.jvm.compiler
+
+import com.intellij.openapi.util.io.FileUtil
+import org.jetbrains.kotlin.backend.common.output.OutputFile
+import org.jetbrains.kotlin.cli.common.CLIConfigurationKeys
+import org.jetbrains.kotlin.cli.common.messages.CompilerMessageSeverity.OUTPUT
+import org.jetbrains.kotlin.cli.common.messages.MessageCollector
+import org.jetbrains.kotlin.cli.common.messages.OutputMessageUtil
+import org.jetbrains.kotlin.codegen.ClassFileFactory
+import org.jetbrains.kotlin.config.CommonConfigurationKeys
+import org.jetbrains.kotlin.config.CompilerConfiguration
+import org.jetbrains.kotlin.config.JVMConfigurationKeys
+import org.jetbrains.kotlin.name.FqName
+import org.jetbrains.kotlin.utils.closeQuietly
+import java.io.BufferedOutputStream
+import java.io.File
+import java.io.FileOutputStream
+import java.io.IOException
+import java.nio.channels.FileChannel
+import java.nio.channels.OverlappingFileLockException
+import java.nio.file.Files
+import java.nio.file.StandardCopyOption
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.Executors
+import java.util.concurrent.Semaphore
+import java.util.concurrent.TimeUnit
+import java.util.jar.JarEntry
+import java.util.jar.JarOutputStream
+
+/**
+ * Writes class files of a module while the module is being generated, so that they are not kept in memory until the end
+ * of the generation (see [ClassFileFactory.drainCurrentOutput]).
+ *
+ * Files are written by a background thread to a staging directory next to the output directory or the output jar.
+ * [commit] moves them to the destination after the generation has succeeded, and [abort] deletes them otherwise,
+ * so that the destination never contains output of a failed compilation.
+ * [write] blocks while more than [MAX_PENDING_BYTES] are waiting to be written.
+ */
+class StreamingOutputWriter private constructor(
+    private val output: Output,
+    private val messageCollector: MessageCollector,
+    private val reportOutputFiles: Boolean
+) {
+    private val executor = Executors.newSingleThreadExecutor { runnable ->
+        Thread(runnable, "Kotlin output writer").apply { isDaemon = true }
+    }
+
+    private val pendingBytes = Semaphore(MAX_PENDING_BYTES)
+
+    // Accessed only from the writer thread until the executor is terminated
+    private val writtenFiles = ArrayList<WrittenFile>()
+
+    @Volatile
+    private var error: Throwable? = null
+
+    private var isCommitted = false
+
+    private var isAborted = false
+
+    private class WrittenFile(val relativePath: String, val sourceFiles: List<File>)
+
+    /**
+     * Schedules [files] to be written. May be called from several threads.
+     */
+    fun write(files: List<OutputFile>) {
+        for (file in files) {
+            checkNoError()
+
+            val bytes = file.asByteArray()
+            val permits = minOf(bytes.size, MAX_PENDING_BYTES)
+            pendingBytes.acquireUninterruptibly(permits)
+
+            val writtenFile = WrittenFile(file.relativePath, if (reportOutputFiles) file.sourceFiles else emptyList())
+            executor.execute {
+                try {
+                    if (error == null) {
+                        output.write(writtenFile.relativePath, bytes)
+                        writtenFiles.add(writtenFile)
+                    }
+                } catch (e: Throwable) {
+                    error = e
+                } finally {
+                    pendingBytes.release(permits)
+                }
+            }
+        }
+    }
+
+    /**
+     * Writes the rest of the output of [factory], waits until everything is written and moves the output to its destination.
+     */
+    fun commit(factory: ClassFileFactory) {
+        check(!isCommitted && !isAborted) { "Output is already committed or aborted" }
+
+        factory.done()
+        write(factory.drainCurrentOutput())
+
+        awaitTermination()
+        checkNoError()
+
+        output.commit()
+        isCommitted = true
+
+        if (reportOutputFiles) {
+            output.report(messageCollector, writtenFiles)
+        }
+    }
+
+    /**
+     * Discards everything written so far. Does nothing if the output is already committed.
+     */
+    fun abort() {
+        if (isCommitted || isAborted) return
+        isAborted = true
+
+        executor.shutdownNow()
+        awaitTermination()
+        output.discard()
+    }
+
+    private fun awaitTermination() {
+        executor.shutdown()
+        while (!executor.awaitTermination(1, TimeUnit.MINUTES)) {
+            // wait for the pending files to be written
+        }
+    }
+
+    private fun checkNoError() {
+        val e = error ?: return
+        if (e is CompileEnvironmentException) throw e
+        throw CompileEnvironmentException("Failed to write output: ${e.message}", e)
+    }
+
+    private interface Output {
+        fun write(relativePath: String, bytes: ByteArray)
+
+        fun commit()
+
+        fun discard()
+
+        fun report(messageCollector: MessageCollector, files: List<WrittenFile>)
+    }
+
+    /**
+     * A directory next to [destination] where the output is written before it's moved to [destination]. It's not created inside
+     * the output directory, so that its contents are never seen as output by build tools even if the compilation is killed.
+     *
+     * The staging directory is locked while it's used. Unlocked staging directories of the same destination are leftovers
+     * of killed compilations, which are cleaned up when a new staging directory is created: the ones which had started to be
+     * committed are committed (see [markCommitting]), so that the destination doesn't stay a mix of old and new files,
+     * and the others are deleted.
+     */
+    private class StagingDir(private val destination: File, private val moveToDestination: (stagingDir: File) -> Unit) {
+        val dir: File
+
+        private val lockChannel: FileChannel
+
+        init {
+            val parent = destination.absoluteFile.parentFile
+            parent.mkdirs()
+            cleanUpLeftovers(parent)
+
+            dir = Files.createTempDirectory(parent.toPath(), prefix()).toFile()
+            lockChannel = FileChannel.open(File(dir, LOCK_FILE_NAME).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)
+            lockChannel.lock()
+        }
+
+        /**
+         * Should be called when the output is completely written, before it's moved to the destination.
+         */
+        fun markCommitting() {
+            File(dir, COMMITTING_MARKER_NAME).createNewFile()
+        }
+
+        fun delete() {
+            closeQuietly(lockChannel)
+            FileUtil.delete(dir)
+        }
+
+        private fun prefix(): String = ".${destination.name}$STAGING_DIR_SUFFIX"
+
+        private fun cleanUpLeftovers(parent: File) {
+            val prefix = prefix()
+            val leftovers = parent.listFiles { file -> file.isDirectory && file.name.startsWith(prefix) } ?: return
+            for (leftover in leftovers) {
+                val channel = try {
+                    FileChannel.open(File(leftover, LOCK_FILE_NAME).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE)
+                } catch (e: IOException) {
+                    continue
+                }
+                try {
+                    val lock = try {
+                        channel.tryLock()
+                    } catch (e: OverlappingFileLockException) {
+                        // locked by a compilation in this process
+                        null
+                    } ?: continue
+
+                    if (File(leftover, COMMITTING_MARKER_NAME).exists()) {
+                        moveToDestination(leftover)
+                    }
+                    lock.release()
+                } finally {
+                    closeQuietly(channel)
+                }
+                FileUtil.delete(leftover)
+            }
+        }
+    }
+
+    private class DirectoryOutput(private val outputDir: File) : Output {
+        private val staging = StagingDir(outputDir) { stagingDir -> moveFiles(stagingDir, outputDir) }
+
+        override fun write(relativePath: String, bytes: ByteArray) {
+            FileUtil.writeToFile(File(staging.dir, relativePath), bytes)
+        }
+
+        override fun commit() {
+            staging.markCommitting()
+            outputDir.mkdirs()
+            moveFiles(staging.dir, outputDir)
+            staging.delete()
+        }
+
+        override fun discard() {
+            staging.delete()
+        }
+
+        override fun report(messageCollector: MessageCollector, files: List<WrittenFile>) {
+            for (file in files) {
+                messageCollector.report(OUTPUT, OutputMessageUtil.formatOutputMessage(file.sourceFiles, File(outputDir, file.relativePath)))
+            }
+        }
+
+        companion object {
+            // Each file is replaced atomically, so that readers of the output directory never see a partially written class file.
+            // If the process is killed while the files are moved, the rest of them is moved by the next compilation, see StagingDir
+            private fun moveFiles(stagingDir: File, outputDir: File) {
+                val stagingPath = stagingDir.toPath()
+                Files.walk(stagingPath).use { paths ->
+                    for (path in paths) {
+                        if (Files.isDirectory(path)) continue
+                        val relativePath = stagingPath.relativize(path)
+                        if (relativePath.toString() == LOCK_FILE_NAME || relativePath.toString() == COMMITTING_MARKER_NAME) continue
+
+                        val target = outputDir.toPath().resolve(relativePath)
+                        Files.createDirectories(target.parent)
+                        Files.move(path, target, StandardCopyOption.REPLACE_EXISTING)
+                    }
+                }
+            }
+        }
+    }
+
+    private class JarOutput(private val jarPath: File, private val includeRuntime: Boolean, mainClass: FqName?) : Output {
+        private val staging: StagingDir = try {
+            StagingDir(jarPath) { stagingDir -> moveJar(stagingDir, jarPath) }
+        } catch (e: IOException) {
+            throw CompileEnvironmentException("Invalid jar path $jarPath", e)
+        }
+
+        private val stream: JarOutputStream =
+            CompileEnvironmentUtil.createJarOutputStream(
+                BufferedOutputStream(FileOutputStream(File(staging.dir, jarPath.name))), mainClass
+            )
+
+        private val writtenPaths = HashSet<String>()
+
+        override fun write(relativePath: String, bytes: ByteArray) {
+            if (!writtenPaths.add(relativePath)) {
+                throw CompileEnvironmentException("Class file $relativePath is generated more than once and can't be streamed to $jarPath")
+            }
+            stream.putNextEntry(JarEntry(relativePath))
+            stream.write(bytes)
+        }
+
+        override fun commit() {
+            if (includeRuntime) {
+                CompileEnvironmentUtil.writeRuntimeToJar(stream)
+            }
+            stream.finish()
+            stream.close()
+            staging.markCommitting()
+            moveJar(staging.dir, jarPath)
+            staging.delete()
+        }
+
+        override fun discard() {
+            closeQuietly(stream)
+            staging.delete()
+        }
+
+        override fun report(messageCollector: MessageCollector, files: List<WrittenFile>) {
+            messageCollector.report(OUTPUT, OutputMessageUtil.formatOutputMessage(files.flatMap { it.sourceFiles }.distinct(), jarPath))
+        }
+
+        companion object {
+            private fun moveJar(stagingDir: File, jarPath: File) {
+                val stagedJar = File(stagingDir, jarPath.name)
+                if (stagedJar.exists()) {
+                    Files.move(stagedJar.toPath(), jarPath.toPath(), StandardCopyOption.REPLACE_EXISTING)
+                }
+            }
+        }
+    }
+
+    companion object {
+        private const val MAX_PENDING_BYTES = 64 * 1024 * 1024
+
+        private const val STAGING_DIR_SUFFIX = ".kotlin-output"
+        private const val LOCK_FILE_NAME = ".lock"
+        private const val COMMITTING_MARKER_NAME = ".committing"
+
+        /**
+         * Returns a writer for the output jar or the output directory of [configuration], or `null` if the streaming output
+         * is disabled or the output should be retained in memory.
+         */
+        fun createIfEnabled(configuration: CompilerConfiguration, mainClass: FqName?): StreamingOutputWriter? {
+            if (!configuration.getBoolean(JVMConfigurationKeys.STREAMING_OUTPUT)) return null
+            if (configuration.getBoolean(JVMConfigurationKeys.RETAIN_OUTPUT_IN_MEMORY)) return null
+
+            val jarPath = configuration.get(JVMConfigurationKeys.OUTPUT_JAR)
+            val output =
+                if (jarPath != null) JarOutput(jarPath, configuration.getBoolean(JVMConfigurationKeys.INCLUDE_RUNTIME), mainClass)
+                else DirectoryOutput(configuration.get(JVMConfigurationKeys.OUTPUT_DIRECTORY) ?: File("."))
+
+            return StreamingOutputWriter(
+                output,
+                configuration.get(CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY, MessageCollector.NONE),
+                configuration.getBoolean(CommonConfigurationKeys.REPORT_OUTPUT_FILES)
+            )
+        }
+    }
+}
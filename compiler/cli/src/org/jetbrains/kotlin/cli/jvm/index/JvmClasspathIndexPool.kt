@@ -0,0 +1,140 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.cli.jvm.index
+
+import com.intellij.openapi.vfs.StandardFileSystems
+import com.intellij.util.io.URLUtil
+import java.io.File
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Keeps the indices of classpath jars and the contents of their module mapping files between compilations in the same process,
+ * where the application environment, and therefore the jar file system with its virtual files, outlives a compilation
+ * (e.g. in the daemon, see KOTLIN_COMPILER_ENVIRONMENT_KEEPALIVE_PROPERTY).
+ *
+ * Only consecutive runs of jar roots are pooled, while directories are indexed anew by every compilation, since they are likely
+ * to be outputs of other modules changing in the same build. Runs are indexed separately from each other, but the order of roots
+ * is preserved, because [JvmDependenciesDynamicCompoundIndex] consults the indices in the order of their addition.
+ *
+ * A pooled run is valid while the sizes and modification times of its jars are the same as when it was indexed.
+ * A run with changed jars is indexed again, and the outdated index is dropped as soon as the last compilation using it is finished.
+ * Indices which are not used by any compilation are dropped in the least recently used order when there are more than
+ * [MAX_UNUSED_ENTRIES] of them, and all at once by [clearUnused], which should be called when the jar file system drops its handlers.
+ */
+class JvmClasspathIndexPool {
+    internal class Entry(val roots: List<JavaRoot>, val stamps: List<JarStamp>, snapshot: JvmDependenciesIndexSnapshot?) {
+        val index = JvmDependenciesIndexImpl(roots, snapshot)
+        val moduleMappings = ConcurrentHashMap<JavaRoot, Map<String, ByteArray>>()
+        var useCount = 0
+    }
+
+    internal data class JarStamp(val length: Long, val lastModified: Long)
+
+    /**
+     * The pooled indices used by one compilation, which should be [release]d when the compilation is finished.
+     */
+    inner class Lease internal constructor(private val entries: List<Entry>, val indices: List<JvmDependenciesIndex>) {
+        private var isReleased = false
+
+        private val pooledRoots: Map<JavaRoot, Entry> = entries.flatMap { entry -> entry.roots.map { it to entry } }.toMap()
+
+        /**
+         * Returns the contents of the module mapping files of the pooled jar [root] by their file names,
+         * or `null` if the root is not pooled.
+         */
+        fun getModuleMappings(root: JavaRoot, snapshot: JvmDependenciesIndexSnapshot?): Map<String, ByteArray>? {
+            val entry = pooledRoots[root] ?: return null
+            return entry.moduleMappings.getOrPut(root) { snapshot?.getModuleMappings(root) ?: collectModuleMappings(root.file) }
+        }
+
+        fun release() {
+            synchronized(this@JvmClasspathIndexPool) {
+                if (isReleased) return
+                isReleased = true
+                // an outdated entry is not in the pool anymore, so it's dropped when its last user releases it
+                entries.forEach { it.useCount-- }
+                evictUnused(MAX_UNUSED_ENTRIES)
+            }
+        }
+    }
+
+    // in the order of access, the most recently used entries are the last ones
+    private val pool = LinkedHashMap<List<JavaRoot>, Entry>(16, 0.75f, /* accessOrder = */ true)
+
+    /**
+     * Returns the indices of [roots] in the classpath order. The indices of directories and of other roots which can't be pooled
+     * are created anew, and may use [snapshot] as well.
+     */
+    fun acquire(roots: List<JavaRoot>, snapshot: JvmDependenciesIndexSnapshot?): Lease {
+        val runs = ArrayList<Pair<Boolean, MutableList<JavaRoot>>>()
+        for (root in roots) {
+            val poolable = isPoolable(root)
+            val last = runs.lastOrNull()
+            if (last != null && last.first == poolable) {
+                last.second.add(root)
+            } else {
+                runs.add(Pair(poolable, arrayListOf(root)))
+            }
+        }
+
+        val entries = ArrayList<Entry>()
+        val indices = runs.map { (poolable, run) ->
+            if (poolable) acquireEntry(run, snapshot).also { entries.add(it) }.index
+            else JvmDependenciesIndexImpl(run, snapshot)
+        }
+        return Lease(entries, indices)
+    }
+
+    private fun acquireEntry(roots: List<JavaRoot>, snapshot: JvmDependenciesIndexSnapshot?): Entry {
+        val stamps = roots.map { root -> jarOf(root).let { JarStamp(it.length(), it.lastModified()) } }
+        synchronized(this) {
+            val existing = pool[roots]
+            val entry = if (existing != null && existing.stamps == stamps) {
+                existing
+            } else {
+                // an outdated entry which is still used is not in the pool anymore, and is dropped by its last user
+                Entry(roots, stamps, snapshot).also { pool[roots] = it }
+            }
+            entry.useCount++
+            return entry
+        }
+    }
+
+    /**
+     * Drops all pooled indices which are not used at the moment.
+     */
+    @Synchronized
+    fun clearUnused() {
+        evictUnused(0)
+    }
+
+    private fun evictUnused(maxUnused: Int) {
+        var unused = pool.values.count { it.useCount == 0 }
+        val iterator = pool.values.iterator()
+        while (unused > maxUnused && iterator.hasNext()) {
+            if (iterator.next().useCount == 0) {
+                iterator.remove()
+                unused--
+            }
+        }
+    }
+
+    private fun isPoolable(root: JavaRoot): Boolean =
+        root.type == JavaRoot.RootType.BINARY && root.prefixFqName == null &&
+                root.file.fileSystem.protocol == StandardFileSystems.JAR_PROTOCOL && jarOf(root).isFile
+
+    private fun jarOf(root: JavaRoot): File = File(root.file.path.substringBefore(URLUtil.JAR_SEPARATOR))
+
+    companion object {
+        const val MAX_UNUSED_ENTRIES = 64
+
+        /**
+         * The pool shared by all compilations in this process.
+         */
+        @JvmStatic
+        val shared = JvmClasspathIndexPool()
+    }
+}
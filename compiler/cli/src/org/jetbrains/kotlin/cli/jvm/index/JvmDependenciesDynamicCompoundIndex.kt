@@ -46,9 +46,10 @@ class JvmDependenciesDynamicCompoundIndex : JvmDependenciesIndex {
     override fun <T : Any> findClass(
         classId: ClassId,
         acceptedRootTypes: Set<JavaRoot.RootType>,
+        fileName: String?,
         findClassGivenDirectory: (VirtualFile, JavaRoot.RootType) -> T?
     ): T? = lock.read {
-        indices.asSequence().mapNotNull { it.findClass(classId, acceptedRootTypes, findClassGivenDirectory) }.firstOrNull()
+        indices.asSequence().mapNotNull { it.findClass(classId, acceptedRootTypes, fileName, findClassGivenDirectory) }.firstOrNull()
     }
 
     override fun traverseDirectoriesInPackage(
@@ -56,6 +57,13 @@ class JvmDependenciesDynamicCompoundIndex : JvmDependenciesIndex {
         acceptedRootTypes: Set<JavaRoot.RootType>,
         continueSearch: (VirtualFile, JavaRoot.RootType) -> Boolean
     ) = lock.read {
-        indices.forEach { it.traverseDirectoriesInPackage(packageFqName, acceptedRootTypes, continueSearch) }
+        // the search stops at the first directory rejected by continueSearch, as it would in a single index of all roots
+        var stopped = false
+        for (index in indices) {
+            index.traverseDirectoriesInPackage(packageFqName, acceptedRootTypes) { directory, rootType ->
+                continueSearch(directory, rootType).also { if (!it) stopped = true }
+            }
+            if (stopped) break
+        }
     }
 }
@@ -24,9 +24,14 @@ import java.util.*
 interface JvmDependenciesIndex {
     val indexedRoots: Sequence<JavaRoot>
 
+    /**
+     * @param fileName the name of the file which [findClassGivenDirectory] looks for, if it's the same in all roots.
+     *        Roots which are known not to contain it are skipped without looking into them.
+     */
     fun <T : Any> findClass(
         classId: ClassId,
         acceptedRootTypes: Set<JavaRoot.RootType> = JavaRoot.SourceAndBinary,
+        fileName: String? = null,
         findClassGivenDirectory: (VirtualFile, JavaRoot.RootType) -> T?
     ): T?
 
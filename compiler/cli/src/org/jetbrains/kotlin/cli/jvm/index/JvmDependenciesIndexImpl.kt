@@ -20,16 +20,20 @@ import com.intellij.ide.highlighter.JavaClassFileType
 import com.intellij.ide.highlighter.JavaFileType
 import com.intellij.openapi.vfs.VfsUtilCore
 import com.intellij.openapi.vfs.VirtualFile
-import com.intellij.util.containers.IntArrayList
-import gnu.trove.THashMap
 import org.jetbrains.kotlin.name.ClassId
 import org.jetbrains.kotlin.name.FqName
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
 
 // speeds up finding files/classes in classpath/java source roots
-// NOT THREADSAFE, needs to be adapted/removed if we want compiler to be multithreaded
 // the main idea of this class is for each package to store roots which contains it to avoid excessive file system traversal
-class JvmDependenciesIndexImpl(_roots: List<JavaRoot>) : JvmDependenciesIndex {
+// the index is thread-safe: package caches are concurrent maps, and root indices of each package are copied on write, so reads don't lock
+// if snapshot is given, packages of jar roots are taken from it instead of traversing the jars, and the jars which are known not to
+// contain the requested file are skipped
+class JvmDependenciesIndexImpl(
+    _roots: List<JavaRoot>,
+    private val snapshot: JvmDependenciesIndexSnapshot? = null
+) : JvmDependenciesIndex {
     //these fields are computed based on _roots passed to constructor which are filled in later
     private val roots: List<JavaRoot> by lazy { _roots.toList() }
 
@@ -38,34 +42,68 @@ class JvmDependenciesIndexImpl(_roots: List<JavaRoot>) : JvmDependenciesIndex {
 
     // each "Cache" object corresponds to a package
     private class Cache {
-        private val innerPackageCaches = HashMap<String, Cache>()
+        private val innerPackageCaches = ConcurrentHashMap<String, Cache>()
 
         operator fun get(name: String) = innerPackageCaches.getOrPut(name, ::Cache)
 
         // indices of roots that are known to contain this package
         // if this list contains [1, 3, 5] then roots with indices 1, 3 and 5 are known to contain this package, 2 and 4 are known not to (no information about roots 6 or higher)
         // if this list contains maxIndex that means that all roots containing this package are known
-        val rootIndices = IntArrayList(2)
+        @Volatile
+        var rootIndices: IntArray = EMPTY_ROOT_INDICES
+            private set
+
+        // Each thread traverses roots in the order of their indices, but concurrent traversals may add indices out of order,
+        // so the index is inserted at its sorted position to keep the invariant described above
+        @Synchronized
+        fun addRootIndex(index: Int) {
+            val current = rootIndices
+            if (current.isEmpty() || current.last() < index) {
+                rootIndices = current + index
+                return
+            }
+
+            val position = Arrays.binarySearch(current, index)
+            if (position >= 0) return
+
+            val insertionPoint = -position - 1
+            val result = IntArray(current.size + 1)
+            System.arraycopy(current, 0, result, 0, insertionPoint)
+            result[insertionPoint] = index
+            System.arraycopy(current, insertionPoint, result, insertionPoint + 1, current.size - insertionPoint)
+            rootIndices = result
+        }
     }
 
     // root "Cache" object corresponds to DefaultPackage which exists in every root. Roots with non-default fqname are also listed here but
     // they will be ignored on requests with invalid fqname prefix.
     private val rootCache: Cache by lazy {
         Cache().apply {
-            roots.indices.forEach(rootIndices::add)
-            rootIndices.add(maxIndex)
-            rootIndices.trimToSize()
+            roots.indices.forEach(this::addRootIndex)
+            addRootIndex(maxIndex)
         }
     }
 
     // holds the request and the result last time we searched for class
     // helps improve several scenarios, LazyJavaResolverContext.findClassInJava being the most important
+    @Volatile
     private var lastClassSearch: Pair<FindClassRequest, SearchResult>? = null
 
     override val indexedRoots by lazy { roots.asSequence() }
 
-    private val packageCache: Array<out MutableMap<String, VirtualFile?>> by lazy {
-        Array(roots.size) { THashMap<String, VirtualFile?>() }
+    // values are VirtualFile or NO_DIRECTORY, because concurrent maps don't support nulls
+    private val packageCache: Array<out MutableMap<String, Any>> by lazy {
+        Array(roots.size) { ConcurrentHashMap<String, Any>() }
+    }
+
+    // fq names of all packages in the root, if it is known from the snapshot
+    private val knownPackages: Array<Lazy<Set<String>?>> by lazy {
+        Array(roots.size) { rootIndex -> lazy { snapshot?.getPackages(roots[rootIndex]) } }
+    }
+
+    // names of files by packages in the root, if they are known from the snapshot
+    private val knownFileNames: Array<Lazy<Map<String, Set<String>>?>> by lazy {
+        Array(roots.size) { rootIndex -> lazy { snapshot?.getFileNames(roots[rootIndex]) } }
     }
 
     override fun traverseDirectoriesInPackage(
@@ -82,28 +120,30 @@ class JvmDependenciesIndexImpl(_roots: List<JavaRoot>) : JvmDependenciesIndex {
     override fun <T : Any> findClass(
         classId: ClassId,
         acceptedRootTypes: Set<JavaRoot.RootType>,
+        fileName: String?,
         findClassGivenDirectory: (VirtualFile, JavaRoot.RootType) -> T?
     ): T? {
         // make a decision based on information saved from last class search
-        if (lastClassSearch?.first?.classId != classId) {
-            return search(FindClassRequest(classId, acceptedRootTypes), findClassGivenDirectory)
+        val lastClassSearch = lastClassSearch
+        if (lastClassSearch?.first?.classId != classId || lastClassSearch.first.fileName != fileName) {
+            return search(FindClassRequest(classId, acceptedRootTypes, fileName), findClassGivenDirectory)
         }
 
-        val (cachedRequest, cachedResult) = lastClassSearch!!
+        val (cachedRequest, cachedResult) = lastClassSearch
         return when (cachedResult) {
             is SearchResult.NotFound -> {
                 val limitedRootTypes = acceptedRootTypes - cachedRequest.acceptedRootTypes
                 if (limitedRootTypes.isEmpty()) {
                     null
                 } else {
-                    search(FindClassRequest(classId, limitedRootTypes), findClassGivenDirectory)
+                    search(FindClassRequest(classId, limitedRootTypes, fileName), findClassGivenDirectory)
                 }
             }
             is SearchResult.Found -> {
                 if (cachedRequest.acceptedRootTypes == acceptedRootTypes) {
                     findClassGivenDirectory(cachedResult.packageDirectory, cachedResult.root.type)
                 } else {
-                    search(FindClassRequest(classId, acceptedRootTypes), findClassGivenDirectory)
+                    search(FindClassRequest(classId, acceptedRootTypes, fileName), findClassGivenDirectory)
                 }
             }
         }
@@ -121,10 +161,14 @@ class JvmDependenciesIndexImpl(_roots: List<JavaRoot>) : JvmDependenciesIndex {
         // NOTE: indices manipulation instead of using caches.reversed() is here for performance reasons
         for (cacheIndex in caches.lastIndex downTo 0) {
             val cacheRootIndices = caches[cacheIndex].rootIndices
-            for (i in 0..cacheRootIndices.size() - 1) {
+            for (i in 0..cacheRootIndices.size - 1) {
                 val rootIndex = cacheRootIndices[i]
                 if (rootIndex <= processedRootsUpTo) continue // roots with those indices have been processed by now
 
+                if (request is FindClassRequest && request.fileName != null &&
+                    skipRootWithoutFile(rootIndex, request.fileName, request.packageFqName, packagesPath, cacheIndex, caches)
+                ) continue
+
                 val directoryInRoot = travelPath(rootIndex, request.packageFqName, packagesPath, cacheIndex, caches) ?: continue
                 val root = roots[rootIndex]
                 if (root.type in request.acceptedRootTypes) {
@@ -137,7 +181,7 @@ class JvmDependenciesIndexImpl(_roots: List<JavaRoot>) : JvmDependenciesIndex {
                     }
                 }
             }
-            processedRootsUpTo = if (cacheRootIndices.isEmpty) processedRootsUpTo else cacheRootIndices.get(cacheRootIndices.size() - 1)
+            processedRootsUpTo = if (cacheRootIndices.isEmpty()) processedRootsUpTo else cacheRootIndices[cacheRootIndices.size - 1]
         }
 
         if (request is FindClassRequest) {
@@ -158,19 +202,29 @@ class JvmDependenciesIndexImpl(_roots: List<JavaRoot>) : JvmDependenciesIndex {
         if (rootIndex >= maxIndex) {
             for (i in (fillCachesAfter + 1)..(cachesPath.size - 1)) {
                 // we all know roots that contain this package by now
-                cachesPath[i].rootIndices.add(maxIndex)
-                cachesPath[i].rootIndices.trimToSize()
+                cachesPath[i].addRootIndex(maxIndex)
             }
             return null
         }
 
-        return packageCache[rootIndex].getOrPut(packageFqName.asString()) {
-            doTravelPath(rootIndex, packagesPath, fillCachesAfter, cachesPath)
-        }
+        val cache = packageCache[rootIndex]
+        val key = packageFqName.asString()
+        val cached = cache[key]
+        if (cached != null) return cached as? VirtualFile
+
+        // the path may be traveled concurrently by several threads, which is fine since caches are filled idempotently
+        val directory = doTravelPath(rootIndex, packagesPath, fillCachesAfter, cachesPath)
+        cache.putIfAbsent(key, directory ?: NO_DIRECTORY)
+        return directory
     }
 
     private fun doTravelPath(rootIndex: Int, packagesPath: List<String>, fillCachesAfter: Int, cachesPath: List<Cache>): VirtualFile? {
         val pathRoot = roots[rootIndex]
+        val packages = knownPackages[rootIndex].value
+        if (packages != null) {
+            return doTravelKnownPath(rootIndex, packages, packagesPath, fillCachesAfter, cachesPath)
+        }
+
         val prefixPathSegments = pathRoot.prefixFqName?.pathSegments()
 
         var currentFile = pathRoot.file
@@ -189,30 +243,65 @@ class JvmDependenciesIndexImpl(_roots: List<JavaRoot>) : JvmDependenciesIndex {
             val correspondingCacheIndex = pathIndex + 1
             if (correspondingCacheIndex > fillCachesAfter) {
                 // subPackageName exists in this root
-                cachesPath[correspondingCacheIndex].rootIndices.add(rootIndex)
+                cachesPath[correspondingCacheIndex].addRootIndex(rootIndex)
             }
         }
 
         return currentFile
     }
 
-    private fun VirtualFile.findChildPackage(subPackageName: String, rootType: JavaRoot.RootType): VirtualFile? {
-        val childDirectory = findChild(subPackageName) ?: return null
+    // same as doTravelPath, but checks the existence of packages in the snapshot instead of looking for directories
+    private fun doTravelKnownPath(
+        rootIndex: Int,
+        packages: Set<String>,
+        packagesPath: List<String>,
+        fillCachesAfter: Int,
+        cachesPath: List<Cache>
+    ): VirtualFile? {
+        if (!fillKnownCaches(rootIndex, packages, packagesPath, fillCachesAfter, cachesPath)) return null
 
-        val fileExtension = when (rootType) {
-            JavaRoot.RootType.BINARY -> JavaClassFileType.INSTANCE.defaultExtension
-            JavaRoot.RootType.SOURCE -> JavaFileType.INSTANCE.defaultExtension
-        }
+        val root = roots[rootIndex].file
+        return if (packagesPath.isEmpty()) root else root.findFileByRelativePath(packagesPath.joinToString("/"))
+    }
 
-        // If in addition to a directory "foo" there's a class file "foo.class" AND there are no classes anywhere in the directory "foo",
-        // then we ignore the directory and let the resolution choose the class "foo" instead.
-        if (findChild("$subPackageName.$fileExtension")?.isDirectory == false) {
-            if (VfsUtilCore.processFilesRecursively(childDirectory) { file -> file.extension != fileExtension }) {
-                return null
+    // fills caches of the packages on the path which exist in the root, returns true if the whole path exists
+    private fun fillKnownCaches(
+        rootIndex: Int,
+        packages: Set<String>,
+        packagesPath: List<String>,
+        fillCachesAfter: Int,
+        cachesPath: List<Cache>
+    ): Boolean {
+        val packageFqName = StringBuilder()
+        for (pathIndex in packagesPath.indices) {
+            if (pathIndex > 0) packageFqName.append('.')
+            packageFqName.append(packagesPath[pathIndex])
+            if (packageFqName.toString() !in packages) return false
+
+            val correspondingCacheIndex = pathIndex + 1
+            if (correspondingCacheIndex > fillCachesAfter) {
+                cachesPath[correspondingCacheIndex].addRootIndex(rootIndex)
             }
         }
+        return true
+    }
+
+    // Returns true if the root is known from the snapshot not to contain the file in the package, then the root is not traversed,
+    // but the caches are filled as if it was
+    private fun skipRootWithoutFile(
+        rootIndex: Int,
+        fileName: String,
+        packageFqName: FqName,
+        packagesPath: List<String>,
+        fillCachesAfter: Int,
+        cachesPath: List<Cache>
+    ): Boolean {
+        if (rootIndex >= maxIndex) return false
+        val fileNames = knownFileNames[rootIndex].value ?: return false
+        if (fileNames[packageFqName.asString()]?.contains(fileName) != false) return false
 
-        return childDirectory
+        fillKnownCaches(rootIndex, fileNames.keys, packagesPath, fillCachesAfter, cachesPath)
+        return true
     }
 
     private fun cachesPath(path: List<String>): List<Cache> {
@@ -226,7 +315,11 @@ class JvmDependenciesIndexImpl(_roots: List<JavaRoot>) : JvmDependenciesIndex {
         return caches
     }
 
-    private data class FindClassRequest(val classId: ClassId, override val acceptedRootTypes: Set<JavaRoot.RootType>) : SearchRequest {
+    private data class FindClassRequest(
+        val classId: ClassId,
+        override val acceptedRootTypes: Set<JavaRoot.RootType>,
+        val fileName: String?
+    ) : SearchRequest {
         override val packageFqName: FqName
             get() = classId.packageFqName
     }
@@ -246,4 +339,29 @@ class JvmDependenciesIndexImpl(_roots: List<JavaRoot>) : JvmDependenciesIndex {
 
         object NotFound : SearchResult()
     }
+
+    private companion object {
+        val EMPTY_ROOT_INDICES = IntArray(0)
+
+        val NO_DIRECTORY = Any()
+    }
+}
+
+internal fun VirtualFile.findChildPackage(subPackageName: String, rootType: JavaRoot.RootType): VirtualFile? {
+    val childDirectory = findChild(subPackageName) ?: return null
+
+    val fileExtension = when (rootType) {
+        JavaRoot.RootType.BINARY -> JavaClassFileType.INSTANCE.defaultExtension
+        JavaRoot.RootType.SOURCE -> JavaFileType.INSTANCE.defaultExtension
+    }
+
+    // If in addition to a directory "foo" there's a class file "foo.class" AND there are no classes anywhere in the directory "foo",
+    // then we ignore the directory and let the resolution choose the class "foo" instead.
+    if (findChild("$subPackageName.$fileExtension")?.isDirectory == false) {
+        if (VfsUtilCore.processFilesRecursively(childDirectory) { file -> file.extension != fileExtension }) {
+            return null
+        }
+    }
+
+    return childDirectory
 }
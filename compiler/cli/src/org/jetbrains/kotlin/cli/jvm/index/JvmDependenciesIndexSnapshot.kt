@@ -0,0 +1,403 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.cli.jvm.index
+
+import com.intellij.ide.highlighter.JavaClassFileType
+import com.intellij.openapi.vfs.StandardFileSystems
+import com.intellij.openapi.vfs.VfsUtilCore
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.util.io.URLUtil
+import org.jetbrains.kotlin.load.kotlin.FileBasedKotlinClass
+import org.jetbrains.kotlin.load.kotlin.KotlinClassFinder
+import org.jetbrains.kotlin.load.kotlin.VirtualFileKotlinClass
+import org.jetbrains.kotlin.load.kotlin.header.KotlinClassHeader
+import org.jetbrains.kotlin.metadata.jvm.deserialization.JvmBytecodeBinaryVersion
+import org.jetbrains.kotlin.metadata.jvm.deserialization.JvmMetadataVersion
+import org.jetbrains.kotlin.metadata.jvm.deserialization.ModuleMapping
+import org.jetbrains.kotlin.name.ClassId
+import java.io.*
+import java.nio.ByteBuffer
+import java.nio.channels.FileChannel
+import java.nio.file.StandardOpenOption
+import java.util.concurrent.ConcurrentHashMap
+
+/**
+ * Persists pre-indexed metadata of classpath jars:
+ * - the names of files in each package, used by [JvmDependenciesIndexImpl] to find packages and to skip the jars which don't have
+ *   the requested class without opening them;
+ * - the contents of module mapping files, used by JvmPackagePartProvider;
+ * - the headers of Kotlin class files (names, `kotlin.Metadata` protos and inner classes), used by CliVirtualFileFinder to create
+ *   binary classes without reading the class files. Headers are stored only for jars with module mappings, i.e. Kotlin libraries.
+ *
+ * A jar is considered unchanged if its path, size and modification time are the same as when the snapshot was saved.
+ * Directories and source roots are never snapshotted, because they are likely to change between compilations.
+ *
+ * Snapshot files are memory-mapped, and class headers are decoded from the mapping only when requested. A snapshot file is never
+ * overwritten, since a mapped file can't be replaced on Windows: its name contains the stamp of the jar, so a changed jar gets
+ * a new snapshot file, and snapshots of the previous versions of the jar are deleted when possible.
+ *
+ * Loaded snapshots of the most recently used jars are also kept in memory, so that subsequent compilations in the same process
+ * (e.g. in the daemon) don't read them again. The least recently used ones are evicted first, and their files are unmapped once
+ * the compilations using them are finished and the buffers are collected.
+ *
+ * Binary classes created from the headers are cached by this instance, i.e. for the lifetime of its environment.
+ */
+class JvmDependenciesIndexSnapshot(private val storageDir: File) {
+    // snapshots of the jars requested by this compilation, by the paths of the jars
+    private val snapshotsByJarPath = ConcurrentHashMap<String, JarSnapshot>()
+
+    private val kotlinClasses = ConcurrentHashMap<VirtualFile, KotlinClassFinder.Result.KotlinClass>()
+
+    fun getPackages(root: JavaRoot): Set<String>? = getJarSnapshot(root)?.files?.keys
+
+    /**
+     * Returns the names of files in the directories of packages in the root by the packages' fq names.
+     */
+    fun getFileNames(root: JavaRoot): Map<String, Set<String>>? = getJarSnapshot(root)?.files
+
+    /**
+     * Returns the contents of the module mapping files in the root's META-INF directory by their file names.
+     */
+    fun getModuleMappings(root: JavaRoot): Map<String, ByteArray>? = getJarSnapshot(root)?.moduleMappings
+
+    /**
+     * Returns the Kotlin binary class for the class [file] in a snapshotted jar, or `null` if its header is not in the snapshot.
+     * In the latter case, the file is either not a Kotlin class, or it should be read as usual.
+     */
+    fun getKotlinClass(file: VirtualFile): KotlinClassFinder.Result.KotlinClass? {
+        if (file.fileSystem.protocol != StandardFileSystems.JAR_PROTOCOL) return null
+        kotlinClasses[file]?.let { return it }
+
+        val jarPath = file.path.substringBefore(URLUtil.JAR_SEPARATOR)
+        val snapshot = snapshotsByJarPath[jarPath]
+            ?: getJarSnapshot(JavaRoot(VfsUtilCore.getRootFile(file), JavaRoot.RootType.BINARY))
+            ?: return null
+        val kotlinClass = snapshot.readKotlinClass(file)?.let(KotlinClassFinder.Result::KotlinClass) ?: return null
+        return kotlinClasses.putIfAbsent(file, kotlinClass) ?: kotlinClass
+    }
+
+    private fun getJarSnapshot(root: JavaRoot): JarSnapshot? {
+        if (root.type != JavaRoot.RootType.BINARY || root.prefixFqName != null) return null
+        if (root.file.fileSystem.protocol != StandardFileSystems.JAR_PROTOCOL) return null
+
+        val jarPath = root.file.path.substringBefore(URLUtil.JAR_SEPARATOR)
+        snapshotsByJarPath[jarPath]?.let { return it }
+
+        val jar = File(jarPath)
+        if (!jar.isFile) return null
+
+        val stamp = JarStamp(jar.absolutePath, jar.length(), jar.lastModified())
+        // the snapshot is loaded outside of the lock, two compilations may load the same snapshot, which is harmless
+        val snapshot = synchronized(loadedSnapshots) { loadedSnapshots[stamp] } ?: run {
+            val storageFile = File(storageDir, "${storageFilePrefix(stamp)}${Integer.toHexString(stamp.hashCode())}$SNAPSHOT_EXTENSION")
+            val loaded = load(storageFile, stamp) ?: collect(root.file, stamp, storageFile)
+            synchronized(loadedSnapshots) { loadedSnapshots[stamp] = loaded }
+            loaded
+        }
+
+        snapshotsByJarPath[jarPath] = snapshot
+        return snapshot
+    }
+
+    private data class JarStamp(val path: String, val length: Long, val lastModified: Long)
+
+    /**
+     * @param kotlinClasses offsets of the headers of Kotlin classes in [buffer] by the paths of class files relative to the jar root
+     */
+    private class JarSnapshot(
+        val files: Map<String, Set<String>>,
+        val moduleMappings: Map<String, ByteArray>,
+        private val kotlinClasses: Map<String, Int>,
+        private val buffer: ByteBuffer
+    ) {
+        fun readKotlinClass(file: VirtualFile): VirtualFileKotlinClass? {
+            val offset = kotlinClasses[file.path.substringAfter(URLUtil.JAR_SEPARATOR)] ?: return null
+            val input = DataInputStream(ByteBufferInputStream(buffer.duplicate().apply { position(offset) }))
+
+            val classId = ClassId.fromString(input.readUTF(), input.readBoolean())
+            val classVersion = input.readInt()
+            val header = KotlinClassHeader(
+                KotlinClassHeader.Kind.getById(input.readInt()),
+                JvmMetadataVersion(input.readIntArray(), input.readBoolean()),
+                JvmBytecodeBinaryVersion(*input.readIntArray()),
+                input.readStringArray(),
+                input.readStringArray(),
+                input.readStringArray(),
+                input.readNullableUTF(),
+                input.readInt(),
+                input.readNullableUTF()
+            )
+            val innerClasses = FileBasedKotlinClass.InnerClassesInfo()
+            repeat(input.readInt()) {
+                innerClasses.add(input.readUTF(), input.readNullableUTF(), input.readNullableUTF())
+            }
+            return VirtualFileKotlinClass.createFromHeader(file, classId, classVersion, header, innerClasses)
+        }
+    }
+
+    private fun load(storageFile: File, expectedStamp: JarStamp): JarSnapshot? {
+        if (!storageFile.exists()) return null
+
+        return try {
+            val buffer = FileChannel.open(storageFile.toPath(), StandardOpenOption.READ).use { channel ->
+                channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())
+            }
+            read(buffer, expectedStamp)
+        } catch (e: IOException) {
+            null
+        }
+    }
+
+    private fun read(buffer: ByteBuffer, expectedStamp: JarStamp): JarSnapshot? {
+        val input = DataInputStream(ByteBufferInputStream(buffer.duplicate()))
+        if (input.readInt() != VERSION) return null
+
+        val stamp = JarStamp(input.readUTF(), input.readLong(), input.readLong())
+        if (stamp != expectedStamp) return null
+
+        val packagesCount = input.readInt()
+        val files = HashMap<String, Set<String>>(packagesCount)
+        repeat(packagesCount) {
+            val packageFqName = input.readUTF()
+            val filesCount = input.readInt()
+            files[packageFqName] = (0 until filesCount).mapTo(HashSet(filesCount)) { input.readUTF() }
+        }
+
+        val moduleMappingsCount = input.readInt()
+        val moduleMappings = LinkedHashMap<String, ByteArray>(moduleMappingsCount)
+        repeat(moduleMappingsCount) {
+            val name = input.readUTF()
+            moduleMappings[name] = ByteArray(input.readInt()).also(input::readFully)
+        }
+
+        // headers follow the table of their offsets, which are relative to the end of the table
+        val kotlinClassesCount = input.readInt()
+        val offsets = HashMap<String, Int>(kotlinClassesCount)
+        repeat(kotlinClassesCount) {
+            offsets[input.readUTF()] = input.readInt()
+        }
+        val headersStart = buffer.limit() - input.available()
+        for (entry in offsets.entries) {
+            entry.setValue(entry.value + headersStart)
+        }
+
+        return JarSnapshot(files, moduleMappings, offsets, buffer)
+    }
+
+    private fun save(storageFile: File, stamp: JarStamp, bytes: ByteArray) {
+        try {
+            storageDir.mkdirs()
+            // write to a temporary file first, so that a concurrent compilation never sees an incomplete snapshot
+            val tmpFile = File.createTempFile(storageFile.name, ".tmp", storageDir)
+            tmpFile.writeBytes(bytes)
+            if (!tmpFile.renameTo(storageFile)) {
+                // the snapshot has been saved by a concurrent compilation, and may be mapped by it
+                tmpFile.delete()
+            }
+
+            // snapshots of previous versions of the jar, may fail to be deleted on Windows if another process maps them
+            val prefix = storageFilePrefix(stamp)
+            storageDir.listFiles { file -> file.name.startsWith(prefix) && file.name.endsWith(SNAPSHOT_EXTENSION) && file != storageFile }
+                ?.forEach { it.delete() }
+        } catch (e: IOException) {
+            // the snapshot is only an optimization
+        }
+    }
+
+    private fun storageFilePrefix(stamp: JarStamp): String = "${File(stamp.path).name}-${Integer.toHexString(stamp.path.hashCode())}-"
+
+    // collected snapshots are serialized right away, so that they're read in the same way as the loaded ones
+    private fun collect(root: VirtualFile, stamp: JarStamp, storageFile: File): JarSnapshot {
+        val bytes = serialize(stamp, collectFiles(root), collectModuleMappings(root), root)
+        save(storageFile, stamp, bytes)
+        return read(ByteBuffer.wrap(bytes), stamp)!!
+    }
+
+    private fun serialize(
+        stamp: JarStamp,
+        files: Map<String, Set<String>>,
+        moduleMappings: Map<String, ByteArray>,
+        root: VirtualFile
+    ): ByteArray {
+        val headers = ByteArrayOutputStream()
+        val offsets = LinkedHashMap<String, Int>()
+        if (moduleMappings.isNotEmpty()) {
+            val headersOutput = DataOutputStream(headers)
+            for ((packageFqName, names) in files) {
+                val packagePath = packageFqName.replace('.', '/')
+                for (name in names) {
+                    if (!name.endsWith(CLASS_FILE_SUFFIX)) continue
+                    val path = if (packagePath.isEmpty()) name else "$packagePath/$name"
+                    val file = root.findFileByRelativePath(path) ?: continue
+                    val offset = headersOutput.size()
+                    if (writeKotlinClassHeader(headersOutput, file)) {
+                        offsets[path] = offset
+                    }
+                }
+            }
+            headersOutput.flush()
+        }
+
+        val result = ByteArrayOutputStream()
+        DataOutputStream(result).use { output ->
+            output.writeInt(VERSION)
+            output.writeUTF(stamp.path)
+            output.writeLong(stamp.length)
+            output.writeLong(stamp.lastModified)
+            output.writeInt(files.size)
+            for ((packageFqName, names) in files) {
+                output.writeUTF(packageFqName)
+                output.writeInt(names.size)
+                names.forEach(output::writeUTF)
+            }
+            output.writeInt(moduleMappings.size)
+            for ((name, bytes) in moduleMappings) {
+                output.writeUTF(name)
+                output.writeInt(bytes.size)
+                output.write(bytes)
+            }
+            output.writeInt(offsets.size)
+            for ((path, offset) in offsets) {
+                output.writeUTF(path)
+                output.writeInt(offset)
+            }
+            headers.writeTo(output)
+        }
+        return result.toByteArray()
+    }
+
+    // returns false if the file is not a Kotlin class, then nothing is written
+    private fun writeKotlinClassHeader(output: DataOutputStream, file: VirtualFile): Boolean {
+        val contents = try {
+            file.contentsToByteArray()
+        } catch (e: IOException) {
+            return false
+        }
+        val bytes = ByteArrayOutputStream()
+        val written = try {
+            FileBasedKotlinClass.create(contents) { classId, classVersion, header, innerClasses ->
+                DataOutputStream(bytes).use { headerOutput ->
+                    headerOutput.writeUTF(classId.asString())
+                    headerOutput.writeBoolean(classId.isLocal)
+                    headerOutput.writeInt(classVersion)
+                    headerOutput.writeInt(header.kind.id)
+                    headerOutput.writeIntArray(header.metadataVersion.toArray())
+                    headerOutput.writeBoolean(header.metadataVersion.isStrictSemantics)
+                    headerOutput.writeIntArray(header.bytecodeVersion.toArray())
+                    headerOutput.writeStringArray(header.data)
+                    headerOutput.writeStringArray(header.incompatibleData)
+                    headerOutput.writeStringArray(header.strings)
+                    // the extra string is only used as the name of the facade of a multi-file class part
+                    headerOutput.writeNullableUTF(header.multifileClassName)
+                    headerOutput.writeInt(header.extraInt)
+                    headerOutput.writeNullableUTF(header.packageName)
+                    val allInnerClasses = innerClasses.all
+                    headerOutput.writeInt(allInnerClasses.size)
+                    for ((name, outerAndInner) in allInnerClasses) {
+                        headerOutput.writeUTF(name)
+                        headerOutput.writeNullableUTF(outerAndInner.outerInternalName)
+                        headerOutput.writeNullableUTF(outerAndInner.innerSimpleName)
+                    }
+                }
+                true
+            } ?: false
+        } catch (e: Exception) {
+            // malformed class files are reported when they're read as usual
+            false
+        }
+        if (written) {
+            bytes.writeTo(output)
+        }
+        return written
+    }
+
+    // collects packages in the same way as JvmDependenciesIndexImpl finds them, i.e. with the same check for directories named as classes
+    private fun collectFiles(root: VirtualFile): Map<String, Set<String>> {
+        val result = LinkedHashMap<String, Set<String>>()
+
+        fun collect(directory: VirtualFile, fqName: String) {
+            val names = HashSet<String>()
+            result[fqName] = names
+            for (child in directory.children) {
+                if (!child.isDirectory) {
+                    names.add(child.name)
+                    continue
+                }
+
+                val packageDirectory = directory.findChildPackage(child.name, JavaRoot.RootType.BINARY) ?: continue
+                collect(packageDirectory, if (fqName.isEmpty()) child.name else "$fqName.${child.name}")
+            }
+        }
+
+        collect(root, "")
+        return result
+    }
+
+    private class ByteBufferInputStream(private val buffer: ByteBuffer) : InputStream() {
+        override fun read(): Int = if (buffer.hasRemaining()) buffer.get().toInt() and 0xFF else -1
+
+        override fun read(b: ByteArray, off: Int, len: Int): Int {
+            if (len == 0) return 0
+            if (!buffer.hasRemaining()) return -1
+            val count = minOf(len, buffer.remaining())
+            buffer.get(b, off, count)
+            return count
+        }
+
+        override fun available(): Int = buffer.remaining()
+    }
+
+    private companion object {
+        const val VERSION = 3
+
+        const val MAX_LOADED_SNAPSHOTS = 4096
+
+        const val SNAPSHOT_EXTENSION = ".snapshot"
+
+        val CLASS_FILE_SUFFIX = "." + JavaClassFileType.INSTANCE.defaultExtension
+
+        // in the order of access, see removeEldestEntry
+        val loadedSnapshots = object : LinkedHashMap<JarStamp, JarSnapshot>(16, 0.75f, /* accessOrder = */ true) {
+            override fun removeEldestEntry(eldest: MutableMap.MutableEntry<JarStamp, JarSnapshot>): Boolean =
+                size > MAX_LOADED_SNAPSHOTS
+        }
+    }
+}
+
+private fun DataOutput.writeNullableUTF(value: String?) {
+    writeBoolean(value != null)
+    if (value != null) writeUTF(value)
+}
+
+private fun DataInput.readNullableUTF(): String? = if (readBoolean()) readUTF() else null
+
+private fun DataOutput.writeIntArray(array: IntArray) {
+    writeInt(array.size)
+    array.forEach(this::writeInt)
+}
+
+private fun DataInput.readIntArray(): IntArray = IntArray(readInt()) { readInt() }
+
+private fun DataOutput.writeStringArray(array: Array<String>?) {
+    writeInt(array?.size ?: -1)
+    array?.forEach(this::writeUTF)
+}
+
+private fun DataInput.readStringArray(): Array<String>? {
+    val size = readInt()
+    return if (size < 0) null else Array(size) { readUTF() }
+}
+
+internal fun collectModuleMappings(root: VirtualFile): Map<String, ByteArray> {
+    val metaInf = root.findChild("META-INF") ?: return emptyMap()
+    val result = LinkedHashMap<String, ByteArray>()
+    for (moduleFile in metaInf.children) {
+        if (moduleFile.name.endsWith(ModuleMapping.MAPPING_FILE_EXT)) {
+            result[moduleFile.name] = moduleFile.contentsToByteArray()
+        }
+    }
+    return result
+}
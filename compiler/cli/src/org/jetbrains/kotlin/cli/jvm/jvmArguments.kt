@@ -6,8 +6,10 @@
 package org.jetbrains.kotlin.cli.jvm
 
 import org.jetbrains.kotlin.cli.common.CLIConfigurationKeys
+import org.jetbrains.kotlin.cli.common.KOTLIN_COMPILER_ENVIRONMENT_KEEPALIVE_PROPERTY
 import org.jetbrains.kotlin.cli.common.arguments.K2JVMCompilerArguments
 import org.jetbrains.kotlin.cli.common.getLibraryFromHome
+import org.jetbrains.kotlin.cli.common.toBooleanLenient
 import org.jetbrains.kotlin.cli.common.messages.CompilerMessageSeverity.*
 import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment
 import org.jetbrains.kotlin.cli.jvm.config.JvmClasspathRoot
@@ -153,6 +155,37 @@ fun CompilerConfiguration.configureAdvancedJvmOptions(arguments: K2JVMCompilerAr
     )
     put(JVMConfigurationKeys.DISABLE_OPTIMIZATION, arguments.noOptimize)
 
+    arguments.parallelBackendThreads?.let { value ->
+        val threads = value.toIntOrNull()
+        if (threads == null || threads < 0) {
+            getNotNull(CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY).report(
+                ERROR,
+                "Invalid number of parallel backend threads: $value, it should be a non-negative integer"
+            )
+        } else {
+            put(JVMConfigurationKeys.PARALLEL_BACKEND_THREADS, threads)
+        }
+    }
+
+    arguments.inlineCacheSize?.let { value ->
+        val size = value.toIntOrNull()
+        if (size == null || size < 0) {
+            getNotNull(CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY).report(
+                ERROR,
+                "Invalid inline cache size: $value, it should be a non-negative number of megabytes"
+            )
+        } else {
+            put(JVMConfigurationKeys.INLINE_CACHE_SIZE, size)
+        }
+    }
+    // The daemon keeps the application environment between compilations, so it's worth keeping the inline cache as well,
+    // and the indices of classpath jars, whose virtual files belong to the application environment
+    val keepEnvironmentAlive = System.getProperty(KOTLIN_COMPILER_ENVIRONMENT_KEEPALIVE_PROPERTY).toBooleanLenient() == true
+    put(JVMConfigurationKeys.SHARE_INLINE_CACHE, keepEnvironmentAlive)
+    put(JVMConfigurationKeys.SHARE_CLASSPATH_INDEX, keepEnvironmentAlive)
+
+    put(JVMConfigurationKeys.STREAMING_OUTPUT, arguments.streamingOutput)
+
     if (!JVMConstructorCallNormalizationMode.isSupportedValue(arguments.constructorCallNormalizationMode)) {
         getNotNull(CLIConfigurationKeys.MESSAGE_COLLECTOR_KEY).report(
             ERROR,
@@ -195,6 +228,8 @@ fun CompilerConfiguration.configureAdvancedJvmOptions(arguments: K2JVMCompilerAr
 
     put(CLIConfigurationKeys.ALLOW_KOTLIN_PACKAGE, arguments.allowKotlinPackage)
     put(JVMConfigurationKeys.USE_SINGLE_MODULE, arguments.singleModule)
+    put(JVMConfigurationKeys.CONCURRENT_RESOLVE, arguments.concurrentResolve)
 
     arguments.declarationsOutputPath?.let { put(JVMConfigurationKeys.DECLARATIONS_JSON_PATH, it) }
+    arguments.dependenciesIndexCache?.let { put(JVMConfigurationKeys.DEPENDENCIES_INDEX_SNAPSHOT_DIR, File(it)) }
 }
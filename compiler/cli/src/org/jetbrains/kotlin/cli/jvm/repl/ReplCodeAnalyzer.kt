@@ -41,7 +41,6 @@ import org.jetbrains.kotlin.resolve.lazy.*
 import org.jetbrains.kotlin.resolve.lazy.data.KtClassLikeInfo
 import org.jetbrains.kotlin.resolve.lazy.declarations.*
 import org.jetbrains.kotlin.resolve.scopes.ImportingScope
-import org.jetbrains.kotlin.resolve.scopes.utils.parentsWithSelf
 import org.jetbrains.kotlin.resolve.scopes.utils.replaceImportingScopes
 import org.jetbrains.kotlin.script.ScriptPriorities
 
@@ -124,17 +123,12 @@ class ReplCodeAnalyzer(environment: KotlinCoreEnvironment) {
 
     private class ScriptMutableDeclarationProviderFactory : DeclarationProviderFactory {
         private lateinit var delegateFactory: DeclarationProviderFactory
-        private lateinit var rootPackageProvider: AdaptablePackageMemberDeclarationProvider
+        private val rootPackageProvider = ReplPackageMemberDeclarationProvider()
 
         fun setDelegateFactory(delegateFactory: DeclarationProviderFactory) {
             this.delegateFactory = delegateFactory
 
-            val provider = delegateFactory.getPackageMemberDeclarationProvider(FqName.ROOT)!!
-            try {
-                rootPackageProvider.addDelegateProvider(provider)
-            } catch (e: UninitializedPropertyAccessException) {
-                rootPackageProvider = AdaptablePackageMemberDeclarationProvider(provider)
-            }
+            rootPackageProvider.addLineProvider(delegateFactory.getPackageMemberDeclarationProvider(FqName.ROOT)!!)
         }
 
         override fun getClassMemberDeclarationProvider(classLikeInfo: KtClassLikeInfo): ClassMemberDeclarationProvider {
@@ -152,16 +146,6 @@ class ReplCodeAnalyzer(environment: KotlinCoreEnvironment) {
         override fun diagnoseMissingPackageFragment(fqName: FqName, file: KtFile?) {
             delegateFactory.diagnoseMissingPackageFragment(fqName, file)
         }
-
-        class AdaptablePackageMemberDeclarationProvider(
-            private var delegateProvider: PackageMemberDeclarationProvider
-        ) : DelegatePackageMemberDeclarationProvider(delegateProvider) {
-            fun addDelegateProvider(provider: PackageMemberDeclarationProvider) {
-                delegateProvider = CombinedPackageMemberDeclarationProvider(listOf(provider, delegateProvider))
-
-                delegate = delegateProvider
-            }
-        }
     }
 
     // TODO: merge with org.jetbrains.kotlin.resolve.repl.ReplState when switching to new REPL infrastructure everywhere
@@ -192,7 +176,9 @@ class ReplCodeAnalyzer(environment: KotlinCoreEnvironment) {
         }
 
         fun lineSuccess(ktFile: KtFile, codeLine: ReplCodeLine, scriptDescriptor: ClassDescriptorWithResolutionScopes) {
-            val successfulLine = LineInfo.SuccessfulLine(ktFile, successfulLines.lastValue(), scriptDescriptor)
+            val parentLine = successfulLines.lastValue()
+            val importsOfLine = (lineInfo(ktFile) as? LineInfo.SubmittedLine)?.importsOfLine ?: parentLine?.importsOfLine
+            val successfulLine = LineInfo.SuccessfulLine(ktFile, parentLine, scriptDescriptor, importsOfLine)
             submittedLines[ktFile] = successfulLine
             successfulLines.add(CompiledReplCodeLine(ktFile.name, codeLine), successfulLine)
         }
@@ -208,21 +194,30 @@ class ReplCodeAnalyzer(environment: KotlinCoreEnvironment) {
             abstract val linePsi: KtFile
             abstract val parentLine: SuccessfulLine?
 
-            class SubmittedLine(override val linePsi: KtFile, override val parentLine: SuccessfulLine?) : LineInfo()
+            class SubmittedLine(override val linePsi: KtFile, override val parentLine: SuccessfulLine?) : LineInfo() {
+                // the importing scope of the import directives of this and the previous lines, known once the line scopes are created
+                var importsOfLine: ImportingScope? = null
+            }
+
             class SuccessfulLine(
                 override val linePsi: KtFile,
                 override val parentLine: SuccessfulLine?,
-                val lineDescriptor: ClassDescriptorWithResolutionScopes
+                val lineDescriptor: ClassDescriptorWithResolutionScopes,
+                val importsOfLine: ImportingScope?
             ) : LineInfo()
 
             class FailedLine(override val linePsi: KtFile, override val parentLine: SuccessfulLine?) : LineInfo()
         }
 
-        private fun computeFileScopes(lineInfo: LineInfo, fileScopeFactory: FileScopeFactory): FileScopes? {
+        private fun computeFileScopes(lineInfo: LineInfo, fileScopeFactory: FileScopeFactory): FileScopes {
+            // only the import directives of the previous lines are carried over, so the importing scope doesn't grow with the history
+            val parentLine = lineInfo.parentLine
+            val (scopesForThisLine, importsOfThisLine) =
+                fileScopeFactory.createScopesForReplLine(lineInfo.linePsi, parentLine?.importsOfLine)
+            (lineInfo as? LineInfo.SubmittedLine)?.importsOfLine = importsOfThisLine
+
             // create scope that wraps previous line lexical scope and adds imports from this line
-            val lexicalScopeAfterLastLine = lineInfo.parentLine?.lineDescriptor?.scopeForInitializerResolution ?: return null
-            val lastLineImports = lexicalScopeAfterLastLine.parentsWithSelf.first { it is ImportingScope } as ImportingScope
-            val scopesForThisLine = fileScopeFactory.createScopesForFile(lineInfo.linePsi, lastLineImports)
+            val lexicalScopeAfterLastLine = parentLine?.lineDescriptor?.scopeForInitializerResolution ?: return scopesForThisLine
             val combinedLexicalScopes = lexicalScopeAfterLastLine.replaceImportingScopes(scopesForThisLine.importingScope)
             return FileScopes(combinedLexicalScopes, scopesForThisLine.importingScope, scopesForThisLine.importForceResolver)
         }
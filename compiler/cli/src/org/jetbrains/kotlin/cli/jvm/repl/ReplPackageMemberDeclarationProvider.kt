@@ -0,0 +1,78 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.cli.jvm.repl
+
+import org.jetbrains.kotlin.name.FqName
+import org.jetbrains.kotlin.name.Name
+import org.jetbrains.kotlin.psi.KtDeclaration
+import org.jetbrains.kotlin.psi.KtDestructuringDeclarationEntry
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.psi.psiUtil.safeNameForLazyResolve
+import org.jetbrains.kotlin.resolve.lazy.data.KtClassOrObjectInfo
+import org.jetbrains.kotlin.resolve.lazy.data.KtScriptInfo
+import org.jetbrains.kotlin.resolve.lazy.declarations.PackageMemberDeclarationProvider
+import org.jetbrains.kotlin.resolve.scopes.DescriptorKindFilter
+import org.jetbrains.kotlin.utils.SmartList
+
+/**
+ * The declarations of a package from all lines of a REPL session, where the declarations of the later lines come first.
+ *
+ * The names declared by a line are indexed once the line is added, so a lookup by name consults only the lines declaring the name,
+ * and its cost doesn't grow with the number of lines in the session. Only the queries for all declarations, which are not made
+ * on the resolution of a line, go through every line.
+ */
+class ReplPackageMemberDeclarationProvider : PackageMemberDeclarationProvider {
+    private val lineProviders = ArrayList<PackageMemberDeclarationProvider>()
+    private val lineProvidersByName = HashMap<Name, MutableList<PackageMemberDeclarationProvider>>()
+    private val declarationNames = HashSet<Name>()
+    private val packageFiles = ArrayList<KtFile>()
+    private val packageFileSet = HashSet<KtFile>()
+    private val subPackages = LinkedHashSet<FqName>()
+
+    fun addLineProvider(provider: PackageMemberDeclarationProvider) {
+        lineProviders.add(provider)
+        for (name in provider.getDeclarationNames()) {
+            lineProvidersByName.getOrPut(name) { SmartList() }.add(provider)
+        }
+        declarationNames.addAll(provider.getDeclarationNames())
+        provider.getPackageFiles().let {
+            packageFiles.addAll(it)
+            packageFileSet.addAll(it)
+        }
+        subPackages.addAll(provider.getAllDeclaredSubPackages { true })
+    }
+
+    private inline fun <T> collect(name: Name, get: PackageMemberDeclarationProvider.() -> Collection<T>): List<T> {
+        val providers = lineProvidersByName[name.safeNameForLazyResolve()] ?: return emptyList()
+        return providers.asReversed().flatMap { it.get() }
+    }
+
+    override fun getAllDeclaredSubPackages(nameFilter: (Name) -> Boolean): Collection<FqName> =
+        subPackages.filter { nameFilter(it.shortName()) }
+
+    override fun getPackageFiles(): Collection<KtFile> = packageFiles.asReversed()
+
+    override fun containsFile(file: KtFile) = file in packageFileSet
+
+    override fun getDeclarations(kindFilter: DescriptorKindFilter, nameFilter: (Name) -> Boolean): List<KtDeclaration> =
+        lineProviders.asReversed().flatMap { it.getDeclarations(kindFilter, nameFilter) }
+
+    override fun getFunctionDeclarations(name: Name) = collect(name) { getFunctionDeclarations(name) }
+
+    override fun getPropertyDeclarations(name: Name) = collect(name) { getPropertyDeclarations(name) }
+
+    override fun getDestructuringDeclarationsEntries(name: Name): Collection<KtDestructuringDeclarationEntry> =
+        collect(name) { getDestructuringDeclarationsEntries(name) }
+
+    override fun getClassOrObjectDeclarations(name: Name): Collection<KtClassOrObjectInfo<*>> =
+        collect(name) { getClassOrObjectDeclarations(name) }
+
+    override fun getScriptDeclarations(name: Name): Collection<KtScriptInfo> = collect(name) { getScriptDeclarations(name) }
+
+    override fun getTypeAliasDeclarations(name: Name) = collect(name) { getTypeAliasDeclarations(name) }
+
+    override fun getDeclarationNames(): Set<Name> = declarationNames
+}
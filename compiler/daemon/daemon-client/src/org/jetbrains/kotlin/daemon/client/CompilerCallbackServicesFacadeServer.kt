@@ -96,6 +96,10 @@ open class CompilerCallbackServicesFacadeServer(
         }
     }
 
+    override fun lookupTracker_recordCompact(lookups: CompactLookups) {
+        lookups.replayTo(lookupTracker!!)
+    }
+
     private val lookupTracker_isDoNothing: Boolean = lookupTracker === LookupTracker.DO_NOTHING
 
     override fun lookupTracker_isDoNothing(): Boolean = lookupTracker_isDoNothing
@@ -28,6 +28,7 @@ import java.io.PrintStream
 import java.net.SocketException
 import java.rmi.ConnectException
 import java.rmi.ConnectIOException
+import java.rmi.RemoteException
 import java.rmi.UnmarshalException
 import java.rmi.server.UnicastRemoteObject
 import java.util.concurrent.Semaphore
@@ -101,10 +102,12 @@ object KotlinCompilerClient {
             registerClient(clientAliveFlagFile.absolutePath)
             reportingTargets.report(DaemonReportCategory.DEBUG, "connected to the daemon")
 
-            if (!leaseSession) return CompileServiceSession(this, CompileService.NO_SESSION)
+            val service = withTransport(daemonOptions, reportingTargets)
+
+            if (!leaseSession) return CompileServiceSession(service, CompileService.NO_SESSION)
 
             return leaseCompileSession(sessionAliveFlagFile?.absolutePath).takeUnless { it is CompileService.CallResult.Dying }?.let {
-                CompileServiceSession(this, it.get())
+                CompileServiceSession(service, it.get())
             }
         }
 
@@ -341,6 +344,24 @@ object KotlinCompilerClient {
         return null
     }
 
+    // the daemon may have been started without the socket transport by another client, then RMI is used
+    private fun CompileService.withTransport(daemonOptions: DaemonOptions, reportingTargets: DaemonReportingTargets): CompileService {
+        if (daemonOptions.transport != DAEMON_TRANSPORT_SOCKET) return this
+
+        val endpoint = try {
+            getSocketTransportEndpoint().takeIf { it.isGood }?.get()
+        } catch (e: RemoteException) {
+            reportingTargets.report(DaemonReportCategory.DEBUG, "unable to get socket transport endpoint: ${e.message}")
+            null
+        }
+        if (endpoint == null) {
+            reportingTargets.report(DaemonReportCategory.DEBUG, "socket transport is not available, using RMI")
+            return this
+        }
+        reportingTargets.report(DaemonReportCategory.DEBUG, "using $endpoint")
+        return SocketTransportCompileService(this, endpoint)
+    }
+
     private fun tryFindSuitableDaemonOrNewOpts(registryDir: File, compilerId: CompilerId, daemonJVMOptions: DaemonJVMOptions, report: (DaemonReportCategory, String) -> Unit): Pair<CompileService?, DaemonJVMOptions> {
         registryDir.mkdirs()
         val timestampMarker = createTempFile("kotlin-daemon-client-tsmarker", directory = registryDir)
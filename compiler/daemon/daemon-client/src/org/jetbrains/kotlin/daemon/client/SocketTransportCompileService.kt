@@ -0,0 +1,183 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.daemon.client
+
+import org.jetbrains.kotlin.daemon.common.*
+import org.jetbrains.kotlin.daemon.common.DaemonSocketProtocol.CALL
+import org.jetbrains.kotlin.daemon.common.DaemonSocketProtocol.DEFINE_METHOD
+import org.jetbrains.kotlin.daemon.common.DaemonSocketProtocol.HANDSHAKE
+import org.jetbrains.kotlin.daemon.common.DaemonSocketProtocol.INVOKE
+import org.jetbrains.kotlin.daemon.common.DaemonSocketProtocol.ONE_WAY_CALL_ID
+import org.jetbrains.kotlin.daemon.common.DaemonSocketProtocol.RESULT
+import org.jetbrains.kotlin.daemon.common.DaemonSocketProtocol.RETURN
+import org.jetbrains.kotlin.daemon.common.DaemonSocketProtocol.THROW
+import java.io.IOException
+import java.lang.reflect.InvocationTargetException
+import java.lang.reflect.Method
+import java.rmi.Remote
+import java.rmi.RemoteException
+
+/**
+ * Invokes the compilation methods of the daemon via the socket transport, and all other methods via RMI.
+ *
+ * The client objects passed to the compilation methods are not called via RMI: the daemon sends the callbacks over
+ * the connection of the compilation call, and they are invoked in the calling thread in the order they are sent.
+ */
+class SocketTransportCompileService(
+    private val rmiService: CompileService,
+    private val endpoint: SocketTransportEndpoint
+) : CompileService by rmiService {
+
+    override fun compile(
+        sessionId: Int,
+        compilerArguments: Array<out String>,
+        compilationOptions: CompilationOptions,
+        servicesFacade: CompilerServicesFacadeBase,
+        compilationResults: CompilationResults?
+    ): CompileService.CallResult<Int> =
+        invoke(COMPILE, sessionId, compilerArguments, compilationOptions, servicesFacade, compilationResults)
+
+    override fun remoteCompile(
+        sessionId: Int,
+        targetPlatform: CompileService.TargetPlatform,
+        args: Array<out String>,
+        servicesFacade: CompilerCallbackServicesFacade,
+        compilerOutputStream: RemoteOutputStream,
+        outputFormat: CompileService.OutputFormat,
+        serviceOutputStream: RemoteOutputStream,
+        operationsTracer: RemoteOperationsTracer?
+    ): CompileService.CallResult<Int> =
+        invoke(
+            REMOTE_COMPILE,
+            sessionId, targetPlatform, args, servicesFacade, compilerOutputStream, outputFormat, serviceOutputStream, operationsTracer
+        )
+
+    override fun remoteIncrementalCompile(
+        sessionId: Int,
+        targetPlatform: CompileService.TargetPlatform,
+        args: Array<out String>,
+        servicesFacade: CompilerCallbackServicesFacade,
+        compilerOutputStream: RemoteOutputStream,
+        compilerOutputFormat: CompileService.OutputFormat,
+        serviceOutputStream: RemoteOutputStream,
+        operationsTracer: RemoteOperationsTracer?
+    ): CompileService.CallResult<Int> =
+        invoke(
+            REMOTE_INCREMENTAL_COMPILE,
+            sessionId, targetPlatform, args, servicesFacade, compilerOutputStream, compilerOutputFormat, serviceOutputStream, operationsTracer
+        )
+
+    private fun <R> invoke(method: Method, vararg args: Any?): CompileService.CallResult<R> {
+        val methodName = method.name
+        val socket = try {
+            LoopbackNetworkInterface.clientLoopbackSocketFactory.createSocket(LoopbackNetworkInterface.loopbackInetAddressName, endpoint.port)
+        } catch (e: IOException) {
+            throw RemoteException("Unable to connect to the daemon $endpoint", e)
+        }
+        val connection = DaemonSocketConnection(socket, SocketTransportCompileService::class.java.classLoader)
+        // the exception thrown by the method, which is rethrown as is, like the exceptions of the methods invoked via RMI
+        var exception: Throwable? = null
+        try {
+            with(connection) {
+                val callbacks = ArrayList<Any>()
+                writeFrame(HANDSHAKE, flush = false) {
+                    writeInt(DaemonSocketProtocol.VERSION)
+                    writeString(endpoint.token)
+                }
+                writeFrame(INVOKE, flush = true) {
+                    writeString(methodName)
+                    writeInt(method.parameterTypes.size)
+                    method.parameterTypes.forEach { writeString(it.name) }
+                    writeInt(args.size)
+                    for (arg in args) {
+                        if (arg is Remote) {
+                            writeValue(CallbackRef(callbacks.size, remoteInterfacesOf(arg).map { it.name }))
+                            callbacks.add(arg)
+                        } else {
+                            writeValue(arg)
+                        }
+                    }
+                }
+
+                val methods = ArrayList<Pair<Any, Method>>()
+                while (exception == null) {
+                    val frame = readFrame()
+                    when (frame.type) {
+                        DEFINE_METHOD -> with(frame.body) {
+                            val methodId = readInt()
+                            val target = callbacks[readInt()]
+                            val name = readString()
+                            val parameterTypes = List(readCount()) { readString() }
+                            val method = remoteInterfacesOf(target).flatMap { it.methods.asList() }.firstOrNull { method ->
+                                method.name == name && method.parameterTypes.map { it.name } == parameterTypes
+                            } ?: throw IOException("Unknown callback method $name")
+                            check(methodId == methods.size) { "Unexpected callback method id $methodId" }
+                            methods.add(Pair(target, method))
+                        }
+                        CALL -> with(frame.body) {
+                            val callId = readInt()
+                            val (target, method) = methods[readInt()]
+                            val callArgs = Array(readCount()) { readValue() }
+                            val result = try {
+                                method.invoke(target, *callArgs)
+                            } catch (e: InvocationTargetException) {
+                                val cause = e.targetException
+                                // one-way calls are batched, so their failures are flushed along with the next response
+                                writeFrame(THROW, flush = callId != ONE_WAY_CALL_ID) {
+                                    writeInt(callId)
+                                    writeThrowable(cause)
+                                }
+                                return@with
+                            }
+                            if (callId != ONE_WAY_CALL_ID) {
+                                writeFrame(RETURN, flush = true) {
+                                    writeInt(callId)
+                                    writeValue(result)
+                                }
+                            }
+                        }
+                        RESULT -> {
+                            @Suppress("UNCHECKED_CAST")
+                            return frame.body.readValue() as CompileService.CallResult<R>
+                        }
+                        THROW -> {
+                            frame.body.readInt()
+                            exception = frame.body.readThrowable()
+                        }
+                        else -> throw IOException("Unexpected frame type ${frame.type}")
+                    }
+                }
+            }
+        } catch (e: RemoteException) {
+            throw e
+        } catch (e: IOException) {
+            throw RemoteException("Socket transport call $methodName failed", e)
+        } finally {
+            connection.close()
+        }
+        throw exception!!
+    }
+
+    private companion object {
+        val COMPILE: Method = CompileService::class.java.getMethod(
+            "compile",
+            Int::class.javaPrimitiveType, Array<String>::class.java, CompilationOptions::class.java,
+            CompilerServicesFacadeBase::class.java, CompilationResults::class.java
+        )
+
+        val REMOTE_COMPILE: Method = CompileService::class.java.getMethod(
+            "remoteCompile",
+            Int::class.javaPrimitiveType, CompileService.TargetPlatform::class.java, Array<String>::class.java,
+            CompilerCallbackServicesFacade::class.java, RemoteOutputStream::class.java, CompileService.OutputFormat::class.java,
+            RemoteOutputStream::class.java, RemoteOperationsTracer::class.java
+        )
+
+        val REMOTE_INCREMENTAL_COMPILE: Method = CompileService::class.java.getMethod(
+            "remoteIncrementalCompile",
+            *REMOTE_COMPILE.parameterTypes
+        )
+    }
+}
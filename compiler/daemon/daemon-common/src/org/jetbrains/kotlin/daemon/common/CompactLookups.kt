@@ -0,0 +1,153 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.daemon.common
+
+import org.jetbrains.kotlin.incremental.components.LookupTracker
+import org.jetbrains.kotlin.incremental.components.Position
+import org.jetbrains.kotlin.incremental.components.ScopeKind
+import java.io.Serializable
+
+/**
+ * A batch of lookups, in which file paths, scope names and names are replaced by indices in [files], [scopes] and [names].
+ *
+ * Every lookup is [RECORD_SIZE] or, if [hasPositions], [RECORD_WITH_POSITION_SIZE] consecutive elements of [records]:
+ * the indices of the file, the scope and the name, and then the ordinal of the scope kind, the line and the column.
+ * Lookups without positions are reported with [ScopeKind.CLASSIFIER].
+ */
+class CompactLookups(
+    val files: Array<String>,
+    val scopes: Array<String>,
+    val names: Array<String>,
+    val records: IntArray,
+    val hasPositions: Boolean
+) : Serializable {
+
+    val size: Int get() = records.size / recordSize(hasPositions)
+
+    fun replayTo(lookupTracker: LookupTracker) {
+        val recordSize = recordSize(hasPositions)
+        val scopeKinds = ScopeKind.values()
+        for (offset in 0 until records.size step recordSize) {
+            val file = files[records[offset]]
+            val scope = scopes[records[offset + 1]]
+            val name = names[records[offset + 2]]
+            if (hasPositions) {
+                val position = Position(records[offset + 4], records[offset + 5])
+                lookupTracker.record(file, position, scope, scopeKinds[records[offset + 3]], name)
+            } else {
+                lookupTracker.record(file, Position.NO_POSITION, scope, ScopeKind.CLASSIFIER, name)
+            }
+        }
+    }
+
+    companion object {
+        private const val serialVersionUID = 0L
+
+        const val RECORD_SIZE = 3
+        const val RECORD_WITH_POSITION_SIZE = 6
+
+        fun recordSize(hasPositions: Boolean): Int = if (hasPositions) RECORD_WITH_POSITION_SIZE else RECORD_SIZE
+    }
+}
+
+/**
+ * Collects distinct lookups into [CompactLookups] without allocating objects per lookup: strings are mapped to ids,
+ * lookups are appended to a packed array, and duplicates are detected by an open addressing table of record indices.
+ * Lookups are equal if all their elements, including positions if [hasPositions], are equal.
+ */
+class CompactLookupRecorder(private val hasPositions: Boolean) {
+    private val recordSize = CompactLookups.recordSize(hasPositions)
+
+    private val files = StringIds()
+    private val scopes = StringIds()
+    private val names = StringIds()
+
+    private var records = IntArray(INITIAL_CAPACITY * recordSize)
+
+    // contains the index of a record + 1, or 0 for an empty slot
+    private var table = IntArray(INITIAL_CAPACITY * 2)
+
+    var size: Int = 0
+        private set
+
+    fun record(filePath: String, position: Position, scopeFqName: String, scopeKind: ScopeKind, name: String) {
+        if (records.size < (size + 1) * recordSize) {
+            records = records.copyOf(records.size * 2)
+        }
+
+        // the record is written in place of the next one, and is left there to be overwritten if it's a duplicate
+        val offset = size * recordSize
+        records[offset] = files.getId(filePath)
+        records[offset + 1] = scopes.getId(scopeFqName)
+        records[offset + 2] = names.getId(name)
+        if (hasPositions) {
+            records[offset + 3] = scopeKind.ordinal
+            records[offset + 4] = position.line
+            records[offset + 5] = position.column
+        }
+
+        val mask = table.size - 1
+        var slot = hashRecord(offset) and mask
+        while (true) {
+            val entry = table[slot]
+            if (entry == 0) {
+                table[slot] = ++size
+                if (size * 2 > table.size) rehash()
+                return
+            }
+            if (recordsEqual((entry - 1) * recordSize, offset)) return
+            slot = (slot + 1) and mask
+        }
+    }
+
+    fun toCompactLookups(): CompactLookups =
+        CompactLookups(files.toArray(), scopes.toArray(), names.toArray(), records.copyOf(size * recordSize), hasPositions)
+
+    private fun hashRecord(offset: Int): Int {
+        var hash = 0
+        for (i in offset until offset + recordSize) {
+            hash = hash * 31 + records[i]
+        }
+        // spreading the higher bits, since the table index takes only the lower ones
+        return hash xor (hash ushr 16)
+    }
+
+    private fun recordsEqual(offset1: Int, offset2: Int): Boolean {
+        for (i in 0 until recordSize) {
+            if (records[offset1 + i] != records[offset2 + i]) return false
+        }
+        return true
+    }
+
+    private fun rehash() {
+        table = IntArray(table.size * 2)
+        val mask = table.size - 1
+        for (index in 0 until size) {
+            var slot = hashRecord(index * recordSize) and mask
+            while (table[slot] != 0) {
+                slot = (slot + 1) and mask
+            }
+            table[slot] = index + 1
+        }
+    }
+
+    private class StringIds {
+        private val ids = HashMap<String, Int>()
+        private val strings = ArrayList<String>()
+
+        fun getId(string: String): Int =
+            ids.getOrPut(string) {
+                strings.add(string)
+                strings.size - 1
+            }
+
+        fun toArray(): Array<String> = strings.toTypedArray()
+    }
+
+    private companion object {
+        const val INITIAL_CAPACITY = 1024
+    }
+}
@@ -68,7 +68,11 @@ class IncrementalCompilationOptions(
     val multiModuleICSettings: MultiModuleICSettings,
     val modulesInfo: IncrementalModuleInfo,
     val classpathFqNamesHistory: File? = null,
-    kotlinScriptExtensions: Array<String>? = null
+    kotlinScriptExtensions: Array<String>? = null,
+    /**
+     * Directory of the classpath snapshots shared between modules, used to detect classpath changes when the history is not available
+     */
+    val classpathSnapshotDir: File? = null
 ) : CompilationOptions(
     compilerMode,
     targetPlatform,
@@ -92,6 +96,7 @@ class IncrementalCompilationOptions(
                "usePreciseJavaTracking=$usePreciseJavaTracking" +
                "outputFiles=$outputFiles" +
                "classpathFqNamesHistory=$classpathFqNamesHistory" +
+               "classpathSnapshotDir=$classpathSnapshotDir" +
                ")"
     }
 }
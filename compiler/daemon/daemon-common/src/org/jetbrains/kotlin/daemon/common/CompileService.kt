@@ -77,6 +77,12 @@ interface CompileService : Remote {
     @Throws(RemoteException::class)
     fun getDaemonOptions(): CallResult<DaemonOptions>
 
+    /**
+     * Returns the endpoint of the socket transport, or `null` if the daemon is not started with [DAEMON_TRANSPORT_SOCKET]
+     */
+    @Throws(RemoteException::class)
+    fun getSocketTransportEndpoint(): CallResult<SocketTransportEndpoint?>
+
     @Throws(RemoteException::class)
     fun getDaemonInfo(): CallResult<String>
 
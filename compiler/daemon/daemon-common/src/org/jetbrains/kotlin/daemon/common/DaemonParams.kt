@@ -210,7 +210,9 @@ data class DaemonOptions(
         var shutdownDelayMilliseconds: Long = COMPILE_DAEMON_DEFAULT_SHUTDOWN_DELAY_MS,
         var forceShutdownTimeoutMilliseconds: Long = COMPILE_DAEMON_FORCE_SHUTDOWN_DEFAULT_TIMEOUT_MS,
         var verbose: Boolean = false,
-        var reportPerf: Boolean = false
+        var reportPerf: Boolean = false,
+        var transport: String = DAEMON_TRANSPORT_RMI,
+        var inlineCacheSizeMegabytes: Int = 0
 ) : OptionsGroup {
 
     override val mappers: List<PropMapper<*, *, *>>
@@ -222,7 +224,10 @@ data class DaemonOptions(
                        PropMapper(this, DaemonOptions::shutdownDelayMilliseconds, fromString = String::toLong, skipIf = { it == COMPILE_DAEMON_DEFAULT_SHUTDOWN_DELAY_MS }, mergeDelimiter = "="),
                        PropMapper(this, DaemonOptions::forceShutdownTimeoutMilliseconds, fromString = String::toLong, skipIf = { it == COMPILE_DAEMON_FORCE_SHUTDOWN_DEFAULT_TIMEOUT_MS }, mergeDelimiter = "="),
                        BoolPropMapper(this, DaemonOptions::verbose),
-                       BoolPropMapper(this, DaemonOptions::reportPerf))
+                       BoolPropMapper(this, DaemonOptions::reportPerf),
+                       PropMapper(this, DaemonOptions::transport, fromString = String::trimQuotes, skipIf = { it == DAEMON_TRANSPORT_RMI }, mergeDelimiter = "="),
+                       // 0 means the default size of the inline cache shared by the compilations
+                       PropMapper(this, DaemonOptions::inlineCacheSizeMegabytes, fromString = String::toInt, skipIf = { it == 0 }, mergeDelimiter = "="))
 }
 
 // TODO: consider implementing generic approach to it or may be replace getters with ones returning default if necessary
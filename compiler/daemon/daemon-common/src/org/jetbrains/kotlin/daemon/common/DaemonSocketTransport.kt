@@ -0,0 +1,283 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.daemon.common
+
+import java.io.*
+import java.net.Socket
+import java.rmi.Remote
+import java.rmi.RemoteException
+
+const val DAEMON_TRANSPORT_RMI = "rmi"
+const val DAEMON_TRANSPORT_SOCKET = "socket"
+
+/**
+ * The address of the socket transport of a running daemon, see [CompileService.getSocketTransportEndpoint].
+ * The daemon accepts only connections presenting the [token].
+ */
+class SocketTransportEndpoint(val port: Int, val token: String) : Serializable {
+    override fun toString(): String = "socket transport on port $port"
+
+    companion object {
+        private const val serialVersionUID = 0L
+    }
+}
+
+/**
+ * Frames of the socket transport, which carries the compilation calls of [CompileService] and the callbacks
+ * from the daemon to the client objects passed to these calls (facades, results, streams).
+ *
+ * Every frame is the length of the rest of the frame, the frame type, and the type-specific body.
+ * The client sends [HANDSHAKE] and [INVOKE], and then serves [CALL]s until it receives [RESULT] or [THROW].
+ * The methods of the callback objects are sent once per connection in [DEFINE_METHOD] frames and referenced by ids afterwards.
+ * Calls of methods returning nothing are one-way: they are buffered and sent in batches, without waiting for the client,
+ * and their failures are reported back with the call id 0. Other calls flush the buffer and wait for [RETURN] or [THROW].
+ * As with RMI, exceptions thrown by the invoked methods are serialized along with their causes and stack traces.
+ *
+ * Frames are limited to [MAX_FRAME_SIZE] bytes, and the [HANDSHAKE] of a not yet authenticated peer to [MAX_HANDSHAKE_FRAME_SIZE] bytes.
+ */
+object DaemonSocketProtocol {
+    const val VERSION = 2
+
+    const val HANDSHAKE: Byte = 1       // version, token
+    const val INVOKE: Byte = 2          // method name, parameter type names, arguments
+    const val DEFINE_METHOD: Byte = 3   // method id, callback id, method name, parameter type names
+    const val CALL: Byte = 4            // call id (0 for one-way calls), method id, arguments
+    const val RETURN: Byte = 5          // call id, value
+    const val THROW: Byte = 6           // call id (0 for one-way calls and for the invocation), exception
+    const val RESULT: Byte = 7          // value
+
+    const val ONE_WAY_CALL_ID = 0
+
+    const val MAX_FRAME_SIZE = 64 * 1024 * 1024
+    const val MAX_HANDSHAKE_FRAME_SIZE = 1024
+
+    /**
+     * The methods of [CompileService] which are invoked via the socket transport, all others are invoked via RMI.
+     */
+    val INVOKED_METHODS = setOf("compile", "remoteCompile", "remoteIncrementalCompile")
+}
+
+/**
+ * A reference to an object of the client passed to a method of [CompileService], which the daemon calls back.
+ */
+class CallbackRef(val id: Int, val interfaces: List<String>)
+
+fun remoteInterfacesOf(obj: Any): List<Class<*>> {
+    val result = LinkedHashSet<Class<*>>()
+    fun collect(klass: Class<*>) {
+        if (klass.isInterface && Remote::class.java.isAssignableFrom(klass) && klass != Remote::class.java) {
+            result.add(klass)
+        }
+        klass.interfaces.forEach(::collect)
+        klass.superclass?.let(::collect)
+    }
+    collect(obj.javaClass)
+    return result.toList()
+}
+
+/**
+ * A connection of the socket transport. Frames may be written from several threads, but should be read from one thread only.
+ * Frames written without flushing stay in the buffer until a flushing write, an explicit [flush] or an overflow of the buffer.
+ */
+class DaemonSocketConnection(private val socket: Socket, private val classLoader: ClassLoader) : Closeable {
+    private val input = DataInputStream(BufferedInputStream(socket.getInputStream(), BUFFER_SIZE))
+    private val output = DataOutputStream(BufferedOutputStream(socket.getOutputStream(), BUFFER_SIZE))
+
+    private val frameBuffer = ByteArrayOutputStream()
+    private val frameOutput = DataOutputStream(frameBuffer)
+
+    private var hasUnflushedFrames = false
+
+    init {
+        socket.tcpNoDelay = true
+    }
+
+    class Frame(val type: Byte, val body: DataInputStream)
+
+    fun writeFrame(type: Byte, flush: Boolean, writeBody: DataOutputStream.() -> Unit) {
+        synchronized(output) {
+            frameBuffer.reset()
+            // the body is completely encoded before writing, so that a failure to encode a value doesn't corrupt the stream
+            frameOutput.writeBody()
+            if (frameBuffer.size() >= DaemonSocketProtocol.MAX_FRAME_SIZE) {
+                throw IOException("Frame is too large: ${frameBuffer.size() + 1} bytes")
+            }
+            output.writeInt(frameBuffer.size() + 1)
+            output.writeByte(type.toInt())
+            frameBuffer.writeTo(output)
+            if (flush) {
+                output.flush()
+                hasUnflushedFrames = false
+            } else {
+                hasUnflushedFrames = true
+            }
+        }
+    }
+
+    fun flush() {
+        synchronized(output) {
+            if (hasUnflushedFrames) {
+                output.flush()
+                hasUnflushedFrames = false
+            }
+        }
+    }
+
+    /**
+     * Reads the next frame, failing if it's longer than [maxLength] bytes, so that nothing large is allocated for a malformed frame.
+     */
+    fun readFrame(maxLength: Int = DaemonSocketProtocol.MAX_FRAME_SIZE): Frame {
+        val length = input.readInt()
+        if (length < 1 || length > maxLength) throw IOException("Invalid frame length: $length")
+        val type = input.readByte()
+        val body = ByteArray(length - 1)
+        input.readFully(body)
+        return Frame(type, DataInputStream(ByteArrayInputStream(body)))
+    }
+
+    fun DataOutputStream.writeString(value: String) {
+        val bytes = value.toByteArray(Charsets.UTF_8)
+        writeInt(bytes.size)
+        write(bytes)
+    }
+
+    fun DataInputStream.readString(): String = String(readBytes(readCount()), Charsets.UTF_8)
+
+    /**
+     * Reads a number of bytes or elements which follow in the frame body, and checks that the body isn't shorter,
+     * so that a malformed frame can't make the reader allocate more than the frame itself.
+     */
+    fun DataInputStream.readCount(): Int {
+        val count = readInt()
+        if (count < 0 || count > available()) throw IOException("Invalid size: $count")
+        return count
+    }
+
+    private fun DataInputStream.readBytes(size: Int): ByteArray = ByteArray(size).also { readFully(it) }
+
+    // values of the most frequent types are encoded directly, other values are serialized
+    fun DataOutputStream.writeValue(value: Any?) {
+        when {
+            value == null -> writeByte(NULL)
+            value is Boolean -> {
+                writeByte(BOOLEAN)
+                writeBoolean(value)
+            }
+            value is Int -> {
+                writeByte(INT)
+                writeInt(value)
+            }
+            value is Long -> {
+                writeByte(LONG)
+                writeLong(value)
+            }
+            value is String -> {
+                writeByte(STRING)
+                writeString(value)
+            }
+            value is ByteArray -> {
+                writeByte(BYTES)
+                writeInt(value.size)
+                write(value)
+            }
+            value is Array<*> && value.isArrayOf<String>() -> {
+                writeByte(STRINGS)
+                writeInt(value.size)
+                value.forEach { writeString(it as String) }
+            }
+            value is CallbackRef -> {
+                writeByte(CALLBACK)
+                writeInt(value.id)
+                writeInt(value.interfaces.size)
+                value.interfaces.forEach { writeString(it) }
+            }
+            else -> writeSerialized(serialize(value))
+        }
+    }
+
+    /**
+     * Writes [throwable] with its causes and stack traces, or, if any of them can't be serialized, a [RemoteException]
+     * with the description and the stack trace of [throwable].
+     */
+    fun DataOutputStream.writeThrowable(throwable: Throwable) {
+        val bytes = try {
+            serialize(throwable)
+        } catch (e: IOException) {
+            serialize(RemoteException(throwable.toString()).apply { stackTrace = throwable.stackTrace })
+        }
+        writeSerialized(bytes)
+    }
+
+    private fun DataOutputStream.writeSerialized(bytes: ByteArray) {
+        writeByte(SERIALIZED)
+        writeInt(bytes.size)
+        write(bytes)
+    }
+
+    private fun serialize(value: Any): ByteArray {
+        val bytes = ByteArrayOutputStream()
+        ObjectOutputStream(bytes).use { it.writeObject(value) }
+        return bytes.toByteArray()
+    }
+
+    fun DataInputStream.readValue(): Any? =
+        when (readByte().toInt()) {
+            NULL -> null
+            BOOLEAN -> readBoolean()
+            INT -> readInt()
+            LONG -> readLong()
+            STRING -> readString()
+            BYTES -> readBytes(readCount())
+            STRINGS -> Array(readCount()) { readString() }
+            CALLBACK -> CallbackRef(readInt(), List(readCount()) { readString() })
+            SERIALIZED -> {
+                val bytes = readBytes(readCount())
+                ClassLoaderObjectInputStream(ByteArrayInputStream(bytes), classLoader).use { it.readObject() }
+            }
+            else -> throw IOException("Invalid value tag")
+        }
+
+    // the class of an exception thrown on the other side may be unknown here
+    fun DataInputStream.readThrowable(): Throwable =
+        try {
+            readValue() as? Throwable ?: IOException("Invalid exception value")
+        } catch (e: ClassNotFoundException) {
+            RemoteException("Unable to read an exception of the other side", e)
+        }
+
+    override fun close() {
+        try {
+            flush()
+        } catch (e: IOException) {
+            // the other side has already closed the connection
+        } finally {
+            socket.close()
+        }
+    }
+
+    private class ClassLoaderObjectInputStream(input: InputStream, private val classLoader: ClassLoader) : ObjectInputStream(input) {
+        override fun resolveClass(desc: ObjectStreamClass): Class<*> =
+            try {
+                Class.forName(desc.name, false, classLoader)
+            } catch (e: ClassNotFoundException) {
+                super.resolveClass(desc)
+            }
+    }
+
+    private companion object {
+        const val BUFFER_SIZE = 64 * 1024
+
+        const val NULL = 0
+        const val BOOLEAN = 1
+        const val INT = 2
+        const val LONG = 3
+        const val STRING = 4
+        const val BYTES = 5
+        const val STRINGS = 6
+        const val CALLBACK = 7
+        const val SERIALIZED = 8
+    }
+}
@@ -0,0 +1,177 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.daemon
+
+import org.jetbrains.kotlin.config.IncrementalCompilation
+import org.jetbrains.kotlin.daemon.common.usedMemory
+import java.util.*
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.locks.ReentrantLock
+import java.util.logging.Logger
+import kotlin.concurrent.schedule
+import kotlin.concurrent.withLock
+
+const val COMPILATION_SCHEDULER_HEAP_FRACTION = 0.75
+const val COMPILATION_SCHEDULER_SAMPLING_INTERVAL_MS = 100L
+
+/**
+ * Admits concurrent compilations on the daemon while their estimated heap usage fits into [memoryBudget], and queues the rest
+ * in the order of arrival. At least one compilation is always admitted, however big its estimate is.
+ *
+ * The estimate of a module is the growth of the used heap observed during its previous compilations, sampled every
+ * [COMPILATION_SCHEDULER_SAMPLING_INTERVAL_MS]. Growth caused by other concurrent compilations is attributed to all of them,
+ * so the estimates err on the safe side. Modules compiled for the first time are estimated as [newModuleEstimate],
+ * a quarter of the budget by default.
+ *
+ * Incremental compilation is switched on and off via global system properties (see [IncrementalCompilation]), so only
+ * compilations requiring the same [IncrementalState] run concurrently, and the scheduler sets the properties instead of
+ * the compilations themselves.
+ */
+class CompilationScheduler(
+    timer: Timer,
+    private val memoryBudget: Long = (Runtime.getRuntime().maxMemory() * COMPILATION_SCHEDULER_HEAP_FRACTION).toLong(),
+    private val newModuleEstimate: Long = memoryBudget / 4
+) {
+    data class IncrementalState(val jvm: Boolean, val js: Boolean) {
+        fun apply() {
+            IncrementalCompilation.setIsEnabledForJvm(jvm)
+            IncrementalCompilation.setIsEnabledForJs(js)
+        }
+
+        companion object {
+            fun current() = IncrementalState(IncrementalCompilation.isEnabledForJvm(), IncrementalCompilation.isEnabledForJs())
+        }
+    }
+
+    private class Compilation(val sessionId: Int, val moduleKey: String, val estimate: Long, val incrementalState: IncrementalState) {
+        val queuedNanos = System.nanoTime()
+        var startUsedMemory = 0L
+        var peakUsedMemory = 0L
+    }
+
+    private val log by lazy { Logger.getLogger("scheduler") }
+
+    /**
+     * The state of the daemon when no compilation is running.
+     */
+    val defaultIncrementalState = IncrementalState.current()
+
+    private val lock = ReentrantLock()
+    private val queueChanged = lock.newCondition()
+    private val queue = ArrayDeque<Compilation>()
+    private val running = ArrayList<Compilation>()
+    private val estimates = HashMap<String, Long>()
+
+    private var compilationsCount = 0L
+    private var queuedCompilationsCount = 0L
+    private var totalWaitNanos = 0L
+    private var maxWaitNanos = 0L
+
+    init {
+        timer.schedule(COMPILATION_SCHEDULER_SAMPLING_INTERVAL_MS, COMPILATION_SCHEDULER_SAMPLING_INTERVAL_MS) {
+            lock.withLock {
+                if (running.isNotEmpty()) {
+                    val used = usedMemory(withGC = false)
+                    running.forEach { it.peakUsedMemory = maxOf(it.peakUsedMemory, used) }
+                }
+            }
+        }
+    }
+
+    fun <R> withAdmission(sessionId: Int, moduleKey: String, incrementalState: IncrementalState, body: () -> R): R {
+        val compilation = admit(sessionId, moduleKey, incrementalState)
+        try {
+            return body()
+        } finally {
+            release(compilation)
+        }
+    }
+
+    private fun admit(sessionId: Int, moduleKey: String, incrementalState: IncrementalState): Compilation =
+        lock.withLock {
+            val compilation = Compilation(sessionId, moduleKey, estimates[moduleKey] ?: newModuleEstimate, incrementalState)
+            queue.addLast(compilation)
+            var wasQueued = false
+            while (queue.peekFirst() !== compilation || !fits(compilation)) {
+                if (!wasQueued) {
+                    log.info("queued compilation of $moduleKey, estimated ${compilation.estimate.mb()} mb, ${running.size} running, ${queue.size - 1} waiting")
+                    wasQueued = true
+                }
+                try {
+                    queueChanged.await()
+                } catch (e: InterruptedException) {
+                    queue.remove(compilation)
+                    queueChanged.signalAll()
+                    throw e
+                }
+            }
+            queue.removeFirst()
+
+            if (running.isEmpty()) {
+                incrementalState.apply()
+            }
+            running.add(compilation)
+            compilation.startUsedMemory = usedMemory(withGC = false)
+            compilation.peakUsedMemory = compilation.startUsedMemory
+
+            val waitNanos = System.nanoTime() - compilation.queuedNanos
+            compilationsCount++
+            if (wasQueued) queuedCompilationsCount++
+            totalWaitNanos += waitNanos
+            maxWaitNanos = maxOf(maxWaitNanos, waitNanos)
+
+            // the next compilation in the queue may fit as well
+            queueChanged.signalAll()
+            compilation
+        }
+
+    private fun fits(compilation: Compilation): Boolean =
+        running.isEmpty() ||
+                running.first().incrementalState == compilation.incrementalState &&
+                running.sumByLong { it.estimate } + compilation.estimate <= memoryBudget
+
+    private fun release(compilation: Compilation) {
+        lock.withLock {
+            running.remove(compilation)
+            // a module which is compiled between heap samples still shouldn't be considered free
+            val observed = maxOf(
+                maxOf(usedMemory(withGC = false), compilation.peakUsedMemory) - compilation.startUsedMemory,
+                memoryBudget / 64
+            )
+            val previous = estimates[compilation.moduleKey]
+            estimates[compilation.moduleKey] = if (previous == null) observed else (previous + observed) / 2
+
+            if (running.isEmpty()) {
+                defaultIncrementalState.apply()
+            }
+            queueChanged.signalAll()
+        }
+    }
+
+    fun getInfo(): String =
+        lock.withLock {
+            buildString {
+                append("compilations: ${running.size} running, ${queue.size} queued, memory budget ${memoryBudget.mb()} mb")
+                append("; $compilationsCount compiled, $queuedCompilationsCount waited")
+                if (compilationsCount > 0) {
+                    append(", average wait ${TimeUnit.NANOSECONDS.toMillis(totalWaitNanos / compilationsCount)} ms")
+                    append(", max wait ${TimeUnit.NANOSECONDS.toMillis(maxWaitNanos)} ms")
+                }
+                for (compilation in running) {
+                    append("\nsession ${compilation.sessionId} (${compilation.moduleKey}): ")
+                    append("estimated ${compilation.estimate.mb()} mb, used ${(compilation.peakUsedMemory - compilation.startUsedMemory).mb()} mb")
+                }
+            }
+        }
+
+    private fun Long.mb() = this / (1024 * 1024)
+
+    private inline fun <T> Iterable<T>.sumByLong(selector: (T) -> Long): Long {
+        var sum = 0L
+        for (element in this) sum += selector(element)
+        return sum
+    }
+}
@@ -38,6 +38,7 @@ import org.jetbrains.kotlin.cli.common.repl.ReplEvalResult
 import org.jetbrains.kotlin.cli.js.K2JSCompiler
 import org.jetbrains.kotlin.cli.jvm.K2JVMCompiler
 import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment
+import org.jetbrains.kotlin.cli.jvm.index.JvmClasspathIndexPool
 import org.jetbrains.kotlin.cli.metadata.K2MetadataCompiler
 import org.jetbrains.kotlin.config.Services
 import org.jetbrains.kotlin.daemon.common.*
@@ -135,6 +136,8 @@ class CompileServiceImpl(
 
     private val compilationsCounter = AtomicInteger(0)
 
+    private val scheduler = CompilationScheduler(timer)
+
     private val classpathWatcher = LazyClasspathWatcher(compilerId.compilerClasspath)
 
     enum class Aliveness {
@@ -248,6 +251,9 @@ class CompileServiceImpl(
 
     private var runFile: File
 
+    // serves the compilation calls in addition to RMI, if requested in the daemon options
+    private var socketTransportServer: DaemonSocketTransportServer? = null
+
     init {
         val runFileDir = File(daemonOptions.runFilesPathOrDefault)
         runFileDir.mkdirs()
@@ -270,13 +276,17 @@ class CompileServiceImpl(
     // RMI-exposed API
 
     override fun getDaemonInfo(): CompileService.CallResult<String> = ifAlive(minAliveness = Aliveness.Dying) {
-        CompileService.CallResult.Good("Kotlin daemon on port $port")
+        CompileService.CallResult.Good("Kotlin daemon on port $port\n" + scheduler.getInfo())
     }
 
     override fun getDaemonOptions(): CompileService.CallResult<DaemonOptions> = ifAlive {
         CompileService.CallResult.Good(daemonOptions)
     }
 
+    override fun getSocketTransportEndpoint(): CompileService.CallResult<SocketTransportEndpoint?> = ifAlive {
+        CompileService.CallResult.Good(socketTransportServer?.endpoint)
+    }
+
     override fun getDaemonJVMOptions(): CompileService.CallResult<DaemonJVMOptions> = ifAlive {
         log.info("getDaemonJVMOptions: $daemonJVMOptions")// + daemonJVMOptions.mappers.flatMap { it.toArgs("-") })
 
@@ -351,7 +361,9 @@ class CompileServiceImpl(
         serviceOutputStream: RemoteOutputStream,
         operationsTracer: RemoteOperationsTracer?
     ): CompileService.CallResult<Int> =
-        doCompile(sessionId, args, compilerOutputStream, serviceOutputStream, operationsTracer) { printStream, eventManager, profiler ->
+        doCompile(
+            sessionId, moduleKey(targetPlatform, args), args, compilerOutputStream, serviceOutputStream, operationsTracer
+        ) { printStream, eventManager, profiler ->
             when (outputFormat) {
                 CompileService.OutputFormat.PLAIN -> compiler[targetPlatform].exec(printStream, *args)
                 CompileService.OutputFormat.XML -> compiler[targetPlatform].execAndOutputXml(
@@ -376,7 +388,9 @@ class CompileServiceImpl(
         serviceOutputStream: RemoteOutputStream,
         operationsTracer: RemoteOperationsTracer?
     ): CompileService.CallResult<Int> =
-        doCompile(sessionId, args, compilerOutputStream, serviceOutputStream, operationsTracer) { printStream, eventManager, profiler ->
+        doCompile(
+            sessionId, moduleKey(targetPlatform, args), args, compilerOutputStream, serviceOutputStream, operationsTracer
+        ) { printStream, eventManager, profiler ->
             when (compilerOutputFormat) {
                 CompileService.OutputFormat.PLAIN -> throw NotImplementedError("Only XML output is supported in remote incremental compilation")
                 CompileService.OutputFormat.XML -> compiler[targetPlatform].execAndOutputXml(
@@ -411,6 +425,8 @@ class CompileServiceImpl(
             val messageCollector = CompileServicesFacadeMessageCollector(servicesFacade, compilationOptions)
             val daemonReporter = DaemonMessageReporter(servicesFacade, compilationOptions)
             val targetPlatform = compilationOptions.targetPlatform
+            val moduleKey = moduleKey(targetPlatform, compilerArguments)
+            val defaultIncrementalState = scheduler.defaultIncrementalState
             log.info("Starting compilation with args: " + compilerArguments.joinToString(" "))
 
             @Suppress("UNCHECKED_CAST")
@@ -430,15 +446,14 @@ class CompileServiceImpl(
                 CompilerMode.JPS_COMPILER -> {
                     val jpsServicesFacade = servicesFacade as JpsCompilerServicesFacade
 
-                    withIC(enabled = servicesFacade.hasIncrementalCaches()) {
-                        doCompile(sessionId, daemonReporter, tracer = null) { eventManger, profiler ->
-                            val services = createCompileServices(jpsServicesFacade, eventManger, profiler)
-                            compiler.exec(messageCollector, services, k2PlatformArgs)
-                        }
+                    val incrementalState = defaultIncrementalState.copy(jvm = servicesFacade.hasIncrementalCaches())
+                    doCompile(sessionId, moduleKey, incrementalState, daemonReporter, tracer = null) { eventManger, profiler ->
+                        val services = createCompileServices(jpsServicesFacade, eventManger, profiler)
+                        compiler.exec(messageCollector, services, k2PlatformArgs)
                     }
                 }
                 CompilerMode.NON_INCREMENTAL_COMPILER -> {
-                    doCompile(sessionId, daemonReporter, tracer = null) { _, _ ->
+                    doCompile(sessionId, moduleKey, defaultIncrementalState, daemonReporter, tracer = null) { _, _ ->
                         compiler.exec(messageCollector, Services.EMPTY, k2PlatformArgs)
                     }
                 }
@@ -450,28 +465,26 @@ class CompileServiceImpl(
                         CompileService.TargetPlatform.JVM -> {
                             val k2jvmArgs = k2PlatformArgs as K2JVMCompilerArguments
 
-                            withIC {
-                                doCompile(sessionId, daemonReporter, tracer = null) { _, _ ->
-                                    execIncrementalCompiler(
-                                        k2jvmArgs, gradleIncrementalArgs, gradleIncrementalServicesFacade, compilationResults!!,
-                                        messageCollector
-                                    )
-                                }
+                            val incrementalState = defaultIncrementalState.copy(jvm = true)
+                            doCompile(sessionId, moduleKey, incrementalState, daemonReporter, tracer = null) { _, _ ->
+                                execIncrementalCompiler(
+                                    k2jvmArgs, gradleIncrementalArgs, gradleIncrementalServicesFacade, compilationResults!!,
+                                    messageCollector
+                                )
                             }
                         }
                         CompileService.TargetPlatform.JS -> {
                             val k2jsArgs = k2PlatformArgs as K2JSCompilerArguments
 
-                            withJsIC {
-                                doCompile(sessionId, daemonReporter, tracer = null) { _, _ ->
-                                    execJsIncrementalCompiler(
-                                        k2jsArgs,
-                                        gradleIncrementalArgs,
-                                        gradleIncrementalServicesFacade,
-                                        compilationResults!!,
-                                        messageCollector
-                                    )
-                                }
+                            val incrementalState = defaultIncrementalState.copy(js = true)
+                            doCompile(sessionId, moduleKey, incrementalState, daemonReporter, tracer = null) { _, _ ->
+                                execJsIncrementalCompiler(
+                                    k2jsArgs,
+                                    gradleIncrementalArgs,
+                                    gradleIncrementalServicesFacade,
+                                    compilationResults!!,
+                                    messageCollector
+                                )
                             }
                         }
                         else -> throw IllegalStateException("Incremental compilation is not supported for target platform: $targetPlatform")
@@ -577,7 +590,8 @@ class CompileServiceImpl(
             usePreciseJavaTracking = incrementalCompilationOptions.usePreciseJavaTracking,
             modulesApiHistory = modulesApiHistory,
             kotlinSourceFilesExtensions = allKotlinExtensions,
-            classpathFqNamesHistory = incrementalCompilationOptions.classpathFqNamesHistory
+            classpathFqNamesHistory = incrementalCompilationOptions.classpathFqNamesHistory,
+            classpathSnapshotDir = incrementalCompilationOptions.classpathSnapshotDir
         )
         return try {
             compiler.compile(allKotlinFiles, k2jvmArgs, compilerMessageCollector, changedFiles)
@@ -732,6 +746,10 @@ class CompileServiceImpl(
         ) as CompileService
         registry.rebind(COMPILER_SERVICE_RMI_NAME, stub)
 
+        if (daemonOptions.transport == DAEMON_TRANSPORT_SOCKET) {
+            socketTransportServer = DaemonSocketTransportServer(this, timer)
+        }
+
         timer.schedule(10) {
             exceptionLoggingTimerThread { initiateElections() }
         }
@@ -891,6 +909,7 @@ class CompileServiceImpl(
         state.alive.set(Aliveness.Dying.ordinal)
 
         UnicastRemoteObject.unexportObject(this, true)
+        socketTransportServer?.close()
         log.info("Shutdown complete")
         onShutdown()
         log.handlers.forEach { it.flush() }
@@ -952,6 +971,7 @@ class CompileServiceImpl(
     // todo: remove after remoteIncrementalCompile is removed
     private fun doCompile(
         sessionId: Int,
+        moduleKey: String,
         args: Array<out String>,
         compilerMessagesStreamProxy: RemoteOutputStream,
         serviceOutputStreamProxy: RemoteOutputStream,
@@ -980,8 +1000,10 @@ class CompileServiceImpl(
                     if (args.none())
                         throw IllegalArgumentException("Error: empty arguments list.")
                     log.info("Starting compilation with args: " + args.joinToString(" "))
-                    val exitCode = checkedCompile(compileServiceReporter, rpcProfiler) {
-                        body(compilerMessagesStream, eventManger, rpcProfiler).code
+                    val exitCode = scheduler.withAdmission(sessionId, moduleKey, scheduler.defaultIncrementalState) {
+                        checkedCompile(compileServiceReporter, rpcProfiler) {
+                            body(compilerMessagesStream, eventManger, rpcProfiler).code
+                        }
                     }
                     CompileService.CallResult.Good(exitCode)
                 } finally {
@@ -995,6 +1017,8 @@ class CompileServiceImpl(
 
     private fun doCompile(
         sessionId: Int,
+        moduleKey: String,
+        incrementalState: CompilationScheduler.IncrementalState,
         daemonMessageReporter: DaemonMessageReporter,
         tracer: RemoteOperationsTracer?,
         body: (EventManager, Profiler) -> ExitCode
@@ -1005,8 +1029,10 @@ class CompileServiceImpl(
                 val rpcProfiler = if (daemonOptions.reportPerf) WallAndThreadTotalProfiler() else DummyProfiler()
                 val eventManger = EventManagerImpl()
                 try {
-                    val exitCode = checkedCompile(daemonMessageReporter, rpcProfiler) {
-                        body(eventManger, rpcProfiler).code
+                    val exitCode = scheduler.withAdmission(sessionId, moduleKey, incrementalState) {
+                        checkedCompile(daemonMessageReporter, rpcProfiler) {
+                            body(eventManger, rpcProfiler).code
+                        }
                     }
                     CompileService.CallResult.Good(exitCode)
                 } finally {
@@ -1016,6 +1042,15 @@ class CompileServiceImpl(
             }
         }
 
+    // identifies the module in the memory estimates of the scheduler
+    private fun moduleKey(targetPlatform: CompileService.TargetPlatform, args: Array<out String>): String {
+        for (option in listOf("-module-name", "-d", "-output")) {
+            val index = args.indexOf(option)
+            if (index >= 0 && index + 1 < args.size) return "$targetPlatform $option ${args[index + 1]}"
+        }
+        return "$targetPlatform ${args.joinToString(" ").hashCode()}"
+    }
+
     private fun createCompileServices(facade: CompilerCallbackServicesFacade, eventManager: EventManager, rpcProfiler: Profiler): Services {
         val builder = Services.Builder()
         if (facade.hasIncrementalCaches()) {
@@ -1094,6 +1129,8 @@ class CompileServiceImpl(
     override fun clearJarCache() {
         ZipHandler.clearFileAccessorCache()
         (KotlinCoreEnvironment.applicationEnvironment?.jarFileSystem as? CoreJarFileSystem)?.clearHandlersCache()
+        // the pooled indices refer to the virtual files of the dropped handlers, so they won't be reused anyway
+        JvmClasspathIndexPool.shared.clearUnused()
     }
 
     private inline fun <R> ifAlive(
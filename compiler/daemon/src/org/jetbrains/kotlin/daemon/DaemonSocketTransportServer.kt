@@ -0,0 +1,244 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.daemon
+
+import org.jetbrains.kotlin.daemon.common.*
+import org.jetbrains.kotlin.daemon.common.DaemonSocketProtocol.CALL
+import org.jetbrains.kotlin.daemon.common.DaemonSocketProtocol.DEFINE_METHOD
+import org.jetbrains.kotlin.daemon.common.DaemonSocketProtocol.HANDSHAKE
+import org.jetbrains.kotlin.daemon.common.DaemonSocketProtocol.INVOKE
+import org.jetbrains.kotlin.daemon.common.DaemonSocketProtocol.ONE_WAY_CALL_ID
+import org.jetbrains.kotlin.daemon.common.DaemonSocketProtocol.RESULT
+import org.jetbrains.kotlin.daemon.common.DaemonSocketProtocol.RETURN
+import org.jetbrains.kotlin.daemon.common.DaemonSocketProtocol.THROW
+import java.io.IOException
+import java.lang.reflect.InvocationTargetException
+import java.lang.reflect.Method
+import java.lang.reflect.Proxy
+import java.net.ServerSocket
+import java.net.Socket
+import java.rmi.RemoteException
+import java.security.MessageDigest
+import java.security.SecureRandom
+import java.util.*
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.atomic.AtomicInteger
+import java.util.logging.Level
+import java.util.logging.Logger
+import kotlin.concurrent.schedule
+import kotlin.concurrent.thread
+
+const val SOCKET_TRANSPORT_FLUSH_INTERVAL_MS = 20L
+
+/**
+ * Serves the compilation calls of [compileService] via the socket transport (see [DaemonSocketProtocol]).
+ *
+ * The client objects passed to the calls are replaced with proxies, which send the callbacks over the same connection.
+ * The buffered one-way callbacks (messages, results, output streams) are flushed with every synchronous callback,
+ * at the end of the call, and every [SOCKET_TRANSPORT_FLUSH_INTERVAL_MS], so that the client still sees the progress.
+ */
+class DaemonSocketTransportServer(private val compileService: CompileService, private val timer: Timer) {
+
+    private val log by lazy { Logger.getLogger("socket transport") }
+
+    private val serverSocket: ServerSocket =
+        LoopbackNetworkInterface.serverLoopbackSocketFactory.createServerSocket(SOCKET_ANY_FREE_PORT)
+
+    val endpoint = SocketTransportEndpoint(serverSocket.localPort, generateToken())
+
+    private val classLoader: ClassLoader = CompileService::class.java.classLoader
+
+    init {
+        thread(isDaemon = true, name = "Kotlin daemon socket transport") {
+            while (!serverSocket.isClosed) {
+                val socket = try {
+                    serverSocket.accept()
+                } catch (e: IOException) {
+                    break
+                }
+                thread(isDaemon = true, name = "Kotlin daemon socket transport connection") {
+                    serve(socket)
+                }
+            }
+        }
+        log.info("listening on port ${endpoint.port}")
+    }
+
+    fun close() {
+        try {
+            serverSocket.close()
+        } catch (e: IOException) {
+            log.log(Level.INFO, "Unable to close socket transport", e)
+        }
+    }
+
+    private fun serve(socket: Socket) {
+        val connection = DaemonSocketConnection(socket, classLoader)
+        try {
+            with(connection) {
+                val handshake = readFrame(DaemonSocketProtocol.MAX_HANDSHAKE_FRAME_SIZE)
+                if (handshake.type != HANDSHAKE || handshake.body.readInt() != DaemonSocketProtocol.VERSION ||
+                    !MessageDigest.isEqual(handshake.body.readString().toByteArray(), endpoint.token.toByteArray())
+                ) {
+                    log.info("rejected a connection with an invalid handshake")
+                    return
+                }
+
+                val invocation = readFrame()
+                if (invocation.type != INVOKE) throw IOException("Unexpected frame type ${invocation.type}")
+                val methodName = invocation.body.readString()
+                val parameterTypes = List(invocation.body.readCount()) { invocation.body.readString() }
+                val rawArgs = List(invocation.body.readCount()) { invocation.body.readValue() }
+
+                val method = CompileService::class.java.methods.singleOrNull { method ->
+                    method.name == methodName && method.name in DaemonSocketProtocol.INVOKED_METHODS &&
+                            method.parameterTypes.map { it.name } == parameterTypes
+                } ?: throw IOException("Method $methodName(${parameterTypes.joinToString()}) is not available via the socket transport")
+                if (rawArgs.size != parameterTypes.size) throw IOException("Invalid number of arguments of $methodName: ${rawArgs.size}")
+
+                val callbacks = Callbacks(connection)
+                val args = rawArgs.map { if (it is CallbackRef) callbacks.createProxy(it) else it }
+
+                callbacks.startReading()
+                val flushTask = timer.schedule(SOCKET_TRANSPORT_FLUSH_INTERVAL_MS, SOCKET_TRANSPORT_FLUSH_INTERVAL_MS) {
+                    try {
+                        flush()
+                    } catch (e: IOException) {
+                        cancel()
+                    }
+                }
+                try {
+                    val result = method.invoke(compileService, *args.toTypedArray())
+                    writeFrame(RESULT, flush = true) { writeValue(result) }
+                } catch (e: InvocationTargetException) {
+                    val cause = e.targetException
+                    log.log(Level.INFO, "$methodName failed", cause)
+                    writeFrame(THROW, flush = true) {
+                        writeInt(ONE_WAY_CALL_ID)
+                        writeThrowable(cause)
+                    }
+                } finally {
+                    flushTask.cancel()
+                }
+            }
+        } catch (e: Exception) {
+            log.log(Level.INFO, "socket transport connection failed", e)
+        } finally {
+            connection.close()
+        }
+    }
+
+    private inner class Callbacks(private val connection: DaemonSocketConnection) {
+        private val methodIds = HashMap<Pair<Int, Method>, Int>()
+        private val pendingCalls = ConcurrentHashMap<Int, PendingCall>()
+        private val callIdCounter = AtomicInteger(ONE_WAY_CALL_ID)
+
+        // the failure of a one-way call, or of the connection
+        @Volatile
+        private var failure: Throwable? = null
+
+        fun createProxy(ref: CallbackRef): Any {
+            val interfaces = ref.interfaces.map { Class.forName(it, false, classLoader) }.toTypedArray()
+            return Proxy.newProxyInstance(classLoader, interfaces) { proxy, method, args ->
+                when (method.declaringClass) {
+                    Any::class.java -> when (method.name) {
+                        "equals" -> proxy === args[0]
+                        "hashCode" -> System.identityHashCode(proxy)
+                        else -> "socket transport callback #${ref.id}"
+                    }
+                    else -> call(ref.id, method, args ?: emptyArray())
+                }
+            }
+        }
+
+        fun startReading() {
+            thread(isDaemon = true, name = "Kotlin daemon socket transport reader") {
+                try {
+                    with(connection) {
+                        while (true) {
+                            val frame = readFrame()
+                            val callId = frame.body.readInt()
+                            when (frame.type) {
+                                RETURN -> pendingCalls.remove(callId)?.complete(frame.body.readValue(), null)
+                                THROW -> {
+                                    val exception = frame.body.readThrowable()
+                                    if (callId == ONE_WAY_CALL_ID) failure = failure ?: exception
+                                    else pendingCalls.remove(callId)?.complete(null, exception)
+                                }
+                                else -> throw IOException("Unexpected frame type ${frame.type}")
+                            }
+                        }
+                    }
+                } catch (e: IOException) {
+                    // the client has closed the connection after receiving the result, or has died
+                } finally {
+                    val closed = RemoteException("Socket transport connection is closed")
+                    failure = failure ?: closed
+                    pendingCalls.keys.toList().forEach { pendingCalls.remove(it)?.complete(null, closed) }
+                }
+            }
+        }
+
+        private fun call(callbackId: Int, method: Method, args: Array<out Any?>): Any? {
+            failure?.let { throw RemoteException("A previous socket transport callback failed", it) }
+
+            val isOneWay = method.returnType == Void.TYPE
+            val callId = if (isOneWay) ONE_WAY_CALL_ID else callIdCounter.incrementAndGet()
+            val pendingCall = if (isOneWay) null else PendingCall().also { pendingCalls[callId] = it }
+            try {
+                with(connection) {
+                    // keeping the method definitions and calls in the order of their ids
+                    synchronized(methodIds) {
+                        val methodId = methodIds.getOrPut(Pair(callbackId, method)) {
+                            val newId = methodIds.size
+                            writeFrame(DEFINE_METHOD, flush = false) {
+                                writeInt(newId)
+                                writeInt(callbackId)
+                                writeString(method.name)
+                                writeInt(method.parameterTypes.size)
+                                method.parameterTypes.forEach { writeString(it.name) }
+                            }
+                            newId
+                        }
+                        writeFrame(CALL, flush = !isOneWay) {
+                            writeInt(callId)
+                            writeInt(methodId)
+                            writeInt(args.size)
+                            args.forEach { writeValue(it) }
+                        }
+                    }
+                }
+            } catch (e: IOException) {
+                pendingCalls.remove(callId)
+                throw RemoteException("Socket transport call ${method.name} failed", e)
+            }
+            return pendingCall?.await()
+        }
+    }
+
+    private class PendingCall {
+        private val latch = CountDownLatch(1)
+        private var result: Any? = null
+        private var failure: Throwable? = null
+
+        fun complete(result: Any?, failure: Throwable?) {
+            this.result = result
+            this.failure = failure
+            latch.countDown()
+        }
+
+        fun await(): Any? {
+            latch.await()
+            failure?.let { throw it }
+            return result
+        }
+    }
+
+    private companion object {
+        fun generateToken(): String = ByteArray(16).also { SecureRandom().nextBytes(it) }.toHexString()
+    }
+}
@@ -21,6 +21,7 @@ import org.jetbrains.kotlin.cli.common.environment.setIdeaIoUseFallback
 import org.jetbrains.kotlin.cli.js.K2JSCompiler
 import org.jetbrains.kotlin.cli.jvm.K2JVMCompiler
 import org.jetbrains.kotlin.cli.metadata.K2MetadataCompiler
+import org.jetbrains.kotlin.codegen.inline.InlineCache
 import org.jetbrains.kotlin.daemon.common.*
 import java.io.File
 import java.io.IOException
@@ -117,6 +118,10 @@ object KotlinCompileDaemon {
                 throw IllegalArgumentException("Unknown arguments: " + filteredArgs.joinToString(" "))
             }
 
+            if (daemonOptions.inlineCacheSizeMegabytes > 0) {
+                InlineCache.configureShared(daemonOptions.inlineCacheSizeMegabytes * 1024L * 1024L)
+            }
+
             log.info("starting daemon")
 
             // TODO: find minimal set of permissions and restore security management
@@ -16,17 +16,16 @@
 
 package org.jetbrains.kotlin.daemon
 
-import com.intellij.util.containers.StringInterner
-import gnu.trove.THashMap
-import gnu.trove.THashSet
+import org.jetbrains.kotlin.daemon.common.CompactLookupRecorder
 import org.jetbrains.kotlin.daemon.common.CompilerCallbackServicesFacade
 import org.jetbrains.kotlin.daemon.common.DummyProfiler
 import org.jetbrains.kotlin.daemon.common.Profiler
-import org.jetbrains.kotlin.incremental.components.LookupInfo
 import org.jetbrains.kotlin.incremental.components.LookupTracker
 import org.jetbrains.kotlin.incremental.components.Position
 import org.jetbrains.kotlin.incremental.components.ScopeKind
 
+// the lookups are sent in batches of at most this number, so that the recorder doesn't grow without limit on big modules
+const val LOOKUP_TRACKER_BATCH_SIZE = 1 shl 20
 
 class RemoteLookupTrackerClient(
     val facade: CompilerCallbackServicesFacade,
@@ -35,25 +34,17 @@ class RemoteLookupTrackerClient(
 ) : LookupTracker {
     private val isDoNothing = profiler.withMeasure(this) { facade.lookupTracker_isDoNothing() }
 
-    // Map: FileName -> (ScopeFqName -> Set<Name[String] | LookupInfo>)
-    private val lookups = THashMap<String, MutableMap<String, MutableSet<Any>>>()
-    private val interner = StringInterner()
-
     override val requiresPosition: Boolean = profiler.withMeasure(this) { facade.lookupTracker_requiresPosition() }
 
+    private var recorder = CompactLookupRecorder(requiresPosition)
+
     override fun record(filePath: String, position: Position, scopeFqName: String, scopeKind: ScopeKind, name: String) {
         if (isDoNothing) return
 
-        val internedSymbolFqName = interner.intern(scopeFqName)
-        val internedName = interner.intern(name)
-
-        val objectToPut: Any =
-            if (requiresPosition)
-                LookupInfo(filePath, position, scopeFqName, scopeKind, name)
-            else
-                internedName
-
-        lookups.getOrPut(filePath, ::THashMap).getOrPut(internedSymbolFqName, ::THashSet).add(objectToPut)
+        recorder.record(filePath, position, scopeFqName, scopeKind, name)
+        if (recorder.size >= LOOKUP_TRACKER_BATCH_SIZE) {
+            flush()
+        }
     }
 
     init {
@@ -61,26 +52,12 @@ class RemoteLookupTrackerClient(
     }
 
     private fun flush() {
-        if (isDoNothing || lookups.isEmpty) return
+        if (isDoNothing || recorder.size == 0) return
 
         profiler.withMeasure(this) {
-            facade.lookupTracker_record(
-                lookups.flatMap { (filePath, lookupsByFile) ->
-                    lookupsByFile.flatMap { (scopeFqName, lookupsByScopeFqName) ->
-                        lookupsByScopeFqName.map { lookupInfoOrString ->
-                            if (requiresPosition)
-                                lookupInfoOrString as LookupInfo
-                            else
-                                LookupInfo(
-                                    filePath, Position.NO_POSITION, scopeFqName, ScopeKind.CLASSIFIER,
-                                    lookupInfoOrString as String
-                                )
-                        }
-                    }
-                }
-            )
+            facade.lookupTracker_recordCompact(recorder.toCompactLookups())
         }
 
-        lookups.clear()
+        recorder = CompactLookupRecorder(requiresPosition)
     }
 }
@@ -54,6 +54,9 @@ public class JVMConfigurationKeys {
     public static final CompilerConfigurationKey<Boolean> RETAIN_OUTPUT_IN_MEMORY =
             CompilerConfigurationKey.create("retain compiled classes in memory for further use, e.g. when running scripts");
 
+    public static final CompilerConfigurationKey<Boolean> STREAMING_OUTPUT =
+            CompilerConfigurationKey.create("write compiled classes to the output while the module is being generated");
+
     public static final CompilerConfigurationKey<Boolean> DISABLE_CALL_ASSERTIONS =
             CompilerConfigurationKey.create("disable not-null call assertions");
     public static final CompilerConfigurationKey<Boolean> DISABLE_RECEIVER_ASSERTIONS =
@@ -68,12 +71,23 @@ public class JVMConfigurationKeys {
             CompilerConfigurationKey.create("do not throw NPE on explicit 'equals' call for null receiver of platform boxed primitive type");
     public static final CompilerConfigurationKey<Boolean> DISABLE_OPTIMIZATION =
             CompilerConfigurationKey.create("disable optimization");
+    public static final CompilerConfigurationKey<Integer> PARALLEL_BACKEND_THREADS =
+            CompilerConfigurationKey.create("number of threads for generating class files of different packages in parallel");
+    public static final CompilerConfigurationKey<Integer> INLINE_CACHE_SIZE =
+            CompilerConfigurationKey.create("size of the cache of library class files containing inline functions, in megabytes");
+    public static final CompilerConfigurationKey<Boolean> SHARE_INLINE_CACHE =
+            CompilerConfigurationKey.create("share the cache of inline functions between compilations in the same process");
+    public static final CompilerConfigurationKey<Boolean> SHARE_CLASSPATH_INDEX =
+            CompilerConfigurationKey.create("share the indices of classpath jars between compilations in the same process");
     public static final CompilerConfigurationKey<Boolean> USE_TYPE_TABLE =
             CompilerConfigurationKey.create("use type table in serializer");
 
     public static final CompilerConfigurationKey<Boolean> USE_SINGLE_MODULE =
             CompilerConfigurationKey.create("combine modules for source files and binary dependencies into a single module");
 
+    public static final CompilerConfigurationKey<Boolean> CONCURRENT_RESOLVE =
+            CompilerConfigurationKey.create("compute lazy declarations of the module under per-value locks instead of one lock");
+
     public static final CompilerConfigurationKey<Boolean> SKIP_RUNTIME_VERSION_CHECK =
             CompilerConfigurationKey.create("do not perform checks on runtime versions consistency");
 
@@ -104,6 +118,9 @@ public class JVMConfigurationKeys {
     public static final CompilerConfigurationKey<Boolean> IR =
             CompilerConfigurationKey.create("IR");
 
+    public static final CompilerConfigurationKey<File> DEPENDENCIES_INDEX_SNAPSHOT_DIR =
+            CompilerConfigurationKey.create("directory with snapshots of packages and module mappings in classpath jars");
+
     public static final CompilerConfigurationKey<Boolean> USE_FAST_CLASS_FILES_READING =
             CompilerConfigurationKey.create("use fast class files reading implementation [experimental]");
 
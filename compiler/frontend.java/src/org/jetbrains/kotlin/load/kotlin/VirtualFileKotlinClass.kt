@@ -82,6 +82,17 @@ class VirtualFileKotlinClass private constructor(
             }
         }
 
+        /**
+         * Creates a binary class for [file] from its header, which has been read before (e.g. stored in a cache of library metadata).
+         */
+        fun createFromHeader(
+                file: VirtualFile,
+                className: ClassId,
+                classVersion: Int,
+                classHeader: KotlinClassHeader,
+                innerClasses: FileBasedKotlinClass.InnerClassesInfo
+        ): VirtualFileKotlinClass = VirtualFileKotlinClass(file, className, classVersion, classHeader, innerClasses)
+
         private fun renderFileReadingErrorMessage(file: VirtualFile): String =
                 "Could not read file: ${file.path}; size in bytes: ${file.length}; file type: ${file.fileType.name}"
     }
@@ -65,6 +65,20 @@ class FileScopeFactory(
         return FilesScopesBuilder(file, existingImports, packageFragment, packageView).result
     }
 
+    /**
+     * Creates the scopes of a REPL line on top of the imports of the previous lines, and returns them along with the importing scope
+     * of the import directives of this and the previous lines, which the scopes of the next line should be created on top of.
+     * The default imports and the scopes of the package are the same for all lines, so only the scopes of the directives are
+     * carried over, and the importing scope of a line doesn't grow with the number of lines before it.
+     */
+    fun createScopesForReplLine(file: KtFile, importsOfPreviousLines: ImportingScope?): Pair<FileScopes, ImportingScope?> {
+        val packageView = components.moduleDescriptor.getPackage(file.packageFqName)
+        val packageFragment = topLevelDescriptorProvider.getPackageFragmentOrDiagnoseFailure(file.packageFqName, file)
+
+        val builder = FilesScopesBuilder(file, importsOfPreviousLines, packageFragment, packageView)
+        return Pair(builder.result, builder.createImportDirectivesScope(importsOfPreviousLines))
+    }
+
     private data class DefaultImportResolvers(
         val explicit: LazyImportResolver<KtImportInfo>,
         val allUnder: LazyImportResolver<KtImportInfo>,
@@ -232,6 +246,25 @@ class FileScopeFactory(
             return LazyImportScope(scope, explicitImportResolver, null, LazyImportScope.FilteringKind.ALL, "Explicit imports in $debugName")
         }
 
+        // the same scopes of the import directives as in createImportingScope, in the same order
+        fun createImportDirectivesScope(parent: ImportingScope?): ImportingScope? {
+            if (imports.isEmpty()) return parent
+
+            val debugName = "LazyFileScope for import directives of file " + file.name
+
+            var scope: ImportingScope = LazyImportScope(
+                parent, allUnderImportResolver, null, LazyImportScope.FilteringKind.INVISIBLE_CLASSES,
+                "All under imports in $debugName (invisible classes only)"
+            )
+
+            scope = LazyImportScope(
+                scope, allUnderImportResolver, null, LazyImportScope.FilteringKind.VISIBLE_CLASSES,
+                "All under imports in $debugName (visible classes)"
+            )
+
+            return LazyImportScope(scope, explicitImportResolver, null, LazyImportScope.FilteringKind.ALL, "Explicit imports in $debugName")
+        }
+
     }
 
     private enum class FilteringKind {
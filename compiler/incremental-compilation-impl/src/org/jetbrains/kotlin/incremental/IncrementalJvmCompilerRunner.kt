@@ -35,6 +35,7 @@ import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment
 import org.jetbrains.kotlin.config.CompilerConfiguration
 import org.jetbrains.kotlin.config.IncrementalCompilation
 import org.jetbrains.kotlin.config.Services
+import org.jetbrains.kotlin.incremental.classpathDiff.ClasspathSnapshotter
 import org.jetbrains.kotlin.incremental.components.ExpectActualTracker
 import org.jetbrains.kotlin.incremental.components.LookupTracker
 import org.jetbrains.kotlin.incremental.multiproject.EmptyModulesApiHistory
@@ -110,7 +111,8 @@ class IncrementalJvmCompilerRunner(
     outputFiles: Collection<File>,
     private val modulesApiHistory: ModulesApiHistory,
     override val kotlinSourceFilesExtensions: List<String> = DEFAULT_KOTLIN_SOURCE_FILES_EXTENSIONS,
-    private val classpathFqNamesHistory: File? = null
+    private val classpathFqNamesHistory: File? = null,
+    classpathSnapshotDir: File? = null
 ) : IncrementalCompilerRunner<K2JVMCompilerArguments, IncrementalJvmCachesManager>(
     workingDir,
     "caches-jvm",
@@ -129,6 +131,21 @@ class IncrementalJvmCompilerRunner(
 
     private var dirtyClasspathChanges: Collection<FqName> = emptySet<FqName>()
 
+    private val classpathSnapshotter = classpathSnapshotDir?.let {
+        ClasspathSnapshotter(it, File(workingDir, CLASSPATH_SNAPSHOT_STATE_FILE_NAME), reporter)
+    }
+
+    private var snapshotClasspath: List<File> = emptyList()
+
+    // the classpath is snapshotted only after its changes couldn't be obtained from the build histories,
+    // so that the modules whose dependencies all have histories don't pay for snapshotting after every build
+    private var needsClasspathSnapshot = false
+    private var lastExitCode: ExitCode? = null
+
+    // the destination dir is added to the classpath by incremental builds, and its changes are tracked by the caches
+    private fun snapshotClasspathOf(args: K2JVMCompilerArguments): List<File> =
+        args.classpathAsList.filter { it.absoluteFile != args.destinationAsFile.absoluteFile }
+
     private val psiFileFactory: PsiFileFactory by lazy {
         val rootDisposable = Disposer.newDisposable()
         val configuration = CompilerConfiguration()
@@ -156,7 +173,13 @@ class IncrementalJvmCompilerRunner(
         val lastBuildInfo = BuildInfo.read(lastBuildInfoFile) ?: return CompilationMode.Rebuild { "No information on previous build" }
         reporter.reportVerbose { "Last Kotlin Build info -- $lastBuildInfo" }
 
-        val classpathChanges = getClasspathChanges(args.classpathAsList, changedFiles, lastBuildInfo, modulesApiHistory, reporter)
+        val classpathChanges = getClasspathChanges(args.classpathAsList, changedFiles, lastBuildInfo, modulesApiHistory, reporter).let { changes ->
+            if (changes is ChangesEither.Unknown && classpathSnapshotter != null) {
+                needsClasspathSnapshot = true
+                reporter.report { "Could not get classpath's changes from history${changes.reason?.let { ": $it" }}, comparing classpath snapshots" }
+                classpathSnapshotter.getChanges(snapshotClasspathOf(args), listOf(caches.platformCache))
+            } else changes
+        }
 
         @Suppress("UNUSED_VARIABLE") // for sealed when
         val unused = when (classpathChanges) {
@@ -250,6 +273,7 @@ class IncrementalJvmCompilerRunner(
     }
 
     override fun preBuildHook(args: K2JVMCompilerArguments, compilationMode: CompilationMode) {
+        snapshotClasspath = snapshotClasspathOf(args)
         if (compilationMode is CompilationMode.Incremental) {
             val destinationDir = args.destinationAsFile
             destinationDir.mkdirs()
@@ -260,6 +284,10 @@ class IncrementalJvmCompilerRunner(
     override fun processChangesAfterBuild(compilationMode: CompilationMode, currentBuildInfo: BuildInfo, dirtyData: DirtyData) {
         super.processChangesAfterBuild(compilationMode, currentBuildInfo, dirtyData)
 
+        if (lastExitCode == ExitCode.OK && needsClasspathSnapshot) {
+            classpathSnapshotter?.saveState(snapshotClasspath)
+        }
+
         classpathFqNamesHistory ?: return
         classpathFqNamesHistory.mkdirs()
 
@@ -279,7 +307,9 @@ class IncrementalJvmCompilerRunner(
         }
     }
 
-    override fun postCompilationHook(exitCode: ExitCode) {}
+    override fun postCompilationHook(exitCode: ExitCode) {
+        lastExitCode = exitCode
+    }
 
     override fun updateCaches(
             services: Services,
@@ -373,6 +403,10 @@ class IncrementalJvmCompilerRunner(
         args.freeArgs = freeArgsBackup
         return exitCode
     }
+
+    companion object {
+        const val CLASSPATH_SNAPSHOT_STATE_FILE_NAME = "classpath-snapshot.bin"
+    }
 }
 
 var K2JVMCompilerArguments.destinationAsFile: File
@@ -0,0 +1,431 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.incremental.classpathDiff
+
+import org.jetbrains.kotlin.incremental.ChangeInfo
+import org.jetbrains.kotlin.incremental.ChangesCollector
+import org.jetbrains.kotlin.incremental.md5
+import org.jetbrains.kotlin.incremental.storage.ProtoMapValue
+import org.jetbrains.kotlin.incremental.storage.ProtoMapValueExternalizer
+import org.jetbrains.kotlin.incremental.toProtoData
+import org.jetbrains.kotlin.inline.inlineFunctionsJvmNames
+import org.jetbrains.kotlin.load.java.getPropertyNamesCandidatesByAccessorName
+import org.jetbrains.kotlin.load.kotlin.FileBasedKotlinClass
+import org.jetbrains.kotlin.load.kotlin.header.KotlinClassHeader
+import org.jetbrains.kotlin.metadata.jvm.deserialization.BitEncoding
+import org.jetbrains.kotlin.name.FqName
+import org.jetbrains.kotlin.name.Name
+import org.jetbrains.kotlin.resolve.jvm.JvmClassName
+import org.jetbrains.org.objectweb.asm.*
+import java.io.ByteArrayOutputStream
+import java.io.DataInput
+import java.io.DataOutput
+import java.io.DataOutputStream
+import java.util.*
+
+/**
+ * The ABI of a class file, i.e. the part of it visible to the compilation of dependent modules.
+ *
+ * The proto of a Kotlin class is kept as is, to be compared by [ChangesCollector.collectProtoChanges], and the rest of the ABI is
+ * reduced to hashes: [memberHashes] contain the hashes of the constants and inline functions of a Kotlin class, or of the non-private
+ * fields and methods of a Java class grouped by name, and [signatureHash] is the hash of the declaration of a Java class itself.
+ * [abiHash] covers all of them, so that unchanged classes are skipped without decoding their protos.
+ */
+class ClassAbiSnapshot(
+    val internalName: String,
+    val kind: Kind,
+    val supertypes: List<String>,
+    val proto: ProtoMapValue?,
+    val signatureHash: Long,
+    val memberHashes: Map<String, Long>,
+    val abiHash: Long
+) {
+    enum class Kind {
+        KOTLIN_CLASS,
+        KOTLIN_PACKAGE_PART,
+        KOTLIN_MULTIFILE_FACADE,
+        JAVA_CLASS
+    }
+
+    val className: JvmClassName
+        get() = JvmClassName.byInternalName(internalName)
+
+    val fqName: FqName
+        get() = className.fqNameForClassNameWithoutDollars
+
+    /**
+     * The scope in which the members of the class are looked up.
+     */
+    val scopeFqName: FqName
+        get() = when (kind) {
+            Kind.KOTLIN_PACKAGE_PART, Kind.KOTLIN_MULTIFILE_FACADE -> className.packageFqName
+            else -> fqName
+        }
+
+    companion object {
+        /**
+         * Returns the snapshot of the class file [bytes], or `null` if the class is synthetic or local,
+         * and therefore can't be referenced from other modules.
+         */
+        fun create(bytes: ByteArray): ClassAbiSnapshot? {
+            val reader = ClassReader(bytes)
+            if (reader.access and Opcodes.ACC_SYNTHETIC != 0) return null
+
+            val kotlinClass = FileBasedKotlinClass.create(bytes) { classId, _, header, _ -> Pair(classId, header) }
+            if (kotlinClass != null) {
+                val (classId, header) = kotlinClass
+                if (classId.isLocal) return null
+
+                val kind = when (header.kind) {
+                    KotlinClassHeader.Kind.CLASS -> Kind.KOTLIN_CLASS
+                    KotlinClassHeader.Kind.FILE_FACADE, KotlinClassHeader.Kind.MULTIFILE_CLASS_PART -> Kind.KOTLIN_PACKAGE_PART
+                    KotlinClassHeader.Kind.MULTIFILE_CLASS -> Kind.KOTLIN_MULTIFILE_FACADE
+                    else -> return null
+                }
+                val data = header.data
+                val strings = header.strings
+                if (kind == Kind.KOTLIN_MULTIFILE_FACADE || data != null && strings != null) {
+                    val proto = if (data != null && strings != null) {
+                        ProtoMapValue(kind != Kind.KOTLIN_CLASS, BitEncoding.decodeBytes(data), strings)
+                    } else null
+                    return createForKotlinClass(reader, kind, header, proto)
+                }
+                // the metadata of an incompatible version can't be compared, but the class is still usable as a Java one
+            }
+
+            return createForJavaClass(reader)
+        }
+
+        private fun createForKotlinClass(
+            reader: ClassReader,
+            kind: Kind,
+            header: KotlinClassHeader,
+            proto: ProtoMapValue?
+        ): ClassAbiSnapshot {
+            val inlineFunctions = inlineFunctionsJvmNames(header)
+            val memberHashes = HashMap<String, Long>()
+
+            reader.accept(object : ClassVisitor(Opcodes.API_VERSION) {
+                override fun visitField(access: Int, name: String, desc: String, signature: String?, value: Any?): FieldVisitor? {
+                    val staticFinal = Opcodes.ACC_STATIC or Opcodes.ACC_FINAL or Opcodes.ACC_PRIVATE
+                    if (value != null && access and staticFinal == Opcodes.ACC_STATIC or Opcodes.ACC_FINAL) {
+                        memberHashes[name] = AbiHasher().addValue(value).hash()
+                    }
+                    return null
+                }
+
+                override fun visitMethod(
+                    access: Int,
+                    name: String,
+                    desc: String,
+                    signature: String?,
+                    exceptions: Array<out String>?
+                ): MethodVisitor? {
+                    val jvmName = name + desc
+                    if (jvmName !in inlineFunctions) return null
+
+                    // the same way as inline functions are compared within a module, see IncrementalJvmCache.InlineFunctionsMap
+                    val dummyClassWriter = ClassWriter(0)
+                    return object : MethodVisitor(Opcodes.API_VERSION, dummyClassWriter.visitMethod(0, name, desc, null, exceptions)) {
+                        override fun visitEnd() {
+                            memberHashes[jvmName] = dummyClassWriter.toByteArray().md5()
+                        }
+                    }
+                }
+            }, 0)
+
+            val hasher = AbiHasher().add(kind.ordinal)
+            if (proto != null) {
+                hasher.add(proto.bytes.md5())
+                proto.strings.forEach { hasher.add(it) }
+            }
+            hasher.addHashes(memberHashes)
+
+            return ClassAbiSnapshot(reader.className, kind, reader.supertypes(), proto, 0, memberHashes, hasher.hash())
+        }
+
+        private fun createForJavaClass(reader: ClassReader): ClassAbiSnapshot {
+            val visitor = JavaAbiVisitor()
+            reader.accept(visitor, ClassReader.SKIP_CODE or ClassReader.SKIP_DEBUG or ClassReader.SKIP_FRAMES)
+
+            val signatureHash = visitor.signature.hash()
+            val memberHashes = visitor.memberHashes()
+            val abiHash = AbiHasher().add(signatureHash).addHashes(memberHashes).hash()
+
+            return ClassAbiSnapshot(reader.className, Kind.JAVA_CLASS, reader.supertypes(), null, signatureHash, memberHashes, abiHash)
+        }
+
+        private fun ClassReader.supertypes(): List<String> =
+            listOfNotNull(superName) + interfaces
+    }
+}
+
+/**
+ * Collects the changes between two snapshots of the same class, either of which may be `null` if the class is added or removed.
+ * [subtypes] are the names of the classes on the classpath inheriting from the class, which are affected by the changes as well.
+ */
+internal fun ChangesCollector.collectClassChanges(old: ClassAbiSnapshot?, new: ClassAbiSnapshot?, subtypes: Collection<FqName>) {
+    if (old != null && new != null) {
+        if (old.kind != new.kind) {
+            collectClassChanges(old, null, subtypes)
+            collectClassChanges(null, new, subtypes)
+            return
+        }
+        if (old.abiHash == new.abiHash) return
+    }
+
+    val snapshot = new ?: old ?: throw IllegalStateException("Old and new snapshots are null")
+    val scope = snapshot.scopeFqName
+
+    when (snapshot.kind) {
+        ClassAbiSnapshot.Kind.KOTLIN_CLASS, ClassAbiSnapshot.Kind.KOTLIN_PACKAGE_PART -> {
+            val packageFqName = snapshot.className.packageFqName
+            val oldData = old?.proto?.toProtoData(packageFqName)
+            val newData = new?.proto?.toProtoData(packageFqName)
+            collectProtoChanges(oldData, newData)
+            if (subtypes.isNotEmpty()) {
+                val changes = ChangesCollector().apply { collectProtoChanges(oldData, newData) }.changes()
+                for (change in changes) {
+                    subtypes.forEach { collectInheritedChange(change, it) }
+                }
+            }
+        }
+        ClassAbiSnapshot.Kind.KOTLIN_MULTIFILE_FACADE -> {
+            // the members of the facade are declared in its parts
+        }
+        ClassAbiSnapshot.Kind.JAVA_CLASS -> {
+            if (old == null || new == null || old.signatureHash != new.signatureHash) {
+                collectSignature(scope, areSubclassesAffected = true)
+            }
+        }
+    }
+
+    val oldMembers = old?.memberHashes ?: emptyMap()
+    val newMembers = new?.memberHashes ?: emptyMap()
+    for (key in oldMembers.keys + newMembers.keys) {
+        val oldHash = oldMembers[key]
+        val newHash = newMembers[key]
+        if (oldHash == newHash) continue
+
+        // inline functions are keyed by their JVM signatures
+        val name = key.substringBefore("(")
+        val names = if (snapshot.kind == ClassAbiSnapshot.Kind.JAVA_CLASS) {
+            if (name == "<init>") {
+                collectSignature(scope, areSubclassesAffected = true)
+                continue
+            }
+            // Java getters and setters are seen as synthetic properties from Kotlin
+            listOf(name) + getPropertyNamesCandidatesByAccessorName(Name.identifier(name)).map { it.asString() }
+        } else {
+            listOf(name)
+        }
+
+        for (memberName in names) {
+            collectMemberIfValueWasChanged(scope, memberName, oldHash, newHash)
+            subtypes.forEach { collectMemberIfValueWasChanged(it, memberName, oldHash, newHash) }
+        }
+    }
+}
+
+// the members of a subtype are compared by their owners, since they are inherited
+private fun ChangesCollector.collectInheritedChange(change: ChangeInfo, subtype: FqName) {
+    when (change) {
+        is ChangeInfo.SignatureChanged -> if (change.areSubclassesAffected) collectSignature(subtype, areSubclassesAffected = true)
+        is ChangeInfo.Removed -> change.names.forEach { collectMemberIfValueWasChanged(subtype, it, change.fqName, null) }
+        is ChangeInfo.MembersChanged -> change.names.forEach { collectMemberIfValueWasChanged(subtype, it, null, change.fqName) }
+    }
+}
+
+internal object ClassAbiSnapshotExternalizer {
+    fun save(output: DataOutput, value: ClassAbiSnapshot) {
+        output.writeUTF(value.internalName)
+        output.writeInt(value.kind.ordinal)
+        output.writeInt(value.supertypes.size)
+        value.supertypes.forEach { output.writeUTF(it) }
+        output.writeBoolean(value.proto != null)
+        value.proto?.let { ProtoMapValueExternalizer.save(output, it) }
+        output.writeLong(value.signatureHash)
+        output.writeInt(value.memberHashes.size)
+        for ((key, hash) in value.memberHashes) {
+            output.writeUTF(key)
+            output.writeLong(hash)
+        }
+        output.writeLong(value.abiHash)
+    }
+
+    fun read(input: DataInput): ClassAbiSnapshot {
+        val internalName = input.readUTF()
+        val kind = ClassAbiSnapshot.Kind.values()[input.readInt()]
+        val supertypes = List(input.readInt()) { input.readUTF() }
+        val proto = if (input.readBoolean()) ProtoMapValueExternalizer.read(input) else null
+        val signatureHash = input.readLong()
+        val memberHashes = HashMap<String, Long>()
+        repeat(input.readInt()) {
+            memberHashes[input.readUTF()] = input.readLong()
+        }
+        return ClassAbiSnapshot(internalName, kind, supertypes, proto, signatureHash, memberHashes, input.readLong())
+    }
+}
+
+private class AbiHasher {
+    private val bytes = ByteArrayOutputStream()
+    private val output = DataOutputStream(bytes)
+
+    fun add(value: Int): AbiHasher = apply { output.writeInt(value) }
+
+    fun add(value: Long): AbiHasher = apply { output.writeLong(value) }
+
+    fun add(value: String?): AbiHasher = apply {
+        if (value == null) {
+            output.writeInt(-1)
+        } else {
+            val encoded = value.toByteArray(Charsets.UTF_8)
+            output.writeInt(encoded.size)
+            output.write(encoded)
+        }
+    }
+
+    fun addValue(value: Any?): AbiHasher = apply {
+        add(value?.javaClass?.name)
+        add(if (value != null && value.javaClass.isArray) Arrays.deepToString(arrayOf(value)) else value?.toString())
+    }
+
+    fun addHashes(hashes: Map<String, Long>): AbiHasher = apply {
+        for (key in hashes.keys.sorted()) {
+            add(key)
+            add(hashes.getValue(key))
+        }
+    }
+
+    fun annotation(tag: Int, desc: String, visible: Boolean): AnnotationVisitor {
+        add(tag)
+        add(desc)
+        add(if (visible) 1 else 0)
+        return AnnotationHasher(this)
+    }
+
+    fun hash(): Long = bytes.toByteArray().md5()
+}
+
+private class AnnotationHasher(private val hasher: AbiHasher) : AnnotationVisitor(Opcodes.API_VERSION) {
+    override fun visit(name: String?, value: Any?) {
+        hasher.add(TAG_VALUE).add(name).addValue(value)
+    }
+
+    override fun visitEnum(name: String?, desc: String, value: String) {
+        hasher.add(TAG_ENUM).add(name).add(desc).add(value)
+    }
+
+    override fun visitAnnotation(name: String?, desc: String): AnnotationVisitor {
+        hasher.add(TAG_ANNOTATION).add(name).add(desc)
+        return AnnotationHasher(hasher)
+    }
+
+    override fun visitArray(name: String?): AnnotationVisitor {
+        hasher.add(TAG_ARRAY).add(name)
+        return AnnotationHasher(hasher)
+    }
+
+    override fun visitEnd() {
+        hasher.add(TAG_END)
+    }
+}
+
+/**
+ * Hashes the declarations of a Java class which are accessible from other classes, including annotations of all retentions,
+ * since class retention nullability annotations affect the types seen from Kotlin.
+ */
+private class JavaAbiVisitor : ClassVisitor(Opcodes.API_VERSION) {
+    val signature = AbiHasher()
+
+    private var internalName: String? = null
+    private val overloads = HashMap<String, MutableList<AbiHasher>>()
+
+    fun memberHashes(): Map<String, Long> =
+        overloads.mapValues { (_, hashers) ->
+            val hashes = hashers.map { it.hash() }
+            hashes.singleOrNull() ?: AbiHasher().apply { hashes.sorted().forEach { add(it) } }.hash()
+        }
+
+    override fun visit(version: Int, access: Int, name: String, signature: String?, superName: String?, interfaces: Array<out String>?) {
+        internalName = name
+        this.signature.add(access and CLASS_ACCESS_MASK).add(signature).add(superName)
+        interfaces?.forEach { this.signature.add(it) }
+    }
+
+    override fun visitInnerClass(name: String, outerName: String?, innerName: String?, access: Int) {
+        // the visibility and the modality of a nested class are stored in the InnerClasses attribute
+        if (name == internalName) {
+            signature.add(TAG_INNER_CLASS).add(access and CLASS_ACCESS_MASK)
+        }
+    }
+
+    override fun visitAnnotation(desc: String, visible: Boolean): AnnotationVisitor =
+        signature.annotation(TAG_ANNOTATION, desc, visible)
+
+    override fun visitTypeAnnotation(typeRef: Int, typePath: TypePath?, desc: String, visible: Boolean): AnnotationVisitor =
+        signature.add(typeRef).add(typePath?.toString()).annotation(TAG_TYPE_ANNOTATION, desc, visible)
+
+    override fun visitField(access: Int, name: String, desc: String, signature: String?, value: Any?): FieldVisitor? {
+        if (access and (Opcodes.ACC_PRIVATE or Opcodes.ACC_SYNTHETIC) != 0) return null
+
+        val hasher = addMember(name).add(TAG_FIELD).add(access and FIELD_ACCESS_MASK).add(desc).add(signature).addValue(value)
+        return object : FieldVisitor(Opcodes.API_VERSION) {
+            override fun visitAnnotation(desc: String, visible: Boolean): AnnotationVisitor =
+                hasher.annotation(TAG_ANNOTATION, desc, visible)
+
+            override fun visitTypeAnnotation(typeRef: Int, typePath: TypePath?, desc: String, visible: Boolean): AnnotationVisitor =
+                hasher.add(typeRef).add(typePath?.toString()).annotation(TAG_TYPE_ANNOTATION, desc, visible)
+        }
+    }
+
+    override fun visitMethod(access: Int, name: String, desc: String, signature: String?, exceptions: Array<out String>?): MethodVisitor? {
+        if (access and (Opcodes.ACC_PRIVATE or Opcodes.ACC_SYNTHETIC) != 0 || name == "<clinit>") return null
+
+        val hasher = addMember(name).add(TAG_METHOD).add(access and METHOD_ACCESS_MASK).add(desc).add(signature)
+        exceptions?.sorted()?.forEach { hasher.add(it) }
+        return object : MethodVisitor(Opcodes.API_VERSION) {
+            override fun visitAnnotation(desc: String, visible: Boolean): AnnotationVisitor =
+                hasher.annotation(TAG_ANNOTATION, desc, visible)
+
+            override fun visitTypeAnnotation(typeRef: Int, typePath: TypePath?, desc: String, visible: Boolean): AnnotationVisitor =
+                hasher.add(typeRef).add(typePath?.toString()).annotation(TAG_TYPE_ANNOTATION, desc, visible)
+
+            override fun visitParameterAnnotation(parameter: Int, desc: String, visible: Boolean): AnnotationVisitor =
+                hasher.add(parameter).annotation(TAG_PARAMETER_ANNOTATION, desc, visible)
+
+            override fun visitAnnotationDefault(): AnnotationVisitor {
+                hasher.add(TAG_ANNOTATION_DEFAULT)
+                return AnnotationHasher(hasher)
+            }
+        }
+    }
+
+    private fun addMember(name: String): AbiHasher =
+        AbiHasher().also { overloads.getOrPut(name) { ArrayList() }.add(it) }
+}
+
+private const val CLASS_ACCESS_MASK = Opcodes.ACC_PUBLIC or Opcodes.ACC_PROTECTED or Opcodes.ACC_PRIVATE or Opcodes.ACC_STATIC or
+        Opcodes.ACC_FINAL or Opcodes.ACC_INTERFACE or Opcodes.ACC_ABSTRACT or Opcodes.ACC_ANNOTATION or Opcodes.ACC_ENUM or
+        Opcodes.ACC_DEPRECATED
+
+private const val FIELD_ACCESS_MASK = Opcodes.ACC_PUBLIC or Opcodes.ACC_PROTECTED or Opcodes.ACC_STATIC or Opcodes.ACC_FINAL or
+        Opcodes.ACC_ENUM or Opcodes.ACC_DEPRECATED
+
+private const val METHOD_ACCESS_MASK = Opcodes.ACC_PUBLIC or Opcodes.ACC_PROTECTED or Opcodes.ACC_STATIC or Opcodes.ACC_FINAL or
+        Opcodes.ACC_ABSTRACT or Opcodes.ACC_VARARGS or Opcodes.ACC_DEPRECATED
+
+private const val TAG_VALUE = 1
+private const val TAG_ENUM = 2
+private const val TAG_ANNOTATION = 3
+private const val TAG_ARRAY = 4
+private const val TAG_END = 5
+private const val TAG_TYPE_ANNOTATION = 6
+private const val TAG_PARAMETER_ANNOTATION = 7
+private const val TAG_ANNOTATION_DEFAULT = 8
+private const val TAG_INNER_CLASS = 9
+private const val TAG_FIELD = 10
+private const val TAG_METHOD = 11
@@ -0,0 +1,361 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.incremental.classpathDiff
+
+import org.jetbrains.kotlin.daemon.common.toHexString
+import org.jetbrains.kotlin.incremental.*
+import org.jetbrains.kotlin.incremental.snapshots.md5
+import org.jetbrains.kotlin.name.FqName
+import org.jetbrains.kotlin.resolve.jvm.JvmClassName
+import java.io.*
+import java.security.MessageDigest
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
+import java.util.zip.ZipFile
+
+/**
+ * Detects the ABI changes of the classpath of a module by comparing the snapshots of its entries with the ones from the previous build,
+ * when the changes can't be obtained from the build histories of other modules (see [getClasspathChanges]).
+ *
+ * An entry is identified by the checksum of its contents: the MD5 of a jar, which is computed again only if the size or the modification
+ * time of the jar is changed, or the MD5 of the paths and the contents of the class files of a directory. Directories are usually outputs
+ * of other modules, whose class files may be rewritten with the same size within the resolution of the modification time.
+ * The snapshots of the entries are stored by their checksums in [snapshotsDir], which may be shared by many modules, so that every version
+ * of a dependency is snapshotted only once. The checksums of the classpath of the last successful build are stored in [stateFile].
+ *
+ * The checksums and the snapshots of the entries are computed in parallel, see [SNAPSHOT_THREADS_COUNT].
+ */
+internal class ClasspathSnapshotter(
+    private val snapshotsDir: File,
+    private val stateFile: File,
+    private val reporter: ICReporter
+) {
+    private class EntryState(val path: String, val length: Long, val lastModified: Long, val checksum: String?)
+
+    private val computedStates = HashMap<String, EntryState>()
+
+    /**
+     * Returns the changes of [classpath] since the last successful build.
+     * The subtypes of the changed classes in [caches] are found the same way as for the changes of the module itself.
+     */
+    fun getChanges(classpath: List<File>, caches: Iterable<IncrementalCacheCommon>): ChangesEither {
+        val previousStates = readState() ?: return ChangesEither.Unknown("No classpath snapshot of the previous build")
+        val currentStates = try {
+            computeStates(classpath, previousStates)
+        } catch (e: IOException) {
+            return ChangesEither.Unknown("Could not compute classpath checksums: $e")
+        }
+
+        val previousPaths = previousStates.map { it.path }
+        val currentPaths = currentStates.map { it.path }
+        if (previousPaths.filter { it in currentPaths } != currentPaths.filter { it in previousPaths }) {
+            return ChangesEither.Unknown("The order of classpath entries is changed")
+        }
+
+        val previousByPath = previousStates.associateBy { it.path }
+        val currentByPath = currentStates.associateBy { it.path }
+        val changedPaths = (previousPaths + currentPaths).distinct().filter { previousByPath[it]?.checksum != currentByPath[it]?.checksum }
+        if (changedPaths.isEmpty()) return ChangesEither.Known()
+
+        // the previous snapshots have been saved by the previous build, while the current ones may have to be computed
+        val entries = changedPaths.flatMap { path ->
+            listOfNotNull(previousByPath[path]?.checksum?.let { Pair(it, null) }, currentByPath[path]?.checksum?.let { Pair(it, File(path)) })
+        }
+        val snapshots = try {
+            inParallel(entries.distinctBy { it.first }) { (checksum, file) -> Pair(checksum, loadSnapshot(checksum, file)) }.toMap()
+        } catch (e: IOException) {
+            return ChangesEither.Unknown("Could not snapshot classpath: $e")
+        }
+
+        val changedClasses = HashMap<String, Pair<ClassAbiSnapshot?, ClassAbiSnapshot?>>()
+        for (path in changedPaths) {
+            val oldClasses = previousByPath[path]?.checksum?.let { snapshots[it] ?: return ChangesEither.Unknown("No snapshot of $path") }
+            val newClasses = currentByPath[path]?.checksum?.let { snapshots[it] ?: return ChangesEither.Unknown("Could not snapshot $path") }
+            for (name in oldClasses.orEmpty().keys + newClasses.orEmpty().keys) {
+                val oldClass = oldClasses?.get(name)
+                val newClass = newClasses?.get(name)
+                if (oldClass == null || newClass == null || oldClass.abiHash != newClass.abiHash) {
+                    // a class moved between entries is both removed from one of them and added to another
+                    val (previousOld, previousNew) = changedClasses[name] ?: Pair(null, null)
+                    changedClasses[name] = Pair(previousOld ?: oldClass, previousNew ?: newClass)
+                }
+            }
+        }
+        reporter.report { "Classpath snapshots: ${changedPaths.size} changed entries, ${changedClasses.size} changed classes" }
+
+        val subtypes = try {
+            getSubtypes(currentStates, snapshots)
+        } catch (e: IOException) {
+            return ChangesEither.Unknown("Could not read classpath snapshots: $e")
+        }
+
+        val changesCollector = ChangesCollector()
+        for ((name, classes) in changedClasses) {
+            val (oldClass, newClass) = classes
+            val classSubtypes = subtypes.withSubtypesOf(name) - JvmClassName.byInternalName(name).fqNameForClassNameWithoutDollars
+            changesCollector.collectClassChanges(oldClass, newClass, classSubtypes)
+        }
+        val (dirtyLookupSymbols, dirtyClassesFqNames) = changesCollector.getDirtyData(caches, reporter)
+        return ChangesEither.Known(dirtyLookupSymbols, dirtyClassesFqNames)
+    }
+
+    /**
+     * Saves the checksums of [classpath] for the next build, and snapshots the entries which are not snapshotted yet.
+     * Snapshotting a new entry reads all of its classes, so this is only worth it for the modules which need the snapshots.
+     */
+    fun saveState(classpath: List<File>) {
+        val states = try {
+            val states = computeStates(classpath, readState().orEmpty())
+            inParallel(states.filter { it.checksum != null }.distinctBy { it.checksum }) { state ->
+                val snapshotFile = snapshotFile(state.checksum!!)
+                // the existing snapshots are only touched, so that they are not cleaned up while in use
+                if (!snapshotFile.setLastModified(System.currentTimeMillis())) {
+                    saveSnapshot(state.checksum, computeSnapshot(File(state.path)))
+                }
+            }
+            states
+        } catch (e: IOException) {
+            reporter.report { "Could not snapshot classpath: $e" }
+            stateFile.delete()
+            return
+        }
+
+        stateFile.parentFile.mkdirs()
+        DataOutputStream(stateFile.outputStream().buffered()).use { output ->
+            output.writeInt(STATE_VERSION)
+            output.writeInt(states.size)
+            for (state in states) {
+                output.writeUTF(state.path)
+                output.writeLong(state.length)
+                output.writeLong(state.lastModified)
+                output.writeUTF(state.checksum ?: "")
+            }
+        }
+        cleanUpSnapshots()
+    }
+
+    private fun readState(): List<EntryState>? {
+        if (!stateFile.exists()) return null
+
+        return try {
+            DataInputStream(stateFile.inputStream().buffered()).use { input ->
+                if (input.readInt() != STATE_VERSION) return null
+                List(input.readInt()) {
+                    EntryState(input.readUTF(), input.readLong(), input.readLong(), input.readUTF().takeIf { it.isNotEmpty() })
+                }
+            }
+        } catch (e: IOException) {
+            reporter.report { "Could not read classpath snapshot state $stateFile: $e" }
+            null
+        }
+    }
+
+    private fun computeStates(classpath: List<File>, previousStates: List<EntryState>): List<EntryState> {
+        val previousByPath = previousStates.associateBy { it.path }
+        return inParallel(classpath.distinct()) { file ->
+            val path = file.absolutePath
+            // the checksums are computed once per build, even if both the changes and the state are requested
+            synchronized(computedStates) { computedStates[path] }?.let { return@inParallel it }
+
+            val length = file.length()
+            val lastModified = file.lastModified()
+            val previous = previousByPath[path]
+            val checksum = when {
+                file.isFile -> {
+                    if (previous != null && previous.length == length && previous.lastModified == lastModified) previous.checksum
+                    else file.md5.toHexString()
+                }
+                file.isDirectory -> directoryChecksum(file)
+                else -> null
+            }
+            EntryState(path, length, lastModified, checksum).also { synchronized(computedStates) { computedStates[path] = it } }
+        }
+    }
+
+    private fun directoryChecksum(dir: File): String {
+        val digest = MessageDigest.getInstance("MD5")
+        val classFiles = dir.walk().filter { it.isFile && it.extension == "class" }.toList()
+        for (file in classFiles.sortedBy { it.path }) {
+            digest.update(file.relativeTo(dir).invariantSeparatorsPath.toByteArray())
+            val bytes = file.readBytes()
+            digest.update(intToBytes(bytes.size))
+            digest.update(bytes)
+        }
+        return digest.digest().toHexString()
+    }
+
+    private fun intToBytes(value: Int): ByteArray =
+        ByteArray(4) { (value ushr (it * 8)).toByte() }
+
+    /**
+     * Returns the snapshot stored by [checksum], or computes it from [file] unless it's `null`.
+     */
+    private fun loadSnapshot(checksum: String, file: File?): Map<String, ClassAbiSnapshot>? {
+        val snapshotFile = snapshotFile(checksum)
+        if (snapshotFile.exists()) {
+            val snapshot = readSnapshot(snapshotFile)
+            if (snapshot != null) {
+                snapshotFile.setLastModified(System.currentTimeMillis())
+                return snapshot
+            }
+        }
+        if (file == null) return null
+
+        return computeSnapshot(file).also { saveSnapshot(checksum, it) }
+    }
+
+    private fun saveSnapshot(checksum: String, snapshot: Map<String, ClassAbiSnapshot>) {
+        // other builds may be writing new snapshots of the same entry at the same time, but they all write the same data
+        val snapshotFile = snapshotFile(checksum)
+        snapshotsDir.mkdirs()
+        val tempFile = File.createTempFile(checksum, ".tmp", snapshotsDir)
+        try {
+            DataOutputStream(tempFile.outputStream().buffered()).use { output ->
+                output.writeInt(SNAPSHOT_VERSION)
+                writeSnapshot(output, snapshot.values)
+            }
+            if (!tempFile.renameTo(snapshotFile) && !snapshotFile.exists()) {
+                throw IOException("Could not save classpath snapshot $snapshotFile")
+            }
+        } finally {
+            tempFile.delete()
+        }
+    }
+
+    // the snapshots of other versions are never read, and are cleaned up eventually
+    private fun snapshotFile(checksum: String) = File(snapshotsDir, "$checksum.v$SNAPSHOT_VERSION$SNAPSHOT_EXTENSION")
+
+    private fun computeSnapshot(file: File): Map<String, ClassAbiSnapshot> {
+        val classes = HashMap<String, ClassAbiSnapshot>()
+        fun add(bytes: ByteArray) {
+            val snapshot = try {
+                ClassAbiSnapshot.create(bytes)
+            } catch (e: RuntimeException) {
+                // e.g. a class file of an unsupported version, the changes of which can't be detected
+                throw IOException("Could not read a class file of $file", e)
+            }
+            snapshot?.let { classes[it.internalName] = it }
+        }
+
+        if (file.isDirectory) {
+            file.walk().filter { it.isFile && it.extension == "class" && it.name != MODULE_INFO_CLASS }.forEach { add(it.readBytes()) }
+        } else {
+            ZipFile(file).use { zip ->
+                for (entry in zip.entries()) {
+                    val name = entry.name
+                    // the versioned classes of multi-release jars are ignored, as they are by the compiler
+                    if (entry.isDirectory || !name.endsWith(".class") || name.startsWith("META-INF/") || name.endsWith(MODULE_INFO_CLASS)) continue
+                    add(zip.getInputStream(entry).use { it.readBytes() })
+                }
+            }
+        }
+        return classes
+    }
+
+    // the names and the supertypes of all classes are written first, so that they can be read without the rest of the snapshot
+    private fun writeSnapshot(output: DataOutput, classes: Collection<ClassAbiSnapshot>) {
+        output.writeInt(classes.size)
+        for (snapshot in classes) {
+            output.writeUTF(snapshot.internalName)
+            output.writeInt(snapshot.supertypes.size)
+            snapshot.supertypes.forEach { output.writeUTF(it) }
+        }
+        classes.forEach { ClassAbiSnapshotExternalizer.save(output, it) }
+    }
+
+    private fun readSnapshot(file: File): Map<String, ClassAbiSnapshot>? =
+        DataInputStream(file.inputStream().buffered()).use { input ->
+            if (input.readInt() != SNAPSHOT_VERSION) return null
+            val count = readSupertypes(input).size
+            val classes = HashMap<String, ClassAbiSnapshot>(count)
+            repeat(count) {
+                val snapshot = ClassAbiSnapshotExternalizer.read(input)
+                classes[snapshot.internalName] = snapshot
+            }
+            classes
+        }
+
+    private fun readSupertypes(input: DataInput): Map<String, List<String>> {
+        val count = input.readInt()
+        val supertypes = HashMap<String, List<String>>(count)
+        repeat(count) {
+            supertypes[input.readUTF()] = List(input.readInt()) { input.readUTF() }
+        }
+        return supertypes
+    }
+
+    /**
+     * Returns the subtypes of all classes of the current classpath by the internal names of their supertypes.
+     */
+    private fun getSubtypes(currentStates: List<EntryState>, snapshots: Map<String, Map<String, ClassAbiSnapshot>?>): Map<String, List<String>> {
+        val checksums = currentStates.mapNotNull { it.checksum }.distinct()
+        val supertypesOfEntries = inParallel(checksums) { checksum ->
+            snapshots[checksum]?.mapValues { it.value.supertypes }
+                ?: DataInputStream(snapshotFile(checksum).inputStream().buffered()).use { input ->
+                    if (input.readInt() != SNAPSHOT_VERSION) throw IOException("Unknown version of classpath snapshot $checksum")
+                    readSupertypes(input)
+                }
+        }
+
+        val subtypes = HashMap<String, MutableList<String>>()
+        for (supertypesOfEntry in supertypesOfEntries) {
+            for ((name, supertypes) in supertypesOfEntry) {
+                supertypes.forEach { subtypes.getOrPut(it) { ArrayList() }.add(name) }
+            }
+        }
+        return subtypes
+    }
+
+    private fun Map<String, List<String>>.withSubtypesOf(internalName: String): Set<FqName> {
+        val visited = hashSetOf(internalName)
+        val queue = arrayListOf(internalName)
+        while (queue.isNotEmpty()) {
+            for (subtype in this[queue.removeAt(queue.size - 1)].orEmpty()) {
+                if (visited.add(subtype)) queue.add(subtype)
+            }
+        }
+        return visited.mapTo(HashSet()) { JvmClassName.byInternalName(it).fqNameForClassNameWithoutDollars }
+    }
+
+    private fun cleanUpSnapshots() {
+        val snapshotFiles = snapshotsDir.listFiles { file -> file.name.endsWith(SNAPSHOT_EXTENSION) } ?: return
+        if (snapshotFiles.size <= MAX_SNAPSHOTS_COUNT) return
+
+        // the snapshots used recently are touched by loadSnapshot and saveState
+        snapshotFiles.sortedBy { it.lastModified() }.take(snapshotFiles.size - MAX_SNAPSHOTS_COUNT).forEach { it.delete() }
+    }
+
+    private fun <T, R> inParallel(items: List<T>, transform: (T) -> R): List<R> {
+        if (items.size <= 1) return items.map(transform)
+
+        val executor = Executors.newFixedThreadPool(minOf(items.size, SNAPSHOT_THREADS_COUNT)) { runnable ->
+            Thread(runnable, "Classpath snapshotter").apply { isDaemon = true }
+        }
+        try {
+            val futures = items.map { item -> executor.submit<R> { transform(item) } }
+            return futures.map { future ->
+                try {
+                    future.get()
+                } catch (e: ExecutionException) {
+                    throw e.cause ?: e
+                }
+            }
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+
+    companion object {
+        private const val STATE_VERSION = 1
+        private const val SNAPSHOT_VERSION = 1
+        private const val SNAPSHOT_EXTENSION = ".snapshot"
+        private const val MODULE_INFO_CLASS = "module-info.class"
+
+        const val MAX_SNAPSHOTS_COUNT = 1000
+
+        val SNAPSHOT_THREADS_COUNT = Runtime.getRuntime().availableProcessors()
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.incremental
+
+import org.jetbrains.kotlin.TestWithWorkingDir
+import java.io.File
+import java.util.*
+import kotlin.system.measureNanoTime
+
+class LookupStorageTest : TestWithWorkingDir() {
+    private val random = Random(42)
+
+    fun testCompactStorageMatchesHashMapStorage() {
+        val lookups = generateLookups(files = 200, symbols = 2000, lookupsPerFile = 50)
+        val removed = lookups.files.filterIndexed { i, _ -> i % 3 == 0 }
+
+        val expected = fillStorage(File(workingDir, "hashMap"), useCompactLookupMap = false, lookups = lookups, removed = removed)
+        val actual = fillStorage(File(workingDir, "compact"), useCompactLookupMap = true, lookups = lookups, removed = removed)
+
+        assertEquals(expected, actual)
+    }
+
+    fun testCompactStorageGC() {
+        val lookups = generateLookups(files = 100, symbols = 500, lookupsPerFile = 20)
+        val removed = lookups.files.take(50)
+
+        val expected = fillStorage(File(workingDir, "hashMap"), useCompactLookupMap = false, lookups = lookups, removed = removed)
+        val actual = fillStorage(File(workingDir, "compact"), useCompactLookupMap = true, lookups = lookups, removed = removed) {
+            it.forceGC()
+        }
+
+        assertEquals(expected, actual)
+    }
+
+    fun testMigration() {
+        val lookups = generateLookups(files = 50, symbols = 300, lookupsPerFile = 20)
+        val dir = File(workingDir, "storage")
+        val expected = fillStorage(dir, useCompactLookupMap = false, lookups = lookups, removed = emptyList())
+
+        assertEquals(expected, readStorage(dir, useCompactLookupMap = true, symbols = lookups.symbols))
+        assertEquals(expected, readStorage(dir, useCompactLookupMap = false, symbols = lookups.symbols))
+    }
+
+    /**
+     * Run with -Dkotlin.incremental.lookups.benchmark=true
+     */
+    fun testBenchmark() {
+        if (System.getProperty("kotlin.incremental.lookups.benchmark") != "true") return
+
+        val lookups = generateLookups(files = 6000, symbols = 100000, lookupsPerFile = 300)
+        for (useCompactLookupMap in listOf(false, true)) {
+            val dir = File(workingDir, "benchmark-$useCompactLookupMap").apply { deleteRecursively() }
+            val storage = LookupStorage(dir, useCompactLookupMap)
+
+            val batches = lookups.files.chunked(lookups.files.size / 10)
+            val addTime = measureNanoTime {
+                for (batch in batches) {
+                    storage.addAll(lookups.entriesFor(batch), batch.toSet())
+                    storage.flush(false)
+                }
+            }
+            val getTime = measureNanoTime {
+                lookups.symbols.forEach { storage.get(it) }
+            }
+            storage.close()
+
+            val size = dir.walk().filter { it.isFile }.sumBy { it.length().toInt() }
+            val name = if (useCompactLookupMap) "compact" else "hash map"
+            println("$name: add ${addTime / 1_000_000} ms, get ${getTime / 1_000_000} ms, ${size / 1024} Kb on disk")
+        }
+    }
+
+    private fun fillStorage(
+        dir: File,
+        useCompactLookupMap: Boolean,
+        lookups: GeneratedLookups,
+        removed: List<String>,
+        afterRemove: (LookupStorage) -> Unit = {}
+    ): Map<LookupSymbol, Set<String>> {
+        val storage = LookupStorage(dir, useCompactLookupMap)
+        try {
+            val half = lookups.files.size / 2
+            for (batch in listOf(lookups.files.take(half), lookups.files.drop(half))) {
+                storage.addAll(lookups.entriesFor(batch), batch.toSet())
+                storage.flush(false)
+            }
+
+            storage.removeLookupsFrom(removed.asSequence().map { File(it) })
+            afterRemove(storage)
+            storage.flush(false)
+        } finally {
+            storage.close()
+        }
+
+        return readStorage(dir, useCompactLookupMap, lookups.symbols)
+    }
+
+    private fun readStorage(dir: File, useCompactLookupMap: Boolean, symbols: List<LookupSymbol>): Map<LookupSymbol, Set<String>> {
+        val storage = LookupStorage(dir, useCompactLookupMap)
+        try {
+            return symbols.associate { it to storage.get(it).toSet() }.filterValues { it.isNotEmpty() }
+        } finally {
+            storage.flush(false)
+            storage.close()
+        }
+    }
+
+    private fun generateLookups(files: Int, symbols: Int, lookupsPerFile: Int): GeneratedLookups {
+        val paths = (0 until files).map { File(workingDir, "src/File$it.kt").canonicalPath }
+        val allSymbols = (0 until symbols).map { LookupSymbol("name${it % 1000}", "scope${it / 1000}") }
+
+        val lookups = HashMap<String, Set<LookupSymbol>>()
+        for (path in paths) {
+            lookups[path] = (0 until lookupsPerFile).mapTo(HashSet()) { allSymbols[random.nextInt(symbols)] }
+        }
+        return GeneratedLookups(paths, allSymbols, lookups)
+    }
+
+    private class GeneratedLookups(val files: List<String>, val symbols: List<LookupSymbol>, val lookups: Map<String, Set<LookupSymbol>>) {
+        fun entriesFor(files: List<String>): Set<Map.Entry<LookupSymbol, Collection<String>>> {
+            val result = HashMap<LookupSymbol, MutableSet<String>>()
+            for (file in files) {
+                for (symbol in lookups[file]!!) {
+                    result.getOrPut(symbol) { HashSet() }.add(file)
+                }
+            }
+            return result.entries
+        }
+    }
+}
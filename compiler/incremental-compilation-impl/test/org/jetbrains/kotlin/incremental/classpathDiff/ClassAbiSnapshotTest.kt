@@ -0,0 +1,115 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.incremental.classpathDiff
+
+import org.jetbrains.kotlin.incremental.ChangeInfo
+import org.jetbrains.kotlin.incremental.ChangesCollector
+import org.jetbrains.kotlin.name.FqName
+import org.jetbrains.org.objectweb.asm.ClassWriter
+import org.jetbrains.org.objectweb.asm.Opcodes
+import org.junit.Assert
+import org.junit.Test
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.DataInputStream
+import java.io.DataOutputStream
+
+class ClassAbiSnapshotTest {
+    @Test
+    fun testPrivateMembersAreIgnored() {
+        val old = javaClass("getName()Ljava/lang/String;")
+        val new = javaClass("getName()Ljava/lang/String;", privateMethods = listOf("helper()V"))
+        Assert.assertEquals(old.abiHash, new.abiHash)
+        Assert.assertTrue(collectChanges(old, new).isEmpty())
+    }
+
+    @Test
+    fun testChangedGetter() {
+        val old = javaClass("getName()Ljava/lang/String;", "size()I")
+        val new = javaClass("getName()Ljava/lang/Object;", "size()I")
+        Assert.assertEquals(
+            listOf("MembersChanged(fqName = test.Foo, names = [getName, name])"),
+            collectChanges(old, new)
+        )
+    }
+
+    @Test
+    fun testRemovedMember() {
+        val old = javaClass("size()I", "clear()V")
+        val new = javaClass("size()I")
+        Assert.assertEquals(listOf("Removed(fqName = test.Foo, names = [clear])"), collectChanges(old, new))
+    }
+
+    @Test
+    fun testChangedSupertype() {
+        val old = javaClass("size()I")
+        val new = javaClass("size()I", superName = "java/util/AbstractList")
+        Assert.assertEquals(listOf("SignatureChanged(fqName = test.Foo)"), collectChanges(old, new))
+    }
+
+    @Test
+    fun testAddedClass() {
+        Assert.assertEquals(listOf("SignatureChanged(fqName = test.Foo)"), collectChanges(null, javaClass("size()I")))
+    }
+
+    @Test
+    fun testSubtypesAreAffected() {
+        val old = javaClass("size()I")
+        val new = javaClass("size()J")
+        Assert.assertEquals(
+            listOf("MembersChanged(fqName = test.Bar, names = [size])", "MembersChanged(fqName = test.Foo, names = [size])"),
+            collectChanges(old, new, listOf(FqName("test.Bar")))
+        )
+    }
+
+    @Test
+    fun testExternalizer() {
+        val snapshot = javaClass("getName()Ljava/lang/String;", "size()I")
+        val bytes = ByteArrayOutputStream()
+        DataOutputStream(bytes).use { ClassAbiSnapshotExternalizer.save(it, snapshot) }
+        val deserialized = DataInputStream(ByteArrayInputStream(bytes.toByteArray())).use { ClassAbiSnapshotExternalizer.read(it) }
+
+        Assert.assertEquals(snapshot.internalName, deserialized.internalName)
+        Assert.assertEquals(snapshot.supertypes, deserialized.supertypes)
+        Assert.assertEquals(snapshot.memberHashes, deserialized.memberHashes)
+        Assert.assertEquals(snapshot.abiHash, deserialized.abiHash)
+        Assert.assertTrue(collectChanges(snapshot, deserialized).isEmpty())
+    }
+
+    private fun collectChanges(old: ClassAbiSnapshot?, new: ClassAbiSnapshot?, subtypes: List<FqName> = emptyList()): List<String> {
+        val collector = ChangesCollector()
+        collector.collectClassChanges(old, new, subtypes)
+        return collector.changes().map { change ->
+            when (change) {
+                is ChangeInfo.MembersChanged -> change.javaClass.simpleName + "(fqName = ${change.fqName}, names = ${change.names.sorted()})"
+                else -> change.javaClass.simpleName + "(fqName = ${change.fqName})"
+            }
+        }.sorted()
+    }
+
+    private fun javaClass(
+        vararg methods: String,
+        privateMethods: List<String> = emptyList(),
+        superName: String = "java/lang/Object"
+    ): ClassAbiSnapshot {
+        val writer = ClassWriter(0)
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC or Opcodes.ACC_ABSTRACT, "test/Foo", null, superName, null)
+        for (method in methods) {
+            val (name, desc) = method.split("(", limit = 2)
+            writer.visitMethod(Opcodes.ACC_PUBLIC or Opcodes.ACC_ABSTRACT, name, "($desc", null, null).visitEnd()
+        }
+        for (method in privateMethods) {
+            val (name, desc) = method.split("(", limit = 2)
+            val visitor = writer.visitMethod(Opcodes.ACC_PRIVATE, name, "($desc", null, null)
+            visitor.visitCode()
+            visitor.visitInsn(Opcodes.RETURN)
+            visitor.visitMaxs(0, 1)
+            visitor.visitEnd()
+        }
+        writer.visitEnd()
+        return ClassAbiSnapshot.create(writer.toByteArray())!!
+    }
+}
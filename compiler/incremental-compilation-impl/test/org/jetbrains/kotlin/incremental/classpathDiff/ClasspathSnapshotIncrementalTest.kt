@@ -0,0 +1,177 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.incremental.classpathDiff
+
+import org.jetbrains.kotlin.cli.common.ExitCode
+import org.jetbrains.kotlin.cli.common.arguments.K2JVMCompilerArguments
+import org.jetbrains.kotlin.codegen.forTestCompile.ForTestCompileRuntime
+import org.jetbrains.kotlin.incremental.ChangedFiles
+import org.jetbrains.kotlin.incremental.IncrementalJvmCompilerRunner
+import org.jetbrains.kotlin.incremental.multiproject.EmptyModulesApiHistory
+import org.jetbrains.kotlin.incremental.utils.TestICReporter
+import org.jetbrains.kotlin.incremental.utils.TestMessageCollector
+import org.jetbrains.kotlin.incremental.withIC
+import org.jetbrains.org.objectweb.asm.ClassWriter
+import org.jetbrains.org.objectweb.asm.Opcodes
+import org.junit.Assert
+import org.junit.Before
+import org.junit.Rule
+import org.junit.Test
+import org.junit.rules.TemporaryFolder
+import java.io.File
+import java.util.zip.ZipEntry
+import java.util.zip.ZipOutputStream
+
+class ClasspathSnapshotIncrementalTest {
+    @JvmField
+    @Rule
+    val tmpFolder = TemporaryFolder()
+
+    private lateinit var libJar: File
+    private lateinit var libDir: File
+    private lateinit var sources: List<File>
+    private lateinit var snapshotDir: File
+
+    @Before
+    fun setUp() {
+        libJar = File(tmpFolder.newFolder("lib"), "lib.jar")
+        libDir = tmpFolder.newFolder("libClasses")
+        val sourceDir = tmpFolder.newFolder("src")
+        sources = listOf(
+            File(sourceDir, "useA.kt").apply { writeText("fun useA() = lib.A().a()") },
+            File(sourceDir, "useB.kt").apply { writeText("fun useB() = lib.B().b()") }
+        )
+        snapshotDir = tmpFolder.newFolder("snapshots")
+    }
+
+    @Test
+    fun testOnlyUsagesOfChangedClassesAreRecompiled() {
+        writeLibJar(aReturnType = "I")
+        Assert.assertEquals(sources.map { it.name }, make(snapshotDir, ChangedFiles.Unknown()))
+        Assert.assertEquals("The classpath is snapshotted only when its changes are unknown", emptyList<File>(), snapshotFiles())
+
+        // there's no snapshot of the previous build yet
+        writeLibJar(aReturnType = "Ljava/lang/Object;")
+        Assert.assertEquals(sources.map { it.name }, make(snapshotDir, ChangedFiles.Known(listOf(libJar), emptyList())))
+        val snapshotsCount = snapshotFiles().size
+
+        writeLibJar(aReturnType = "Ljava/lang/String;")
+        Assert.assertEquals(listOf("useA.kt"), make(snapshotDir, ChangedFiles.Known(listOf(libJar), emptyList())))
+        // the snapshot of the previous version of the jar is kept for other modules
+        Assert.assertEquals(snapshotsCount + 1, snapshotFiles().size)
+    }
+
+    @Test
+    fun testChangedClassFileOfSameSizeAndTimestampInDirectory() {
+        writeLibDir(aReturnType = "I")
+        make(snapshotDir, ChangedFiles.Unknown(), lib = libDir)
+        val changedFile = File(libDir, "lib/A.class")
+        make(snapshotDir, ChangedFiles.Known(listOf(changedFile), emptyList()), lib = libDir)
+
+        val stamps = libDir.walk().filter { it.isFile }.associateWith { it.lastModified() }
+        writeLibDir(aReturnType = "F")
+        stamps.forEach { (file, lastModified) -> file.setLastModified(lastModified) }
+        Assert.assertEquals(listOf("useA.kt"), make(snapshotDir, ChangedFiles.Known(listOf(changedFile), emptyList()), lib = libDir))
+    }
+
+    @Test
+    fun testModuleIsRebuiltWithoutSnapshots() {
+        writeLibJar(aReturnType = "I")
+        make(snapshotDir = null, changedFiles = ChangedFiles.Unknown())
+
+        writeLibJar(aReturnType = "Ljava/lang/String;")
+        Assert.assertEquals(sources.map { it.name }, make(snapshotDir = null, changedFiles = ChangedFiles.Known(listOf(libJar), emptyList())))
+    }
+
+    @Test
+    fun testExistingSnapshotsAreTouchedOnSave() {
+        writeLibJar(aReturnType = "I")
+        make(snapshotDir, ChangedFiles.Unknown())
+        make(snapshotDir, ChangedFiles.Known(listOf(libJar), emptyList()))
+        val snapshots = snapshotFiles().onEach { it.setLastModified(0) }
+
+        // the changes of the jar are unknown from the history, but there are none according to the snapshots
+        Assert.assertEquals(emptyList<String>(), make(snapshotDir, ChangedFiles.Known(listOf(libJar), emptyList())))
+        Assert.assertEquals(snapshots, snapshotFiles())
+        Assert.assertTrue(snapshots.all { it.lastModified() > 0 })
+    }
+
+    private fun make(snapshotDir: File?, changedFiles: ChangedFiles, lib: File = libJar): List<String> {
+        val reporter = TestICReporter()
+        val messageCollector = TestMessageCollector()
+        val workingDir = File(tmpFolder.root, "caches")
+        val args = K2JVMCompilerArguments().apply {
+            moduleName = "test"
+            destination = File(tmpFolder.root, "out").path
+            classpath = listOf(ForTestCompileRuntime.runtimeJarForTests(), lib).joinToString(File.pathSeparator) { it.path }
+        }
+
+        withIC {
+            val compiler = IncrementalJvmCompilerRunner(
+                workingDir,
+                reporter,
+                usePreciseJavaTracking = true,
+                buildHistoryFile = File(workingDir, "build-history.bin"),
+                outputFiles = emptyList(),
+                modulesApiHistory = EmptyModulesApiHistory,
+                classpathSnapshotDir = snapshotDir
+            )
+            compiler.compile(sources, args, messageCollector, changedFiles)
+        }
+
+        Assert.assertEquals(messageCollector.errors.joinToString("\n"), ExitCode.OK, reporter.exitCode)
+        return reporter.compiledSources.map { it.name }.sorted()
+    }
+
+    private fun snapshotFiles(): List<File> =
+        snapshotDir.listFiles().orEmpty().filter { it.name.endsWith(".snapshot") }.sorted()
+
+    // the jar is rewritten with a different size, so that its checksum is computed again
+    private fun writeLibJar(aReturnType: String) {
+        ZipOutputStream(libJar.outputStream()).use { output ->
+            for ((name, method) in listOf("A" to "a()$aReturnType", "B" to "b()I")) {
+                output.putNextEntry(ZipEntry("lib/$name.class"))
+                output.write(javaClass("lib/$name", method))
+                output.closeEntry()
+            }
+        }
+    }
+
+    private fun writeLibDir(aReturnType: String) {
+        for ((name, method) in listOf("A" to "a()$aReturnType", "B" to "b()I")) {
+            File(libDir, "lib/$name.class").apply { parentFile.mkdirs() }.writeBytes(javaClass("lib/$name", method))
+        }
+    }
+
+    private fun javaClass(internalName: String, method: String): ByteArray {
+        val writer = ClassWriter(ClassWriter.COMPUTE_MAXS)
+        writer.visit(Opcodes.V1_8, Opcodes.ACC_PUBLIC, internalName, null, "java/lang/Object", null)
+
+        val constructor = writer.visitMethod(Opcodes.ACC_PUBLIC, "<init>", "()V", null, null)
+        constructor.visitCode()
+        constructor.visitVarInsn(Opcodes.ALOAD, 0)
+        constructor.visitMethodInsn(Opcodes.INVOKESPECIAL, "java/lang/Object", "<init>", "()V", false)
+        constructor.visitInsn(Opcodes.RETURN)
+        constructor.visitMaxs(0, 0)
+        constructor.visitEnd()
+
+        val (name, desc) = method.split("(", limit = 2)
+        val visitor = writer.visitMethod(Opcodes.ACC_PUBLIC, name, "($desc", null, null)
+        visitor.visitCode()
+        if (desc.endsWith("I")) {
+            visitor.visitInsn(Opcodes.ICONST_1)
+            visitor.visitInsn(Opcodes.IRETURN)
+        } else {
+            visitor.visitInsn(Opcodes.ACONST_NULL)
+            visitor.visitInsn(Opcodes.ARETURN)
+        }
+        visitor.visitMaxs(0, 0)
+        visitor.visitEnd()
+
+        writer.visitEnd()
+        return writer.toByteArray()
+    }
+}
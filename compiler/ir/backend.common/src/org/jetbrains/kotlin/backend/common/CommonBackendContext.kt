@@ -23,4 +23,15 @@ interface CommonBackendContext : BackendContext, LoggingContext {
     fun report(element: IrElement?, irFile: IrFile?, message: String, isError: Boolean)
 
     val configuration: CompilerConfiguration
+
+    /**
+     * Whether the services declared by this interface and [BackendContext] (such as [ir], [declarationFactory],
+     * [sharedVariablesManager], [log] and [inVerbosePhase]) may be used concurrently by lowerings which process different
+     * [IrFile]s, see `performByIrFileInParallel`.
+     *
+     * A context returning `true` guarantees that these services either have no mutable state or synchronize access to it.
+     * Other state of the context is not covered, so file lowerings run in parallel must not use it.
+     * By default, contexts make no such guarantee and file lowerings are run sequentially.
+     */
+    val isThreadSafe: Boolean get() = false
 }
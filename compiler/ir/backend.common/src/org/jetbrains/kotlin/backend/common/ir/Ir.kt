@@ -155,7 +155,9 @@ abstract class Symbols<out T : CommonBackendContext>(val context: T, private val
 
     private val binaryOperatorCache = mutableMapOf<Triple<Name, KotlinType, KotlinType>, IrFunctionSymbol>()
 
-    fun getBinaryOperator(name: Name, lhsType: KotlinType, rhsType: KotlinType): IrFunctionSymbol {
+    // The operators are looked up under the lock of the symbol table, so that lowerings of different files may look them up
+    // concurrently (see CommonBackendContext.isThreadSafe)
+    fun getBinaryOperator(name: Name, lhsType: KotlinType, rhsType: KotlinType): IrFunctionSymbol = synchronized(symbolTable) {
         val key = Triple(name, lhsType, rhsType)
         var result = binaryOperatorCache[key]
         if (result == null) {
@@ -164,12 +166,12 @@ abstract class Symbols<out T : CommonBackendContext>(val context: T, private val
             )
             binaryOperatorCache[key] = result
         }
-        return result
+        result
     }
 
     private val unaryOperatorCache = mutableMapOf<Pair<Name, KotlinType>, IrFunctionSymbol>()
 
-    fun getUnaryOperator(name: Name, receiverType: KotlinType): IrFunctionSymbol {
+    fun getUnaryOperator(name: Name, receiverType: KotlinType): IrFunctionSymbol = synchronized(symbolTable) {
         val key = name to receiverType
         var result = unaryOperatorCache[key]
         if (result == null) {
@@ -178,7 +180,7 @@ abstract class Symbols<out T : CommonBackendContext>(val context: T, private val
             )
             unaryOperatorCache[key] = result
         }
-        return result
+        result
     }
 
     val intAnd = getBinaryOperator(OperatorNameConventions.AND, builtIns.intType, builtIns.intType)
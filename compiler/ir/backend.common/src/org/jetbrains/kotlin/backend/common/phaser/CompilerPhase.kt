@@ -105,6 +105,13 @@ abstract class AbstractNamedPhaseWrapper<in Context : CommonBackendContext, Inpu
     }
 
     private fun runBody(phaseConfig: PhaseConfig, phaserState: PhaserState<Input>, context: Context, input: Input): Output {
+        val profiler = phaseConfig.profiler ?: return runBodyWithoutProfiler(phaseConfig, phaserState, context, input)
+        return profiler.measure(this, phaserState.depth, input) {
+            runBodyWithoutProfiler(phaseConfig, phaserState, context, it)
+        }
+    }
+
+    private fun runBodyWithoutProfiler(phaseConfig: PhaseConfig, phaserState: PhaserState<Input>, context: Context, input: Input): Output {
         return if (phaseConfig.needProfiling) {
             runAndProfile(phaseConfig, phaserState, context, input)
         } else {
@@ -10,6 +10,10 @@ import org.jetbrains.kotlin.backend.common.FileLoweringPass
 import org.jetbrains.kotlin.backend.common.lower
 import org.jetbrains.kotlin.ir.declarations.IrFile
 import org.jetbrains.kotlin.ir.declarations.IrModuleFragment
+import org.jetbrains.kotlin.ir.util.deepCopyWithSymbols
+import org.jetbrains.kotlin.ir.util.dump
+import java.util.concurrent.ExecutionException
+import java.util.concurrent.Executors
 
 // Phase composition.
 infix fun <Context : CommonBackendContext, Input, Mid, Output> CompilerPhase<Context, Input, Mid>.then(
@@ -128,11 +132,10 @@ fun <Context : CommonBackendContext> performByIrFile(
             context: Context,
             input: IrModuleFragment
         ): IrModuleFragment {
-            for (irFile in input.files) {
-                lower.invoke(phaseConfig, phaserState.changeType(), context, irFile)
+            for (irFile in input.files.toList()) {
+                input.replaceLoweredFile(irFile, lower.invoke(phaseConfig, phaserState.changeType(), context, irFile))
             }
 
-            // TODO: no guarantee that module identity is preserved by `lower`
             return input
         }
 
@@ -140,6 +143,113 @@ fun <Context : CommonBackendContext> performByIrFile(
     }
 )
 
+/**
+ * Same as [performByIrFile], but lowers the files concurrently on [PhaseConfig.fileLoweringThreads] threads.
+ *
+ * [lower] must only modify the file it is invoked on, and may only share state between files through the services
+ * of the context. Files are lowered sequentially if the context doesn't declare such services thread-safe
+ * (see [CommonBackendContext.isThreadSafe]).
+ *
+ * With [PhaseConfig.verifyParallelLowering], copies of the files are also lowered sequentially after the parallel run,
+ * and the results are checked to be the same. The copies are lowered under [PhaseConfig.bodiesOnly], so that the phases
+ * aren't dumped or profiled twice. They're lowered with the same context, so this mode is meant for debugging the backend.
+ */
+fun <Context : CommonBackendContext> performByIrFileInParallel(
+    name: String = "PerformByIrFileInParallel",
+    description: String = "Perform phases by IrFile in parallel",
+    prerequisite: Set<AnyNamedPhase> = emptySet(),
+    preconditions: Set<Checker<IrModuleFragment>> = emptySet(),
+    postconditions: Set<Checker<IrModuleFragment>> = emptySet(),
+    stickyPostconditions: Set<Checker<IrModuleFragment>> = emptySet(),
+    verify: (Context, IrModuleFragment) -> Unit = { _, _ -> },
+    lower: CompilerPhase<Context, IrFile, IrFile>
+) = namedIrModulePhase(
+    name, description, prerequisite,
+    preconditions = preconditions,
+    postconditions = postconditions,
+    stickyPostconditions = stickyPostconditions,
+    verify = verify,
+    nlevels = 1,
+    lower = object : SameTypeCompilerPhase<Context, IrModuleFragment> {
+        override fun invoke(
+            phaseConfig: PhaseConfig,
+            phaserState: PhaserState<IrModuleFragment>,
+            context: Context,
+            input: IrModuleFragment
+        ): IrModuleFragment {
+            val files = input.files.toList()
+            if (phaseConfig.fileLoweringThreads <= 1 || !context.isThreadSafe || files.size <= 1) {
+                for (irFile in files) {
+                    input.replaceLoweredFile(irFile, lower.invoke(phaseConfig, phaserState.changeType(), context, irFile))
+                }
+                return input
+            }
+
+            val alreadyDone = phaserState.alreadyDone.toSet()
+            val sequentialCopies = if (phaseConfig.verifyParallelLowering) files.map { it.deepCopyWithSymbols() } else null
+
+            val loweredFiles = lowerInParallel(lower, phaseConfig, phaserState, context, files)
+
+            if (sequentialCopies != null) {
+                val bodiesOnlyConfig = phaseConfig.bodiesOnly()
+                for ((loweredFile, copy) in loweredFiles.zip(sequentialCopies)) {
+                    val loweredCopy = lower.invoke(bodiesOnlyConfig, PhaserState(alreadyDone.toMutableSet(), phaserState.depth), context, copy)
+                    check(loweredFile.dump() == loweredCopy.dump()) {
+                        "Phase $name: parallel lowering of ${loweredFile.fileEntry.name} differs from sequential lowering"
+                    }
+                }
+            }
+
+            for ((irFile, loweredFile) in files.zip(loweredFiles)) {
+                input.replaceLoweredFile(irFile, loweredFile)
+            }
+            return input
+        }
+
+        override fun getNamedSubphases(startDepth: Int) = lower.getNamedSubphases(startDepth)
+    }
+)
+
+private fun <Context : CommonBackendContext> lowerInParallel(
+    lower: CompilerPhase<Context, IrFile, IrFile>,
+    phaseConfig: PhaseConfig,
+    phaserState: PhaserState<IrModuleFragment>,
+    context: Context,
+    files: List<IrFile>
+): List<IrFile> {
+    val executor = Executors.newFixedThreadPool(minOf(phaseConfig.fileLoweringThreads, files.size)) { runnable ->
+        Thread(runnable, "Kotlin file lowering").apply { isDaemon = true }
+    }
+    try {
+        // Each file gets its own phaser state, since the state is mutated by the phases
+        val futures = files.map { irFile ->
+            val fileState = PhaserState<IrFile>(phaserState.alreadyDone.toMutableSet(), phaserState.depth)
+            fileState to executor.submit<IrFile> {
+                lower.invoke(phaseConfig, fileState, context, irFile)
+            }
+        }
+        return futures.map { (fileState, future) ->
+            val loweredFile = try {
+                future.get()
+            } catch (e: ExecutionException) {
+                throw e.cause ?: e
+            }
+            phaserState.alreadyDone.addAll(fileState.alreadyDone)
+            loweredFile
+        }
+    } finally {
+        executor.shutdownNow()
+    }
+}
+
+// The module keeps the files returned by the file phases, so that a phase replacing its input file doesn't lose the result
+private fun IrModuleFragment.replaceLoweredFile(irFile: IrFile, loweredFile: IrFile) {
+    if (loweredFile === irFile) return
+    val index = files.indexOf(irFile)
+    check(index >= 0) { "File ${irFile.fileEntry.name} was removed from module $name while it was lowered" }
+    files[index] = loweredFile
+}
+
 fun <Context : CommonBackendContext> makeIrFilePhase(
     lowering: (Context) -> FileLoweringPass,
     name: String,
@@ -24,7 +24,10 @@ class PhaseConfig(
     val namesOfElementsExcludedFromDumping: Set<String> = emptySet(),
     val needProfiling: Boolean = false,
     val checkConditions: Boolean = false,
-    val checkStickyConditions: Boolean = false
+    val checkStickyConditions: Boolean = false,
+    val fileLoweringThreads: Int = 1,
+    val verifyParallelLowering: Boolean = false,
+    val profiler: PhaseProfiler? = null
 ) {
     private val enabledMut = enabled
 
@@ -46,6 +49,13 @@ class PhaseConfig(
         }
     }
 
+    /**
+     * Returns a config with the same enabled phases, under which the named phases only run their bodies:
+     * nothing is dumped, validated, checked, logged verbosely or profiled, and files are lowered sequentially.
+     */
+    fun bodiesOnly(): PhaseConfig =
+        PhaseConfig(compoundPhase, phases, enabledMut.toMutableSet())
+
     fun enable(phase: AnyNamedPhase) {
         enabledMut.add(phase)
     }
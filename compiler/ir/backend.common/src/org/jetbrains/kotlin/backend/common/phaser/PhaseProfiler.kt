@@ -0,0 +1,161 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.backend.common.phaser
+
+import org.jetbrains.kotlin.ir.IrElement
+import org.jetbrains.kotlin.ir.visitors.IrElementVisitorVoid
+import org.jetbrains.kotlin.ir.visitors.acceptChildrenVoid
+import org.jetbrains.kotlin.ir.visitors.acceptVoid
+import java.io.File
+import java.lang.management.ManagementFactory
+
+/**
+ * Collects wall time, CPU time, allocated bytes and, if [countIrElements] is set, IR element counts of named phases.
+ *
+ * Measurements of a phase invoked several times (e.g. once per file) are summed up. Time and allocations of a phase
+ * include those of its subphases, but not the overhead of the profiler itself: IR elements are counted outside of the measured
+ * region, and the time and allocations spent on profiling subphases on the same thread are subtracted. CPU time and allocations
+ * are only measured on the invoking thread, and are reported as -1 if the JVM doesn't support measuring them.
+ */
+class PhaseProfiler(private val countIrElements: Boolean = false) {
+    class PhaseMeasurement(val phaseName: String, val depth: Int) {
+        var invocations: Int = 0
+        var wallTimeNanos: Long = 0
+        var cpuTimeNanos: Long = 0
+        var allocatedBytes: Long = 0
+        var irElementsBefore: Long = 0
+        var irElementsAfter: Long = 0
+    }
+
+    // Time and allocations spent by the profiler on the current thread outside of the measured regions
+    private class Overhead {
+        var wallTimeNanos: Long = 0
+        var cpuTimeNanos: Long = 0
+        var allocatedBytes: Long = 0
+    }
+
+    private val measurements = LinkedHashMap<AnyNamedPhase, PhaseMeasurement>()
+
+    private val threadOverhead = ThreadLocal.withInitial { Overhead() }
+
+    private val threadBean = ManagementFactory.getThreadMXBean()
+
+    private val isCpuTimeSupported = threadBean.isCurrentThreadCpuTimeSupported && threadBean.isThreadCpuTimeEnabled
+
+    private val allocationBean = (threadBean as? com.sun.management.ThreadMXBean)
+        ?.takeIf { it.isThreadAllocatedMemorySupported && it.isThreadAllocatedMemoryEnabled }
+
+    fun <Input, Output> measure(phase: AnyNamedPhase, depth: Int, input: Input, body: (Input) -> Output): Output {
+        val overhead = threadOverhead.get()
+        val overheadWallTimeStart = System.nanoTime()
+        val overheadCpuTimeStart = cpuTime()
+        val overheadAllocatedStart = allocatedBytes()
+
+        val elementsBefore = countElements(input)
+
+        val nestedWallTimeBefore = overhead.wallTimeNanos
+        val nestedCpuTimeBefore = overhead.cpuTimeNanos
+        val nestedAllocatedBefore = overhead.allocatedBytes
+        val cpuTimeBefore = cpuTime()
+        val allocatedBefore = allocatedBytes()
+        val wallTimeBefore = System.nanoTime()
+
+        val output = body(input)
+
+        val wallTimeAfter = System.nanoTime()
+        val allocatedAfter = allocatedBytes()
+        val cpuTimeAfter = cpuTime()
+        val wallTime = wallTimeAfter - wallTimeBefore - (overhead.wallTimeNanos - nestedWallTimeBefore)
+        val allocated = allocatedAfter - allocatedBefore - (overhead.allocatedBytes - nestedAllocatedBefore)
+        val cpuTime = cpuTimeAfter - cpuTimeBefore - (overhead.cpuTimeNanos - nestedCpuTimeBefore)
+
+        val elementsAfter = countElements(output)
+
+        synchronized(measurements) {
+            measurements.getOrPut(phase) { PhaseMeasurement(phase.name, depth) }.apply {
+                invocations++
+                wallTimeNanos += wallTime
+                cpuTimeNanos = if (isCpuTimeSupported) cpuTimeNanos + cpuTime else -1
+                allocatedBytes = if (allocationBean != null) allocatedBytes + allocated else -1
+                irElementsBefore += elementsBefore
+                irElementsAfter += elementsAfter
+            }
+        }
+
+        // so that the enclosing phases don't include the profiling of this one
+        overhead.wallTimeNanos += System.nanoTime() - overheadWallTimeStart - (wallTimeAfter - wallTimeBefore)
+        overhead.cpuTimeNanos += cpuTime() - overheadCpuTimeStart - (cpuTimeAfter - cpuTimeBefore)
+        overhead.allocatedBytes += allocatedBytes() - overheadAllocatedStart - (allocatedAfter - allocatedBefore)
+
+        return output
+    }
+
+    fun getMeasurements(): List<PhaseMeasurement> = synchronized(measurements) { measurements.values.toList() }
+
+    /**
+     * Writes the measurements as JSON if the name of [destination] ends with `.json`, or as CSV otherwise.
+     */
+    fun writeReport(destination: File) {
+        val report = if (destination.name.endsWith(".json", ignoreCase = true)) renderJson() else renderCsv()
+        destination.absoluteFile.parentFile?.mkdirs()
+        destination.writeText(report)
+    }
+
+    fun renderCsv(): String = buildString {
+        appendln("phase,depth,invocations,wallTimeNanos,cpuTimeNanos,allocatedBytes,irElementsBefore,irElementsAfter")
+        for (m in getMeasurements()) {
+            appendln(
+                listOf(
+                    m.phaseName, m.depth, m.invocations, m.wallTimeNanos, m.cpuTimeNanos, m.allocatedBytes,
+                    m.irElementsBefore, m.irElementsAfter
+                ).joinToString(",")
+            )
+        }
+    }
+
+    fun renderJson(): String = buildString {
+        val measurements = getMeasurements()
+        appendln("[")
+        measurements.forEachIndexed { index, m ->
+            append("  {\"phase\": \"${escapeJson(m.phaseName)}\"")
+            append(", \"depth\": ${m.depth}, \"invocations\": ${m.invocations}")
+            append(", \"wallTimeNanos\": ${m.wallTimeNanos}, \"cpuTimeNanos\": ${m.cpuTimeNanos}, \"allocatedBytes\": ${m.allocatedBytes}")
+            append(", \"irElementsBefore\": ${m.irElementsBefore}, \"irElementsAfter\": ${m.irElementsAfter}}")
+            appendln(if (index < measurements.size - 1) "," else "")
+        }
+        appendln("]")
+    }
+
+    private fun escapeJson(value: String): String = buildString {
+        for (c in value) {
+            when (c) {
+                '"' -> append("\\\"")
+                '\\' -> append("\\\\")
+                '\n' -> append("\\n")
+                '\r' -> append("\\r")
+                '\t' -> append("\\t")
+                else -> if (c < ' ') append(String.format("\\u%04x", c.toInt())) else append(c)
+            }
+        }
+    }
+
+    private fun cpuTime(): Long = if (isCpuTimeSupported) threadBean.currentThreadCpuTime else 0
+
+    private fun allocatedBytes(): Long = allocationBean?.getThreadAllocatedBytes(Thread.currentThread().id) ?: 0
+
+    private fun countElements(data: Any?): Long {
+        if (!countIrElements || data !is IrElement) return 0
+
+        var count = 0L
+        data.acceptVoid(object : IrElementVisitorVoid {
+            override fun visitElement(element: IrElement) {
+                count++
+                element.acceptChildrenVoid(this)
+            }
+        })
+        return count
+    }
+}
@@ -27,6 +27,7 @@ import org.jetbrains.kotlin.ir.util.dump
 import org.jetbrains.kotlin.name.Name
 import java.util.*
 
+// The caches are synchronized, so that the factory may be used by lowerings of different files concurrently
 class JsDeclarationFactory : DeclarationFactory {
     private val singletonFieldDescriptors = HashMap<IrClass, IrField>()
     private val outerThisFieldSymbols = HashMap<IrClass, IrField>()
@@ -37,16 +38,18 @@ class JsDeclarationFactory : DeclarationFactory {
     override fun getOuterThisField(innerClass: IrClass): IrField =
         if (!innerClass.isInner) throw AssertionError("Class is not inner: ${innerClass.dump()}")
         else {
-            outerThisFieldSymbols.getOrPut(innerClass) {
-                val outerClass = innerClass.parent as? IrClass
-                    ?: throw AssertionError("No containing class for inner class ${innerClass.dump()}")
+            synchronized(outerThisFieldSymbols) {
+                outerThisFieldSymbols.getOrPut(innerClass) {
+                    val outerClass = innerClass.parent as? IrClass
+                        ?: throw AssertionError("No containing class for inner class ${innerClass.dump()}")
 
 
-                val name = Name.identifier("\$this")
-                val fieldType = outerClass.defaultType
-                val visibility = Visibilities.PROTECTED
+                    val name = Name.identifier("\$this")
+                    val fieldType = outerClass.defaultType
+                    val visibility = Visibilities.PROTECTED
 
-                createPropertyWithBackingField(name, visibility, innerClass, fieldType, DeclarationFactory.FIELD_FOR_OUTER_THIS)
+                    createPropertyWithBackingField(name, visibility, innerClass, fieldType, DeclarationFactory.FIELD_FOR_OUTER_THIS)
+                }
             }
         }
 
@@ -76,8 +79,10 @@ class JsDeclarationFactory : DeclarationFactory {
         val innerClass = innerClassConstructor.parent as IrClass
         assert(innerClass.isInner) { "Class is not inner: $innerClass" }
 
-        return innerClassConstructors.getOrPut(innerClassConstructor) {
-            createInnerClassConstructorWithOuterThisParameter(innerClassConstructor)
+        return synchronized(innerClassConstructors) {
+            innerClassConstructors.getOrPut(innerClassConstructor) {
+                createInnerClassConstructorWithOuterThisParameter(innerClassConstructor)
+            }
         }
     }
 
@@ -121,8 +126,10 @@ class JsDeclarationFactory : DeclarationFactory {
     }
 
     override fun getFieldForObjectInstance(singleton: IrClass): IrField =
-        singletonFieldDescriptors.getOrPut(singleton) {
-            createObjectInstanceFieldDescriptor(singleton, JsIrBuilder.SYNTHESIZED_DECLARATION)
+        synchronized(singletonFieldDescriptors) {
+            singletonFieldDescriptors.getOrPut(singleton) {
+                createObjectInstanceFieldDescriptor(singleton, JsIrBuilder.SYNTHESIZED_DECLARATION)
+            }
         }
 
     private fun createObjectInstanceFieldDescriptor(singleton: IrClass, origin: IrDeclarationOrigin): IrField {
@@ -52,7 +52,16 @@ class JsIrBackendContext(
 
     override val builtIns = module.builtIns
 
-    override var inVerbosePhase: Boolean = false
+    // Phases are run concurrently on different files by `performByIrFileInParallel`, each of them sets this for its own thread
+    private val verbosePhase = ThreadLocal.withInitial { false }
+
+    override var inVerbosePhase: Boolean
+        get() = verbosePhase.get()
+        set(value) = verbosePhase.set(value)
+
+    // The symbols are created eagerly, the declaration factory is synchronized, the shared variables manager creates its
+    // declarations lazily under a lock, and log and report only print
+    override val isThreadSafe: Boolean get() = true
 
     val externalNestedClasses = mutableListOf<IrClass>()
     val packageLevelJsModules = mutableListOf<IrFile>()
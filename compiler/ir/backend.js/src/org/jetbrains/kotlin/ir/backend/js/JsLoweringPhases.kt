@@ -78,7 +78,7 @@ private val expectDeclarationsRemovingPhase = makeJsModulePhase(
     description = "Remove expect declaration from module fragment"
 )
 
-private val lateinitLoweringPhase = makeJsModulePhase(
+private val lateinitLoweringPhase = makeIrFilePhase<JsIrBackendContext>(
     ::LateinitLowering,
     name = "LateinitLowering",
     description = "Insert checks for lateinit field references"
@@ -107,12 +107,20 @@ private val throwableSuccessorsLoweringPhase = makeJsModulePhase(
     description = "Link kotlin.Throwable and JavaScript Error together to provide proper interop between language and platform exceptions"
 )
 
-private val tailrecLoweringPhase = makeJsModulePhase(
+private val tailrecLoweringPhase = makeIrFilePhase<JsIrBackendContext>(
     ::TailrecLowering,
     name = "TailrecLowering",
     description = "Replace `tailrec` callsites with equivalent loop"
 )
 
+// These lowerings only change the file they're run on, so the files may be lowered in parallel
+private val fileLoweringsPhase = performByIrFileInParallel(
+    name = "FileLowerings",
+    description = "Lower lateinit properties and tailrec calls in each file",
+    verify = ::validationCallback,
+    lower = lateinitLoweringPhase then tailrecLoweringPhase
+)
+
 private val unitMaterializationLoweringPhase = makeJsModulePhase(
     ::UnitMaterializationLowering,
     name = "UnitMaterializationLowering",
@@ -345,8 +353,7 @@ val jsPhases = namedIrModulePhase(
     lower = testGenerationPhase then
             expectDeclarationsRemovingPhase then
             functionInliningPhase then
-            lateinitLoweringPhase then
-            tailrecLoweringPhase then
+            fileLoweringsPhase then
             enumClassConstructorLoweringPhase then
             sharedVariablesLoweringPhase then
             localDelegatedPropertiesLoweringPhase then
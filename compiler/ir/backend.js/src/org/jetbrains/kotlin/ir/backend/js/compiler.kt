@@ -7,6 +7,7 @@ package org.jetbrains.kotlin.ir.backend.js
 
 import com.intellij.openapi.project.Project
 import org.jetbrains.kotlin.backend.common.phaser.PhaseConfig
+import org.jetbrains.kotlin.backend.common.serialization.IrLinkingStatistics
 import org.jetbrains.kotlin.backend.common.phaser.invokeToplevel
 import org.jetbrains.kotlin.config.CompilerConfiguration
 import org.jetbrains.kotlin.ir.backend.js.transformers.irToJs.IrModuleToJsTransformer
@@ -14,6 +15,12 @@ import org.jetbrains.kotlin.ir.util.ExternalDependenciesGenerator
 import org.jetbrains.kotlin.ir.util.patchDeclarationParents
 import org.jetbrains.kotlin.psi.KtFile
 
+class CompilerResult(
+    val jsCode: String,
+    // see JSConfigurationKeys.LAZY_IR_LINKING
+    val linkingStatistics: IrLinkingStatistics
+)
+
 fun compile(
     project: Project,
     files: List<KtFile>,
@@ -21,7 +28,7 @@ fun compile(
     phaseConfig: PhaseConfig,
     immediateDependencies: List<KlibModuleRef>,
     allDependencies: List<KlibModuleRef>
-): String {
+): CompilerResult {
     val (moduleFragment, dependencyModules, irBuiltIns, symbolTable, deserializer) =
         loadIr(project, files, configuration, immediateDependencies, allDependencies)
 
@@ -56,5 +63,5 @@ fun compile(
     jsPhases.invokeToplevel(phaseConfig, context, moduleFragment)
 
     val jsProgram = moduleFragment.accept(IrModuleToJsTransformer(context), null)
-    return jsProgram.toString()
+    return CompilerResult(jsProgram.toString(), deserializer.linkingStatistics)
 }
\ No newline at end of file
@@ -18,6 +18,7 @@ package org.jetbrains.kotlin.backend.common.library
 
 import java.io.File
 import java.io.RandomAccessFile
+import java.nio.ByteBuffer
 import java.nio.MappedByteBuffer
 import java.nio.channels.FileChannel
 import java.nio.file.Files
@@ -29,57 +30,114 @@ fun File.map(mode: FileChannel.MapMode = FileChannel.MapMode.READ_ONLY,
         start: Long = 0, size: Long = -1): MappedByteBuffer {
     val file = RandomAccessFile(path,
         if (mode == FileChannel.MapMode.READ_ONLY) "r" else "rw")
-    val fileSize = if (mode == FileChannel.MapMode.READ_ONLY)
-        file.length() else size.also { assert(size != -1L) }
+    val fileSize = if (mode == FileChannel.MapMode.READ_ONLY && size == -1L)
+        file.length() - start else size.also { assert(size != -1L) }
     val channel = file.channel
     return channel.map(mode, start, fileSize)
         .also { channel.close() } // Channel close closes the file also.
 }
 
-class CombinedIrFileReader(file: File) {
-    private val buffer = file.map(FileChannel.MapMode.READ_ONLY)
-    private val declarationToOffsetSize = mutableMapOf<DeclarationId, Pair<Int, Int>>()
+/**
+ * Reads declarations from a combined IR file written by [CombinedIrFileWriter].
+ *
+ * The index of the current format is sorted by declaration id, so it's searched in place in the mapped file instead of
+ * being loaded into memory, and declarations are returned as slices of the mapped file without copying.
+ * Files of the first format, which have an unsorted index with 32-bit offsets, are still supported.
+ */
+class CombinedIrFileReader(private val file: File) {
+    // Files of up to 2 GB are mapped at once, declarations of larger files are mapped one by one
+    private val buffer: MappedByteBuffer? = if (file.length() <= Int.MAX_VALUE) file.map() else null
+
+    private val isFirstFormat: Boolean
+    private val declarationsCount: Int
+    private val index: ByteBuffer
 
     init {
-        val declarationsCount = buffer.int
+        val header = buffer ?: file.map(size = INDEX_HEADER_SIZE_V2.toLong())
+        val firstInt = header.getInt(0)
+        isFirstFormat = firstInt != FORMAT_V2_MARKER
+        declarationsCount = if (isFirstFormat) firstInt else header.getInt(4)
+        index = buffer ?: file.map(size = INDEX_HEADER_SIZE_V2 + declarationsCount.toLong() * INDEX_RECORD_SIZE_V2)
+    }
+
+    private val firstFormatIndex: Map<DeclarationId, Int> by lazy {
+        val result = HashMap<DeclarationId, Int>(declarationsCount * 2)
         for (i in 0 until declarationsCount) {
-            val id = buffer.long
-            val isLocal = buffer.int != 0
-            val offset = buffer.int
-            val size = buffer.int
-            declarationToOffsetSize[DeclarationId(id, isLocal)] = offset to size
+            val record = INDEX_HEADER_SIZE + i * SINGLE_INDEX_RECORD_SIZE
+            result[DeclarationId(index.getLong(record), index.getInt(record + 8) != 0)] = record
         }
+        result
+    }
+
+    /**
+     * Returns a read-only buffer with the serialized declaration. The buffer is a slice of the mapped file.
+     */
+    fun declarationBuffer(id: DeclarationId): ByteBuffer {
+        if (isFirstFormat) {
+            val record = firstFormatIndex[id] ?: throw Error("No declaration with $id here")
+            return slice(index.getInt(record + 12).toLong(), index.getInt(record + 16))
+        }
+
+        val record = findRecord(id)
+        if (record < 0) throw Error("No declaration with $id here")
+        return slice(index.getLong(record + 12), index.getInt(record + 20))
     }
 
     fun declarationBytes(id: DeclarationId): ByteArray {
-        val offsetSize = declarationToOffsetSize[id] ?: throw Error("No declaration with $id here")
-        val result = ByteArray(offsetSize.second)
-        buffer.position(offsetSize.first)
-        buffer.get(result, 0, offsetSize.second)
+        val declaration = declarationBuffer(id)
+        val result = ByteArray(declaration.remaining())
+        declaration.get(result)
         return result
     }
+
+    private fun findRecord(id: DeclarationId): Int {
+        var low = 0
+        var high = declarationsCount - 1
+        while (low <= high) {
+            val middle = (low + high) ushr 1
+            val record = INDEX_HEADER_SIZE_V2 + middle * INDEX_RECORD_SIZE_V2
+            val comparison = index.getLong(record).compareTo(id.id).takeIf { it != 0 }
+                ?: (index.getInt(record + 8) != 0).compareTo(id.isLocal)
+            when {
+                comparison < 0 -> low = middle + 1
+                comparison > 0 -> high = middle - 1
+                else -> return record
+            }
+        }
+        return -1
+    }
+
+    private fun slice(offset: Long, size: Int): ByteBuffer {
+        if (buffer == null) return file.map(start = offset, size = size.toLong()).asReadOnlyBuffer()
+
+        val declaration = buffer.duplicate()
+        declaration.position(offset.toInt())
+        declaration.limit(offset.toInt() + size)
+        return declaration.slice().asReadOnlyBuffer()
+    }
 }
 
+// The first format: declarations count, then unsorted index records of (id, isLocal, offset, size) with 32-bit offsets.
 private const val SINGLE_INDEX_RECORD_SIZE = 20  // sizeof(Long) + 3 * sizeof(Int).
 private const val INDEX_HEADER_SIZE = 4  // sizeof(Int).
 
+// The second format: the marker, declarations count, then index records of (id, isLocal, offset, size) with 64-bit offsets,
+// sorted by (id, isLocal). The marker is negative, so it can't be confused with the declarations count of the first format.
+private const val FORMAT_V2_MARKER = -2
+private const val INDEX_RECORD_SIZE_V2 = 24  // 2 * sizeof(Long) + 2 * sizeof(Int).
+private const val INDEX_HEADER_SIZE_V2 = 8  // 2 * sizeof(Int).
+
 class CombinedIrFileWriter(val declarationCount: Int) {
     private var currentDeclaration = 0
-    private var currentPosition = 0
     private val file =  Files.createTempFile("ir", "").toFile()
     private val randomAccessFile = RandomAccessFile(file.path, "rw")
+    private val indexRecords = ArrayList<IndexRecord>(declarationCount)
+
+    private class IndexRecord(val id: DeclarationId, val offset: Long, val size: Int)
 
     init {
-        randomAccessFile.writeInt(declarationCount)
-        assert(randomAccessFile.filePointer.toInt() == INDEX_HEADER_SIZE)
-        for (i in 0 until declarationCount) {
-            randomAccessFile.writeLong(-1) // id
-            randomAccessFile.writeInt(-1)  // isLocal
-            randomAccessFile.writeInt(-1)  // offset
-            randomAccessFile.writeInt(-1)  // size
-        }
-        currentPosition = randomAccessFile.filePointer.toInt()
-        assert(currentPosition == INDEX_HEADER_SIZE + SINGLE_INDEX_RECORD_SIZE * declarationCount)
+        // The index is written by finishWriting, when all declarations are known and can be sorted
+        randomAccessFile.seek(INDEX_HEADER_SIZE_V2 + declarationCount.toLong() * INDEX_RECORD_SIZE_V2)
     }
 
     fun skipDeclaration() {
@@ -87,22 +145,29 @@ class CombinedIrFileWriter(val declarationCount: Int) {
     }
 
     fun addDeclaration(id: DeclarationId, bytes: ByteArray) {
-        randomAccessFile.seek((currentDeclaration * SINGLE_INDEX_RECORD_SIZE + INDEX_HEADER_SIZE).toLong())
-        randomAccessFile.writeLong(id.id)
-        randomAccessFile.writeInt(if (id.isLocal) 1 else 0)
-        randomAccessFile.writeInt(currentPosition)
-        randomAccessFile.writeInt(bytes.size)
-        randomAccessFile.seek(currentPosition.toLong())
+        indexRecords.add(IndexRecord(id, randomAccessFile.filePointer, bytes.size))
         randomAccessFile.write(bytes)
-        assert(randomAccessFile.filePointer < Int.MAX_VALUE.toLong())
-        currentPosition = randomAccessFile.filePointer.toInt()
         currentDeclaration++
     }
 
     fun finishWriting(): File {
         assert(currentDeclaration == declarationCount)
+
+        indexRecords.sortWith(compareBy<IndexRecord> { it.id.id }.thenBy { it.id.isLocal })
+
+        val index = ByteBuffer.allocate(INDEX_HEADER_SIZE_V2 + indexRecords.size * INDEX_RECORD_SIZE_V2)
+        index.putInt(FORMAT_V2_MARKER)
+        index.putInt(indexRecords.size)
+        for (record in indexRecords) {
+            index.putLong(record.id.id)
+            index.putInt(if (record.id.isLocal) 1 else 0)
+            index.putLong(record.offset)
+            index.putInt(record.size)
+        }
+        randomAccessFile.seek(0)
+        randomAccessFile.write(index.array())
+
         randomAccessFile.close()
         return file
     }
 }
-
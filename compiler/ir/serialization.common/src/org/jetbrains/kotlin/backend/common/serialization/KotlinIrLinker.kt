@@ -37,6 +37,8 @@ import org.jetbrains.kotlin.protobuf.ExtensionRegistryLite.newInstance
 import org.jetbrains.kotlin.resolve.descriptorUtil.module
 import org.jetbrains.kotlin.serialization.deserialization.descriptors.DeserializedCallableMemberDescriptor
 import org.jetbrains.kotlin.serialization.deserialization.descriptors.DeserializedClassDescriptor
+import java.io.InputStream
+import java.nio.ByteBuffer
 
 abstract class KotlinIrLinker(
     val logger: LoggingContext,
@@ -44,13 +46,25 @@ abstract class KotlinIrLinker(
     val symbolTable: SymbolTable,
     val exportedDependencies: List<ModuleDescriptor>,
     private val forwardModuleDescriptor: ModuleDescriptor?,
-    private val firstKnownBuiltinsIndex: Long
+    private val firstKnownBuiltinsIndex: Long,
+    /**
+     * If true, the libraries which are not [exportedDependencies] have no roots: their top level declarations are linked only once
+     * a symbol of theirs is bound, by the compiled module, by the backend or by another linked declaration. Otherwise the declarations
+     * explicitly exported to the compiler, e.g. the top level properties with initializers, are linked too, whether they are used or not.
+     */
+    private val lazyLinking: Boolean = false
 ) : DescriptorUniqIdAware, IrDeserializer {
 
     protected val deserializedSymbols = mutableMapOf<UniqIdKey, IrSymbol>()
     private val reachableTopLevels = mutableSetOf<UniqIdKey>()
     private val deserializedTopLevels = mutableSetOf<UniqIdKey>()
 
+    private var availableTopLevelsCount = 0
+    private var linkedTopLevelsCount = 0
+
+    val linkingStatistics: IrLinkingStatistics
+        get() = IrLinkingStatistics(availableTopLevelsCount, linkedTopLevelsCount)
+
     //TODO: This is Native specific. Eliminate me.
     private val forwardDeclarations = mutableSetOf<IrSymbol>()
     val resolvedForwardDeclarations = mutableMapOf<UniqIdKey, UniqIdKey>()
@@ -220,6 +234,7 @@ abstract class KotlinIrLinker(
                 val uniqIdKey = it.uniqIdKey(moduleDescriptor)
                 reversedFileIndex.put(uniqIdKey, file)
             }
+            availableTopLevelsCount += fileProto.declarationIdCount
 
             when (deserializationStrategy) {
                 DeserializationStrategy.EXPLICITLY_EXPORTED -> {
@@ -234,7 +249,9 @@ abstract class KotlinIrLinker(
                         reachableTopLevels.add(uniqIdKey)
                     }
                 }
-                else -> error("Unixpected deserialization strategy")
+                DeserializationStrategy.ONLY_REFERENCED -> {
+                    // The declarations are linked when they're referenced
+                }
             }
 
             return file
@@ -276,6 +293,20 @@ abstract class KotlinIrLinker(
             return codedInputStream
         }
 
+    private val ByteBuffer.codedInputStream: org.jetbrains.kotlin.protobuf.CodedInputStream
+        get() {
+            // Memory-mapped declarations are parsed through a stream, so that they're not copied into a byte array first
+            val codedInputStream = if (hasArray()) {
+                org.jetbrains.kotlin.protobuf.CodedInputStream.newInstance(array(), arrayOffset() + position(), remaining())
+            } else {
+                org.jetbrains.kotlin.protobuf.CodedInputStream.newInstance(ByteBufferInputStream(this)).apply {
+                    setSizeLimit(Int.MAX_VALUE)
+                }
+            }
+            codedInputStream.setRecursionLimit(65535) // The default 64 is blatantly not enough for IR.
+            return codedInputStream
+        }
+
     private val reversedFileIndex = mutableMapOf<UniqIdKey, IrFile>()
 
     private val UniqIdKey.moduleOfOrigin
@@ -290,8 +321,15 @@ abstract class KotlinIrLinker(
 
     protected abstract fun reader(moduleDescriptor: ModuleDescriptor, uniqId: UniqId): ByteArray
 
+    /**
+     * Returns the serialized top level declaration. Linkers which read declarations from memory-mapped files may return
+     * slices of the mapped files here, to avoid copying each declaration into a byte array.
+     */
+    protected open fun readerBuffer(moduleDescriptor: ModuleDescriptor, uniqId: UniqId): ByteBuffer =
+        ByteBuffer.wrap(reader(moduleDescriptor, uniqId))
+
     private fun loadTopLevelDeclarationProto(uniqIdKey: UniqIdKey): KotlinIr.IrDeclaration {
-        val stream = reader(uniqIdKey.moduleOfOrigin!!, uniqIdKey.uniqId).codedInputStream
+        val stream = readerBuffer(uniqIdKey.moduleOfOrigin!!, uniqIdKey.uniqId).codedInputStream
         return KotlinIr.IrDeclaration.parseFrom(stream, newInstance())
     }
 
@@ -325,6 +363,7 @@ abstract class KotlinIrLinker(
 
             reachableTopLevels.remove(key)
             deserializedTopLevels.add(key)
+            linkedTopLevelsCount++
         } while (reachableTopLevels.isNotEmpty())
     }
 
@@ -428,16 +467,35 @@ abstract class KotlinIrLinker(
         moduleDescriptor.irHeader?.let { header ->
             // TODO: consider skip deserializing explicitly exported declarations for libraries.
             // Now it's not valid because of all dependencies that must be computed.
-            val deserializationStrategy =
-                if (exportedDependencies.contains(moduleDescriptor)) {
-                    DeserializationStrategy.ALL
-                } else {
-                    DeserializationStrategy.EXPLICITLY_EXPORTED
-                }
+            val deserializationStrategy = when {
+                exportedDependencies.contains(moduleDescriptor) -> DeserializationStrategy.ALL
+                lazyLinking -> DeserializationStrategy.ONLY_REFERENCED
+                else -> DeserializationStrategy.EXPLICITLY_EXPORTED
+            }
             deserializeIrModuleHeader(moduleDescriptor, header, deserializationStrategy)
         }
 }
 
+class IrLinkingStatistics(val availableTopLevelDeclarations: Int, val linkedTopLevelDeclarations: Int) {
+    override fun toString(): String =
+        "linked $linkedTopLevelDeclarations of $availableTopLevelDeclarations top level declarations"
+}
+
+private class ByteBufferInputStream(private val buffer: ByteBuffer) : InputStream() {
+    override fun read(): Int =
+        if (buffer.hasRemaining()) buffer.get().toInt() and 0xFF else -1
+
+    override fun read(bytes: ByteArray, offset: Int, length: Int): Int {
+        if (length == 0) return 0
+        if (!buffer.hasRemaining()) return -1
+        val count = minOf(length, buffer.remaining())
+        buffer.get(bytes, offset, count)
+        return count
+    }
+
+    override fun available(): Int = buffer.remaining()
+}
+
 enum class DeserializationStrategy {
     ONLY_REFERENCED,
     ALL,
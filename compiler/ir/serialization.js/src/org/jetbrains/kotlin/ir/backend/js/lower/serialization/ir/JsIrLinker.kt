@@ -16,13 +16,15 @@ import org.jetbrains.kotlin.ir.descriptors.IrBuiltIns
 import org.jetbrains.kotlin.ir.symbols.IrClassifierSymbol
 import org.jetbrains.kotlin.ir.util.SymbolTable
 import java.io.File
+import java.nio.ByteBuffer
 
 class JsIrLinker(
     currentModule: ModuleDescriptor,
     logger: LoggingContext,
     builtIns: IrBuiltIns,
-    symbolTable: SymbolTable
-) : KotlinIrLinker(logger, builtIns, symbolTable, emptyList<ModuleDescriptor>(), null, 0x1_0000_0000L),
+    symbolTable: SymbolTable,
+    lazyLinking: Boolean = false
+) : KotlinIrLinker(logger, builtIns, symbolTable, emptyList<ModuleDescriptor>(), null, 0x1_0000_0000L, lazyLinking),
     DescriptorUniqIdAware by JsDescriptorUniqIdAware {
 
     private val FUNCTION_INDEX_START: Long = indexAfterKnownBuiltins
@@ -35,13 +37,17 @@ class JsIrLinker(
     override val descriptorReferenceDeserializer =
         JsDescriptorReferenceDeserializer(currentModule, builtIns, FUNCTION_INDEX_START)
 
-    override fun reader(moduleDescriptor: ModuleDescriptor, uniqId: UniqId): ByteArray {
-        val irFileReader = moduleToReaderMap.getOrPut(moduleDescriptor) {
+    private fun irFileReader(moduleDescriptor: ModuleDescriptor): CombinedIrFileReader =
+        moduleToReaderMap.getOrPut(moduleDescriptor) {
             val irFile = File(moduleDescriptor.getCapability(JS_KLIBRARY_CAPABILITY)!!, "ir/irCombined.knd")
             CombinedIrFileReader(irFile)
         }
-        return irFileReader.declarationBytes(DeclarationId(uniqId.index, uniqId.isLocal))
-    }
+
+    override fun reader(moduleDescriptor: ModuleDescriptor, uniqId: UniqId): ByteArray =
+        irFileReader(moduleDescriptor).declarationBytes(DeclarationId(uniqId.index, uniqId.isLocal))
+
+    override fun readerBuffer(moduleDescriptor: ModuleDescriptor, uniqId: UniqId): ByteBuffer =
+        irFileReader(moduleDescriptor).declarationBuffer(DeclarationId(uniqId.index, uniqId.isLocal))
 
     override val ModuleDescriptor.irHeader: ByteArray? get() =
         this.getCapability(JS_KLIBRARY_CAPABILITY)?.let { File(it, moduleHeaderFileName).readBytes() }
@@ -0,0 +1,3 @@
+fun lengths(strings: List<String>): List<Int> = strings.map { it.length }.filter { it > 0 }
+
+fun firstOrEmpty(strings: List<String>): String = strings.firstOrNull()?.let { it.trim() } ?: ""
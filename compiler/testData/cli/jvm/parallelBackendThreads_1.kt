@@ -0,0 +1,9 @@
+package a
+
+import b.B
+
+inline fun <T> withB(block: (B) -> T): T = block(B())
+
+class A {
+    fun foo() = withB { it.bar() }
+}
@@ -0,0 +1,9 @@
+package b
+
+import a.withB
+
+class B {
+    fun bar() = "OK"
+
+    fun baz() = withB { it.bar() + object {}.toString() }
+}
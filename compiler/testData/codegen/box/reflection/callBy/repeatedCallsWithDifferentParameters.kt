@@ -0,0 +1,27 @@
+// IGNORE_BACKEND: JVM_IR
+// TARGET_BACKEND: JVM
+
+// WITH_REFLECT
+
+import kotlin.test.assertEquals
+import kotlin.test.assertFailsWith
+
+class A(val a: String, val b: Int = 2, val c: String? = "c") {
+    override fun toString() = "$a$b$c"
+}
+
+fun box(): String {
+    val constructor = A::class.constructors.single()
+    val (a, b, c) = constructor.parameters
+
+    // the arguments prepared for a set of parameters are reused by the following calls with the same parameters
+    for (i in 1..3) {
+        assertEquals("x2c", constructor.callBy(mapOf(a to "x")).toString())
+        assertEquals("x${i}c", constructor.callBy(mapOf(a to "x", b to i)).toString())
+        assertEquals("y2null", constructor.callBy(mapOf(a to "y", c to null)).toString())
+        assertEquals("z${i}w", constructor.callBy(mapOf(a to "z", b to i, c to "w")).toString())
+        assertFailsWith<IllegalArgumentException> { constructor.callBy(mapOf(b to i)) }
+    }
+
+    return "OK"
+}
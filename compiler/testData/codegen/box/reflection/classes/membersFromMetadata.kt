@@ -0,0 +1,87 @@
+// IGNORE_BACKEND: JVM_IR
+// TARGET_BACKEND: JVM
+
+// WITH_REFLECT
+
+import java.io.Serializable
+import kotlin.reflect.*
+import kotlin.reflect.full.*
+import kotlin.test.assertEquals
+import kotlin.test.assertTrue
+
+interface Named {
+    val name: String
+}
+
+abstract class Base<T>(val value: T) : Named {
+    open val description: String? get() = null
+    protected var counter: Int = 0
+    private val secret: String = ""
+    val String.extension: String get() = this
+}
+
+class Item(
+    override val name: String,
+    val tags: List<String>?,
+    var count: Int = 1,
+    vararg val aliases: String
+) : Base<String?>(null), Serializable {
+    override val description: String get() = name
+    internal val code: String get() = name
+}
+
+class Outer {
+    inner class Inner(val x: Int)
+}
+
+object Singleton {
+    val y = 42
+}
+
+fun box(): String {
+    assertEquals(
+        listOf("aliases", "code", "count", "counter", "description", "name", "tags", "value"),
+        Item::class.memberProperties.map { it.name }
+    )
+    assertEquals(
+        listOf("aliases", "code", "count", "description", "name", "tags"),
+        Item::class.declaredMemberProperties.map { it.name }
+    )
+    assertEquals(listOf("counter", "description", "name", "secret", "value"), Base::class.memberProperties.map { it.name })
+    // The order is the same as of the members computed from descriptors
+    for (klass in listOf(Item::class, Base::class)) {
+        assertEquals(klass.members.filterIsInstance<KProperty1<*, *>>().map { it.name }, klass.memberProperties.map { it.name })
+    }
+
+    assertTrue(Item::count in Item::class.memberProperties)
+    assertTrue(Item::class.memberProperties.single { it.name == "count" } is KMutableProperty1<*, *>)
+
+    val item = Item("OK", null, 2, "a", "b")
+    assertEquals(2, Item::class.memberProperties.single { it.name == "count" }.get(item))
+    assertEquals(null, Item::class.memberProperties.single { it.name == "value" }.get(item))
+
+    val nullability = Item::class.memberProperties.associate { it.name to it.returnType.isMarkedNullable }
+    assertEquals(false, nullability["name"])
+    assertEquals(true, nullability["tags"])
+    assertEquals(false, nullability["description"])
+    // The type parameter of Base is substituted with a nullable type
+    assertEquals(true, nullability["value"])
+
+    val constructor = Item::class.primaryConstructor!!
+    assertEquals(Item::class.constructors.single(), constructor)
+    assertEquals(listOf("name", "tags", "count", "aliases"), constructor.parameters.map { it.name })
+    assertEquals(listOf(false, true, false, false), constructor.parameters.map { it.type.isMarkedNullable })
+    assertEquals(listOf(false, false, true, false), constructor.parameters.map { it.isOptional })
+    assertEquals(listOf(false, false, false, true), constructor.parameters.map { it.isVararg })
+    assertEquals(listOf(String::class, List::class, Int::class, Array<String>::class), constructor.parameters.map { it.type.classifier })
+    assertEquals(3, constructor.call("x", listOf("y"), 3, emptyArray<String>()).count)
+
+    val inner = Outer.Inner::class.primaryConstructor!!
+    assertEquals(listOf(KParameter.Kind.INSTANCE, KParameter.Kind.VALUE), inner.parameters.map { it.kind })
+
+    assertEquals(null, Named::class.primaryConstructor)
+    assertEquals(null, Singleton::class.primaryConstructor)
+    assertEquals(listOf("y"), Singleton::class.memberProperties.map { it.name })
+
+    return item.name
+}
@@ -0,0 +1,94 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.backend.common.library
+
+import junit.framework.TestCase
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import java.io.File
+import java.nio.ByteBuffer
+
+class CombinedIrFileAccessorTest : TestCase() {
+    fun testRoundTrip() {
+        val declarations = linkedMapOf(
+            DeclarationId(42, isLocal = false) to bytes(1, 2, 3),
+            DeclarationId(42, isLocal = true) to bytes(4),
+            DeclarationId(-7, isLocal = false) to bytes(),
+            DeclarationId(Long.MAX_VALUE, isLocal = false) to bytes(5, 6),
+            DeclarationId(3, isLocal = false) to ByteArray(10_000) { it.toByte() }
+        )
+
+        val writer = CombinedIrFileWriter(declarations.size + 2)
+        writer.skipDeclaration()
+        for ((id, bytes) in declarations) {
+            writer.addDeclaration(id, bytes)
+        }
+        writer.skipDeclaration()
+        val file = writer.finishWriting()
+
+        try {
+            val reader = CombinedIrFileReader(file)
+            for ((id, bytes) in declarations) {
+                assertTrue("Wrong bytes of $id", bytes.contentEquals(reader.declarationBytes(id)))
+
+                val buffer = reader.declarationBuffer(id)
+                assertTrue("Declaration buffer should be read-only", buffer.isReadOnly)
+                assertEquals(bytes.size, buffer.remaining())
+            }
+
+            assertMissing(reader, DeclarationId(3, isLocal = true))
+            assertMissing(reader, DeclarationId(0, isLocal = false))
+            assertMissing(reader, DeclarationId(Long.MIN_VALUE, isLocal = false))
+        } finally {
+            file.delete()
+        }
+    }
+
+    fun testFirstFormatIsRead() {
+        val declarations = linkedMapOf(
+            DeclarationId(10, isLocal = false) to bytes(1, 2),
+            DeclarationId(5, isLocal = true) to bytes(3, 4, 5),
+            DeclarationId(5, isLocal = false) to bytes(6)
+        )
+        val file = File(KotlinTestUtils.tmpDirForTest(this), "v1.knd")
+        writeFirstFormat(file, declarations)
+
+        val reader = CombinedIrFileReader(file)
+        for ((id, bytes) in declarations) {
+            assertTrue("Wrong bytes of $id", bytes.contentEquals(reader.declarationBytes(id)))
+        }
+        assertMissing(reader, DeclarationId(10, isLocal = true))
+    }
+
+    // The first format: declarations count, unsorted index records of (id, isLocal, offset, size) with 32-bit offsets, declarations
+    private fun writeFirstFormat(file: File, declarations: Map<DeclarationId, ByteArray>) {
+        val indexSize = 4 + declarations.size * 20
+        val buffer = ByteBuffer.allocate(indexSize + declarations.values.sumBy { it.size })
+        buffer.putInt(declarations.size)
+        var offset = indexSize
+        for ((id, bytes) in declarations) {
+            buffer.putLong(id.id)
+            buffer.putInt(if (id.isLocal) 1 else 0)
+            buffer.putInt(offset)
+            buffer.putInt(bytes.size)
+            offset += bytes.size
+        }
+        for (bytes in declarations.values) {
+            buffer.put(bytes)
+        }
+        file.writeBytes(buffer.array())
+    }
+
+    private fun assertMissing(reader: CombinedIrFileReader, id: DeclarationId) {
+        try {
+            reader.declarationBytes(id)
+            fail("Declaration $id should not be found")
+        } catch (e: Error) {
+            if (e is AssertionError) throw e
+        }
+    }
+
+    private fun bytes(vararg values: Int) = ByteArray(values.size) { values[it].toByte() }
+}
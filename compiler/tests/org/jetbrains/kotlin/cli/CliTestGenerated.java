@@ -156,6 +156,11 @@ public class CliTestGenerated extends AbstractCliTest {
             runTest("compiler/testData/cli/jvm/coroutinesWarn.args");
         }
 
+        @TestMetadata("dependenciesIndexCache.args")
+        public void testDependenciesIndexCache() throws Exception {
+            runTest("compiler/testData/cli/jvm/dependenciesIndexCache.args");
+        }
+
         @TestMetadata("deprecatedApiVersion.args")
         public void testDeprecatedApiVersion() throws Exception {
             runTest("compiler/testData/cli/jvm/deprecatedApiVersion.args");
@@ -266,6 +271,16 @@ public class CliTestGenerated extends AbstractCliTest {
             runTest("compiler/testData/cli/jvm/help.args");
         }
 
+        @TestMetadata("inlineCacheSize.args")
+        public void testInlineCacheSize() throws Exception {
+            runTest("compiler/testData/cli/jvm/inlineCacheSize.args");
+        }
+
+        @TestMetadata("inlineCacheSizeInvalid.args")
+        public void testInlineCacheSizeInvalid() throws Exception {
+            runTest("compiler/testData/cli/jvm/inlineCacheSizeInvalid.args");
+        }
+
         @TestMetadata("inlineCycle.args")
         public void testInlineCycle() throws Exception {
             runTest("compiler/testData/cli/jvm/inlineCycle.args");
@@ -516,11 +531,26 @@ public class CliTestGenerated extends AbstractCliTest {
             runTest("compiler/testData/cli/jvm/nonexistingArgfile.args");
         }
 
+        @TestMetadata("parallelBackendThreads.args")
+        public void testParallelBackendThreads() throws Exception {
+            runTest("compiler/testData/cli/jvm/parallelBackendThreads.args");
+        }
+
+        @TestMetadata("parallelBackendThreadsInvalid.args")
+        public void testParallelBackendThreadsInvalid() throws Exception {
+            runTest("compiler/testData/cli/jvm/parallelBackendThreadsInvalid.args");
+        }
+
         @TestMetadata("pluginSimple.args")
         public void testPluginSimple() throws Exception {
             runTest("compiler/testData/cli/jvm/pluginSimple.args");
         }
 
+        @TestMetadata("profilePhasesReport.args")
+        public void testProfilePhasesReport() throws Exception {
+            runTest("compiler/testData/cli/jvm/profilePhasesReport.args");
+        }
+
         @TestMetadata("progressiveModeOff.args")
         public void testProgressiveModeOff() throws Exception {
             runTest("compiler/testData/cli/jvm/progressiveModeOff.args");
@@ -561,6 +591,16 @@ public class CliTestGenerated extends AbstractCliTest {
             runTest("compiler/testData/cli/jvm/singleJavaFileRoots.args");
         }
 
+        @TestMetadata("streamingOutput.args")
+        public void testStreamingOutput() throws Exception {
+            runTest("compiler/testData/cli/jvm/streamingOutput.args");
+        }
+
+        @TestMetadata("streamingOutputJar.args")
+        public void testStreamingOutputJar() throws Exception {
+            runTest("compiler/testData/cli/jvm/streamingOutputJar.args");
+        }
+
         @TestMetadata("suppressAllWarningsJvm.args")
         public void testSuppressAllWarningsJvm() throws Exception {
             runTest("compiler/testData/cli/jvm/suppressAllWarningsJvm.args");
@@ -764,6 +804,11 @@ public class CliTestGenerated extends AbstractCliTest {
             runTest("compiler/testData/cli/js/outputPrefixFileNotFound.args");
         }
 
+        @TestMetadata("profilePhasesReport.args")
+        public void testProfilePhasesReport() throws Exception {
+            runTest("compiler/testData/cli/js/profilePhasesReport.args");
+        }
+
         @TestMetadata("simple2js.args")
         public void testSimple2js() throws Exception {
             runTest("compiler/testData/cli/js/simple2js.args");
@@ -907,6 +952,11 @@ public class CliTestGenerated extends AbstractCliTest {
             runTest("compiler/testData/cli/js-dce/simple.args");
         }
 
+        @TestMetadata("withCache.args")
+        public void testWithCache() throws Exception {
+            runTest("compiler/testData/cli/js-dce/withCache.args");
+        }
+
         @TestMetadata("withSourceMap.args")
         public void testWithSourceMap() throws Exception {
             runTest("compiler/testData/cli/js-dce/withSourceMap.args");
@@ -0,0 +1,72 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.cli
+
+import org.jetbrains.kotlin.cli.js.dce.K2JSDce
+import org.jetbrains.kotlin.test.CompilerTestUtil
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import org.jetbrains.kotlin.test.TestCaseWithTmpdir
+import java.io.File
+import java.util.*
+
+class JsDceCacheTest : TestCaseWithTmpdir() {
+    private lateinit var inputs: List<File>
+
+    override fun setUp() {
+        super.setUp()
+        val inputDir = File(tmpdir, "src").apply { mkdirs() }
+        val testDataDir = File(KotlinTestUtils.getTestDataPathBase(), "cli/js-dce")
+        File(testDataDir, "withSourceMap.js").copyTo(File(inputDir, "sample.js"))
+        File(testDataDir, "withSourceMap.js.map").copyTo(File(inputDir, "sample.js.map"))
+        File(inputDir, "other.js").writeText(otherSource("bar"))
+        inputs = listOf(File(inputDir, "sample.js"), File(inputDir, "other.js"))
+    }
+
+    fun testCacheHit() {
+        val expected = runDce("expected", cached = false)
+
+        assertEquals(expected, runDce("actual", cached = true))
+        assertEquals(expected, runDce("actual", cached = true))
+    }
+
+    fun testChangedInput() {
+        runDce("actual", cached = true)
+        File(tmpdir, "src/other.js").writeText(otherSource("foo"))
+
+        val expected = runDce("expected", cached = false)
+        assertEquals(expected, runDce("actual", cached = true))
+    }
+
+    fun testChangedOptions() {
+        runDce("actual", cached = true)
+
+        val expected = runDce("expected", cached = false, keep = "sample.bar")
+        assertEquals(expected, runDce("actual", cached = true, keep = "sample.bar"))
+    }
+
+    // Returns the contents of the output directory, which are compared byte by byte
+    private fun runDce(outputDirName: String, cached: Boolean, keep: String? = null): Map<String, String> {
+        val outputDir = File(tmpdir, outputDirName)
+        val arguments = inputs.map { it.path } + listOf("-output-dir", outputDir.path) +
+                (if (cached) listOf("-Xcache-dir=${File(tmpdir, "cache").path}") else emptyList()) +
+                (if (keep != null) listOf("-keep", keep) else emptyList())
+        CompilerTestUtil.executeCompilerAssertSuccessful(K2JSDce(), arguments)
+
+        return outputDir.walk().filter { it.isFile }.associateTo(TreeMap()) { file ->
+            file.relativeTo(outputDir).invariantSeparatorsPath to Base64.getEncoder().encodeToString(file.readBytes())
+        }
+    }
+
+    private fun otherSource(usedFunction: String) = """
+        function foo() {
+            return "foo";
+        }
+        function bar() {
+            return "bar";
+        }
+        console.log($usedFunction());
+    """.trimIndent()
+}
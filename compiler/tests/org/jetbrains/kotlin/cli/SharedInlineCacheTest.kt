@@ -0,0 +1,47 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.cli
+
+import org.jetbrains.kotlin.cli.common.KOTLIN_COMPILER_ENVIRONMENT_KEEPALIVE_PROPERTY
+import org.jetbrains.kotlin.cli.jvm.K2JVMCompiler
+import org.jetbrains.kotlin.test.CompilerTestUtil
+import org.jetbrains.kotlin.test.TestCaseWithTmpdir
+import java.io.File
+
+class SharedInlineCacheTest : TestCaseWithTmpdir() {
+    // The shared cache is used by compilations which keep the environment alive, as in the daemon
+    fun testRecompiledLibraryClassOfSameSizeAndTimestamp() {
+        val libDir = File(tmpdir, "lib")
+        val previous = System.setProperty(KOTLIN_COMPILER_ENVIRONMENT_KEEPALIVE_PROPERTY, "true")
+        try {
+            compile("lib.kt", "package lib\n\ninline fun value() = \"value1\"", libDir)
+            compile("main.kt", "fun main() = lib.value()", File(tmpdir, "out1"), libDir)
+            assertTrue(classFileContents(File(tmpdir, "out1")).contains("value1"))
+
+            val stamps = libDir.walk().filter { it.isFile }.associateWith { it.lastModified() }
+            compile("lib.kt", "package lib\n\ninline fun value() = \"value2\"", libDir)
+            for ((file, lastModified) in stamps) {
+                file.setLastModified(lastModified)
+            }
+
+            compile("main.kt", "fun main() = lib.value()", File(tmpdir, "out2"), libDir)
+            assertTrue(classFileContents(File(tmpdir, "out2")).contains("value2"))
+        } finally {
+            if (previous != null) System.setProperty(KOTLIN_COMPILER_ENVIRONMENT_KEEPALIVE_PROPERTY, previous)
+            else System.clearProperty(KOTLIN_COMPILER_ENVIRONMENT_KEEPALIVE_PROPERTY)
+        }
+    }
+
+    private fun compile(fileName: String, text: String, destination: File, classpath: File? = null) {
+        val source = File(tmpdir, fileName).apply { writeText(text) }
+        val arguments = listOf("-d", destination.path, source.path) +
+                (if (classpath != null) listOf("-cp", classpath.path) else emptyList())
+        CompilerTestUtil.executeCompilerAssertSuccessful(K2JVMCompiler(), arguments)
+    }
+
+    private fun classFileContents(directory: File): String =
+        directory.walk().filter { it.extension == "class" }.joinToString("\n") { String(it.readBytes(), Charsets.ISO_8859_1) }
+}
@@ -0,0 +1,104 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.cli
+
+import org.jetbrains.kotlin.cli.jvm.K2JVMCompiler
+import org.jetbrains.kotlin.test.CompilerTestUtil
+import org.jetbrains.kotlin.test.TestCaseWithTmpdir
+import java.io.File
+import java.util.*
+import java.util.jar.JarFile
+
+class StreamingOutputTest : TestCaseWithTmpdir() {
+    fun testDirectory() {
+        val expected = File(tmpdir, "expected")
+        val actual = File(tmpdir, "actual")
+        compile(expected, streaming = false)
+        compile(actual, streaming = true)
+
+        assertEquals(directoryContents(expected), directoryContents(actual))
+        assertNoStagingDirectories()
+    }
+
+    fun testJar() {
+        val expected = File(tmpdir, "expected.jar")
+        val actual = File(tmpdir, "actual.jar")
+        compile(expected, streaming = false)
+        compile(actual, streaming = true)
+
+        assertEquals(jarContents(expected), jarContents(actual))
+        assertNoStagingDirectories()
+    }
+
+    fun testLeftoversOfKilledCompilationsAreCleanedUp() {
+        val outputDir = File(tmpdir, "out")
+        compile(outputDir, streaming = false)
+        val expected = directoryContents(outputDir)
+
+        // killed while generating: the staged files must not get to the output
+        File(tmpdir, ".out.kotlin-output1/Stale.class").apply { parentFile.mkdirs() }.writeText("stale")
+        // killed while committing: the rest of the staged files must be moved to the output
+        File(tmpdir, ".out.kotlin-output2/.committing").apply { parentFile.mkdirs() }.createNewFile()
+        File(tmpdir, ".out.kotlin-output2/Committed.class").writeText("committed")
+
+        compile(outputDir, streaming = true)
+
+        assertEquals(expected + ("Committed.class" to "committed"), directoryContents(outputDir))
+        assertNoStagingDirectories()
+    }
+
+    private fun compile(destination: File, streaming: Boolean) {
+        val source = File(tmpdir, "source.kt")
+        if (!source.exists()) {
+            source.writeText(SOURCE)
+        }
+        val arguments = listOf("-d", destination.path, source.path) + (if (streaming) listOf("-Xstreaming-output") else emptyList())
+        CompilerTestUtil.executeCompilerAssertSuccessful(K2JVMCompiler(), arguments)
+    }
+
+    private fun assertNoStagingDirectories() {
+        val stagingDirectories = tmpdir.walk().filter { it.name.contains(".kotlin-output") }.toList()
+        assertTrue("Staging directories are left: $stagingDirectories", stagingDirectories.isEmpty())
+    }
+
+    private fun directoryContents(directory: File): Map<String, String> =
+        directory.walk().filter { it.isFile }.associateTo(TreeMap()) { file ->
+            file.relativeTo(directory).invariantSeparatorsPath to Base64.getEncoder().encodeToString(file.readBytes())
+        }
+
+    private fun jarContents(jar: File): Map<String, String> =
+        JarFile(jar).use { jarFile ->
+            jarFile.entries().asSequence().filter { !it.isDirectory }.associateTo(TreeMap()) { entry ->
+                entry.name to Base64.getEncoder().encodeToString(jarFile.getInputStream(entry).readBytes())
+            }
+        }
+
+    private companion object {
+        val SOURCE = """
+            @file:JvmName("Facade")
+            package test
+
+            class A(val x: Int) {
+                inner class Inner
+                companion object {
+                    fun create() = A(42)
+                }
+            }
+
+            interface I {
+                fun f() = "I"
+            }
+
+            object O : I
+
+            fun lambdas() = listOf(1, 2, 3).map { it * 2 }.filter { it > 2 }
+
+            fun main() {
+                println(lambdas() + A.create().x + O.f())
+            }
+        """.trimIndent()
+    }
+}
@@ -0,0 +1,131 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.cli.jvm
+
+import com.intellij.openapi.vfs.StandardFileSystems
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.openapi.vfs.VirtualFileManager
+import com.intellij.util.io.URLUtil
+import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment
+import org.jetbrains.kotlin.cli.jvm.index.JavaRoot
+import org.jetbrains.kotlin.cli.jvm.index.JvmClasspathIndexPool
+import org.jetbrains.kotlin.cli.jvm.index.JvmDependenciesDynamicCompoundIndex
+import org.jetbrains.kotlin.name.FqName
+import org.jetbrains.kotlin.test.ConfigurationKind
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import org.jetbrains.kotlin.test.KotlinTestWithEnvironment
+import java.io.File
+import java.util.jar.JarEntry
+import java.util.jar.JarOutputStream
+
+class JvmClasspathIndexPoolTest : KotlinTestWithEnvironment() {
+    override fun createEnvironment(): KotlinCoreEnvironment = createEnvironmentWithMockJdk(ConfigurationKind.JDK_ONLY)
+
+    private lateinit var tmpDir: File
+
+    override fun setUp() {
+        super.setUp()
+        tmpDir = KotlinTestUtils.tmpDirForTest(this)
+    }
+
+    fun testJarRunsAreSharedAndDirectoriesAreNot() {
+        val pool = JvmClasspathIndexPool()
+        val roots = listOf(jarRoot("a.jar"), jarRoot("b.jar"), directoryRoot("classes"), jarRoot("c.jar"))
+
+        val first = pool.acquire(roots, null)
+        val second = pool.acquire(roots, null)
+        assertEquals(3, first.indices.size)
+        assertSame(first.indices[0], second.indices[0])
+        assertNotSame(first.indices[1], second.indices[1])
+        assertSame(first.indices[2], second.indices[2])
+        assertEquals(roots, first.indices.flatMap { it.indexedRoots.toList() })
+
+        first.release()
+        second.release()
+    }
+
+    fun testChangedJarIsIndexedAgain() {
+        val pool = JvmClasspathIndexPool()
+        val roots = listOf(jarRoot("a.jar"))
+
+        val old = pool.acquire(roots, null)
+        createJar("a.jar", "a/C.class", "a/D.class")
+        val new = pool.acquire(roots, null)
+        assertNotSame(old.indices.single(), new.indices.single())
+
+        old.release()
+        val next = pool.acquire(roots, null)
+        assertSame(new.indices.single(), next.indices.single())
+
+        new.release()
+        next.release()
+    }
+
+    fun testOnlyUnusedIndicesAreCleared() {
+        val pool = JvmClasspathIndexPool()
+        val usedRoots = listOf(jarRoot("a.jar"))
+        val unusedRoots = listOf(jarRoot("b.jar"))
+
+        val used = pool.acquire(usedRoots, null)
+        val unused = pool.acquire(unusedRoots, null)
+        unused.release()
+        pool.clearUnused()
+
+        assertSame(used.indices.single(), pool.acquire(usedRoots, null).indices.single())
+        assertNotSame(unused.indices.single(), pool.acquire(unusedRoots, null).indices.single())
+    }
+
+    fun testUnusedIndicesAreEvictedInLeastRecentlyUsedOrder() {
+        val pool = JvmClasspathIndexPool()
+        val roots = (0..JvmClasspathIndexPool.MAX_UNUSED_ENTRIES).map { listOf(jarRoot("lib$it.jar")) }
+
+        val indices = roots.map { pool.acquire(it, null).apply { release() }.indices.single() }
+
+        val reacquired = pool.acquire(roots.first(), null).indices.single()
+        assertNotSame("The least recently used index should be evicted", indices.first(), reacquired)
+        assertSame(indices.last(), pool.acquire(roots.last(), null).indices.single())
+    }
+
+    fun testTraversalStopsAtFirstRejectedDirectoryAcrossIndices() {
+        val pool = JvmClasspathIndexPool()
+        val lease = pool.acquire(listOf(jarRoot("a.jar"), directoryRoot("classes"), jarRoot("b.jar")), null)
+        val index = JvmDependenciesDynamicCompoundIndex().apply { lease.indices.forEach(this::addIndex) }
+
+        val visited = ArrayList<VirtualFile>()
+        index.traverseDirectoriesInPackage(FqName("a")) { directory, _ ->
+            visited.add(directory)
+            visited.size < 2
+        }
+        assertEquals(2, visited.size)
+
+        lease.release()
+    }
+
+    private fun jarRoot(name: String): JavaRoot {
+        val jar = File(tmpDir, name)
+        if (!jar.exists()) createJar(name, "a/C.class")
+        val root = VirtualFileManager.getInstance().getFileSystem(StandardFileSystems.JAR_PROTOCOL)
+            .findFileByPath(jar.path + URLUtil.JAR_SEPARATOR)!!
+        return JavaRoot(root, JavaRoot.RootType.BINARY)
+    }
+
+    private fun directoryRoot(name: String): JavaRoot {
+        val directory = File(tmpDir, "$name/a").apply { mkdirs() }.parentFile
+        File(directory, "a/C.class").writeBytes(byteArrayOf(0))
+        val root = VirtualFileManager.getInstance().getFileSystem(StandardFileSystems.FILE_PROTOCOL).findFileByPath(directory.path)!!
+        return JavaRoot(root, JavaRoot.RootType.BINARY)
+    }
+
+    private fun createJar(name: String, vararg entries: String) {
+        JarOutputStream(File(tmpDir, name).outputStream()).use { output ->
+            for (entry in entries) {
+                output.putNextEntry(JarEntry(entry))
+                output.write(byteArrayOf(0))
+                output.closeEntry()
+            }
+        }
+    }
+}
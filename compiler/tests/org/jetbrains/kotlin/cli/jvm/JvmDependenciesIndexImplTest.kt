@@ -0,0 +1,120 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.cli.jvm
+
+import com.intellij.openapi.vfs.StandardFileSystems
+import com.intellij.openapi.vfs.VirtualFileManager
+import com.intellij.util.io.URLUtil
+import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment
+import org.jetbrains.kotlin.cli.jvm.index.JavaRoot
+import org.jetbrains.kotlin.cli.jvm.index.JvmDependenciesIndexImpl
+import org.jetbrains.kotlin.name.ClassId
+import org.jetbrains.kotlin.name.FqName
+import org.jetbrains.kotlin.test.ConfigurationKind
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import org.jetbrains.kotlin.test.KotlinTestWithEnvironment
+import java.io.File
+import java.util.*
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.jar.JarEntry
+import java.util.jar.JarOutputStream
+
+class JvmDependenciesIndexImplTest : KotlinTestWithEnvironment() {
+    override fun createEnvironment(): KotlinCoreEnvironment = createEnvironmentWithMockJdk(ConfigurationKind.JDK_ONLY)
+
+    fun testConcurrentLookupsMatchSequentialOnes() {
+        val roots = createRoots()
+        val expected = JvmDependenciesIndexImpl(roots).let { index -> PACKAGES.associate { it to index.directoriesOf(it) } }
+        val expectedClasses = JvmDependenciesIndexImpl(roots).let { index -> CLASSES.associate { it to index.rootOf(it) } }
+
+        val executor = Executors.newFixedThreadPool(THREADS)
+        try {
+            repeat(ITERATIONS) { iteration ->
+                // a fresh index per iteration, so that the caches are filled concurrently each time
+                val index = JvmDependenciesIndexImpl(roots)
+                val start = CountDownLatch(1)
+                val futures = (0 until THREADS).map { thread ->
+                    executor.submit<Map<String, List<String>>> {
+                        val random = Random(iteration * THREADS + thread.toLong())
+                        start.await()
+                        val result = HashMap<String, List<String>>()
+                        for (packageFqName in PACKAGES.shuffled(random)) {
+                            result[packageFqName] = index.directoriesOf(packageFqName)
+                        }
+                        for (classId in CLASSES.shuffled(random)) {
+                            result[classId.asString()] = listOfNotNull(index.rootOf(classId))
+                        }
+                        result
+                    }
+                }
+                start.countDown()
+
+                for (future in futures) {
+                    val actual = future.get(1, TimeUnit.MINUTES)
+                    for ((packageFqName, directories) in expected) {
+                        assertEquals("Directories of package '$packageFqName'", directories, actual[packageFqName])
+                    }
+                    for ((classId, root) in expectedClasses) {
+                        assertEquals("Root of class $classId", listOfNotNull(root), actual[classId.asString()])
+                    }
+                }
+
+                // lookups after the concurrent ones are answered from the filled caches
+                for ((packageFqName, directories) in expected) {
+                    assertEquals("Directories of package '$packageFqName'", directories, index.directoriesOf(packageFqName))
+                }
+            }
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+
+    private fun createRoots(): List<JavaRoot> {
+        val tmpDir = KotlinTestUtils.tmpDirForTest(this)
+        val jarFileSystem = VirtualFileManager.getInstance().getFileSystem(StandardFileSystems.JAR_PROTOCOL)
+        return (0 until JARS).map { jarIndex ->
+            val jar = File(tmpDir, "lib$jarIndex.jar")
+            JarOutputStream(jar.outputStream()).use { output ->
+                // every jar contains a different subset of packages, so that most roots are skipped for most packages
+                for ((packageIndex, packageFqName) in PACKAGES.withIndex()) {
+                    if (packageFqName.isEmpty() || (jarIndex + packageIndex) % 3 != 0) continue
+                    output.putNextEntry(JarEntry(packageFqName.replace('.', '/') + "/C$jarIndex.class"))
+                    output.write(byteArrayOf(jarIndex.toByte()))
+                    output.closeEntry()
+                }
+            }
+            JavaRoot(jarFileSystem.findFileByPath(jar.path + URLUtil.JAR_SEPARATOR)!!, JavaRoot.RootType.BINARY)
+        }
+    }
+
+    private fun JvmDependenciesIndexImpl.directoriesOf(packageFqName: String): List<String> {
+        val result = ArrayList<String>()
+        traverseDirectoriesInPackage(FqName(packageFqName), JavaRoot.OnlyBinary) { directory, _ ->
+            result.add(directory.path)
+            true
+        }
+        return result
+    }
+
+    private fun JvmDependenciesIndexImpl.rootOf(classId: ClassId): String? =
+        findClass(classId, JavaRoot.OnlyBinary) { directory, _ ->
+            directory.children.firstOrNull { it.name.startsWith(classId.shortClassName.asString()) }?.path
+        }
+
+    private companion object {
+        const val JARS = 40
+        const val THREADS = 8
+        const val ITERATIONS = 20
+
+        val PACKAGES = listOf("", "a", "a.b", "a.b.c", "a.d", "a.d.e", "f", "f.g", "f.g.h", "i")
+
+        val CLASSES = PACKAGES.filter(String::isNotEmpty).flatMap { packageFqName ->
+            listOf(0, 7, 23).map { jarIndex -> ClassId.topLevel(FqName("$packageFqName.C$jarIndex")) }
+        }
+    }
+}
@@ -0,0 +1,176 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.cli.jvm
+
+import com.intellij.openapi.vfs.StandardFileSystems
+import com.intellij.openapi.vfs.VirtualFile
+import com.intellij.openapi.vfs.VirtualFileManager
+import com.intellij.util.io.URLUtil
+import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment
+import org.jetbrains.kotlin.cli.jvm.index.JavaRoot
+import org.jetbrains.kotlin.cli.jvm.index.JvmDependenciesIndexImpl
+import org.jetbrains.kotlin.cli.jvm.index.JvmDependenciesIndexSnapshot
+import org.jetbrains.kotlin.codegen.forTestCompile.ForTestCompileRuntime
+import org.jetbrains.kotlin.load.kotlin.FileBasedKotlinClass
+import org.jetbrains.kotlin.load.kotlin.KotlinBinaryClassCache
+import org.jetbrains.kotlin.load.kotlin.KotlinClassFinder
+import org.jetbrains.kotlin.name.ClassId
+import org.jetbrains.kotlin.name.FqName
+import org.jetbrains.kotlin.test.ConfigurationKind
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import org.jetbrains.kotlin.test.KotlinTestWithEnvironment
+import java.io.File
+import java.util.jar.JarEntry
+import java.util.jar.JarOutputStream
+
+class JvmDependenciesIndexSnapshotTest : KotlinTestWithEnvironment() {
+    override fun createEnvironment(): KotlinCoreEnvironment = createEnvironmentWithMockJdk(ConfigurationKind.JDK_ONLY)
+
+    fun testPackagesAndModuleMappingsOfJar() {
+        val tmpDir = KotlinTestUtils.tmpDirForTest(this)
+        val jar = createJar(
+            File(tmpDir, "lib.jar"),
+            "a/b/C.class" to byteArrayOf(1),
+            "a/D.class" to byteArrayOf(2),
+            "META-INF/lib.kotlin_module" to MODULE_MAPPING,
+            "META-INF/MANIFEST.MF" to byteArrayOf(3)
+        )
+        val storageDir = File(tmpDir, "snapshots")
+        val root = JavaRoot(jarRoot(jar), JavaRoot.RootType.BINARY)
+
+        val snapshot = JvmDependenciesIndexSnapshot(storageDir)
+        assertEquals(setOf("", "a", "a.b", "META-INF"), snapshot.getPackages(root))
+
+        val moduleMappings = snapshot.getModuleMappings(root)!!
+        assertEquals(listOf("lib.kotlin_module"), moduleMappings.keys.toList())
+        assertTrue(moduleMappings.getValue("lib.kotlin_module").contentEquals(MODULE_MAPPING))
+
+        assertEquals(setOf("C.class"), snapshot.getFileNames(root)!!["a.b"])
+        assertEquals(setOf("D.class"), snapshot.getFileNames(root)!!["a"])
+
+        assertEquals("The snapshot should be saved", 1, storageDir.listFiles { file -> file.name.endsWith(".snapshot") }!!.size)
+    }
+
+    fun testSnapshotOfChangedJarReplacesThePreviousOne() {
+        val tmpDir = KotlinTestUtils.tmpDirForTest(this)
+        val jarFile = File(tmpDir, "lib.jar")
+        val storageDir = File(tmpDir, "snapshots")
+
+        createJar(jarFile, "a/C.class" to byteArrayOf(1))
+        JvmDependenciesIndexSnapshot(storageDir).getPackages(JavaRoot(jarRoot(jarFile), JavaRoot.RootType.BINARY))
+        val previousSnapshot = storageDir.listFiles { file -> file.name.endsWith(".snapshot") }!!.single()
+
+        jarFile.setLastModified(jarFile.lastModified() + 2000)
+        JvmDependenciesIndexSnapshot(storageDir).getPackages(JavaRoot(jarRoot(jarFile), JavaRoot.RootType.BINARY))
+
+        // the snapshot of the changed jar is saved to a new file, since the previous one may be mapped by another compilation
+        val snapshot = storageDir.listFiles { file -> file.name.endsWith(".snapshot") }!!.single()
+        assertFalse(snapshot == previousSnapshot)
+    }
+
+    fun testHeadersOfKotlinClassesAreTheSameAsReadFromClassFiles() {
+        val storageDir = File(KotlinTestUtils.tmpDirForTest(this), "snapshots")
+        val runtimeJar = ForTestCompileRuntime.runtimeJarForTests()
+        val root = JavaRoot(jarRoot(runtimeJar), JavaRoot.RootType.BINARY)
+
+        val snapshot = JvmDependenciesIndexSnapshot(storageDir)
+        for (path in listOf("kotlin/Pair.class", "kotlin/collections/CollectionsKt.class", "kotlin/collections/CollectionsKt___CollectionsKt.class")) {
+            val file = root.file.findFileByRelativePath(path)!!
+            val expected = (KotlinBinaryClassCache.getKotlinBinaryClassOrClassFileContent(file) as KotlinClassFinder.Result.KotlinClass)
+                .kotlinJvmBinaryClass as FileBasedKotlinClass
+            val actual = snapshot.getKotlinClass(file)!!.kotlinJvmBinaryClass as FileBasedKotlinClass
+
+            assertEquals(expected.classId, actual.classId)
+            assertEquals(expected.classVersion, actual.classVersion)
+            assertEquals(expected.location, actual.location)
+
+            val expectedHeader = expected.classHeader
+            val actualHeader = actual.classHeader
+            assertEquals(expectedHeader.kind, actualHeader.kind)
+            assertEquals(expectedHeader.metadataVersion.toArray().toList(), actualHeader.metadataVersion.toArray().toList())
+            assertEquals(expectedHeader.metadataVersion.isStrictSemantics, actualHeader.metadataVersion.isStrictSemantics)
+            assertEquals(expectedHeader.bytecodeVersion.toArray().toList(), actualHeader.bytecodeVersion.toArray().toList())
+            assertEquals(expectedHeader.data?.toList(), actualHeader.data?.toList())
+            assertEquals(expectedHeader.strings?.toList(), actualHeader.strings?.toList())
+            assertEquals(expectedHeader.multifileClassName, actualHeader.multifileClassName)
+            assertEquals(expectedHeader.multifilePartNames, actualHeader.multifilePartNames)
+            assertEquals(expectedHeader.extraInt, actualHeader.extraInt)
+            assertEquals(expectedHeader.packageName, actualHeader.packageName)
+        }
+
+        assertNull("Only Kotlin classes are stored", snapshot.getKotlinClass(root.file.findFileByRelativePath("META-INF/MANIFEST.MF")!!))
+    }
+
+    fun testKotlinClassesAreCreatedOncePerSnapshot() {
+        val storageDir = File(KotlinTestUtils.tmpDirForTest(this), "snapshots")
+        val root = JavaRoot(jarRoot(ForTestCompileRuntime.runtimeJarForTests()), JavaRoot.RootType.BINARY)
+        val file = root.file.findFileByRelativePath("kotlin/Pair.class")!!
+
+        val snapshot = JvmDependenciesIndexSnapshot(storageDir)
+        val kotlinClass = snapshot.getKotlinClass(file)!!.kotlinJvmBinaryClass
+        assertSame(kotlinClass, snapshot.getKotlinClass(file)!!.kotlinJvmBinaryClass)
+
+        // classes refer to the virtual files of the environment, so they're not shared with other snapshots
+        assertNotSame(kotlinClass, JvmDependenciesIndexSnapshot(storageDir).getKotlinClass(file)!!.kotlinJvmBinaryClass)
+    }
+
+    fun testJarsWithoutTheClassFileAreSkipped() {
+        val tmpDir = KotlinTestUtils.tmpDirForTest(this)
+        val first = createJar(File(tmpDir, "first.jar"), "a/C.class" to byteArrayOf(1))
+        val second = createJar(File(tmpDir, "second.jar"), "a/D.class" to byteArrayOf(2))
+        val snapshot = JvmDependenciesIndexSnapshot(File(tmpDir, "snapshots"))
+        val index = JvmDependenciesIndexImpl(
+            listOf(JavaRoot(jarRoot(first), JavaRoot.RootType.BINARY), JavaRoot(jarRoot(second), JavaRoot.RootType.BINARY)),
+            snapshot
+        )
+
+        val visitedDirectories = ArrayList<String>()
+        val found = index.findClass(ClassId.topLevel(FqName("a.D")), JavaRoot.OnlyBinary, fileName = "D.class") { directory, _ ->
+            visitedDirectories.add(directory.path)
+            directory.findChild("D.class")
+        }
+
+        assertEquals(jarRoot(second).path + "a/D.class", found?.path)
+        assertEquals(listOf(jarRoot(second).path + "a"), visitedDirectories)
+
+        // the package is still found in both jars
+        val packageDirectories = ArrayList<String>()
+        index.traverseDirectoriesInPackage(FqName("a"), JavaRoot.OnlyBinary) { directory, _ -> packageDirectories.add(directory.path); true }
+        assertEquals(listOf(jarRoot(first).path + "a", jarRoot(second).path + "a"), packageDirectories)
+    }
+
+    fun testOnlyJarsWithoutPrefixAreSnapshotted() {
+        val tmpDir = KotlinTestUtils.tmpDirForTest(this)
+        val jar = createJar(File(tmpDir, "lib.jar"), "a/C.class" to byteArrayOf(1))
+        val classesDir = File(tmpDir, "classes").apply { mkdirs() }
+        val snapshot = JvmDependenciesIndexSnapshot(File(tmpDir, "snapshots"))
+
+        val localFileSystem = VirtualFileManager.getInstance().getFileSystem(StandardFileSystems.FILE_PROTOCOL)
+        val directory = localFileSystem.findFileByPath(classesDir.path)!!
+        assertNull(snapshot.getPackages(JavaRoot(directory, JavaRoot.RootType.BINARY)))
+        assertNull(snapshot.getPackages(JavaRoot(jarRoot(jar), JavaRoot.RootType.BINARY, FqName("a"))))
+        assertNull(snapshot.getModuleMappings(JavaRoot(directory, JavaRoot.RootType.BINARY)))
+    }
+
+    private fun createJar(file: File, vararg entries: Pair<String, ByteArray>): File {
+        JarOutputStream(file.outputStream()).use { output ->
+            for ((name, bytes) in entries) {
+                output.putNextEntry(JarEntry(name))
+                output.write(bytes)
+                output.closeEntry()
+            }
+        }
+        return file
+    }
+
+    private fun jarRoot(jar: File): VirtualFile =
+        VirtualFileManager.getInstance().getFileSystem(StandardFileSystems.JAR_PROTOCOL)
+            .findFileByPath(jar.path + URLUtil.JAR_SEPARATOR)!!
+
+    private companion object {
+        val MODULE_MAPPING = byteArrayOf(0, 0, 0, 5, 1, 2, 3)
+    }
+}
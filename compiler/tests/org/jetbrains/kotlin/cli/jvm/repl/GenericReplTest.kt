@@ -39,6 +39,7 @@ import java.io.File
 import java.net.URLClassLoader
 import java.util.concurrent.atomic.AtomicInteger
 import java.util.concurrent.locks.ReentrantReadWriteLock
+import kotlin.system.measureNanoTime
 
 class GenericReplTest : KtUsefulTestCase() {
     fun testReplBasics() {
@@ -123,6 +124,54 @@ class GenericReplTest : KtUsefulTestCase() {
         }
     }
 
+    fun testImportsOfPreviousLines() {
+        TestRepl().use { repl ->
+            val state = repl.createState()
+
+            assertEvalUnit(repl, state, "import java.util.concurrent.atomic.AtomicInteger")
+            assertEvalUnit(repl, state, "import java.util.concurrent.*")
+            assertEvalUnit(repl, state, "import kotlin.math.max as maximum")
+            assertEvalUnit(repl, state, "class C(val x: Int)")
+
+            for (i in 0 until 64) {
+                assertEvalUnit(repl, state, "val y$i = $i")
+            }
+
+            assertEvalResult(repl, state, "AtomicInteger(y1).get()", 1)
+            assertEvalResult(repl, state, "ConcurrentHashMap<String, Int>().size", 0)
+            assertEvalResult(repl, state, "maximum(y2, C(y63).x)", 63)
+            assertEvalResult(repl, state, "listOf(y0, y3).size", 2)
+        }
+    }
+
+    /**
+     * Run with -Dkotlin.repl.benchmark=true
+     */
+    fun testReplBenchmark() {
+        if (System.getProperty("kotlin.repl.benchmark") != "true") return
+
+        TestRepl().use { repl ->
+            val state = repl.createState()
+            assertEvalUnit(repl, state, "val x0 = 0")
+
+            val snippets = 5_000
+            val batch = 500
+            for (start in 1..snippets step batch) {
+                val time = measureNanoTime {
+                    for (i in start until start + batch) {
+                        // every tenth line has an import, which is carried over to the next lines
+                        val code = if (i % 10 == 0) "import kotlin.math.max as max$i\nval x$i = max$i(x${i - 1}, 0) + 1"
+                        else "val x$i = x${i - 1} + 1"
+                        assertEvalUnit(repl, state, code)
+                    }
+                }
+                println("snippets $start..${start + batch - 1}: ${time / 1_000_000} ms, ${time / batch / 1_000} us per snippet")
+            }
+
+            assertEvalResult(repl, state, "x$snippets", snippets)
+        }
+    }
+
     fun testReplSlowdownKt22740() {
         TestRepl().use { repl ->
             val state = repl.createState()
@@ -19898,6 +19898,11 @@ public class LightAnalysisModeTestGenerated extends AbstractLightAnalysisModeTes
                 runTest("compiler/testData/codegen/box/reflection/callBy/privateMemberFunction.kt");
             }
 
+            @TestMetadata("repeatedCallsWithDifferentParameters.kt")
+            public void testRepeatedCallsWithDifferentParameters() throws Exception {
+                runTest("compiler/testData/codegen/box/reflection/callBy/repeatedCallsWithDifferentParameters.kt");
+            }
+
             @TestMetadata("simpleConstructor.kt")
             public void testSimpleConstructor() throws Exception {
                 runTest("compiler/testData/codegen/box/reflection/callBy/simpleConstructor.kt");
@@ -20014,6 +20019,11 @@ public class LightAnalysisModeTestGenerated extends AbstractLightAnalysisModeTes
                 runTest("compiler/testData/codegen/box/reflection/classes/localClassSimpleName.kt");
             }
 
+            @TestMetadata("membersFromMetadata.kt")
+            public void testMembersFromMetadata() throws Exception {
+                runTest("compiler/testData/codegen/box/reflection/classes/membersFromMetadata.kt");
+            }
+
             @TestMetadata("nestedClasses.kt")
             public void testNestedClasses() throws Exception {
                 runTest("compiler/testData/codegen/box/reflection/classes/nestedClasses.kt");
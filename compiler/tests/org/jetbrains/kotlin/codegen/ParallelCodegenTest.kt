@@ -0,0 +1,65 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.codegen
+
+import org.jetbrains.kotlin.cli.jvm.compiler.EnvironmentConfigFiles
+import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment
+import org.jetbrains.kotlin.config.JVMConfigurationKeys
+import org.jetbrains.kotlin.test.ConfigurationKind
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import org.jetbrains.kotlin.test.TestJdkKind
+import org.jetbrains.kotlin.test.testFramework.KtUsefulTestCase
+
+class ParallelCodegenTest : KtUsefulTestCase() {
+    fun testParallelOutputIsTheSameAsSequential() {
+        val sources = (1..8).associate { i ->
+            "p$i.kt" to """
+                @file:JvmMultifileClass
+                @file:JvmName("Facade${i % 2}")
+                package p${i % 3}
+
+                inline fun <T> withObject$i(block: (Runnable) -> T): T = block(object : Runnable { override fun run() {} })
+
+                fun useInline$i(): String = withObject$i { r -> r.toString() + { $i }() }
+
+                class C$i {
+                    fun lambda() = { x: Int -> x + $i }
+                    fun whenByEnum(e: E$i) = when (e) { E$i.A -> 1; E$i.B -> 2 }
+                    fun sam(): Runnable = Runnable { println($i) }
+                }
+
+                enum class E$i { A, B }
+            """.trimIndent()
+        } + (1..4).associate { i ->
+            "q$i.kt" to """
+                package q${i % 2}
+
+                fun useOtherPackage$i() = p${i % 3}.withObject$i { it }
+
+                object O$i { val x = listOf($i).map { it * 2 } }
+            """.trimIndent()
+        }
+
+        val sequential = compile(sources, threads = 1)
+        val parallel = compile(sources, threads = 4)
+
+        assertEquals(sequential.keys.toList(), parallel.keys.toList())
+        for ((path, bytes) in sequential) {
+            assertTrue("Class file differs: $path", bytes.contentEquals(parallel.getValue(path)))
+        }
+    }
+
+    private fun compile(sources: Map<String, String>, threads: Int): Map<String, ByteArray> {
+        val configuration = KotlinTestUtils.newConfiguration(ConfigurationKind.ALL, TestJdkKind.MOCK_JDK)
+        configuration.put(JVMConfigurationKeys.PARALLEL_BACKEND_THREADS, threads)
+        val environment = KotlinCoreEnvironment.createForTests(testRootDisposable, configuration, EnvironmentConfigFiles.JVM_CONFIG_FILES)
+        val files = sources.map { (name, text) -> KotlinTestUtils.createFile(name, text, environment.project) }
+
+        val state = GenerationUtils.compileFiles(files, environment, ClassBuilderFactories.BINARIES)
+        assertEquals(threads, state.parallelBackendThreads)
+        return state.factory.asList().associate { it.relativePath to it.asByteArray() }
+    }
+}
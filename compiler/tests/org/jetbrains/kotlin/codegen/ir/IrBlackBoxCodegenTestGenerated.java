@@ -19903,6 +19903,11 @@ public class IrBlackBoxCodegenTestGenerated extends AbstractIrBlackBoxCodegenTes
                 runTest("compiler/testData/codegen/box/reflection/callBy/privateMemberFunction.kt");
             }
 
+            @TestMetadata("repeatedCallsWithDifferentParameters.kt")
+            public void testRepeatedCallsWithDifferentParameters() throws Exception {
+                runTest("compiler/testData/codegen/box/reflection/callBy/repeatedCallsWithDifferentParameters.kt");
+            }
+
             @TestMetadata("simpleConstructor.kt")
             public void testSimpleConstructor() throws Exception {
                 runTest("compiler/testData/codegen/box/reflection/callBy/simpleConstructor.kt");
@@ -20019,6 +20024,11 @@ public class IrBlackBoxCodegenTestGenerated extends AbstractIrBlackBoxCodegenTes
                 runTest("compiler/testData/codegen/box/reflection/classes/localClassSimpleName.kt");
             }
 
+            @TestMetadata("membersFromMetadata.kt")
+            public void testMembersFromMetadata() throws Exception {
+                runTest("compiler/testData/codegen/box/reflection/classes/membersFromMetadata.kt");
+            }
+
             @TestMetadata("nestedClasses.kt")
             public void testNestedClasses() throws Exception {
                 runTest("compiler/testData/codegen/box/reflection/classes/nestedClasses.kt");
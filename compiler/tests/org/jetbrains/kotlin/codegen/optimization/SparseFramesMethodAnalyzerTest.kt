@@ -0,0 +1,113 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.codegen.optimization
+
+import junit.framework.TestCase
+import org.jetbrains.kotlin.codegen.optimization.common.MethodAnalyzer
+import org.jetbrains.kotlin.codegen.optimization.common.OptimizationBasicInterpreter
+import org.jetbrains.kotlin.codegen.optimization.common.SparseFramesMethodAnalyzer
+import org.jetbrains.org.objectweb.asm.Label
+import org.jetbrains.org.objectweb.asm.Opcodes
+import org.jetbrains.org.objectweb.asm.Type
+import org.jetbrains.org.objectweb.asm.commons.InstructionAdapter
+import org.jetbrains.org.objectweb.asm.tree.LdcInsnNode
+import org.jetbrains.org.objectweb.asm.tree.MethodNode
+
+class SparseFramesMethodAnalyzerTest : TestCase() {
+    fun testSameFramesAsMethodAnalyzer() {
+        val method = generateMethod(blocks = 20, fillerPerBlock = 5, maxLocals = 10)
+
+        val expected = MethodAnalyzer("Test", method, OptimizationBasicInterpreter()).analyze()
+        val actual = SparseFramesMethodAnalyzer("Test", method, OptimizationBasicInterpreter()) { true }.analyze()
+
+        val insns = method.instructions.toArray()
+        for (i in insns.indices) {
+            assertEquals("Frame before instruction #$i", expected[i]?.toString(), actual[insns[i]]?.toString())
+        }
+    }
+
+    fun testOnlyRequestedFramesAreReturned() {
+        val method = generateMethod(blocks = 5, fillerPerBlock = 5, maxLocals = 10)
+
+        val frames = SparseFramesMethodAnalyzer("Test", method, OptimizationBasicInterpreter()) {
+            it.opcode == Opcodes.CHECKCAST
+        }.analyze()
+
+        assertEquals(5, frames.size)
+        assertTrue(frames.keys.all { it.opcode == Opcodes.CHECKCAST })
+    }
+
+    fun testLargeMethodIsOptimizedWithoutFullFrames() {
+        val method = generateMethod(blocks = 200, fillerPerBlock = 300, maxLocals = 1000)
+        assertFalse("The method should be too large for the full optimization pipeline", OptimizationMethodVisitor.canBeOptimized(method))
+
+        ConstantConditionEliminationMethodTransformer(RedundantCheckCastEliminationMethodTransformer()).transform("Test", method)
+
+        val insns = method.instructions.toArray()
+        assertTrue("Constant conditions should be eliminated", insns.none { it.opcode == Opcodes.IFEQ })
+        assertTrue("Dead code should be eliminated", insns.none { it is LdcInsnNode && it.cst == DEAD_CODE_MARKER })
+        assertTrue("Redundant casts should be eliminated", insns.none { it.opcode == Opcodes.CHECKCAST })
+        assertEquals("Loops should be kept", 200, insns.count { it.opcode == Opcodes.IFGT })
+    }
+
+    // static int test(int, String), each block contains a constant condition, a redundant cast, a loop and a try/catch
+    private fun generateMethod(blocks: Int, fillerPerBlock: Int, maxLocals: Int): MethodNode {
+        val method = MethodNode(Opcodes.API_VERSION, Opcodes.ACC_STATIC, "test", "(ILjava/lang/String;)I", null, null)
+        val iv = InstructionAdapter(method)
+        val stringType = Type.getObjectType("java/lang/String")
+
+        for (block in 0 until blocks) {
+            val skip = Label()
+            iv.iconst(0)
+            iv.ifeq(skip)
+            iv.aconst(DEAD_CODE_MARKER)
+            iv.pop()
+            iv.visitLabel(skip)
+
+            iv.load(1, stringType)
+            iv.checkcast(stringType)
+            iv.store(1, stringType)
+
+            val loop = Label()
+            iv.visitLabel(loop)
+            for (i in 0 until fillerPerBlock) {
+                iv.load(0, Type.INT_TYPE)
+                iv.store(2 + (block * fillerPerBlock + i) % (maxLocals - 2), Type.INT_TYPE)
+            }
+            iv.iinc(0, -1)
+            iv.load(0, Type.INT_TYPE)
+            iv.ifgt(loop)
+
+            val tryStart = Label()
+            val tryEnd = Label()
+            val handler = Label()
+            val afterTry = Label()
+            iv.visitTryCatchBlock(tryStart, tryEnd, handler, "java/lang/RuntimeException")
+            iv.visitLabel(tryStart)
+            iv.load(1, stringType)
+            iv.invokevirtual("java/lang/String", "length", "()I", false)
+            iv.store(0, Type.INT_TYPE)
+            iv.visitLabel(tryEnd)
+            iv.goTo(afterTry)
+            iv.visitLabel(handler)
+            iv.pop()
+            iv.iconst(block)
+            iv.store(0, Type.INT_TYPE)
+            iv.visitLabel(afterTry)
+        }
+
+        iv.load(0, Type.INT_TYPE)
+        iv.areturn(Type.INT_TYPE)
+
+        method.maxLocals = maxLocals
+        method.maxStack = 2
+        return method
+    }
+
+    companion object {
+        private const val DEAD_CODE_MARKER = "dead code"
+    }
+}
@@ -0,0 +1,96 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.daemon
+
+import junit.framework.TestCase
+import org.jetbrains.kotlin.daemon.common.CompactLookupRecorder
+import org.jetbrains.kotlin.daemon.common.CompactLookups
+import org.jetbrains.kotlin.incremental.components.LookupInfo
+import org.jetbrains.kotlin.incremental.components.LookupTracker
+import org.jetbrains.kotlin.incremental.components.Position
+import org.jetbrains.kotlin.incremental.components.ScopeKind
+import java.io.ByteArrayInputStream
+import java.io.ByteArrayOutputStream
+import java.io.ObjectInputStream
+import java.io.ObjectOutputStream
+
+class CompactLookupRecorderTest : TestCase() {
+    fun testDuplicatesWithoutPositions() {
+        val recorder = CompactLookupRecorder(hasPositions = false)
+        recorder.record("a.kt", Position(1, 2), "foo", ScopeKind.PACKAGE, "x")
+        recorder.record("a.kt", Position(3, 4), "foo", ScopeKind.CLASSIFIER, "x")
+        recorder.record("a.kt", Position.NO_POSITION, "foo", ScopeKind.PACKAGE, "y")
+        recorder.record("b.kt", Position.NO_POSITION, "foo", ScopeKind.PACKAGE, "x")
+
+        assertEquals(3, recorder.size)
+        assertEquals(
+            listOf(
+                LookupInfo("a.kt", Position.NO_POSITION, "foo", ScopeKind.CLASSIFIER, "x"),
+                LookupInfo("a.kt", Position.NO_POSITION, "foo", ScopeKind.CLASSIFIER, "y"),
+                LookupInfo("b.kt", Position.NO_POSITION, "foo", ScopeKind.CLASSIFIER, "x")
+            ),
+            replay(recorder.toCompactLookups())
+        )
+    }
+
+    fun testDuplicatesWithPositions() {
+        val recorder = CompactLookupRecorder(hasPositions = true)
+        recorder.record("a.kt", Position(1, 2), "foo", ScopeKind.PACKAGE, "x")
+        recorder.record("a.kt", Position(1, 2), "foo", ScopeKind.PACKAGE, "x")
+        recorder.record("a.kt", Position(1, 2), "foo", ScopeKind.CLASSIFIER, "x")
+        recorder.record("a.kt", Position(1, 3), "foo", ScopeKind.PACKAGE, "x")
+
+        assertEquals(
+            listOf(
+                LookupInfo("a.kt", Position(1, 2), "foo", ScopeKind.PACKAGE, "x"),
+                LookupInfo("a.kt", Position(1, 2), "foo", ScopeKind.CLASSIFIER, "x"),
+                LookupInfo("a.kt", Position(1, 3), "foo", ScopeKind.PACKAGE, "x")
+            ),
+            replay(recorder.toCompactLookups())
+        )
+    }
+
+    fun testManyLookupsAreTheSameAsInSet() {
+        val recorder = CompactLookupRecorder(hasPositions = true)
+        val expected = LinkedHashSet<LookupInfo>()
+        for (i in 0 until 100_000) {
+            val lookup = LookupInfo(
+                "file${i % 97}.kt", Position(i % 13, i % 7), "scope${i % 31}", ScopeKind.values()[i % 2], "name${i % 1009}"
+            )
+            expected.add(lookup)
+            recorder.record(lookup.filePath, lookup.position, lookup.scopeFqName, lookup.scopeKind, lookup.name)
+        }
+
+        assertEquals(expected.size, recorder.size)
+        assertEquals(expected.toList(), replay(recorder.toCompactLookups()))
+    }
+
+    fun testSerializedLookups() {
+        val recorder = CompactLookupRecorder(hasPositions = true)
+        recorder.record("a.kt", Position(1, 2), "foo", ScopeKind.PACKAGE, "x")
+        recorder.record("b.kt", Position(3, 4), "foo.Bar", ScopeKind.CLASSIFIER, "y")
+        val lookups = recorder.toCompactLookups()
+
+        val bytes = ByteArrayOutputStream().also { output -> ObjectOutputStream(output).use { it.writeObject(lookups) } }.toByteArray()
+        val deserialized = ObjectInputStream(ByteArrayInputStream(bytes)).use { it.readObject() } as CompactLookups
+
+        assertEquals(2, deserialized.size)
+        assertEquals(replay(lookups), replay(deserialized))
+    }
+
+    private fun replay(lookups: CompactLookups): List<LookupInfo> {
+        val result = ArrayList<LookupInfo>()
+        lookups.replayTo(object : LookupTracker {
+            override val requiresPosition: Boolean
+                get() = lookups.hasPositions
+
+            override fun record(filePath: String, position: Position, scopeFqName: String, scopeKind: ScopeKind, name: String) {
+                result.add(LookupInfo(filePath, position, scopeFqName, scopeKind, name))
+            }
+        })
+        return result
+    }
+}
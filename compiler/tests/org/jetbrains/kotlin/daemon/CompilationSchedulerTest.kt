@@ -0,0 +1,185 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.daemon
+
+import junit.framework.TestCase
+import org.jetbrains.kotlin.daemon.CompilationScheduler.IncrementalState
+import java.util.*
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.TimeUnit
+import kotlin.concurrent.thread
+
+class CompilationSchedulerTest : TestCase() {
+    private lateinit var timer: Timer
+    private lateinit var initialState: IncrementalState
+
+    override fun setUp() {
+        super.setUp()
+        timer = Timer(true)
+        initialState = IncrementalState.current()
+        NON_INCREMENTAL.apply()
+    }
+
+    override fun tearDown() {
+        timer.cancel()
+        initialState.apply()
+        super.tearDown()
+    }
+
+    fun testCompilationsAreAdmittedWithinBudgetInArrivalOrder() {
+        val scheduler = CompilationScheduler(timer, memoryBudget = 100, newModuleEstimate = 40)
+
+        val first = Compilation(scheduler, "first").start()
+        val second = Compilation(scheduler, "second").start()
+        first.assertStarted()
+        second.assertStarted()
+
+        val third = Compilation(scheduler, "third").start()
+        scheduler.waitForQueued(1)
+        val fourth = Compilation(scheduler, "fourth").start()
+        scheduler.waitForQueued(2)
+        third.assertNotStarted()
+        fourth.assertNotStarted()
+
+        second.finish()
+        third.assertStarted()
+        fourth.assertNotStarted()
+
+        first.finish()
+        fourth.assertStarted()
+
+        third.finish()
+        fourth.finish()
+    }
+
+    fun testCompilationOverBudgetIsAdmittedAlone() {
+        val scheduler = CompilationScheduler(timer, memoryBudget = 100, newModuleEstimate = 150)
+
+        val first = Compilation(scheduler, "first").start()
+        first.assertStarted()
+
+        val second = Compilation(scheduler, "second").start()
+        scheduler.waitForQueued(1)
+        second.assertNotStarted()
+
+        first.finish()
+        second.assertStarted()
+        second.finish()
+    }
+
+    fun testCompilationsWithDifferentIncrementalStatesDontRunTogether() {
+        val scheduler = CompilationScheduler(timer, memoryBudget = 100, newModuleEstimate = 10)
+
+        val first = Compilation(scheduler, "first", INCREMENTAL_JVM).start()
+        first.assertStarted()
+        assertEquals(INCREMENTAL_JVM, first.stateOnStart)
+
+        val second = Compilation(scheduler, "second", INCREMENTAL_JS).start()
+        scheduler.waitForQueued(1)
+        second.assertNotStarted()
+
+        // compilations with the same state don't overtake the queued one
+        val third = Compilation(scheduler, "third", INCREMENTAL_JVM).start()
+        scheduler.waitForQueued(2)
+        third.assertNotStarted()
+
+        first.finish()
+        second.assertStarted()
+        assertEquals(INCREMENTAL_JS, second.stateOnStart)
+        third.assertNotStarted()
+
+        second.finish()
+        third.assertStarted()
+        assertEquals(INCREMENTAL_JVM, third.stateOnStart)
+        third.finish()
+    }
+
+    fun testDefaultIncrementalStateIsRestored() {
+        val scheduler = CompilationScheduler(timer, memoryBudget = 100, newModuleEstimate = 10)
+        assertEquals(NON_INCREMENTAL, scheduler.defaultIncrementalState)
+
+        val first = Compilation(scheduler, "first", INCREMENTAL_JVM).start()
+        val second = Compilation(scheduler, "second", INCREMENTAL_JVM).start()
+        first.assertStarted()
+        second.assertStarted()
+
+        first.finish()
+        assertEquals("The state should be kept while a compilation is running", INCREMENTAL_JVM, IncrementalState.current())
+
+        second.finish()
+        assertEquals(NON_INCREMENTAL, IncrementalState.current())
+    }
+
+    fun testFailedCompilationIsReleased() {
+        val scheduler = CompilationScheduler(timer, memoryBudget = 100, newModuleEstimate = 150)
+
+        try {
+            scheduler.withAdmission(0, "failed", INCREMENTAL_JVM) { throw IllegalStateException() }
+            fail("The exception should be rethrown")
+        } catch (e: IllegalStateException) {
+        }
+        assertEquals(NON_INCREMENTAL, IncrementalState.current())
+
+        val next = Compilation(scheduler, "next").start()
+        next.assertStarted()
+        next.finish()
+    }
+
+    private class Compilation(
+        private val scheduler: CompilationScheduler,
+        private val moduleKey: String,
+        private val incrementalState: IncrementalState = NON_INCREMENTAL
+    ) {
+        private val started = CountDownLatch(1)
+        private val finishing = CountDownLatch(1)
+        private lateinit var worker: Thread
+
+        @Volatile
+        var stateOnStart: IncrementalState? = null
+
+        fun start(): Compilation {
+            worker = thread(isDaemon = true, name = "compilation of $moduleKey") {
+                scheduler.withAdmission(0, moduleKey, incrementalState) {
+                    stateOnStart = IncrementalState.current()
+                    started.countDown()
+                    finishing.await()
+                }
+            }
+            return this
+        }
+
+        fun assertStarted() {
+            TestCase.assertTrue("Compilation of $moduleKey should be started", started.await(TIMEOUT_MS, TimeUnit.MILLISECONDS))
+        }
+
+        fun assertNotStarted() {
+            TestCase.assertFalse("Compilation of $moduleKey should be queued", started.await(SHORT_TIMEOUT_MS, TimeUnit.MILLISECONDS))
+        }
+
+        fun finish() {
+            finishing.countDown()
+            worker.join(TIMEOUT_MS)
+            TestCase.assertFalse("Compilation of $moduleKey should be finished", worker.isAlive)
+        }
+    }
+
+    private fun CompilationScheduler.waitForQueued(count: Int) {
+        val deadline = System.currentTimeMillis() + TIMEOUT_MS
+        while (!getInfo().contains(" $count queued")) {
+            assertTrue("$count compilations should be queued: ${getInfo()}", System.currentTimeMillis() < deadline)
+            Thread.sleep(10)
+        }
+    }
+
+    private companion object {
+        const val TIMEOUT_MS = 10000L
+        const val SHORT_TIMEOUT_MS = 200L
+
+        val NON_INCREMENTAL = IncrementalState(jvm = false, js = false)
+        val INCREMENTAL_JVM = IncrementalState(jvm = true, js = false)
+        val INCREMENTAL_JS = IncrementalState(jvm = false, js = true)
+    }
+}
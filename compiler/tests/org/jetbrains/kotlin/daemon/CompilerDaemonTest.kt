@@ -147,6 +147,30 @@ class CompilerDaemonTest : KotlinIntegrationTestBase() {
         }
     }
 
+    fun testHelloAppViaSocketTransport() {
+        withFlagFile(getTestName(true), ".alive") { flagFile ->
+            val daemonOptions = makeTestDaemonOptions(getTestName(true)).copy(transport = DAEMON_TRANSPORT_SOCKET)
+
+            withLogFile("kotlin-daemon-test") { logFile ->
+                val daemonJVMOptions = makeTestDaemonJvmOptions(logFile)
+                try {
+                    val jar = tmpdir.absolutePath + File.separator + "hello.jar"
+                    runDaemonCompilerTwice(flagFile, compilerId, daemonJVMOptions, daemonOptions,
+                                           "-include-runtime", File(getHelloAppBaseDir(), "hello.kt").absolutePath, "-d", jar)
+                }
+                finally {
+                    KotlinCompilerClient.shutdownCompileService(compilerId, daemonOptions)
+                }
+                Thread.sleep(100)
+                logFile.assertLogContainsSequence(
+                        LinePattern("listening on port"),
+                        LinePattern("Starting compilation with args: "),
+                        LinePattern("Starting compilation with args: "),
+                        LinePattern("Shutdown started"))
+            }
+        }
+    }
+
     fun testDaemonJvmOptionsParsing() {
         val backupJvmOptions = System.getProperty(COMPILE_DAEMON_JVM_OPTIONS_PROPERTY)
         try {
@@ -180,10 +204,11 @@ class CompilerDaemonTest : KotlinIntegrationTestBase() {
     fun testDaemonOptionsParsing() {
         val backupOptions = System.getProperty(COMPILE_DAEMON_OPTIONS_PROPERTY)
         try {
-            System.setProperty(COMPILE_DAEMON_OPTIONS_PROPERTY, "runFilesPath=abcd,autoshutdownIdleSeconds=1111")
+            System.setProperty(COMPILE_DAEMON_OPTIONS_PROPERTY, "runFilesPath=abcd,autoshutdownIdleSeconds=1111,transport=socket")
             val opts = configureDaemonOptions(DaemonOptions(shutdownDelayMilliseconds = 1))
             assertEquals("abcd", opts.runFilesPath)
             assertEquals(1111, opts.autoshutdownIdleSeconds)
+            assertEquals(DAEMON_TRANSPORT_SOCKET, opts.transport)
         }
         finally {
             restoreSystemProperty(COMPILE_DAEMON_OPTIONS_PROPERTY, backupOptions)
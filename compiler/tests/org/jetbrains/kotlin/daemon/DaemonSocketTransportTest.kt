@@ -0,0 +1,189 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.daemon
+
+import junit.framework.TestCase
+import org.jetbrains.kotlin.daemon.client.SocketTransportCompileService
+import org.jetbrains.kotlin.daemon.common.*
+import java.io.DataOutputStream
+import java.io.IOException
+import java.lang.reflect.Proxy
+import java.net.Socket
+import java.net.SocketTimeoutException
+import java.util.*
+import java.util.concurrent.atomic.AtomicInteger
+
+class DaemonSocketTransportTest : TestCase() {
+    private val compileCalls = AtomicInteger()
+
+    private val compileService = Proxy.newProxyInstance(
+        CompileService::class.java.classLoader, arrayOf(CompileService::class.java)
+    ) { _, method, args ->
+        if (method.name != "compile") throw UnsupportedOperationException(method.name)
+        compileCalls.incrementAndGet()
+        if (args[0] == FAILING_SESSION_ID) throw IllegalStateException("compilation failed", IOException("cause"))
+        CompileService.CallResult.Good(42)
+    } as CompileService
+
+    private lateinit var timer: Timer
+    private lateinit var server: DaemonSocketTransportServer
+
+    override fun setUp() {
+        super.setUp()
+        timer = Timer(true)
+        server = DaemonSocketTransportServer(compileService, timer)
+    }
+
+    override fun tearDown() {
+        server.close()
+        timer.cancel()
+        super.tearDown()
+    }
+
+    fun testCompileIsInvokedWithValidToken() {
+        connect().use { socket ->
+            val connection = DaemonSocketConnection(socket, javaClass.classLoader)
+            with(connection) {
+                writeHandshake(server.endpoint.token)
+                writeFrame(DaemonSocketProtocol.INVOKE, flush = true) {
+                    writeString("compile")
+                    writeInt(COMPILE_PARAMETER_TYPES.size)
+                    COMPILE_PARAMETER_TYPES.forEach { writeString(it) }
+                    writeInt(5)
+                    writeValue(0)
+                    writeValue(arrayOf("-version"))
+                    repeat(3) { writeValue(null) }
+                }
+
+                val result = readFrame()
+                assertEquals(DaemonSocketProtocol.RESULT, result.type)
+                assertEquals(CompileService.CallResult.Good(42), result.body.readValue())
+            }
+        }
+        assertEquals(1, compileCalls.get())
+    }
+
+    fun testMethodWithOtherParameterTypesIsRejected() {
+        connect().use { socket ->
+            with(DaemonSocketConnection(socket, javaClass.classLoader)) {
+                writeHandshake(server.endpoint.token)
+                writeFrame(DaemonSocketProtocol.INVOKE, flush = true) {
+                    writeString("compile")
+                    val parameterTypes = listOf("int", "java.lang.String[]", "java.lang.Object", "java.lang.Object", "java.lang.Object")
+                    writeInt(parameterTypes.size)
+                    parameterTypes.forEach { writeString(it) }
+                    writeInt(5)
+                    writeValue(0)
+                    writeValue(arrayOf("-version"))
+                    repeat(3) { writeValue(null) }
+                }
+            }
+            assertClosedByServer(socket)
+        }
+        assertEquals(0, compileCalls.get())
+    }
+
+    fun testExceptionOfTheMethodIsRethrownByTheClient() {
+        val servicesFacade = Proxy.newProxyInstance(
+            javaClass.classLoader, arrayOf(CompilerServicesFacadeBase::class.java)
+        ) { _, _, _ -> null } as CompilerServicesFacadeBase
+        val client = SocketTransportCompileService(compileService, server.endpoint)
+
+        try {
+            client.compile(FAILING_SESSION_ID, arrayOf(), CompilationOptions(
+                CompilerMode.NON_INCREMENTAL_COMPILER, CompileService.TargetPlatform.JVM, arrayOf(), 0, arrayOf()
+            ), servicesFacade, null)
+            fail("The exception of the daemon should be rethrown")
+        } catch (e: IllegalStateException) {
+            assertEquals("compilation failed", e.message)
+            assertEquals("cause", (e.cause as IOException).message)
+            assertTrue(e.stackTrace.isNotEmpty())
+        }
+        assertEquals(1, compileCalls.get())
+    }
+
+    fun testInvalidTokenIsRejected() {
+        connect().use { socket ->
+            with(DaemonSocketConnection(socket, javaClass.classLoader)) {
+                writeHandshake(server.endpoint.token.reversed())
+            }
+            assertClosedByServer(socket)
+        }
+        assertEquals(0, compileCalls.get())
+    }
+
+    fun testOversizedHandshakeIsRejected() {
+        connect().use { socket ->
+            with(DataOutputStream(socket.getOutputStream())) {
+                writeInt(DaemonSocketProtocol.MAX_HANDSHAKE_FRAME_SIZE + 1)
+                writeByte(DaemonSocketProtocol.HANDSHAKE.toInt())
+                write(ByteArray(DaemonSocketProtocol.MAX_HANDSHAKE_FRAME_SIZE))
+                flush()
+            }
+            assertClosedByServer(socket)
+        }
+    }
+
+    fun testOversizedFrameIsRejected() {
+        connect().use { socket ->
+            with(DaemonSocketConnection(socket, javaClass.classLoader)) {
+                writeHandshake(server.endpoint.token)
+            }
+            with(DataOutputStream(socket.getOutputStream())) {
+                writeInt(Int.MAX_VALUE)
+                writeByte(DaemonSocketProtocol.INVOKE.toInt())
+                flush()
+            }
+            assertClosedByServer(socket)
+        }
+        assertEquals(0, compileCalls.get())
+    }
+
+    fun testOversizedValueIsRejected() {
+        connect().use { socket ->
+            with(DaemonSocketConnection(socket, javaClass.classLoader)) {
+                writeHandshake(server.endpoint.token)
+                writeFrame(DaemonSocketProtocol.INVOKE, flush = true) {
+                    // the length of the method name exceeds the frame
+                    writeInt(Int.MAX_VALUE)
+                }
+            }
+            assertClosedByServer(socket)
+        }
+        assertEquals(0, compileCalls.get())
+    }
+
+    private fun connect(): Socket =
+        LoopbackNetworkInterface.clientLoopbackSocketFactory
+            .createSocket(LoopbackNetworkInterface.loopbackInetAddressName, server.endpoint.port)
+            .apply { soTimeout = 10000 }
+
+    private fun DaemonSocketConnection.writeHandshake(token: String) {
+        writeFrame(DaemonSocketProtocol.HANDSHAKE, flush = true) {
+            writeInt(DaemonSocketProtocol.VERSION)
+            writeString(token)
+        }
+    }
+
+    private fun assertClosedByServer(socket: Socket) {
+        try {
+            assertEquals(-1, socket.getInputStream().read())
+        } catch (e: SocketTimeoutException) {
+            fail("The connection should be closed by the server")
+        } catch (e: IOException) {
+            // the connection is reset, since the server hasn't read the rest of the data
+        }
+    }
+
+    private companion object {
+        const val FAILING_SESSION_ID = -42
+
+        val COMPILE_PARAMETER_TYPES = listOf(
+            "int", "[Ljava.lang.String;", CompilationOptions::class.java.name, CompilerServicesFacadeBase::class.java.name,
+            CompilationResults::class.java.name
+        )
+    }
+}
@@ -0,0 +1,109 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.jvm.compiler
+
+import org.jetbrains.kotlin.cli.jvm.compiler.CliBindingTrace
+import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment
+import org.jetbrains.kotlin.cli.jvm.compiler.TopDownAnalyzerFacadeForJVM
+import org.jetbrains.kotlin.config.JVMConfigurationKeys
+import org.jetbrains.kotlin.container.get
+import org.jetbrains.kotlin.context.ModuleContext
+import org.jetbrains.kotlin.descriptors.ClassDescriptor
+import org.jetbrains.kotlin.descriptors.DeclarationDescriptor
+import org.jetbrains.kotlin.descriptors.ModuleDescriptor
+import org.jetbrains.kotlin.name.FqName
+import org.jetbrains.kotlin.renderer.DescriptorRenderer
+import org.jetbrains.kotlin.resolve.lazy.declarations.FileBasedDeclarationProviderFactory
+import org.jetbrains.kotlin.storage.ConcurrentStorageManager
+import org.jetbrains.kotlin.storage.LockBasedStorageManager
+import org.jetbrains.kotlin.test.ConfigurationKind
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import org.jetbrains.kotlin.test.testFramework.KtUsefulTestCase
+import java.util.concurrent.CyclicBarrier
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+
+class ConcurrentResolveTest : KtUsefulTestCase() {
+    fun testConcurrentResolveMatchesSequentialResolve() {
+        val environment = KotlinTestUtils.createEnvironmentWithMockJdkAndIdeaAnnotations(myTestRootDisposable, ConfigurationKind.JDK_ONLY)
+
+        val expected = render(createModule(environment, concurrentResolve = false, expectedStorageManager = LockBasedStorageManager::class.java))
+
+        repeat(ITERATIONS) {
+            // a fresh module per iteration, so that its lazy declarations are computed by several threads at the same time
+            val module = createModule(environment, concurrentResolve = true, expectedStorageManager = ConcurrentStorageManager::class.java)
+            val executor = Executors.newFixedThreadPool(THREADS)
+            try {
+                val barrier = CyclicBarrier(THREADS)
+                val futures = (0 until THREADS).map {
+                    executor.submit<String> {
+                        barrier.await()
+                        render(module)
+                    }
+                }
+                for (future in futures) {
+                    assertEquals(expected, future.get(1, TimeUnit.MINUTES))
+                }
+            } finally {
+                executor.shutdownNow()
+            }
+        }
+    }
+
+    private fun createModule(
+        environment: KotlinCoreEnvironment,
+        concurrentResolve: Boolean,
+        expectedStorageManager: Class<*>
+    ): ModuleDescriptor {
+        val configuration = environment.configuration.copy().apply {
+            put(JVMConfigurationKeys.CONCURRENT_RESOLVE, concurrentResolve)
+        }
+        val file = KotlinTestUtils.createFile("test.kt", SOURCE, environment.project)
+        val container = TopDownAnalyzerFacadeForJVM.createContainer(
+            environment.project, listOf(file), CliBindingTrace(), configuration, environment::createPackagePartProvider,
+            ::FileBasedDeclarationProviderFactory
+        )
+        assertInstanceOf(container.get<ModuleContext>().storageManager, expectedStorageManager)
+        return container.get()
+    }
+
+    private fun render(module: ModuleDescriptor): String {
+        val result = StringBuilder()
+        fun renderScope(descriptors: Collection<DeclarationDescriptor>, indent: String) {
+            // declarations are resolved in a different order in each thread, so that the threads request each other's values
+            val rendered = descriptors.shuffled().map { it to DescriptorRenderer.FQ_NAMES_IN_TYPES.render(it) }
+            for ((descriptor, text) in rendered.sortedBy { it.second }) {
+                result.append(indent).append(text).append('\n')
+                if (descriptor is ClassDescriptor) {
+                    renderScope(descriptor.unsubstitutedMemberScope.getContributedDescriptors(), "$indent    ")
+                }
+            }
+        }
+        renderScope(module.getPackage(FqName("test")).memberScope.getContributedDescriptors(), "")
+        return result.toString()
+    }
+
+    private companion object {
+        const val CLASSES = 20
+        const val THREADS = 8
+        const val ITERATIONS = 10
+
+        // Inferred types of the classes depend on each other
+        val SOURCE = buildString {
+            appendln("package test")
+            for (i in 0 until CLASSES) {
+                val superClass = if (i > 0) "C${i - 1}()" else "Any()"
+                val next = if (i < CLASSES - 1) "C${i + 1}().f${i + 1}()" else "0"
+                val other = (i + 7) % CLASSES
+                appendln("open class C$i : $superClass {")
+                appendln("    val p$i = $next")
+                appendln("    fun f$i() = p$i + $i")
+                appendln("    fun g$i(x: C$other) = x.f$other().toString() + p$i")
+                appendln("}")
+            }
+        }
+    }
+}
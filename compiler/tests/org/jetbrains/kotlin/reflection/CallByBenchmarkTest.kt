@@ -0,0 +1,74 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.reflection
+
+import junit.framework.TestCase
+import kotlin.reflect.KParameter
+import kotlin.reflect.full.primaryConstructor
+import kotlin.reflect.jvm.javaConstructor
+import kotlin.system.measureNanoTime
+
+class CallByBenchmarkTest : TestCase() {
+    class Person(
+        val name: String,
+        val age: Int = 0,
+        val email: String? = null,
+        val tags: List<String> = emptyList(),
+        val score: Double = 1.0,
+        val active: Boolean = true
+    )
+
+    /**
+     * Run with -Dkotlin.reflect.callBy.benchmark=true
+     */
+    fun testCallByBenchmark() {
+        if (System.getProperty("kotlin.reflect.callBy.benchmark") != "true") return
+
+        val constructor = Person::class.primaryConstructor!!
+        val parameters = constructor.parameters
+        val name = parameters.single { it.name == "name" }
+        val age = parameters.single { it.name == "age" }
+        val email = parameters.single { it.name == "email" }
+
+        // a JSON mapper passes different subsets of the parameters, depending on the fields present in the input
+        val argumentSets: List<Map<KParameter, Any?>> = listOf(
+            mapOf(name to "a"),
+            mapOf(name to "b", age to 42),
+            mapOf(name to "c", email to "c@example.com"),
+            parameters.associate { it to argumentOf(it) }
+        )
+        val allArguments = parameters.map(::argumentOf).toTypedArray()
+        val javaConstructor = constructor.javaConstructor!!
+
+        val iterations = 1_000_000
+        repeat(3) { round ->
+            val callByTime = measureNanoTime {
+                for (i in 0 until iterations) constructor.callBy(argumentSets[i % argumentSets.size])
+            }
+            val callTime = measureNanoTime {
+                for (i in 0 until iterations) constructor.call(*allArguments)
+            }
+            val javaTime = measureNanoTime {
+                for (i in 0 until iterations) javaConstructor.newInstance(*allArguments)
+            }
+            println(
+                "round $round, $iterations calls: callBy ${callByTime / 1_000_000} ms, call ${callTime / 1_000_000} ms, " +
+                        "Constructor.newInstance ${javaTime / 1_000_000} ms"
+            )
+        }
+    }
+
+    private fun argumentOf(parameter: KParameter): Any? =
+        when (parameter.name) {
+            "name" -> "d"
+            "age" -> 1
+            "email" -> null
+            "tags" -> listOf("x")
+            "score" -> 2.0
+            "active" -> false
+            else -> error(parameter)
+        }
+}
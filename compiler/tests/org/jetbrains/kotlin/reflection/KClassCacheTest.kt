@@ -0,0 +1,176 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.reflection
+
+import junit.framework.TestCase
+import org.jetbrains.org.objectweb.asm.ClassWriter
+import org.jetbrains.org.objectweb.asm.Opcodes
+import java.lang.ref.WeakReference
+import java.util.concurrent.CyclicBarrier
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import kotlin.reflect.KClass
+import kotlin.system.measureNanoTime
+
+// Checks the caches of kotlin-reflect in kClassCache.kt and moduleByClassLoader.kt, whose contents are read via Java reflection
+class KClassCacheTest : TestCase() {
+    fun testConcurrentInsertionsAreNotLost() {
+        val loaders = List(4) { GeneratedClassLoader() }
+        val classes = loaders.flatMap { loader -> (0 until 100).map { loader.define("test.Concurrent$it") } }
+
+        val threads = 8
+        val executor = Executors.newFixedThreadPool(threads)
+        val results = try {
+            val barrier = CyclicBarrier(threads)
+            (0 until threads).map {
+                executor.submit<List<KClass<*>>> {
+                    barrier.await()
+                    // all threads go through the classes in the same order, so that insertions of the same names race
+                    classes.map { it.kotlin }
+                }
+            }.map { it.get(1, TimeUnit.MINUTES) }
+        } finally {
+            executor.shutdownNow()
+        }
+
+        for ((index, jClass) in classes.withIndex()) {
+            val kClass = jClass.kotlin
+            assertEquals(jClass, kClass.java)
+            for (result in results) {
+                assertSame("All threads should get the cached KClass of ${jClass.name}", kClass, result[index])
+            }
+        }
+    }
+
+    fun testCollectedClassesArePruned() {
+        val names = (0 until 10).map { "test.Pruned$it" }
+        createCachedClasses(names)
+
+        waitUntil("Names of collected classes should be removed") {
+            // entries of collected classes are removed on insertions
+            GeneratedClassLoader().define("test.Trigger").kotlin
+            names.none { it in kClassCache() }
+        }
+    }
+
+    fun testSameClassNameInSeveralClassLoaders() {
+        val first = GeneratedClassLoader().define("test.Shared")
+        val second = GeneratedClassLoader().define("test.Shared")
+        val firstKClass = first.kotlin
+        val secondKClass = second.kotlin
+        assertNotSame(firstKClass, secondKClass)
+        createCachedClasses(listOf("test.Shared"))
+        assertEquals(3, (kClassCache()["test.Shared"] as Array<*>).size)
+
+        waitUntil("The collected class should be removed") {
+            GeneratedClassLoader().define("test.Trigger").kotlin
+            (kClassCache()["test.Shared"] as Array<*>).size == 2
+        }
+        assertSame(firstKClass, first.kotlin)
+        assertSame(secondKClass, second.kotlin)
+    }
+
+    fun testModulesOfCollectedClassLoadersArePruned() {
+        val loader = WeakReference(createModule("test.Module"))
+        // the key references the class loader weakly
+        val key = moduleByClassLoader().keys.single { it.toString() == loader.get().toString() }
+
+        val triggerLoaders = ArrayList<ClassLoader>()
+        waitUntil("The module of the collected class loader should be removed") {
+            // entries of collected modules are removed on module creation
+            triggerLoaders.add(createModule("test.Trigger"))
+            moduleByClassLoader().keys.none { it === key }
+        }
+        assertNull(loader.get())
+    }
+
+    /**
+     * Run with -Dkotlin.reflect.kClassCache.benchmark=true
+     */
+    fun testKClassCacheBenchmark() {
+        if (System.getProperty("kotlin.reflect.kClassCache.benchmark") != "true") return
+
+        val count = 10_000
+        val loader = GeneratedClassLoader()
+        val classes = (0 until count).map { loader.define("test.Benchmark$it") }
+
+        val createTime = measureNanoTime {
+            for (jClass in classes) jClass.kotlin
+        }
+        val threads = Runtime.getRuntime().availableProcessors()
+        val executor = Executors.newFixedThreadPool(threads)
+        try {
+            repeat(3) { round ->
+                val readTime = measureNanoTime {
+                    for (i in 0 until 100) {
+                        for (jClass in classes) jClass.kotlin
+                    }
+                }
+                val barrier = CyclicBarrier(threads)
+                val concurrentReadTime = measureNanoTime {
+                    (0 until threads).map {
+                        executor.submit {
+                            barrier.await()
+                            for (i in 0 until 100) {
+                                for (jClass in classes) jClass.kotlin
+                            }
+                        }
+                    }.forEach { it.get() }
+                }
+                println(
+                    "round $round, $count classes: create ${createTime / 1_000_000} ms, " +
+                            "100 reads ${readTime / 1_000_000} ms, 100 reads in $threads threads ${concurrentReadTime / 1_000_000} ms"
+                )
+            }
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+
+    // the class loader isn't referenced strongly afterwards, so that it can be collected
+    private fun createCachedClasses(names: List<String>) {
+        val loader = GeneratedClassLoader()
+        for (name in names) {
+            assertSame(loader.define(name).kotlin, loader.loadClass(name).kotlin)
+        }
+        assertTrue(names.all { it in kClassCache() })
+    }
+
+    private fun createModule(name: String): ClassLoader {
+        val loader = GeneratedClassLoader()
+        loader.define(name).kotlin.members
+        return loader
+    }
+
+    private fun waitUntil(message: String, condition: () -> Boolean) {
+        for (attempt in 0 until 100) {
+            if (condition()) return
+            System.gc()
+            Thread.sleep(10)
+        }
+        fail(message)
+    }
+
+    @Suppress("UNCHECKED_CAST")
+    private fun kClassCache(): Map<String, Any> =
+        Class.forName("kotlin.reflect.jvm.internal.KClassCacheKt").getDeclaredField("K_CLASS_CACHE")
+            .apply { isAccessible = true }.get(null) as Map<String, Any>
+
+    @Suppress("UNCHECKED_CAST")
+    private fun moduleByClassLoader(): Map<Any, Any> =
+        Class.forName("kotlin.reflect.jvm.internal.ModuleByClassLoaderKt").getDeclaredField("moduleByClassLoader")
+            .apply { isAccessible = true }.get(null) as Map<Any, Any>
+
+    private class GeneratedClassLoader : ClassLoader(KClassCacheTest::class.java.classLoader) {
+        fun define(name: String): Class<*> {
+            val writer = ClassWriter(0)
+            writer.visit(Opcodes.V1_6, Opcodes.ACC_PUBLIC, name.replace('.', '/'), null, "java/lang/Object", null)
+            writer.visitEnd()
+            val bytes = writer.toByteArray()
+            return defineClass(name, bytes, 0, bytes.size)
+        }
+    }
+}
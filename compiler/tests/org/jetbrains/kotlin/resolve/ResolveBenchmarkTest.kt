@@ -0,0 +1,314 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.resolve
+
+import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment
+import org.jetbrains.kotlin.config.*
+import org.jetbrains.kotlin.descriptors.CallableDescriptor
+import org.jetbrains.kotlin.descriptors.ClassDescriptor
+import org.jetbrains.kotlin.descriptors.ModuleDescriptor
+import org.jetbrains.kotlin.descriptors.resolveClassByFqName
+import org.jetbrains.kotlin.incremental.components.NoLookupLocation
+import org.jetbrains.kotlin.name.FqName
+import org.jetbrains.kotlin.name.Name
+import org.jetbrains.kotlin.resolve.lazy.JvmResolveUtil
+import org.jetbrains.kotlin.test.ConfigurationKind
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import org.jetbrains.kotlin.test.KotlinTestWithEnvironment
+import org.jetbrains.kotlin.types.KotlinType
+import org.jetbrains.kotlin.types.TypeIntersector
+import org.jetbrains.kotlin.types.checker.NewKotlinTypeChecker
+import java.lang.management.ManagementFactory
+import kotlin.system.measureNanoTime
+
+/**
+ * Benchmarks of the frontend components which are hot during resolve, each run in isolation on generated inputs:
+ * a deep generic class hierarchy with overridden members, a large builder lambda with `when`, and a big set of extensions.
+ *
+ * Run with -Dkotlin.resolve.benchmark=true, the number of iterations can be changed with
+ * -Dkotlin.resolve.benchmark.iterations and -Dkotlin.resolve.benchmark.warmup.
+ */
+class ResolveBenchmarkTest : KotlinTestWithEnvironment() {
+    override fun createEnvironment(): KotlinCoreEnvironment = createEnvironmentWithMockJdk(ConfigurationKind.ALL)
+
+    fun testBenchmark() {
+        if (System.getProperty("kotlin.resolve.benchmark") != "true") return
+
+        runBenchmarks(
+            warmup = Integer.getInteger("kotlin.resolve.benchmark.warmup", 5),
+            iterations = Integer.getInteger("kotlin.resolve.benchmark.iterations", 10)
+        )
+    }
+
+    private fun runBenchmarks(warmup: Int, iterations: Int) {
+        val files = listOf(
+            KotlinTestUtils.createFile("hierarchy.kt", generateHierarchy(), project),
+            KotlinTestUtils.createFile("builders.kt", generateBuilders(), project),
+            KotlinTestUtils.createFile("extensions.kt", generateExtensions(), project)
+        )
+        val module = JvmResolveUtil.analyzeAndCheckForErrors(files, environment).moduleDescriptor
+
+        val subtypes = (0..DEPTH).map { module.functionReturnType("sub$it") }
+        val supertypes = (0..DEPTH).map { module.functionReturnType("sup$it") }
+
+        benchmark("subtyping (NewKotlinTypeChecker)", warmup, iterations) {
+            for (i in 0..DEPTH) {
+                for (j in 0..DEPTH) {
+                    val isSubtype = NewKotlinTypeChecker.isSubtypeOf(subtypes[i], supertypes[j])
+                    if (isSubtype != (j <= i)) fail("Wrong subtyping result for ${subtypes[i]} and ${supertypes[j]}")
+                }
+            }
+            (DEPTH + 1) * (DEPTH + 1)
+        }
+
+        benchmark("intersection (TypeIntersector)", warmup, iterations) {
+            for (i in 0..DEPTH) {
+                for (j in 0..DEPTH) {
+                    val intersection = TypeIntersector.intersectTypes(listOf(subtypes[i], supertypes[j]))
+                    if (j <= i && (intersection == null || !NewKotlinTypeChecker.equalTypes(intersection, subtypes[i]))) {
+                        fail("Wrong intersection of ${subtypes[i]} and ${supertypes[j]}: $intersection")
+                    }
+                }
+            }
+            (DEPTH + 1) * (DEPTH + 1)
+        }
+
+        val overrides = (1..DEPTH).flatMap { findOverrides(module.benchClass("Deep$it")) }
+        benchmark("overridability (OverridingUtil)", warmup, iterations) {
+            for ((superDescriptor, subDescriptor, subClass) in overrides) {
+                val result = OverridingUtil.DEFAULT.isOverridableBy(superDescriptor, subDescriptor, subClass).result
+                if (result != OverridingUtil.OverrideCompatibilityInfo.Result.OVERRIDABLE) fail("$subDescriptor doesn't override $superDescriptor")
+            }
+            overrides.size
+        }
+
+        benchmark("cold deserialized scope lookups (DeserializedMemberScope)", warmup, iterations, {
+            JvmResolveUtil.analyze(environment).moduleDescriptor
+        }) { emptyModule ->
+            lookupInLibraryPackages(emptyModule)
+        }
+
+        benchmark("cold deserialized class member lookups (DeserializedMemberScope)", warmup, iterations, {
+            JvmResolveUtil.analyze(environment).moduleDescriptor
+        }) { emptyModule ->
+            lookupInLibraryClasses(emptyModule)
+        }
+
+        val warmModule = JvmResolveUtil.analyze(environment).moduleDescriptor
+        lookupInLibraryPackages(warmModule)
+        benchmark("warm deserialized scope lookups (DeserializedMemberScope)", warmup, iterations) {
+            lookupInLibraryPackages(warmModule)
+        }
+
+        benchmark("resolve with old inference", warmup, iterations) {
+            JvmResolveUtil.analyze(files, environment, configurationWithInference(LanguageFeature.State.DISABLED))
+            files.size
+        }
+
+        benchmark("resolve with new inference (NewConstraintSystemImpl)", warmup, iterations) {
+            JvmResolveUtil.analyze(files, environment, configurationWithInference(LanguageFeature.State.ENABLED))
+            files.size
+        }
+    }
+
+    private fun configurationWithInference(state: LanguageFeature.State): CompilerConfiguration =
+        environment.configuration.copy().apply {
+            languageVersionSettings = LanguageVersionSettingsImpl(
+                LanguageVersion.LATEST_STABLE, ApiVersion.LATEST_STABLE,
+                specificFeatures = mapOf(LanguageFeature.NewInference to state)
+            )
+        }
+
+    private fun lookupInLibraryPackages(module: ModuleDescriptor): Int {
+        var lookups = 0
+        for (packageName in LIBRARY_PACKAGES) {
+            val scope = module.getPackage(FqName(packageName)).memberScope
+            for (name in LIBRARY_NAMES) {
+                scope.getContributedFunctions(name, NoLookupLocation.FROM_TEST)
+                scope.getContributedVariables(name, NoLookupLocation.FROM_TEST)
+                scope.getContributedClassifier(name, NoLookupLocation.FROM_TEST)
+                lookups += 3
+            }
+        }
+        return lookups
+    }
+
+    // looks up a single member in each class, as the resolver usually does for classes which are only used as types
+    private fun lookupInLibraryClasses(module: ModuleDescriptor): Int {
+        for (className in LIBRARY_CLASSES) {
+            val classDescriptor = module.resolveClassByFqName(FqName(className), NoLookupLocation.FROM_TEST)
+                ?: throw AssertionError("Class not found: $className")
+            classDescriptor.unsubstitutedMemberScope.getContributedFunctions(TO_STRING, NoLookupLocation.FROM_TEST)
+        }
+        return LIBRARY_CLASSES.size
+    }
+
+    private data class OverridePair(val superDescriptor: CallableDescriptor, val subDescriptor: CallableDescriptor, val subClass: ClassDescriptor)
+
+    private fun findOverrides(classDescriptor: ClassDescriptor): List<OverridePair> {
+        val result = ArrayList<OverridePair>()
+        for (k in 0 until FUNCTIONS) {
+            val name = Name.identifier("f$k")
+            for (function in classDescriptor.unsubstitutedMemberScope.getContributedFunctions(name, NoLookupLocation.FROM_TEST)) {
+                for (supertype in classDescriptor.typeConstructor.supertypes) {
+                    for (superFunction in supertype.memberScope.getContributedFunctions(name, NoLookupLocation.FROM_TEST)) {
+                        result.add(OverridePair(superFunction, function, classDescriptor))
+                    }
+                }
+            }
+        }
+        return result
+    }
+
+    private fun ModuleDescriptor.functionReturnType(name: String): KotlinType =
+        getPackage(BENCH_PACKAGE).memberScope.getContributedFunctions(Name.identifier(name), NoLookupLocation.FROM_TEST).single().returnType!!
+
+    private fun ModuleDescriptor.benchClass(name: String): ClassDescriptor =
+        getPackage(BENCH_PACKAGE).memberScope.getContributedClassifier(Name.identifier(name), NoLookupLocation.FROM_TEST) as ClassDescriptor
+
+    private fun benchmark(name: String, warmup: Int, iterations: Int, operation: () -> Int) {
+        benchmark(name, warmup, iterations, {}) { operation() }
+    }
+
+    // 'operation' returns the number of operations it has performed, 'setup' is not measured
+    private fun <S> benchmark(name: String, warmup: Int, iterations: Int, setup: () -> S, operation: (S) -> Int) {
+        repeat(warmup) { operation(setup()) }
+
+        var operations = 0L
+        var time = 0L
+        var allocated = 0L
+        repeat(iterations) {
+            val state = setup()
+            val allocatedBefore = allocatedBytes()
+            time += measureNanoTime { operations += operation(state) }
+            allocated += allocatedBytes() - allocatedBefore
+        }
+
+        val seconds = time / 1e9
+        val allocation =
+            if (isAllocationMeasured) "%.1f Mb/s allocated, %d bytes/op".format(allocated / 1e6 / seconds, allocated / operations)
+            else "allocation rate is not available"
+        println("%s: %.1f ops/s, %s".format(name, operations / seconds, allocation))
+    }
+
+    private val threadMXBean = ManagementFactory.getThreadMXBean() as? com.sun.management.ThreadMXBean
+
+    private val isAllocationMeasured: Boolean
+        get() = threadMXBean != null && threadMXBean.isThreadAllocatedMemorySupported && threadMXBean.isThreadAllocatedMemoryEnabled
+
+    private fun allocatedBytes(): Long =
+        if (isAllocationMeasured) threadMXBean!!.getThreadAllocatedBytes(Thread.currentThread().id) else 0
+
+    private fun generateHierarchy(): String = buildString {
+        appendln("package bench")
+        appendln()
+        appendln("interface I0<T>")
+        for (i in 1..DEPTH) {
+            appendln("interface I$i<T> : I${i - 1}<T>")
+        }
+        appendln()
+        appendln("open class Deep0<T> : I0<T> {")
+        for (k in 0 until FUNCTIONS) {
+            appendln("    open fun f$k(x: T, y: List<T>): Map<String, T> = emptyMap()")
+        }
+        appendln("}")
+        for (i in 1..DEPTH) {
+            appendln("open class Deep$i<T> : Deep${i - 1}<T>(), I$i<T> {")
+            for (k in 0 until FUNCTIONS) {
+                if ((i + k) % 3 == 0) {
+                    appendln("    override fun f$k(x: T, y: List<T>): Map<String, T> = super.f$k(x, y)")
+                }
+            }
+            appendln("}")
+        }
+        appendln()
+        for (i in 0..DEPTH) {
+            appendln("fun sub$i(): Deep$i<List<Map<String, Int>>> = Deep$i()")
+            appendln("fun sup$i(): I$i<List<Map<String, Int>>> = Deep$i()")
+        }
+    }
+
+    private fun generateBuilders(): String = buildString {
+        appendln("package bench")
+        appendln()
+        appendln("class Builder<T> {")
+        appendln("    private val items = ArrayList<T>()")
+        appendln("    fun add(item: T) { items.add(item) }")
+        appendln("    fun build(): List<T> = items")
+        appendln("}")
+        appendln()
+        appendln("fun <T> build(block: Builder<T>.() -> Unit): List<T> = Builder<T>().apply(block).build()")
+        appendln()
+        appendln("fun builderWithWhen(values: List<Any>): List<I0<String>> = build {")
+        appendln("    for (value in values) {")
+        appendln("        when (value) {")
+        for (b in 0 until WHEN_BRANCHES) {
+            appendln("            $b -> add(Deep${b % (DEPTH + 1)}())")
+        }
+        appendln("            else -> add(Deep0())")
+        appendln("        }")
+        appendln("    }")
+        appendln("}")
+        appendln()
+        appendln("fun commonSupertype(i: Int) = when (i) {")
+        for (b in 0 until DEPTH) {
+            appendln("    $b -> Deep$b<String>()")
+        }
+        appendln("    else -> Deep$DEPTH<String>()")
+        appendln("}")
+        appendln()
+        for (i in 0..DEPTH) {
+            appendln("fun lambdas$i(values: List<Int>) = values.map { sub$i() }")
+            appendln("    .filter { it.f${i % FUNCTIONS}(emptyList(), emptyList()).isEmpty() }")
+            appendln("    .flatMap { listOf(it, sub0()) }")
+            appendln("    .groupBy { it.toString() }")
+        }
+    }
+
+    private fun generateExtensions(): String = buildString {
+        appendln("package bench")
+        appendln()
+        for (k in 0 until EXTENSIONS) {
+            appendln("fun <T : Comparable<T>> Iterable<T>.ext$k(): T? = firstOrNull()")
+            appendln("fun <T : Comparable<T>> List<T>.ext$k(): T? = firstOrNull()")
+            appendln("fun <T> I${k % (DEPTH + 1)}<T>.ext$k(): T? = null")
+        }
+        appendln()
+        for (k in 0 until EXTENSIONS) {
+            appendln("fun useExt$k(strings: List<String>, deep: Deep$DEPTH<String>): String? = strings.ext$k() ?: deep.ext$k()")
+        }
+    }
+
+    private companion object {
+        const val DEPTH = 40
+        const val FUNCTIONS = 10
+        const val WHEN_BRANCHES = 200
+        const val EXTENSIONS = 300
+
+        val BENCH_PACKAGE = FqName("bench")
+
+        val LIBRARY_PACKAGES = listOf("kotlin", "kotlin.collections", "kotlin.sequences", "kotlin.text")
+
+        val LIBRARY_CLASSES = listOf(
+            "kotlin.String", "kotlin.Int", "kotlin.Long", "kotlin.Array", "kotlin.IntArray", "kotlin.CharSequence", "kotlin.Enum",
+            "kotlin.Pair", "kotlin.Triple", "kotlin.Result", "kotlin.Lazy", "kotlin.KotlinVersion",
+            "kotlin.collections.Iterable", "kotlin.collections.Collection", "kotlin.collections.List", "kotlin.collections.Set",
+            "kotlin.collections.Map", "kotlin.collections.MutableList", "kotlin.collections.MutableMap",
+            "kotlin.collections.AbstractList", "kotlin.collections.AbstractMap", "kotlin.collections.IndexedValue",
+            "kotlin.sequences.Sequence", "kotlin.text.Regex", "kotlin.text.MatchResult", "kotlin.text.MatchGroup",
+            "kotlin.ranges.IntRange", "kotlin.ranges.CharRange", "kotlin.ranges.IntProgression", "kotlin.ranges.ClosedRange"
+        )
+
+        val TO_STRING = Name.identifier("toString")
+
+        val LIBRARY_NAMES = listOf(
+            "map", "filter", "first", "last", "toList", "toSet", "sorted", "joinToString", "forEach", "any", "all", "count",
+            "sumBy", "groupBy", "associate", "zip", "flatMap", "reversed", "take", "drop", "listOf", "mutableListOf", "emptyList",
+            "setOf", "mapOf", "let", "apply", "also", "run", "with", "lazy", "require", "check", "error", "repeat", "to",
+            "isEmpty", "indices", "lastIndex", "size", "List", "Map", "Set", "Pair", "Triple", "Sequence", "Regex"
+        ).map(Name::identifier) + (0 until 50).map { Name.identifier("missing$it") }
+    }
+}
@@ -0,0 +1,221 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.storage
+
+import java.util.concurrent.CountDownLatch
+import java.util.concurrent.CyclicBarrier
+import java.util.concurrent.Executors
+import java.util.concurrent.TimeUnit
+import java.util.concurrent.atomic.AtomicInteger
+import kotlin.system.measureNanoTime
+
+class ConcurrentStorageManagerTest : StorageManagerTest() {
+    override fun createStorageManager(exceptionHandlingStrategy: LockBasedStorageManager.ExceptionHandlingStrategy): StorageManager =
+        ConcurrentStorageManager("ConcurrentStorageManagerTest", exceptionHandlingStrategy)
+
+    fun testLazyValueComputedOnceUnderContention() {
+        val storageManager = createStorageManager(LockBasedStorageManager.ExceptionHandlingStrategy.THROW)
+        val counter = AtomicInteger()
+        val value = storageManager.createLazyValue {
+            counter.incrementAndGet()
+            Thread.sleep(10)
+            "ok"
+        }
+
+        val results = runConcurrently(THREADS) { value() }
+
+        assertEquals(1, counter.get())
+        assertTrue(results.all { it == "ok" })
+    }
+
+    fun testMemoizedFunctionComputedOnceUnderContention() {
+        val storageManager = createStorageManager(LockBasedStorageManager.ExceptionHandlingStrategy.THROW)
+        val counter = AtomicInteger()
+        val function = storageManager.createMemoizedFunction<Int, String> {
+            counter.incrementAndGet()
+            Thread.sleep(1)
+            "v$it"
+        }
+
+        runConcurrently(THREADS) { (0 until 10).map { function(it) } }
+
+        assertEquals(10, counter.get())
+        assertEquals("v5", function(5))
+    }
+
+    fun testCrossThreadCycleIsResolvedAsInSingleThread() {
+        val storageManager = createStorageManager(LockBasedStorageManager.ExceptionHandlingStrategy.THROW)
+        val bothStarted = CountDownLatch(2)
+
+        class Values {
+            val a: NotNullLazyValue<String> = storageManager.createRecursionTolerantLazyValue({
+                bothStarted.countDown()
+                bothStarted.await()
+                "a" + b()
+            }, "<a>")
+
+            val b: NotNullLazyValue<String> = storageManager.createRecursionTolerantLazyValue({
+                bothStarted.countDown()
+                bothStarted.await()
+                "b" + a()
+            }, "<b>")
+        }
+
+        val values = Values()
+        val results = runConcurrently(2) { threadIndex -> if (threadIndex == 0) values.a() else values.b() }
+
+        // The thread detecting the cycle computes the other value itself, and sees the recursive call of its own value
+        assertTrue(results.toString(), results == listOf("ab<a>", "b<a>") || results == listOf("a<b>", "ba<b>"))
+    }
+
+    fun testPostComputeIsCalledOnceWhenComputationIsTakenOver() {
+        val storageManager = createStorageManager(LockBasedStorageManager.ExceptionHandlingStrategy.THROW)
+        val bothStarted = CountDownLatch(2)
+        val computed = AtomicInteger()
+        val postComputed = AtomicInteger()
+
+        class Values {
+            val a: NotNullLazyValue<String> = storageManager.createLazyValueWithPostCompute({
+                computed.incrementAndGet()
+                bothStarted.countDown()
+                bothStarted.await()
+                "a" + b()
+            }, { "<a>" }, { postComputed.incrementAndGet() })
+
+            val b: NotNullLazyValue<String> = storageManager.createLazyValueWithPostCompute({
+                computed.incrementAndGet()
+                bothStarted.countDown()
+                bothStarted.await()
+                "b" + a()
+            }, { "<b>" }, { postComputed.incrementAndGet() })
+        }
+
+        val values = Values()
+        runConcurrently(2) { threadIndex -> if (threadIndex == 0) values.a() else values.b() }
+
+        // The value taken over is computed by both threads, but only the published result is post-computed
+        assertEquals(3, computed.get())
+        assertEquals(2, postComputed.get())
+    }
+
+    fun testWaitingInsideComputeDoesNotBlockComputations() {
+        val storageManager = createStorageManager(LockBasedStorageManager.ExceptionHandlingStrategy.THROW)
+        val computationStarted = CountDownLatch(1)
+        val lockTaken = CountDownLatch(1)
+        val value = storageManager.createLazyValue {
+            computationStarted.countDown()
+            lockTaken.await()
+            storageManager.compute { "ok" }
+        }
+
+        val results = runConcurrently(2) { threadIndex ->
+            if (threadIndex == 0) {
+                value()
+            } else {
+                computationStarted.await()
+                storageManager.compute {
+                    lockTaken.countDown()
+                    value()
+                }
+            }
+        }
+
+        assertEquals(listOf("ok", "ok"), results)
+    }
+
+    fun testMemoizedFunctionCrossThreadCycle() {
+        val storageManager = createStorageManager(LockBasedStorageManager.ExceptionHandlingStrategy.THROW)
+        val bothStarted = CountDownLatch(2)
+        val counter = AtomicInteger()
+        lateinit var function: MemoizedFunctionToNotNull<Int, String>
+        function = storageManager.createMemoizedFunction { key ->
+            counter.incrementAndGet()
+            if (bothStarted.count > 0) {
+                bothStarted.countDown()
+                bothStarted.await()
+                "$key" + function(1 - key)
+            } else {
+                "$key"
+            }
+        }
+
+        val results = runConcurrently(2) { threadIndex -> function(threadIndex) }
+
+        // The thread detecting the cycle computes the other value itself, the result of the other thread is discarded
+        assertTrue(results.toString(), results == listOf("01", "1") || results == listOf("0", "10"))
+        assertEquals(3, counter.get())
+    }
+
+    fun testComputeIsMutuallyExclusive() {
+        val storageManager = createStorageManager(LockBasedStorageManager.ExceptionHandlingStrategy.THROW)
+        val inside = AtomicInteger()
+        val maxInside = AtomicInteger()
+
+        runConcurrently(THREADS) {
+            repeat(100) {
+                storageManager.compute {
+                    maxInside.accumulate(inside.incrementAndGet())
+                    Thread.yield()
+                    inside.decrementAndGet()
+                }
+            }
+        }
+
+        assertEquals(1, maxInside.get())
+    }
+
+    /**
+     * Run with -Dkotlin.storage.benchmark=true
+     */
+    fun testContentionBenchmark() {
+        if (System.getProperty("kotlin.storage.benchmark") != "true") return
+
+        val keys = 100_000
+        val threads = Runtime.getRuntime().availableProcessors()
+        for (storageManager in listOf(LockBasedStorageManager("benchmark"), ConcurrentStorageManager("benchmark"))) {
+            val function = storageManager.createMemoizedFunction<Int, Int> { key ->
+                // imitates resolve work: a bit of computation and some nested lazy values
+                storageManager.createLazyValue { (0 until 100).sumBy { it * key } }()
+            }
+            val lazyValues = (0 until keys).map { key -> storageManager.createLazyValue { function(key / 2) } }
+
+            val computeTime = measureNanoTime {
+                runConcurrently(threads) { thread -> (0 until keys).forEach { lazyValues[(it + thread * keys / threads) % keys]() } }
+            }
+            val readTime = measureNanoTime {
+                runConcurrently(threads) { (0 until keys).forEach { lazyValues[it]() } }
+            }
+            println("${storageManager::class.java.simpleName}, $threads threads: compute ${computeTime / 1_000_000} ms, read ${readTime / 1_000_000} ms")
+        }
+    }
+
+    private fun <T> runConcurrently(threads: Int, action: (Int) -> T): List<T> {
+        val executor = Executors.newFixedThreadPool(threads)
+        try {
+            val barrier = CyclicBarrier(threads)
+            val futures = (0 until threads).map { threadIndex ->
+                executor.submit<T> {
+                    barrier.await()
+                    action(threadIndex)
+                }
+            }
+            return futures.map { it.get(1, TimeUnit.MINUTES) }
+        } finally {
+            executor.shutdownNow()
+        }
+    }
+
+    private fun AtomicInteger.accumulate(value: Int) {
+        while (true) {
+            val current = get()
+            if (value <= current || compareAndSet(current, value)) return
+        }
+    }
+
+    private companion object {
+        const val THREADS = 8
+    }
+}
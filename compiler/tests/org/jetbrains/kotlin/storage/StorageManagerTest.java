@@ -34,7 +34,11 @@ public class StorageManagerTest extends TestCase {
     @Override
     public void setUp() throws Exception {
         super.setUp();
-        m = new LockBasedStorageManager("StorageManagerTest");
+        m = createStorageManager(LockBasedStorageManager.ExceptionHandlingStrategy.THROW);
+    }
+
+    protected StorageManager createStorageManager(LockBasedStorageManager.ExceptionHandlingStrategy exceptionHandlingStrategy) {
+        return LockBasedStorageManager.createWithExceptionHandling("StorageManagerTest", exceptionHandlingStrategy);
     }
 
     public static <T> void doTestComputesOnce(Function0<T> v, T expected, Counter counter) throws Exception {
@@ -416,7 +420,7 @@ public class StorageManagerTest extends TestCase {
     public void testExceptionHandlingStrategyForLazyValues() throws Exception {
         class RethrownException extends RuntimeException {}
 
-        LockBasedStorageManager m = LockBasedStorageManager.createWithExceptionHandling("StorageManagerTest", throwable -> {
+        StorageManager m = createStorageManager(throwable -> {
             throw new RethrownException();
         });
         try {
@@ -432,7 +436,7 @@ public class StorageManagerTest extends TestCase {
     public void testExceptionHandlingStrategyForMemoizedFunctions() throws Exception {
         class RethrownException extends RuntimeException {}
 
-        LockBasedStorageManager m = LockBasedStorageManager.createWithExceptionHandling("StorageManagerTest", throwable -> {
+        StorageManager m = createStorageManager(throwable -> {
             throw new RethrownException();
         });
         try {
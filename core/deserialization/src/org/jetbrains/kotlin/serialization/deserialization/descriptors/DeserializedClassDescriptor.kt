@@ -202,7 +202,8 @@ class DeserializedClassDescriptor(
 
     private inner class DeserializedClassMemberScope : DeserializedMemberScope(
         c, classProto.functionList, classProto.propertyList, classProto.typeAliasList,
-        classProto.nestedClassNameList.map(c.nameResolver::getName).let { { it } } // workaround KT-13454
+        classProto.nestedClassNameList.map(c.nameResolver::getName).let { { it } }, // workaround KT-13454
+        packProtos = false // the protos are retained by classProto anyway
     ) {
         private val classDescriptor: DeserializedClassDescriptor get() = this@DeserializedClassDescriptor
 
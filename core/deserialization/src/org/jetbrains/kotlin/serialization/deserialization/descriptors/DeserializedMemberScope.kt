@@ -21,7 +21,6 @@ import org.jetbrains.kotlin.incremental.components.LookupLocation
 import org.jetbrains.kotlin.metadata.ProtoBuf
 import org.jetbrains.kotlin.name.ClassId
 import org.jetbrains.kotlin.name.Name
-import org.jetbrains.kotlin.protobuf.AbstractMessageLite
 import org.jetbrains.kotlin.protobuf.MessageLite
 import org.jetbrains.kotlin.protobuf.Parser
 import org.jetbrains.kotlin.resolve.MemberComparator
@@ -37,30 +36,29 @@ import java.io.ByteArrayInputStream
 import java.io.ByteArrayOutputStream
 import java.util.*
 
+/**
+ * @param packProtos if true, the protos of members are kept serialized until they're looked up, so that the protos of the members
+ *   which are never looked up don't take much memory. It makes sense when the parsed protos are not retained by the container anyway,
+ *   otherwise the protos are just indexed by name.
+ */
 abstract class DeserializedMemberScope protected constructor(
     protected val c: DeserializationContext,
     functionList: Collection<ProtoBuf.Function>,
     propertyList: Collection<ProtoBuf.Property>,
     typeAliasList: Collection<ProtoBuf.TypeAlias>,
-    classNames: () -> Collection<Name>
+    classNames: () -> Collection<Name>,
+    packProtos: Boolean
 ) : MemberScopeImpl() {
 
-    private val functionProtosBytes = functionList.groupByName { it.name }.packToByteArray()
-
-    private val propertyProtosBytes = propertyList.groupByName { it.name }.packToByteArray()
+    private val functionProtos = ProtosByName(functionList, ProtoBuf.Function.PARSER, packProtos) { it.name }
 
-    private val typeAliasBytes =
-        if (c.components.configuration.typeAliasesAllowed)
-            typeAliasList.groupByName { it.name }.packToByteArray()
-        else
-            emptyMap()
+    private val propertyProtos = ProtosByName(propertyList, ProtoBuf.Property.PARSER, packProtos) { it.name }
 
-    private fun Map<Name, Collection<AbstractMessageLite>>.packToByteArray(): Map<Name, ByteArray> =
-        mapValues { entry ->
-            val byteArrayOutputStream = ByteArrayOutputStream()
-            entry.value.map { proto -> proto.writeDelimitedTo(byteArrayOutputStream) }
-            byteArrayOutputStream.toByteArray()
-        }
+    private val typeAliasProtos =
+        ProtosByName(
+            if (c.components.configuration.typeAliasesAllowed) typeAliasList else emptyList(),
+            ProtoBuf.TypeAlias.PARSER, packProtos
+        ) { it.name }
 
     private val functions =
         c.storageManager.createMemoizedFunction<Name, Collection<SimpleFunctionDescriptor>> { computeFunctions(it) }
@@ -70,14 +68,14 @@ abstract class DeserializedMemberScope protected constructor(
         c.storageManager.createMemoizedFunctionWithNullableValues<Name, TypeAliasDescriptor> { createTypeAlias(it) }
 
     private val functionNamesLazy by c.storageManager.createLazyValue {
-        functionProtosBytes.keys + getNonDeclaredFunctionNames()
+        functionProtos.names + getNonDeclaredFunctionNames()
     }
 
     private val variableNamesLazy by c.storageManager.createLazyValue {
-        propertyProtosBytes.keys + getNonDeclaredVariableNames()
+        propertyProtos.names + getNonDeclaredVariableNames()
     }
 
-    private val typeAliasNames: Set<Name> get() = typeAliasBytes.keys
+    private val typeAliasNames: Set<Name> get() = typeAliasProtos.names
 
     internal val classNames by c.storageManager.createLazyValue { classNames().toSet() }
 
@@ -89,37 +87,13 @@ abstract class DeserializedMemberScope protected constructor(
         return name !in functionNamesLazy && name !in variableNamesLazy && name !in classNames && name !in typeAliasNames
     }
 
-    private inline fun <M : MessageLite> Collection<M>.groupByName(
-        getNameIndex: (M) -> Int
-    ) = groupBy { c.nameResolver.getName(getNameIndex(it)) }
-
     private fun computeFunctions(name: Name) =
         computeDescriptors(
-            name,
-            functionProtosBytes,
-            ProtoBuf.Function.PARSER,
+            functionProtos[name],
             { c.memberDeserializer.loadFunction(it) },
             { computeNonDeclaredFunctions(name, it) }
         )
 
-    private inline fun <M : MessageLite, D : DeclarationDescriptor> computeDescriptors(
-        name: Name,
-        bytesByName: Map<Name, ByteArray>,
-        parser: Parser<M>,
-        factory: (M) -> D,
-        computeNonDeclared: (MutableCollection<D>) -> Unit
-    ): Collection<D> =
-        computeDescriptors(
-            bytesByName[name]?.let {
-                val inputStream = ByteArrayInputStream(it)
-                generateSequence {
-                    parser.parseDelimitedFrom(inputStream, c.components.extensionRegistryLite)
-                }.toList()
-            } ?: emptyList(),
-            factory,
-            computeNonDeclared
-        )
-
     private inline fun <M : MessageLite, D : DeclarationDescriptor> computeDescriptors(
         protos: Collection<M>,
         factory: (M) -> D,
@@ -141,9 +115,7 @@ abstract class DeserializedMemberScope protected constructor(
 
     private fun computeProperties(name: Name) =
         computeDescriptors(
-            name,
-            propertyProtosBytes,
-            ProtoBuf.Property.PARSER,
+            propertyProtos[name],
             { c.memberDeserializer.loadProperty(it) },
             { computeNonDeclaredProperties(name, it) }
         )
@@ -152,11 +124,7 @@ abstract class DeserializedMemberScope protected constructor(
     }
 
     private fun createTypeAlias(name: Name): TypeAliasDescriptor? {
-        val byteArray = typeAliasBytes[name] ?: return null
-        val proto =
-            ProtoBuf.TypeAlias.parseDelimitedFrom(
-                ByteArrayInputStream(byteArray), c.components.extensionRegistryLite
-            ) ?: return null
+        val proto = typeAliasProtos[name].firstOrNull() ?: return null
         return c.memberDeserializer.loadTypeAlias(proto)
     }
 
@@ -259,6 +227,49 @@ abstract class DeserializedMemberScope protected constructor(
 
     protected abstract fun addEnumEntryDescriptors(result: MutableCollection<DeclarationDescriptor>, nameFilter: (Name) -> Boolean)
 
+    /**
+     * Member protos grouped by name. The grouping is done on the first access, so that the scopes which are never queried
+     * (e.g. member scopes of classes which are only used as types) don't process their members at all.
+     */
+    private inner class ProtosByName<M : MessageLite>(
+        protoList: Collection<M>,
+        private val parser: Parser<M>,
+        private val packProtos: Boolean,
+        private val getNameIndex: (M) -> Int
+    ) {
+        // null after the protos are grouped, so that they're not retained if they are packed
+        private var protos: Collection<M>? = protoList
+
+        private val protosByName: Map<Name, Any> by c.storageManager.createLazyValue {
+            val grouped = protos!!.groupBy { c.nameResolver.getName(getNameIndex(it)) }
+            protos = null
+            if (packProtos) grouped.mapValues { (_, group) -> group.packToByteArray() } else grouped
+        }
+
+        val names: Set<Name> get() = protosByName.keys
+
+        operator fun get(name: Name): List<M> {
+            val value = protosByName[name] ?: return emptyList()
+            if (value !is ByteArray) {
+                @Suppress("UNCHECKED_CAST")
+                return value as List<M>
+            }
+
+            val inputStream = ByteArrayInputStream(value)
+            return generateSequence {
+                parser.parseDelimitedFrom(inputStream, c.components.extensionRegistryLite)
+            }.toList()
+        }
+
+        private fun List<M>.packToByteArray(): ByteArray {
+            val byteArrayOutputStream = ByteArrayOutputStream()
+            for (proto in this) {
+                proto.writeDelimitedTo(byteArrayOutputStream)
+            }
+            return byteArrayOutputStream.toByteArray()
+        }
+    }
+
     override fun printScopeStructure(p: Printer) {
         p.println(this::class.java.simpleName, " {")
         p.pushIndent()
@@ -45,7 +45,7 @@ open class DeserializedPackageMemberScope(
         packageDescriptor, nameResolver, TypeTable(proto.typeTable),
         VersionRequirementTable.create(proto.versionRequirementTable), metadataVersion, containerSource
     ),
-    proto.functionList, proto.propertyList, proto.typeAliasList, classNames
+    proto.functionList, proto.propertyList, proto.typeAliasList, classNames, packProtos = true
 ) {
     private val packageFqName = packageDescriptor.fqName
 
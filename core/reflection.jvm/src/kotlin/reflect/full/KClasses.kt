@@ -19,14 +19,12 @@
 
 package kotlin.reflect.full
 
-import org.jetbrains.kotlin.descriptors.ConstructorDescriptor
 import org.jetbrains.kotlin.types.TypeSubstitutor
 import org.jetbrains.kotlin.types.Variance
 import org.jetbrains.kotlin.utils.DFS
 import kotlin.reflect.*
 import kotlin.reflect.jvm.internal.KCallableImpl
 import kotlin.reflect.jvm.internal.KClassImpl
-import kotlin.reflect.jvm.internal.KFunctionImpl
 import kotlin.reflect.jvm.internal.KTypeImpl
 import kotlin.reflect.jvm.internal.KotlinReflectionInternalError
 
@@ -37,9 +35,7 @@ import kotlin.reflect.jvm.internal.KotlinReflectionInternalError
  */
 @SinceKotlin("1.1")
 val <T : Any> KClass<T>.primaryConstructor: KFunction<T>?
-    get() = (this as KClassImpl<T>).constructors.firstOrNull {
-        ((it as KFunctionImpl).descriptor as ConstructorDescriptor).isPrimary
-    }
+    get() = (this as KClassImpl<T>).data().primaryConstructor
 
 
 /**
@@ -146,7 +142,10 @@ val KClass<*>.staticProperties: Collection<KProperty0<*>>
  */
 @SinceKotlin("1.1")
 val <T : Any> KClass<T>.memberProperties: Collection<KProperty1<T, *>>
-    get() = (this as KClassImpl<T>).data().allNonStaticMembers.filter { it.isNotExtension && it is KProperty1<*, *> } as Collection<KProperty1<T, *>>
+    get() = (this as KClassImpl<T>).data().let { data ->
+        data.memberPropertiesInMetadata
+            ?: data.allNonStaticMembers.filter { it.isNotExtension && it is KProperty1<*, *> } as Collection<KProperty1<T, *>>
+    }
 
 /**
  * Returns extension properties declared in this class and all of its superclasses.
@@ -160,7 +159,10 @@ val <T : Any> KClass<T>.memberExtensionProperties: Collection<KProperty2<T, *, *
  */
 @SinceKotlin("1.1")
 val <T : Any> KClass<T>.declaredMemberProperties: Collection<KProperty1<T, *>>
-    get() = (this as KClassImpl<T>).data().declaredNonStaticMembers.filter { it.isNotExtension && it is KProperty1<*, *> } as Collection<KProperty1<T, *>>
+    get() = (this as KClassImpl<T>).data().let { data ->
+        data.declaredMemberPropertiesInMetadata
+            ?: data.declaredNonStaticMembers.filter { it.isNotExtension && it is KProperty1<*, *> } as Collection<KProperty1<T, *>>
+    }
 
 /**
  * Returns extension properties declared in this class.
@@ -0,0 +1,128 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package kotlin.reflect.jvm.internal
+
+import org.jetbrains.kotlin.load.java.JvmAbi
+import org.jetbrains.kotlin.load.kotlin.header.KotlinClassHeader
+import org.jetbrains.kotlin.metadata.ProtoBuf
+import org.jetbrains.kotlin.metadata.deserialization.*
+import org.jetbrains.kotlin.metadata.jvm.JvmProtoBuf
+import org.jetbrains.kotlin.metadata.jvm.deserialization.JvmProtoBufUtil
+import org.jetbrains.kotlin.name.NameUtils
+import kotlin.reflect.jvm.internal.components.ReflectKotlinClass
+
+/**
+ * The declarations of a Kotlin class as they are written in its [Metadata] annotation.
+ *
+ * Creating the descriptor of a class requires the module data of its class loader, and deserializes the class along with
+ * the declarations its members refer to, which is expensive for the first access to each class. The common queries though,
+ * such as the primary constructor with the names, nullability and optionality of its parameters, or the member properties
+ * of a class, can be answered from the metadata alone. Callables created from the metadata compute their descriptors lazily,
+ * once a query which needs the type system (e.g. a call, or a classifier of a type) is made.
+ */
+internal class ClassMetadata private constructor(val proto: ProtoBuf.Class, val nameResolver: NameResolver) {
+    val typeTable = TypeTable(proto.typeTable)
+
+    val kind: ProtoBuf.Class.Kind get() = Flags.CLASS_KIND.get(proto.flags)
+
+    val isInner: Boolean get() = Flags.IS_INNER.get(proto.flags)
+
+    val primaryConstructor: ProtoBuf.Constructor?
+        get() = proto.constructorList.firstOrNull { !Flags.IS_SECONDARY.get(it.flags) }
+
+    fun getConstructorSignature(constructor: ProtoBuf.Constructor): String? =
+        JvmProtoBufUtil.getJvmConstructorSignature(constructor, nameResolver, typeTable)?.asString()
+
+    fun getValueParameters(constructor: ProtoBuf.Constructor): List<ValueParameterMetadata> =
+        constructor.valueParameterList.map { parameter ->
+            val name = nameResolver.getString(parameter.name)
+            ValueParameterMetadata(
+                if (name.startsWith('<')) null else name,
+                isMarkedNullable(parameter.type(typeTable)),
+                Flags.DECLARES_DEFAULT_VALUE.get(parameter.flags),
+                parameter.hasVarargElementType() || parameter.hasVarargElementTypeId()
+            )
+        }
+
+    /**
+     * Returns the non-extension properties declared in the class sorted by name, as members are sorted in the scopes of descriptors,
+     * or `null` if the signature of some of them can only be computed from descriptors.
+     */
+    fun getDeclaredProperties(): List<PropertyMetadata>? {
+        val result = ArrayList<PropertyMetadata>(proto.propertyCount)
+        for (property in proto.propertyList) {
+            if (property.hasReceiver()) continue
+
+            result.add(
+                PropertyMetadata(
+                    nameResolver.getString(property.name),
+                    getPropertySignature(property) ?: return null,
+                    Flags.IS_VAR.get(property.flags),
+                    Flags.VISIBILITY.get(property.flags),
+                    isMarkedNullable(property.returnType(typeTable))
+                )
+            )
+        }
+        result.sortBy { it.name }
+        return result
+    }
+
+    // See JvmPropertySignature.KotlinProperty
+    private fun getPropertySignature(property: ProtoBuf.Property): String? {
+        val signature = property.getExtensionOrNull(JvmProtoBuf.propertySignature) ?: return null
+        if (signature.hasGetter()) {
+            return nameResolver.getString(signature.getter.name) + nameResolver.getString(signature.getter.desc)
+        }
+
+        val (name, desc) = JvmProtoBufUtil.getJvmFieldSignature(property, nameResolver, typeTable) ?: return null
+        val manglingSuffix = if (Flags.VISIBILITY.get(property.flags) == ProtoBuf.Visibility.INTERNAL) {
+            val moduleName = proto.getExtensionOrNull(JvmProtoBuf.classModuleName)?.let(nameResolver::getString)
+                ?: JvmAbi.DEFAULT_MODULE_NAME
+            "$" + NameUtils.sanitizeAsJavaIdentifier(moduleName)
+        } else ""
+        return JvmAbi.getterName(name) + manglingSuffix + "()" + desc
+    }
+
+    // A type parameter may be substituted with a nullable type in a subclass, so its nullability is only known from descriptors
+    private fun isMarkedNullable(type: ProtoBuf.Type): Boolean? =
+        when {
+            type.nullable -> true
+            type.hasTypeParameter() || type.hasTypeParameterName() -> null
+            else -> false
+        }
+
+    companion object {
+        fun create(jClass: Class<*>): ClassMetadata? {
+            val header = ReflectKotlinClass.create(jClass)?.classHeader ?: return null
+            if (header.kind != KotlinClassHeader.Kind.CLASS || !header.metadataVersion.isCompatible()) return null
+
+            val (nameResolver, proto) = JvmProtoBufUtil.readClassDataFrom(header.data ?: return null, header.strings ?: return null)
+            return ClassMetadata(proto, nameResolver)
+        }
+    }
+}
+
+/**
+ * A value parameter of a callable created from [ClassMetadata]. Nullability is `null` if it can't be determined from the metadata.
+ */
+internal class ValueParameterMetadata(
+    val name: String?,
+    val isMarkedNullable: Boolean?,
+    val declaresDefaultValue: Boolean,
+    val isVararg: Boolean
+)
+
+/**
+ * A member property read from [ClassMetadata], where [signature] is the same as the one computed by [RuntimeTypeMapper]
+ * from the descriptor of the property. Nullability of the return type is `null` if it can't be determined from the metadata.
+ */
+internal data class PropertyMetadata(
+    val name: String,
+    val signature: String,
+    val isVar: Boolean,
+    val visibility: ProtoBuf.Visibility,
+    val isReturnTypeMarkedNullable: Boolean?
+)
@@ -13,6 +13,7 @@ import java.lang.reflect.ParameterizedType
 import java.lang.reflect.Type
 import java.lang.reflect.WildcardType
 import java.util.*
+import java.util.concurrent.ConcurrentHashMap
 import kotlin.coroutines.Continuation
 import kotlin.reflect.*
 import kotlin.reflect.jvm.internal.calls.Caller
@@ -35,7 +36,19 @@ internal abstract class KCallableImpl<out R> : KCallable<R> {
 
     override val annotations: List<Annotation> get() = _annotations()
 
+    // Value parameters of a callable without receivers, if it's created from the metadata, see ClassMetadata
+    internal open val valueParametersInMetadata: List<ValueParameterMetadata>? get() = null
+
+    // Nullability of the return type, if the callable is created from the metadata and it's known there, see ClassMetadata
+    internal open val isReturnTypeMarkedNullableInMetadata: Boolean? get() = null
+
     private val _parameters = ReflectProperties.lazySoft {
+        valueParametersInMetadata?.let { valueParameters ->
+            return@lazySoft valueParameters.mapIndexedTo(ArrayList<KParameter>(valueParameters.size)) { i, parameter ->
+                KParameterImpl(this, i, KParameter.Kind.VALUE, parameter) { descriptor.valueParameters[i] }
+            }
+        }
+
         val descriptor = descriptor
         val result = ArrayList<KParameter>()
         var index = 0
@@ -71,9 +84,9 @@ internal abstract class KCallableImpl<out R> : KCallable<R> {
         get() = _parameters()
 
     private val _returnType = ReflectProperties.lazySoft {
-        KTypeImpl(descriptor.returnType!!) {
+        KTypeImpl({ descriptor.returnType!! }, {
             extractContinuationArgument() ?: caller.returnType
-        }
+        }, isReturnTypeMarkedNullableInMetadata)
     }
 
     override val returnType: KType
@@ -110,10 +123,67 @@ internal abstract class KCallableImpl<out R> : KCallable<R> {
         return if (isAnnotationConstructor) callAnnotationConstructor(args) else callDefaultMethod(args, null)
     }
 
-    // See ArgumentGenerator#generate
+    // The arguments of `callBy` by the sets of passed parameters, see DefaultCallPlan
+    private val _defaultCallPlans = ReflectProperties.lazySoft { ConcurrentHashMap<Any, DefaultCallPlan>() }
+
     internal fun callDefaultMethod(args: Map<KParameter, Any?>, continuationArgument: Continuation<*>?): R {
         val parameters = parameters
+        val plan = if (continuationArgument == null) {
+            val defaultCallPlans = _defaultCallPlans()
+            val key = passedParametersKey(parameters, args)
+            defaultCallPlans[key] ?: createDefaultCallPlan(parameters, args, null).also {
+                if (defaultCallPlans.size < MAX_DEFAULT_CALL_PLANS) defaultCallPlans[key] = it
+            }
+        } else {
+            createDefaultCallPlan(parameters, args, continuationArgument)
+        }
+
+        val arguments = plan.arguments.copyOf()
+        for (index in plan.passedParameterIndices) {
+            arguments[index] = args[parameters[index]]
+        }
+
+        if (!plan.isDefaultCall) {
+            return call(*arguments)
+        }
+
+        @Suppress("UNCHECKED_CAST")
+        return reflectionCall {
+            defaultCaller!!.call(arguments) as R
+        }
+    }
+
+    private fun passedParametersKey(parameters: List<KParameter>, args: Map<KParameter, Any?>): Any {
+        if (parameters.size <= java.lang.Long.SIZE) {
+            var bits = 0L
+            for (index in parameters.indices) {
+                if (args.containsKey(parameters[index])) bits = bits or (1L shl index)
+            }
+            return bits
+        }
+
+        val bits = BitSet(parameters.size)
+        for (index in parameters.indices) {
+            if (args.containsKey(parameters[index])) bits.set(index)
+        }
+        return bits
+    }
+
+    /**
+     * The arguments of a `callBy` with a particular set of passed parameters, where the values of the passed parameters are
+     * to be placed at [passedParameterIndices], and the rest are the default values of primitive types,
+     * the masks of the default parameters and the marker parameter if [isDefaultCall].
+     */
+    private class DefaultCallPlan(val arguments: Array<Any?>, val passedParameterIndices: IntArray, val isDefaultCall: Boolean)
+
+    // See ArgumentGenerator#generate
+    private fun createDefaultCallPlan(
+        parameters: List<KParameter>,
+        args: Map<KParameter, Any?>,
+        continuationArgument: Continuation<*>?
+    ): DefaultCallPlan {
         val arguments = ArrayList<Any?>(parameters.size)
+        val passedParameterIndices = ArrayList<Int>(parameters.size)
         var mask = 0
         val masks = ArrayList<Int>(1)
         var index = 0
@@ -127,7 +197,8 @@ internal abstract class KCallableImpl<out R> : KCallable<R> {
 
             when {
                 args.containsKey(parameter) -> {
-                    arguments.add(args[parameter])
+                    passedParameterIndices.add(arguments.size)
+                    arguments.add(null)
                 }
                 parameter.isOptional -> {
                     arguments.add(defaultPrimitiveValue(parameter.type.javaType))
@@ -149,22 +220,19 @@ internal abstract class KCallableImpl<out R> : KCallable<R> {
         }
 
         if (!anyOptional) {
-            return call(*arguments.toTypedArray())
+            return DefaultCallPlan(arguments.toTypedArray(), passedParameterIndices.toIntArray(), isDefaultCall = false)
         }
 
         masks.add(mask)
 
-        val caller = defaultCaller ?: throw KotlinReflectionInternalError("This callable does not support a default call: $descriptor")
+        if (defaultCaller == null) throw KotlinReflectionInternalError("This callable does not support a default call: $descriptor")
 
         arguments.addAll(masks)
 
         // DefaultConstructorMarker or MethodHandle
         arguments.add(null)
 
-        @Suppress("UNCHECKED_CAST")
-        return reflectionCall {
-            caller.call(arguments.toTypedArray()) as R
-        }
+        return DefaultCallPlan(arguments.toTypedArray(), passedParameterIndices.toIntArray(), isDefaultCall = true)
     }
 
     private fun callAnnotationConstructor(args: Map<KParameter, Any?>): R {
@@ -216,4 +284,9 @@ internal abstract class KCallableImpl<out R> : KCallable<R> {
 
         return null
     }
+
+    private companion object {
+        // bounds the memory spent on callables which are called with many different sets of parameters
+        const val MAX_DEFAULT_CALL_PLANS = 64
+    }
 }
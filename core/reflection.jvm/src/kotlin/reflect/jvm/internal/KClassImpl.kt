@@ -22,6 +22,7 @@ import org.jetbrains.kotlin.descriptors.*
 import org.jetbrains.kotlin.incremental.components.NoLookupLocation
 import org.jetbrains.kotlin.load.java.JvmAbi
 import org.jetbrains.kotlin.load.kotlin.header.KotlinClassHeader
+import org.jetbrains.kotlin.metadata.ProtoBuf
 import org.jetbrains.kotlin.metadata.deserialization.getExtensionOrNull
 import org.jetbrains.kotlin.metadata.jvm.JvmProtoBuf
 import org.jetbrains.kotlin.name.ClassId
@@ -32,6 +33,7 @@ import org.jetbrains.kotlin.resolve.scopes.MemberScope
 import org.jetbrains.kotlin.serialization.deserialization.MemberDeserializer
 import org.jetbrains.kotlin.serialization.deserialization.descriptors.DeserializedClassDescriptor
 import org.jetbrains.kotlin.utils.compact
+import java.io.Serializable
 import kotlin.jvm.internal.TypeIntrinsics
 import kotlin.reflect.*
 import kotlin.reflect.jvm.internal.KDeclarationContainerImpl.MemberBelonginess.DECLARED
@@ -93,6 +95,78 @@ internal class KClassImpl<T : Any>(override val jClass: Class<T>) : KDeclaration
             }
         }
 
+        val metadata: ClassMetadata? by ReflectProperties.lazySoft { ClassMetadata.create(jClass) }
+
+        @Suppress("UNCHECKED_CAST")
+        val primaryConstructor: KFunction<T>? by ReflectProperties.lazySoft {
+            // The constructor of an inner class has the outer instance parameter, which is not in the metadata
+            val metadata = metadata
+            if (metadata != null && !metadata.isInner) {
+                when (metadata.kind) {
+                    ProtoBuf.Class.Kind.INTERFACE, ProtoBuf.Class.Kind.OBJECT, ProtoBuf.Class.Kind.COMPANION_OBJECT ->
+                        return@lazySoft null
+                    ProtoBuf.Class.Kind.CLASS, ProtoBuf.Class.Kind.ENUM_CLASS -> {
+                        val constructor = metadata.primaryConstructor ?: return@lazySoft null
+                        metadata.getConstructorSignature(constructor)?.let { signature ->
+                            val valueParameters = metadata.getValueParameters(constructor)
+                            return@lazySoft KFunctionImpl(this@KClassImpl, signature, valueParameters) as KFunction<T>
+                        }
+                    }
+                }
+            }
+
+            constructors.firstOrNull { ((it as KFunctionImpl).descriptor as ConstructorDescriptor).isPrimary }
+        }
+
+        private val declaredPropertyMetadata: List<PropertyMetadata>? by ReflectProperties.lazySoft {
+            metadata?.getDeclaredProperties()
+        }
+
+        /**
+         * Non-extension member properties inherited from the superclasses, read from their metadata, or `null` if some of them
+         * are inherited from a class without Kotlin metadata, or can't be told apart without descriptors.
+         */
+        private val inheritedPropertyMetadata: List<PropertyMetadata>? by ReflectProperties.lazySoft {
+            val declaredNames = (declaredPropertyMetadata ?: return@lazySoft null).mapTo(HashSet()) { it.name }
+
+            val inherited = HashMap<String, PropertyMetadata>()
+            for (superclass in listOfNotNull<Class<*>>(jClass.superclass) + jClass.interfaces) {
+                if (superclass == Any::class.java || superclass == Serializable::class.java) continue
+
+                val superData = getOrCreateKotlinClass(superclass).data()
+                val superDeclared = superData.declaredPropertyMetadata ?: return@lazySoft null
+                val superInherited = superData.inheritedPropertyMetadata ?: return@lazySoft null
+                for (property in superDeclared + superInherited) {
+                    val visibility = property.visibility
+                    if (visibility == ProtoBuf.Visibility.PRIVATE || visibility == ProtoBuf.Visibility.PRIVATE_TO_THIS) continue
+                    // Internal members of a class from another module are not inherited, which is only known from descriptors
+                    if (visibility != ProtoBuf.Visibility.PUBLIC && visibility != ProtoBuf.Visibility.PROTECTED) return@lazySoft null
+                    if (property.name in declaredNames) continue
+
+                    // A fake override of several different properties has the signature of one of them, see RuntimeTypeMapper
+                    val existing = inherited.put(property.name, property)
+                    if (existing != null && existing != property) return@lazySoft null
+                }
+            }
+
+            inherited.values.sortedBy { it.name }
+        }
+
+        val declaredMemberPropertiesInMetadata: Collection<KProperty1<T, *>>? by ReflectProperties.lazySoft {
+            declaredPropertyMetadata?.map(::createProperty)
+        }
+
+        val memberPropertiesInMetadata: Collection<KProperty1<T, *>>? by ReflectProperties.lazySoft {
+            val declared = declaredPropertyMetadata ?: return@lazySoft null
+            val inherited = inheritedPropertyMetadata ?: return@lazySoft null
+            // Declared and inherited members are sorted together by name, as in the member scope of the class descriptor
+            (declared + inherited).sortedBy { it.name }.map(::createProperty)
+        }
+
+        private fun createProperty(metadata: PropertyMetadata): KProperty1<T, *> =
+            if (metadata.isVar) KMutableProperty1Impl<T, Any?>(this@KClassImpl, metadata)
+            else KProperty1Impl<T, Any?>(this@KClassImpl, metadata)
+
         val nestedClasses: Collection<KClass<*>> by ReflectProperties.lazySoft {
             descriptor.unsubstitutedInnerClassesScope.getContributedDescriptors().filterNot(DescriptorUtils::isEnumEntry)
                 .mapNotNull { nestedClass ->
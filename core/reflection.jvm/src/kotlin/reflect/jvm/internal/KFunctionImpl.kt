@@ -38,11 +38,16 @@ internal class KFunctionImpl private constructor(
     name: String,
     private val signature: String,
     descriptorInitialValue: FunctionDescriptor?,
-    private val rawBoundReceiver: Any? = CallableReference.NO_RECEIVER
+    private val rawBoundReceiver: Any? = CallableReference.NO_RECEIVER,
+    override val valueParametersInMetadata: List<ValueParameterMetadata>? = null
 ) : KCallableImpl<Any?>(), KFunction<Any?>, FunctionBase<Any?>, FunctionWithAllInvokes {
     constructor(container: KDeclarationContainerImpl, name: String, signature: String, boundReceiver: Any?)
             : this(container, name, signature, null, boundReceiver)
 
+    // A constructor of a class without an outer instance, created from the metadata of the class, see ClassMetadata
+    constructor(container: KClassImpl<*>, signature: String, valueParameters: List<ValueParameterMetadata>)
+            : this(container, "<init>", signature, null, CallableReference.NO_RECEIVER, valueParameters)
+
     constructor(container: KDeclarationContainerImpl, descriptor: FunctionDescriptor) : this(
         container,
         descriptor.name.asString(),
@@ -25,6 +25,7 @@ internal class KParameterImpl(
     val callable: KCallableImpl<*>,
     override val index: Int,
     override val kind: KParameter.Kind,
+    private val metadata: ValueParameterMetadata? = null,
     computeDescriptor: () -> ParameterDescriptor
 ) : KParameter {
     private val descriptor: ParameterDescriptor by ReflectProperties.lazySoft(computeDescriptor)
@@ -33,6 +34,7 @@ internal class KParameterImpl(
 
     override val name: String?
         get() {
+            if (metadata != null) return metadata.name
             val valueParameter = descriptor as? ValueParameterDescriptor ?: return null
             if (valueParameter.containingDeclaration.hasSynthesizedParameterNames()) return null
             val name = valueParameter.name
@@ -40,7 +42,7 @@ internal class KParameterImpl(
         }
 
     override val type: KType
-        get() = KTypeImpl(descriptor.type) {
+        get() = KTypeImpl({ descriptor.type }, {
             val descriptor = descriptor
 
             if (descriptor is ReceiverParameterDescriptor &&
@@ -55,13 +57,13 @@ internal class KParameterImpl(
             } else {
                 callable.caller.parameterTypes[index]
             }
-        }
+        }, metadata?.isMarkedNullable)
 
     override val isOptional: Boolean
-        get() = (descriptor as? ValueParameterDescriptor)?.declaresOrInheritsDefaultValue() ?: false
+        get() = metadata?.declaresDefaultValue ?: (descriptor as? ValueParameterDescriptor)?.declaresOrInheritsDefaultValue() ?: false
 
     override val isVararg: Boolean
-        get() = descriptor.let { it is ValueParameterDescriptor && it.varargElementType != null }
+        get() = metadata?.isVararg ?: descriptor.let { it is ValueParameterDescriptor && it.varargElementType != null }
 
     override fun equals(other: Any?) =
         other is KParameterImpl && callable == other.callable && descriptor == other.descriptor
@@ -28,6 +28,8 @@ internal open class KProperty1Impl<T, out R> : KProperty1<T, R>, KPropertyImpl<R
 
     constructor(container: KDeclarationContainerImpl, descriptor: PropertyDescriptor) : super(container, descriptor)
 
+    constructor(container: KClassImpl<*>, metadata: PropertyMetadata) : super(container, metadata)
+
     private val _getter = ReflectProperties.lazy { Getter(this) }
 
     override val getter: Getter<T, R> get() = _getter()
@@ -52,6 +54,8 @@ internal class KMutableProperty1Impl<T, R> : KProperty1Impl<T, R>, KMutablePrope
 
     constructor(container: KDeclarationContainerImpl, descriptor: PropertyDescriptor) : super(container, descriptor)
 
+    constructor(container: KClassImpl<*>, metadata: PropertyMetadata) : super(container, metadata)
+
     private val _setter = ReflectProperties.lazy { Setter(this) }
 
     override val setter: Setter<T, R> get() = _setter()
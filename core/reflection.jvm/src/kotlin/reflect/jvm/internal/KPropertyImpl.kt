@@ -29,12 +29,18 @@ internal abstract class KPropertyImpl<out R> private constructor(
     override val name: String,
     val signature: String,
     descriptorInitialValue: PropertyDescriptor?,
-    private val rawBoundReceiver: Any?
+    private val rawBoundReceiver: Any?,
+    private val metadata: PropertyMetadata? = null
 ) : KCallableImpl<R>(), KProperty<R> {
     constructor(container: KDeclarationContainerImpl, name: String, signature: String, boundReceiver: Any?) : this(
         container, name, signature, null, boundReceiver
     )
 
+    // A member property created from the metadata of its class, see ClassMetadata
+    constructor(container: KClassImpl<*>, metadata: PropertyMetadata) : this(
+        container, metadata.name, metadata.signature, null, CallableReference.NO_RECEIVER, metadata
+    )
+
     constructor(container: KDeclarationContainerImpl, descriptor: PropertyDescriptor) : this(
         container,
         descriptor.name.asString(),
@@ -114,6 +120,8 @@ internal abstract class KPropertyImpl<out R> private constructor(
 
     override val isSuspend: Boolean get() = false
 
+    override val isReturnTypeMarkedNullableInMetadata: Boolean? get() = metadata?.isReturnTypeMarkedNullable
+
     override fun equals(other: Any?): Boolean {
         val that = other.asKPropertyImpl() ?: return false
         return container == that.container && name == that.name && signature == that.signature && rawBoundReceiver == that.rawBoundReceiver
@@ -36,9 +36,15 @@ import kotlin.reflect.jvm.internal.structure.primitiveByWrapper
 import kotlin.reflect.jvm.jvmErasure
 
 internal class KTypeImpl(
-    val type: KotlinType,
-    computeJavaType: () -> Type
+    computeType: () -> KotlinType,
+    computeJavaType: () -> Type,
+    private val isMarkedNullableInMetadata: Boolean? = null
 ) : KType {
+    constructor(type: KotlinType, computeJavaType: () -> Type) : this({ type }, computeJavaType)
+
+    // Types of callables created from the metadata compute their descriptors lazily, see ClassMetadata
+    val type: KotlinType by ReflectProperties.lazy(computeType)
+
     internal val javaType: Type by ReflectProperties.lazySoft(computeJavaType)
 
     override val classifier: KClassifier? by ReflectProperties.lazySoft { convert(type) }
@@ -110,7 +116,7 @@ internal class KTypeImpl(
     }
 
     override val isMarkedNullable: Boolean
-        get() = type.isMarkedNullable
+        get() = isMarkedNullableInMetadata ?: type.isMarkedNullable
 
     override val annotations: List<Annotation>
         get() = type.computeAnnotations()
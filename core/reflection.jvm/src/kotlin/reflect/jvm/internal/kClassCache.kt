@@ -16,21 +16,48 @@
 
 package kotlin.reflect.jvm.internal
 
+import java.lang.ref.ReferenceQueue
 import java.lang.ref.WeakReference
-import kotlin.reflect.jvm.internal.pcollections.HashPMap
+import java.util.concurrent.ConcurrentHashMap
 
-// TODO: collect nulls periodically
-// Key of the map is Class.getName(), each value is either a WeakReference<KClassImpl<*>> or an Array<WeakReference<KClassImpl<*>>>.
+// Key of the map is Class.getName(), each value is either a KClassReference or an Array<KClassReference>.
 // Arrays are needed because the same class can be loaded by different class loaders, which results in different Class instances.
-// This variable is not volatile intentionally: we don't care if there's a data race on it and some KClass instances will be lost.
-// We do care however about general performance on read access to it, thus no synchronization is done here whatsoever
-private var K_CLASS_CACHE = HashPMap.empty<String, Any>()
+// Values are replaced atomically, so concurrent insertions don't lose each other, while reads are not synchronized at all.
+// The entries of collected KClass instances are removed on insertions, so that the names of unloaded classes don't pile up.
+private val K_CLASS_CACHE = ConcurrentHashMap<String, Any>()
+
+private val COLLECTED_K_CLASSES = ReferenceQueue<KClassImpl<*>>()
+
+private class KClassReference(kClass: KClassImpl<*>, val name: String) : WeakReference<KClassImpl<*>>(kClass, COLLECTED_K_CLASSES)
 
 // This function is invoked on each reflection access to Java classes, properties, etc. Performance is critical here.
 internal fun <T : Any> getOrCreateKotlinClass(jClass: Class<T>): KClassImpl<T> {
     val name = jClass.name
-    val cached = K_CLASS_CACHE[name]
-    if (cached is WeakReference<*>) {
+    findKotlinClass(K_CLASS_CACHE[name], jClass)?.let { return it }
+
+    removeCollectedKotlinClasses()
+
+    val newKClass = KClassImpl(jClass)
+    val newRef = KClassReference(newKClass, name)
+    while (true) {
+        val cached = K_CLASS_CACHE[name]
+        if (cached == null) {
+            if (K_CLASS_CACHE.putIfAbsent(name, newRef) == null) return newKClass
+            continue
+        }
+
+        // Another thread could have cached the class in the meantime
+        findKotlinClass(cached, jClass)?.let { return it }
+
+        // This is the most unlikely case: the same class is loaded by several class loaders
+        val alive = cachedReferences(cached).filter { it.get() != null }
+        val updated: Any = if (alive.isEmpty()) newRef else (alive + newRef).toTypedArray()
+        if (K_CLASS_CACHE.replace(name, cached, updated)) return newKClass
+    }
+}
+
+private fun <T : Any> findKotlinClass(cached: Any?, jClass: Class<T>): KClassImpl<T>? {
+    if (cached is KClassReference) {
         @Suppress("UNCHECKED_CAST")
         val kClass = cached.get() as KClassImpl<T>?
         if (kClass?.jClass == jClass) {
@@ -38,32 +65,39 @@ internal fun <T : Any> getOrCreateKotlinClass(jClass: Class<T>): KClassImpl<T> {
         }
     } else if (cached != null) {
         // If the cached value is not a weak reference, it's an array of weak references
-        @Suppress("UNCHECKED_CAST")
-        (cached as Array<WeakReference<KClassImpl<T>>>)
-        for (ref in cached) {
-            val kClass = ref.get()
+        for (ref in cached as Array<*>) {
+            @Suppress("UNCHECKED_CAST")
+            val kClass = (ref as KClassReference).get() as KClassImpl<T>?
             if (kClass?.jClass == jClass) {
                 return kClass
             }
         }
-
-        // This is the most unlikely case: we found a cached array of references of length at least 2 (can't be 1 because
-        // the single element would be cached instead), and none of those classes is the one we're looking for
-        val size = cached.size
-        val newArray = arrayOfNulls<WeakReference<KClassImpl<*>>>(size + 1)
-        // Don't use Arrays.copyOf because it works reflectively
-        System.arraycopy(cached, 0, newArray, 0, size)
-        val newKClass = KClassImpl(jClass)
-        newArray[size] = WeakReference(newKClass)
-        K_CLASS_CACHE = K_CLASS_CACHE.plus(name, newArray)
-        return newKClass
     }
+    return null
+}
 
-    val newKClass = KClassImpl(jClass)
-    K_CLASS_CACHE = K_CLASS_CACHE.plus(name, WeakReference(newKClass))
-    return newKClass
+private fun cachedReferences(cached: Any): List<KClassReference> =
+    if (cached is KClassReference) listOf(cached) else (cached as Array<*>).map { it as KClassReference }
+
+private fun removeCollectedKotlinClasses() {
+    while (true) {
+        val ref = COLLECTED_K_CLASSES.poll() as KClassReference? ?: return
+        while (true) {
+            val cached = K_CLASS_CACHE[ref.name] ?: break
+            val references = cachedReferences(cached)
+            if (ref !in references) break
+
+            val alive = references.filter { it !== ref }
+            val removed = when (alive.size) {
+                0 -> K_CLASS_CACHE.remove(ref.name, cached)
+                1 -> K_CLASS_CACHE.replace(ref.name, cached, alive.single())
+                else -> K_CLASS_CACHE.replace(ref.name, cached, alive.toTypedArray())
+            }
+            if (removed) break
+        }
+    }
 }
 
 internal fun clearKClassCache() {
-    K_CLASS_CACHE = HashPMap.empty()
+    K_CLASS_CACHE.clear()
 }
@@ -16,14 +16,21 @@
 
 package kotlin.reflect.jvm.internal
 
+import java.lang.ref.ReferenceQueue
 import java.lang.ref.WeakReference
 import java.util.concurrent.ConcurrentHashMap
 import java.util.concurrent.ConcurrentMap
 import kotlin.reflect.jvm.internal.components.RuntimeModuleData
 import kotlin.reflect.jvm.internal.structure.safeClassLoader
 
-// TODO: collect nulls periodically
-private val moduleByClassLoader: ConcurrentMap<WeakClassLoaderBox, WeakReference<RuntimeModuleData>> = ConcurrentHashMap()
+// The entries of collected modules are removed on insertions. A module references its class loader, so a class loader can't be
+// collected before its module, and the entry is removed along with the module once the class loader is unloaded
+private val moduleByClassLoader: ConcurrentMap<WeakClassLoaderBox, ModuleReference> = ConcurrentHashMap()
+
+private val collectedModules = ReferenceQueue<RuntimeModuleData>()
+
+private class ModuleReference(module: RuntimeModuleData, val key: WeakClassLoaderBox) :
+    WeakReference<RuntimeModuleData>(module, collectedModules)
 
 private class WeakClassLoaderBox(classLoader: ClassLoader) {
     val ref: WeakReference<ClassLoader> = WeakReference(classLoader)
@@ -55,10 +62,12 @@ internal fun Class<*>.getOrCreateModule(): RuntimeModuleData {
         moduleByClassLoader.remove(key, cached)
     }
 
+    removeCollectedModules()
+
     val module = RuntimeModuleData.create(classLoader)
     try {
         while (true) {
-            val ref = moduleByClassLoader.putIfAbsent(key, WeakReference(module)) ?: return module
+            val ref = moduleByClassLoader.putIfAbsent(key, ModuleReference(module, key)) ?: return module
 
             val result = ref.get()
             if (result != null) return result
@@ -69,6 +78,13 @@ internal fun Class<*>.getOrCreateModule(): RuntimeModuleData {
     }
 }
 
+private fun removeCollectedModules() {
+    while (true) {
+        val ref = collectedModules.poll() as ModuleReference? ?: return
+        moduleByClassLoader.remove(ref.key, ref)
+    }
+}
+
 internal fun clearModuleByClassLoaderCache() {
     moduleByClassLoader.clear()
 }
@@ -0,0 +1,439 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.storage
+
+import org.jetbrains.kotlin.storage.LockBasedStorageManager.ExceptionHandlingStrategy
+import org.jetbrains.kotlin.utils.WrappedValues
+import org.jetbrains.kotlin.utils.isProcessCanceledException
+import java.util.concurrent.ConcurrentHashMap
+import java.util.concurrent.ConcurrentMap
+
+/**
+ * Storage manager which, unlike [LockBasedStorageManager], doesn't serialize all lazy computations with a single lock.
+ *
+ * Each lazy value and each key of a memoized function is computed by the first thread which requests it,
+ * other threads requesting it at the same time wait for the result. Values which are already computed are read without locking.
+ * [compute] blocks are mutually exclusive, so the state shared between computations (e.g. a trace, see
+ * LockBasedLazyResolveStorageManager.createSafeTrace) should be accessed only inside them. A thread which requests a value
+ * computed by another thread inside a [compute] block releases the lock while waiting for it.
+ *
+ * A recursive request of a value being computed by the same thread is handled in the same way as by [LockBasedStorageManager].
+ * If waiting for a value computed by another thread would lead to a deadlock, i.e. if that thread (transitively) waits for
+ * the current one, the current thread computes the value itself, as it would be done in a single-threaded execution.
+ * The result of the thread which started the computation is then discarded.
+ *
+ * Note that a computation which is taken over is not interrupted: the thread which started it continues it once it stops waiting,
+ * so the side effects of the computation itself (e.g. records in a trace) may happen twice. Only the published result is passed
+ * to `postCompute`, so it's called once per value. Cross-thread cycles are possible only when several threads resolve declarations
+ * of the same module, which the compiler itself never does (see `-Xconcurrent-resolve`), so callers doing that should tolerate
+ * repeated side effects of computations which depend on each other.
+ */
+class ConcurrentStorageManager(
+    private val debugText: String,
+    private val exceptionHandlingStrategy: ExceptionHandlingStrategy = ExceptionHandlingStrategy.THROW
+) : StorageManager {
+    private val computeLock = ComputeLock()
+
+    override fun toString(): String = "${this::class.java.simpleName}@${Integer.toHexString(hashCode())} ($debugText)"
+
+    override fun <K, V : Any> createMemoizedFunction(compute: (K) -> V): MemoizedFunctionToNotNull<K, V> =
+        createMemoizedFunction(compute, createConcurrentHashMap())
+
+    override fun <K, V : Any> createMemoizedFunction(compute: (K) -> V, map: ConcurrentMap<K, Any>): MemoizedFunctionToNotNull<K, V> {
+        val function = MemoizedFunction(map, compute)
+        return object : MemoizedFunctionToNotNull<K, V> {
+            override fun invoke(input: K): V = function.get(input) ?: throw AssertionError("compute() returned null under $this")
+            override fun isComputed(key: K): Boolean = function.isComputed(key)
+        }
+    }
+
+    override fun <K, V : Any> createMemoizedFunctionWithNullableValues(compute: (K) -> V?): MemoizedFunctionToNullable<K, V> =
+        createMemoizedFunctionWithNullableValues(MemoizedFunction(createConcurrentHashMap(), compute))
+
+    override fun <K, V : Any> createMemoizedFunctionWithNullableValues(
+        compute: (K) -> V,
+        map: ConcurrentMap<K, Any>
+    ): MemoizedFunctionToNullable<K, V> =
+        createMemoizedFunctionWithNullableValues(MemoizedFunction(map, compute))
+
+    private fun <K, V : Any> createMemoizedFunctionWithNullableValues(function: MemoizedFunction<K, V>) =
+        object : MemoizedFunctionToNullable<K, V> {
+            override fun invoke(input: K): V? = function.get(input)
+            override fun isComputed(key: K): Boolean = function.isComputed(key)
+        }
+
+    override fun <K, V : Any> createCacheWithNullableValues(): CacheWithNullableValues<K, V> {
+        val function = MemoizedFunction<KeyWithComputation<K, V?>, V>(createConcurrentHashMap()) { it.computation() }
+        return object : CacheWithNullableValues<K, V> {
+            override fun computeIfAbsent(key: K, computation: () -> V?): V? = function.get(KeyWithComputation(key, computation))
+        }
+    }
+
+    override fun <K, V : Any> createCacheWithNotNullValues(): CacheWithNotNullValues<K, V> {
+        val function = MemoizedFunction<KeyWithComputation<K, V>, V>(createConcurrentHashMap()) { it.computation() }
+        return object : CacheWithNotNullValues<K, V> {
+            override fun computeIfAbsent(key: K, computation: () -> V): V =
+                function.get(KeyWithComputation(key, computation)) ?: throw AssertionError("computeIfAbsent() returned null under $this")
+        }
+    }
+
+    override fun <T : Any> createLazyValue(computable: () -> T): NotNullLazyValue<T> =
+        NotNullValue(LazyValue(computable))
+
+    override fun <T : Any> createRecursionTolerantLazyValue(computable: () -> T, onRecursiveCall: T): NotNullLazyValue<T> =
+        NotNullValue(object : LazyValue<T>(computable) {
+            override fun recursionDetected(firstTime: Boolean): T = onRecursiveCall
+        })
+
+    override fun <T : Any> createLazyValueWithPostCompute(
+        computable: () -> T,
+        onRecursiveCall: ((Boolean) -> T)?,
+        postCompute: (T) -> Unit
+    ): NotNullLazyValue<T> =
+        NotNullValue(object : LazyValue<T>(computable) {
+            override fun recursionDetected(firstTime: Boolean): T =
+                if (onRecursiveCall != null) onRecursiveCall(firstTime) else super.recursionDetected(firstTime)
+
+            override fun postCompute(value: T) {
+                postCompute.invoke(value)
+            }
+        })
+
+    override fun <T : Any> createNullableLazyValue(computable: () -> T?): NullableLazyValue<T> =
+        NullableValue(LazyValue(computable))
+
+    override fun <T : Any> createRecursionTolerantNullableLazyValue(computable: () -> T?, onRecursiveCall: T?): NullableLazyValue<T> =
+        NullableValue(object : LazyValue<T?>(computable) {
+            override fun recursionDetected(firstTime: Boolean): T? = onRecursiveCall
+        })
+
+    override fun <T : Any> createNullableLazyValueWithPostCompute(computable: () -> T?, postCompute: (T?) -> Unit): NullableLazyValue<T> =
+        NullableValue(object : LazyValue<T?>(computable) {
+            override fun postCompute(value: T?) {
+                postCompute.invoke(value)
+            }
+        })
+
+    override fun <T> compute(computable: () -> T): T {
+        computeLock.lock()
+        try {
+            return computable()
+        } catch (throwable: Throwable) {
+            throw exceptionHandlingStrategy.handleException(throwable)
+        } finally {
+            computeLock.unlock()
+        }
+    }
+
+    private fun <K> createConcurrentHashMap(): ConcurrentMap<K, Any> =
+        // memory optimization: fewer segments and entries stored
+        ConcurrentHashMap(3, 1f, 2)
+
+    private open inner class LazyValue<T>(private val computable: () -> T) {
+        // NOT_COMPUTED, RECURSION_WAS_DETECTED, a Computation, or the value (exceptions are wrapped, see WrappedValues)
+        @Volatile
+        private var value: Any? = NOT_COMPUTED
+
+        fun isComputed(): Boolean {
+            val current = value
+            return current !== NOT_COMPUTED && current !is Computation
+        }
+
+        fun isComputing(): Boolean = value is Computation
+
+        fun get(): T {
+            while (true) {
+                val current = value
+                when {
+                    current === NOT_COMPUTED -> {
+                        val computation = Computation(Thread.currentThread())
+                        val claimed = synchronized(this) {
+                            (value === NOT_COMPUTED).also { if (it) value = computation }
+                        }
+                        if (claimed) return compute(computation)
+                    }
+                    current === RECURSION_WAS_DETECTED ->
+                        return recursionDetected(firstTime = false)
+                    current is Computation -> {
+                        if (current.owner === Thread.currentThread()) {
+                            val firstTime = !current.recursionDetected
+                            current.recursionDetected = true
+                            return recursionDetected(firstTime)
+                        }
+                        if (!awaitComputation(current) { value !== current }) {
+                            val computation = Computation(Thread.currentThread())
+                            val claimed = synchronized(this) {
+                                (value === current).also { if (it) value = computation }
+                            }
+                            if (claimed) {
+                                current.notifyWaiters()
+                                return compute(computation)
+                            }
+                        }
+                    }
+                    else -> return WrappedValues.unescapeThrowable(current)
+                }
+            }
+        }
+
+        private fun compute(computation: Computation): T {
+            try {
+                val result = computable()
+                // the value may have been computed by another thread to break a deadlock, see the class KDoc
+                if (!publish(computation, result)) return get()
+                postCompute(result)
+                return result
+            } catch (throwable: Throwable) {
+                if (throwable.isProcessCanceledException()) {
+                    publish(computation, NOT_COMPUTED)
+                    throw throwable
+                }
+
+                // Store only if it's a genuine result, not something thrown through recursionDetected()
+                val newValue = if (computation.recursionDetected) RECURSION_WAS_DETECTED else WrappedValues.escapeThrowable(throwable)
+                if (!publish(computation, newValue)) return get()
+                throw exceptionHandlingStrategy.handleException(throwable)
+            }
+        }
+
+        private fun publish(computation: Computation, newValue: Any?): Boolean {
+            val published = synchronized(this) {
+                (value === computation).also { if (it) value = newValue }
+            }
+            computation.notifyWaiters()
+            return published
+        }
+
+        /**
+         * @param firstTime `true` when recursion has been just detected, `false` otherwise
+         * @return a value to be returned on a recursive call or subsequent calls
+         */
+        protected open fun recursionDetected(firstTime: Boolean): T =
+            throw IllegalStateException("Recursive call in a lazy value under ${this@ConcurrentStorageManager}")
+
+        protected open fun postCompute(value: T) {
+        }
+    }
+
+    private class NotNullValue<T : Any>(private val value: LazyValue<T>) : NotNullLazyValue<T> {
+        override fun invoke(): T = value.get()
+        override fun isComputed(): Boolean = value.isComputed()
+        override fun isComputing(): Boolean = value.isComputing()
+    }
+
+    private class NullableValue<T : Any>(private val value: LazyValue<T?>) : NullableLazyValue<T> {
+        override fun invoke(): T? = value.get()
+        override fun isComputed(): Boolean = value.isComputed()
+        override fun isComputing(): Boolean = value.isComputing()
+    }
+
+    private inner class MemoizedFunction<K, V : Any>(private val cache: ConcurrentMap<K, Any>, private val compute: (K) -> V?) {
+        fun isComputed(key: K): Boolean {
+            val value = cache[key]
+            return value != null && value !is Computation
+        }
+
+        fun get(input: K): V? {
+            while (true) {
+                val value = cache[input]
+                when (value) {
+                    null -> {
+                        val computation = Computation(Thread.currentThread())
+                        if (cache.putIfAbsent(input, computation) == null) return compute(input, computation)
+                    }
+                    is Computation -> {
+                        if (value.owner === Thread.currentThread()) {
+                            throw AssertionError("Recursion detected on input: $input under ${this@ConcurrentStorageManager}")
+                        }
+                        if (!awaitComputation(value) { cache[input] !== value }) {
+                            val computation = Computation(Thread.currentThread())
+                            if (cache.replace(input, value, computation)) {
+                                value.notifyWaiters()
+                                return compute(input, computation)
+                            }
+                        }
+                    }
+                    else -> return WrappedValues.unescapeExceptionOrNull(value)
+                }
+            }
+        }
+
+        private fun compute(input: K, computation: Computation): V? {
+            var error: AssertionError? = null
+            try {
+                val typedValue = compute.invoke(input)
+                if (!publish(input, computation, WrappedValues.escapeNull(typedValue))) {
+                    // the value may have been computed by another thread to break a deadlock, see the class KDoc
+                    if (cache[input] != null) return get(input)
+                    error = raceCondition(input)
+                    throw error
+                }
+                return typedValue
+            } catch (throwable: Throwable) {
+                if (throwable.isProcessCanceledException()) {
+                    cache.remove(input, computation)
+                    computation.notifyWaiters()
+                    throw throwable
+                }
+                if (throwable === error) {
+                    throw exceptionHandlingStrategy.handleException(throwable)
+                }
+
+                if (!publish(input, computation, WrappedValues.escapeThrowable(throwable))) {
+                    if (cache[input] != null) return get(input)
+                    throw raceCondition(input)
+                }
+                throw exceptionHandlingStrategy.handleException(throwable)
+            }
+        }
+
+        private fun publish(input: K, computation: Computation, value: Any): Boolean =
+            cache.replace(input, computation, value).also { computation.notifyWaiters() }
+
+        private fun raceCondition(input: K) =
+            AssertionError("Race condition detected on input $input. Old value is ${cache[input]} under ${this@ConcurrentStorageManager}")
+    }
+
+    // equals and hashCode use only key
+    private class KeyWithComputation<out K, out V>(private val key: K, val computation: () -> V) {
+        override fun equals(other: Any?): Boolean = this === other || other is KeyWithComputation<*, *> && key == other.key
+        override fun hashCode(): Int = key?.hashCode() ?: 0
+    }
+
+    private class ComputeLock {
+        @Volatile
+        private var owner: Thread? = null
+        private var holdCount = 0
+
+        fun lock() {
+            val currentThread = Thread.currentThread()
+            if (owner === currentThread) {
+                holdCount++
+                return
+            }
+            synchronized(this) {
+                while (owner != null) {
+                    @Suppress("PLATFORM_CLASS_MAPPED_TO_KOTLIN")
+                    (this as Object).wait()
+                }
+                owner = currentThread
+                holdCount = 1
+            }
+        }
+
+        fun unlock() {
+            if (--holdCount == 0) {
+                release()
+            }
+        }
+
+        /**
+         * Releases the lock if it's held by the current thread, and returns the number of holds to be restored with [reacquire].
+         */
+        fun releaseIfHeld(): Int {
+            if (owner !== Thread.currentThread()) return 0
+            val holds = holdCount
+            holdCount = 0
+            release()
+            return holds
+        }
+
+        fun reacquire(holds: Int) {
+            if (holds == 0) return
+            lock()
+            holdCount = holds
+        }
+
+        private fun release() {
+            synchronized(this) {
+                owner = null
+                @Suppress("PLATFORM_CLASS_MAPPED_TO_KOTLIN")
+                (this as Object).notifyAll()
+            }
+        }
+    }
+
+    /**
+     * A value being computed by [owner]. Threads waiting for the value wait on this object, so they're woken up only when
+     * the computation of this particular value finishes.
+     */
+    private class Computation(val owner: Thread) {
+        @Volatile
+        var recursionDetected = false
+
+        @Volatile
+        private var hasWaiters = false
+
+        fun await(isDone: () -> Boolean) {
+            synchronized(this) {
+                // set before checking the value, so that either the value is seen changed or the thread changing it notifies this one
+                hasWaiters = true
+                while (!isDone()) {
+                    @Suppress("PLATFORM_CLASS_MAPPED_TO_KOTLIN")
+                    (this as Object).wait()
+                }
+            }
+        }
+
+        // Should be called after the value is changed, so that the waiters see it when checking isDone
+        fun notifyWaiters() {
+            if (!hasWaiters) return
+            synchronized(this) {
+                @Suppress("PLATFORM_CLASS_MAPPED_TO_KOTLIN")
+                (this as Object).notifyAll()
+            }
+        }
+
+        override fun toString(): String = "COMPUTING in ${owner.name}"
+    }
+
+    /**
+     * Waits until [isDone] returns true.
+     * Returns `false` without waiting if waiting for [computation] would lead to a deadlock, then the current thread should
+     * compute the value itself. The lock of [compute] is released while waiting, so it can't be a part of a deadlock.
+     */
+    private fun awaitComputation(computation: Computation, isDone: () -> Boolean): Boolean {
+        val currentThread = Thread.currentThread()
+        // Out of several threads forming a cycle at the same time, exactly one (the last to register) finds it
+        synchronized(waitingFor) {
+            if (isWaitingFor(computation.owner, currentThread)) return false
+            waitingFor[currentThread] = computation
+        }
+        try {
+            val holds = computeLock.releaseIfHeld()
+            try {
+                computation.await(isDone)
+            } finally {
+                computeLock.reacquire(holds)
+            }
+            return true
+        } finally {
+            synchronized(waitingFor) {
+                waitingFor.remove(currentThread)
+            }
+        }
+    }
+
+    private companion object {
+        val NOT_COMPUTED = Any()
+        val RECURSION_WAS_DETECTED = Any()
+
+        // Computations which threads are waiting for, across all storage managers since a computation in one of them
+        // may request a value of another one. The map is locked only to register a waiting thread, not while waiting.
+        val waitingFor = HashMap<Thread, Computation>()
+
+        // Returns true if 'owner' (transitively) waits for 'thread', should be called under the lock of 'waitingFor'
+        private fun isWaitingFor(owner: Thread, thread: Thread): Boolean {
+            val visited = HashSet<Thread>()
+            var current: Thread? = owner
+            while (current != null && visited.add(current)) {
+                if (current === thread) return true
+                current = waitingFor[current]?.owner
+            }
+            return false
+        }
+    }
+}
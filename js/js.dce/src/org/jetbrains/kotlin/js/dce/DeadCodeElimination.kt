@@ -23,6 +23,7 @@ import org.jetbrains.kotlin.js.backend.ast.JsBlock
 import org.jetbrains.kotlin.js.backend.ast.JsGlobalBlock
 import org.jetbrains.kotlin.js.backend.ast.JsNode
 import org.jetbrains.kotlin.js.backend.ast.JsProgram
+import org.jetbrains.kotlin.js.backend.ast.JsStatement
 import org.jetbrains.kotlin.js.dce.Context.Node
 import org.jetbrains.kotlin.js.facade.SourceMapBuilderConsumer
 import org.jetbrains.kotlin.js.inline.util.collectDefinedNames
@@ -46,6 +47,10 @@ class DeadCodeElimination(private val logConsumer: (DCELogLevel, String) -> Unit
         private set
 
     fun apply(root: JsNode) {
+        Eliminator(analyze(root)).accept(root)
+    }
+
+    private fun analyze(root: JsNode): AnalysisResult {
         val context = Context()
 
         val topLevelVars = collectDefinedNames(root)
@@ -68,40 +73,45 @@ class DeadCodeElimination(private val logConsumer: (DCELogLevel, String) -> Unit
         }
         reachableNodes = usageFinder.reachableNodes
 
-        Eliminator(analyzer.analysisResult).accept(root)
+        return analyzer.analysisResult
     }
 
     companion object {
+        /**
+         * With a [cache], unchanged inputs are not parsed again and unchanged outputs are not written again,
+         * see [DeadCodeEliminationCache]. Unless [needsReachableNodes] is set, a run whose inputs and outputs haven't changed
+         * since the previous one skips the analysis, and the result doesn't contain reachable nodes.
+         */
         fun run(
                 inputFiles: Collection<InputFile>,
                 rootReachableNames: Set<String>,
-                logConsumer: (DCELogLevel, String) -> Unit
+                logConsumer: (DCELogLevel, String) -> Unit,
+                cache: DeadCodeEliminationCache? = null,
+                needsReachableNodes: Boolean = false
         ): DeadCodeEliminationResult {
+            val inputHashes = if (cache != null) inputFiles.map { DeadCodeEliminationCache.hashInput(it) } else null
+            val runHash = inputHashes?.let {
+                DeadCodeEliminationCache.hashRun(it, inputFiles, rootReachableNames, needsReachableNodes)
+            }
+            if (cache != null && !needsReachableNodes && cache.isUpToDate(runHash!!)) {
+                logConsumer(DCELogLevel.INFO, "Inputs haven't changed since the previous run, outputs are up to date")
+                return DeadCodeEliminationResult(emptySet(), DeadCodeEliminationStatus.OK)
+            }
+
             val program = JsProgram()
             val dce = DeadCodeElimination(logConsumer)
 
             var hasErrors = false
-            val blocks = inputFiles.map { file ->
+            val blocks = inputFiles.mapIndexed { index, file ->
                 val block = JsGlobalBlock()
-                val code = file.resource.reader().let { InputStreamReader(it, "UTF-8") }.use { it.readText() }
-                val statements = parse(code, Reporter(file.resource.name, logConsumer), program.scope, file.resource.name) ?: run {
-                    hasErrors = true
-                    return@map block
-                }
-                val sourceMapParse = file.sourceMapResource
-                        ?.let { InputStreamReader(it.reader(), "UTF-8") }
-                        ?.use { SourceMapParser.parse(it) }
-                when (sourceMapParse) {
-                    is SourceMapError -> {
-                        logConsumer(
-                                DCELogLevel.WARN,
-                                "Error parsing source map file ${file.sourceMapResource}: ${sourceMapParse.message}")
-                    }
-                    is SourceMapSuccess -> {
-                        val sourceMap = sourceMapParse.value
-                        val remapper = SourceMapLocationRemapper(sourceMap)
-                        statements.forEach { remapper.remap(it) }
+                val inputHash = inputHashes?.get(index)
+                val statements = inputHash?.let { cache!!.loadStatements(it, program) } ?: run {
+                    val parsed = parseInput(file, program, logConsumer) ?: run {
+                        hasErrors = true
+                        return@mapIndexed block
                     }
+                    inputHash?.let { cache!!.saveStatements(it, program, parsed) }
+                    parsed
                 }
                 block.statements += statements
                 file.moduleName?.let { dce.moduleMapping[block] = it }
@@ -114,33 +124,90 @@ class DeadCodeElimination(private val logConsumer: (DCELogLevel, String) -> Unit
             program.globalBlock.fixForwardNameReferences()
 
             dce.reachableNames += rootReachableNames
-            dce.apply(program.globalBlock)
+            val analysisResult = dce.analyze(program.globalBlock)
+
+            val outputRecords = LinkedHashMap<String, DeadCodeEliminationCache.OutputRecord>()
+            for ((index, file) in inputFiles.withIndex()) {
+                val block = blocks[index]
+                val eliminator = Eliminator(analysisResult)
+                eliminator.accept(block)
+
+                val inputHash = inputHashes?.get(index)
+                val fingerprint = eliminator.fingerprint
+                val previousRecord = cache?.getOutputRecord(file.outputPath)
+                val isOutputUpToDate = cache != null && previousRecord != null &&
+                                       previousRecord.inputHash == inputHash &&
+                                       previousRecord.eliminationFingerprint == fingerprint &&
+                                       cache.isOutputIntact(file.outputPath, previousRecord)
+                if (!isOutputUpToDate) {
+                    writeOutput(file, block)
+                }
 
-            for ((file, block) in inputFiles.zip(blocks)) {
-                val sourceMapFile = File(file.outputPath + ".map")
-                val textOutput = TextOutputImpl()
-                val sourceMapBuilder = SourceMap3Builder(File(file.outputPath), textOutput, "")
+                if (cache != null) {
+                    val outputStamp = DeadCodeEliminationCache.FileStamp.of(File(file.outputPath))
+                    val sourceMapStamp = if (file.sourceMapResource != null) {
+                        DeadCodeEliminationCache.FileStamp.of(File(file.outputPath + ".map"))
+                    }
+                    else {
+                        null
+                    }
+                    if (outputStamp != null) {
+                        outputRecords[file.outputPath] =
+                                DeadCodeEliminationCache.OutputRecord(inputHash!!, fingerprint, outputStamp, sourceMapStamp)
+                    }
+                }
+            }
 
-                val inputFile = File(file.resource.name)
-                val sourceBaseDir = if (inputFile.exists()) inputFile.parentFile else File(".")
+            if (cache != null) {
+                cache.saveRun(runHash!!, outputRecords)
+            }
 
-                val sourcePathResolver = SourceFilePathResolver(emptyList(), File(file.outputPath).parentFile)
-                val consumer = SourceMapBuilderConsumer(sourceBaseDir, sourceMapBuilder, sourcePathResolver, true, true)
-                block.accept(JsToStringGenerationVisitor(textOutput, consumer))
-                val sourceMapContent = sourceMapBuilder.build()
-                sourceMapBuilder.addLink()
+            return DeadCodeEliminationResult(dce.reachableNodes, DeadCodeEliminationStatus.OK)
+        }
 
-                with(File(file.outputPath)) {
-                    parentFile.mkdirs()
-                    writeText(textOutput.toString())
+        private fun parseInput(file: InputFile, program: JsProgram, logConsumer: (DCELogLevel, String) -> Unit): List<JsStatement>? {
+            val code = file.resource.reader().let { InputStreamReader(it, "UTF-8") }.use { it.readText() }
+            val statements = parse(code, Reporter(file.resource.name, logConsumer), program.scope, file.resource.name) ?: return null
+            val sourceMapParse = file.sourceMapResource
+                    ?.let { InputStreamReader(it.reader(), "UTF-8") }
+                    ?.use { SourceMapParser.parse(it) }
+            when (sourceMapParse) {
+                is SourceMapError -> {
+                    logConsumer(
+                            DCELogLevel.WARN,
+                            "Error parsing source map file ${file.sourceMapResource}: ${sourceMapParse.message}")
                 }
-
-                if (file.sourceMapResource != null) {
-                    sourceMapFile.writeText(sourceMapContent)
+                is SourceMapSuccess -> {
+                    val sourceMap = sourceMapParse.value
+                    val remapper = SourceMapLocationRemapper(sourceMap)
+                    statements.forEach { remapper.remap(it) }
                 }
             }
+            return statements
+        }
 
-            return DeadCodeEliminationResult(dce.reachableNodes, DeadCodeEliminationStatus.OK)
+        private fun writeOutput(file: InputFile, block: JsGlobalBlock) {
+            val sourceMapFile = File(file.outputPath + ".map")
+            val textOutput = TextOutputImpl()
+            val sourceMapBuilder = SourceMap3Builder(File(file.outputPath), textOutput, "")
+
+            val inputFile = File(file.resource.name)
+            val sourceBaseDir = if (inputFile.exists()) inputFile.parentFile else File(".")
+
+            val sourcePathResolver = SourceFilePathResolver(emptyList(), File(file.outputPath).parentFile)
+            val consumer = SourceMapBuilderConsumer(sourceBaseDir, sourceMapBuilder, sourcePathResolver, true, true)
+            block.accept(JsToStringGenerationVisitor(textOutput, consumer))
+            val sourceMapContent = sourceMapBuilder.build()
+            sourceMapBuilder.addLink()
+
+            with(File(file.outputPath)) {
+                parentFile.mkdirs()
+                writeText(textOutput.toString())
+            }
+
+            if (file.sourceMapResource != null) {
+                sourceMapFile.writeText(sourceMapContent)
+            }
         }
 
         private class Reporter(private val fileName: String, private val logConsumer: (DCELogLevel, String) -> Unit) : ErrorReporter {
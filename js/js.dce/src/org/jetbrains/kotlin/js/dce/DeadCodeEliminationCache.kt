@@ -0,0 +1,269 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.js.dce
+
+import org.jetbrains.kotlin.js.backend.ast.*
+import org.jetbrains.kotlin.serialization.js.ast.JsAstDeserializer
+import org.jetbrains.kotlin.serialization.js.ast.JsAstSerializer
+import java.io.*
+import java.security.MessageDigest
+
+/**
+ * Persists data of previous runs of [DeadCodeElimination] in [cacheDir]:
+ *
+ * - the parsed statements of every input, with the source map already applied, keyed by the hash of the input's contents,
+ *   so that unchanged inputs are deserialized instead of being parsed again;
+ * - for every output file, the hash of its input and a fingerprint of the declarations eliminated from it,
+ *   so that an output is not generated again if neither its input nor the set of its eliminated declarations has changed;
+ * - a hash of all inputs and options of the run, so that a run with the same inputs doesn't do anything if its outputs are intact.
+ *
+ * The reachability analysis itself is global, since declarations of different inputs are merged while the analysis
+ * proceeds, so it is repeated on every run which has at least one changed input.
+ */
+class DeadCodeEliminationCache(private val cacheDir: File) {
+    private val astDir = File(cacheDir, "ast")
+    private val manifestFile = File(cacheDir, "outputs.tab")
+
+    private var manifest: Manifest? = null
+
+    class OutputRecord(
+        val inputHash: String,
+        val eliminationFingerprint: String,
+        val outputStamp: FileStamp,
+        val sourceMapStamp: FileStamp?
+    )
+
+    data class FileStamp(val length: Long, val lastModified: Long) {
+        companion object {
+            fun of(file: File): FileStamp? = if (file.isFile) FileStamp(file.length(), file.lastModified()) else null
+        }
+    }
+
+    private class Manifest(val runHash: String, val outputs: Map<String, OutputRecord>)
+
+    fun isUpToDate(runHash: String): Boolean {
+        val manifest = loadManifest() ?: return false
+        return manifest.runHash == runHash && manifest.outputs.all { (outputPath, record) -> isOutputIntact(outputPath, record) }
+    }
+
+    fun getOutputRecord(outputPath: String): OutputRecord? = loadManifest()?.outputs?.get(outputPath)
+
+    fun isOutputIntact(outputPath: String, record: OutputRecord): Boolean =
+        FileStamp.of(File(outputPath)) == record.outputStamp &&
+                (record.sourceMapStamp == null || FileStamp.of(File("$outputPath.map")) == record.sourceMapStamp)
+
+    /**
+     * Returns the statements of the input with the given hash parsed by a previous run, or `null` if they are not cached.
+     */
+    fun loadStatements(inputHash: String, program: JsProgram): List<JsStatement>? {
+        val file = File(astDir, "$inputHash.ast")
+        if (!file.isFile) return null
+
+        return try {
+            DataInputStream(BufferedInputStream(FileInputStream(file))).use { input ->
+                if (input.readInt() != VERSION) return null
+
+                val hasEmbeddedSources = input.readBoolean()
+                val sourceContents = HashMap<String, String?>()
+                repeat(input.readInt()) {
+                    val sourceFile = input.readUTF()
+                    sourceContents[sourceFile] = if (input.readBoolean()) {
+                        String(ByteArray(input.readInt()).also(input::readFully), Charsets.UTF_8)
+                    } else {
+                        null
+                    }
+                }
+
+                val statements = JsAstDeserializer(program, emptyList()).deserialize(input).declarationBlock.statements
+                if (hasEmbeddedSources) {
+                    restoreEmbeddedSources(statements, sourceContents)
+                }
+                statements
+            }
+        } catch (e: IOException) {
+            null
+        }
+    }
+
+    fun saveStatements(inputHash: String, program: JsProgram, statements: List<JsStatement>) {
+        val fragment = JsProgramFragment(program.scope, "")
+        fragment.declarationBlock.statements += statements
+
+        writeAtomically(File(astDir, "$inputHash.ast")) { output ->
+            val sourceContents = collectEmbeddedSources(statements)
+            output.writeInt(VERSION)
+            output.writeBoolean(sourceContents != null)
+
+            output.writeInt(sourceContents?.size ?: 0)
+            for ((sourceFile, content) in sourceContents.orEmpty()) {
+                output.writeUTF(sourceFile)
+                output.writeBoolean(content != null)
+                if (content != null) {
+                    val bytes = content.toByteArray(Charsets.UTF_8)
+                    output.writeInt(bytes.size)
+                    output.write(bytes)
+                }
+            }
+
+            JsAstSerializer(null) { it.path }.serialize(fragment, output)
+        }
+    }
+
+    /**
+     * Saves the records of the current run and deletes the parsed statements of the inputs which are not used anymore.
+     */
+    fun saveRun(runHash: String, outputs: Map<String, OutputRecord>) {
+        val newManifest = Manifest(runHash, outputs)
+        writeAtomically(manifestFile) { output ->
+            output.writeInt(VERSION)
+            output.writeUTF(runHash)
+            output.writeInt(outputs.size)
+            for ((outputPath, record) in outputs) {
+                output.writeUTF(outputPath)
+                output.writeUTF(record.inputHash)
+                output.writeUTF(record.eliminationFingerprint)
+                writeStamp(output, record.outputStamp)
+                output.writeBoolean(record.sourceMapStamp != null)
+                record.sourceMapStamp?.let { writeStamp(output, it) }
+            }
+        }
+        manifest = newManifest
+
+        val usedAstFiles = outputs.values.mapTo(HashSet()) { "${it.inputHash}.ast" }
+        astDir.listFiles()?.filter { it.name !in usedAstFiles }?.forEach { it.delete() }
+    }
+
+    private fun loadManifest(): Manifest? {
+        manifest?.let { return it }
+        if (!manifestFile.isFile) return null
+
+        return try {
+            DataInputStream(BufferedInputStream(FileInputStream(manifestFile))).use { input ->
+                if (input.readInt() != VERSION) return null
+
+                val runHash = input.readUTF()
+                val outputs = LinkedHashMap<String, OutputRecord>()
+                repeat(input.readInt()) {
+                    val outputPath = input.readUTF()
+                    val inputHash = input.readUTF()
+                    val fingerprint = input.readUTF()
+                    val outputStamp = readStamp(input)
+                    val sourceMapStamp = if (input.readBoolean()) readStamp(input) else null
+                    outputs[outputPath] = OutputRecord(inputHash, fingerprint, outputStamp, sourceMapStamp)
+                }
+                Manifest(runHash, outputs)
+            }
+        } catch (e: IOException) {
+            null
+        }?.also { manifest = it }
+    }
+
+    private fun writeStamp(output: DataOutputStream, stamp: FileStamp) {
+        output.writeLong(stamp.length)
+        output.writeLong(stamp.lastModified)
+    }
+
+    private fun readStamp(input: DataInputStream): FileStamp = FileStamp(input.readLong(), input.readLong())
+
+    private fun writeAtomically(file: File, write: (DataOutputStream) -> Unit) {
+        try {
+            file.parentFile.mkdirs()
+            // write to a temporary file first, so that a concurrent run never sees an incomplete file
+            val tmpFile = File.createTempFile(file.name, ".tmp", file.parentFile)
+            DataOutputStream(BufferedOutputStream(FileOutputStream(tmpFile))).use(write)
+            if (!tmpFile.renameTo(file)) {
+                file.delete()
+                if (!tmpFile.renameTo(file)) {
+                    tmpFile.delete()
+                }
+            }
+        } catch (e: IOException) {
+            // the cache is only an optimization
+        }
+    }
+
+    // The source map remapper replaces locations of all nodes with locations in the original sources, which provide the sources
+    // embedded into the source map. Locations are serialized without them, so they are restored after deserialization.
+    // Returns `null` if the source map hasn't been applied to the statements.
+    private fun collectEmbeddedSources(statements: List<JsStatement>): Map<String, String?>? {
+        val result = LinkedHashMap<String, String?>()
+        var hasEmbeddedSources = false
+        visitLocations(statements) { _, location ->
+            if (location is JsLocationWithEmbeddedSource) {
+                hasEmbeddedSources = true
+                if (location.file !in result) {
+                    result[location.file] = location.sourceProvider()?.use { it.readText() }
+                }
+            }
+        }
+        return if (hasEmbeddedSources) result else null
+    }
+
+    private fun restoreEmbeddedSources(statements: List<JsStatement>, sourceContents: Map<String, String?>) {
+        visitLocations(statements) { node, location ->
+            val content = sourceContents[location.file]
+            node.source = JsLocationWithEmbeddedSource(location.asSimpleLocation(), null) { content?.let(::StringReader) }
+        }
+    }
+
+    private fun visitLocations(statements: List<JsStatement>, action: (JsNode, JsLocationWithSource) -> Unit) {
+        val visitor = object : RecursiveJsVisitor() {
+            override fun visitElement(node: JsNode) {
+                (node.source as? JsLocationWithSource)?.let { action(node, it) }
+                super.visitElement(node)
+            }
+        }
+        statements.forEach { it.accept(visitor) }
+    }
+
+    companion object {
+        private const val VERSION = 1
+
+        /**
+         * Hashes everything the parsed statements of [file] depend on: its name, which is used in the locations,
+         * and the contents of the file and its source map.
+         */
+        fun hashInput(file: InputFile): String {
+            val digest = MessageDigest.getInstance("SHA-1")
+            digest.update(file.resource.name.toByteArray(Charsets.UTF_8))
+            for (resource in listOf(file.resource, file.sourceMapResource)) {
+                digest.update(if (resource != null) 1.toByte() else 0.toByte())
+                resource?.reader()?.use { input ->
+                    val buffer = ByteArray(64 * 1024)
+                    while (true) {
+                        val count = input.read(buffer)
+                        if (count < 0) break
+                        digest.update(buffer, 0, count)
+                    }
+                }
+            }
+            return digest.digest().toHexString()
+        }
+
+        /**
+         * Hashes the inputs of the run along with the options of the elimination, so that a run with different options
+         * is never considered up to date.
+         */
+        fun hashRun(
+            inputHashes: List<String>,
+            inputFiles: Collection<InputFile>,
+            rootReachableNames: Set<String>,
+            needsReachableNodes: Boolean
+        ): String {
+            val digest = MessageDigest.getInstance("SHA-1")
+            digest.update("$VERSION\u0000$needsReachableNodes\u0000".toByteArray(Charsets.UTF_8))
+            for ((hash, file) in inputHashes.zip(inputFiles)) {
+                digest.update("$hash\u0000${file.outputPath}\u0000${file.moduleName}\u0000".toByteArray(Charsets.UTF_8))
+            }
+            for (name in rootReachableNames.sorted()) {
+                digest.update("$name\u0000".toByteArray(Charsets.UTF_8))
+            }
+            return digest.digest().toHexString()
+        }
+
+        internal fun ByteArray.toHexString(): String = joinToString("") { String.format("%02x", it) }
+    }
+}
@@ -17,8 +17,22 @@
 package org.jetbrains.kotlin.js.dce
 
 import org.jetbrains.kotlin.js.backend.ast.*
+import org.jetbrains.kotlin.js.dce.DeadCodeEliminationCache.Companion.toHexString
+import java.nio.ByteBuffer
+import java.security.MessageDigest
 
 class Eliminator(private val analysisResult: AnalysisResult) : JsVisitorWithContextImpl() {
+    private var visitedNodes = 0
+
+    private val removedNodesDigest = MessageDigest.getInstance("SHA-1")
+
+    /**
+     * Identifies the positions of the removed nodes among the visited ones, so that the same fingerprint of the same input
+     * means the same output.
+     */
+    val fingerprint: String
+        get() = (removedNodesDigest.clone() as MessageDigest).digest().toHexString()
+
     override fun visit(x: JsVars.JsVar, ctx: JsContext<*>): Boolean = removeIfNecessary(x, ctx)
 
     override fun visit(x: JsExpressionStatement, ctx: JsContext<*>): Boolean = removeIfNecessary(x, ctx)
@@ -26,13 +40,14 @@ class Eliminator(private val analysisResult: AnalysisResult) : JsVisitorWithCont
     override fun visit(x: JsReturn, ctx: JsContext<*>): Boolean = removeIfNecessary(x, ctx)
 
     private fun removeIfNecessary(x: JsNode, ctx: JsContext<*>): Boolean {
+        val index = visitedNodes++
         if (x in analysisResult.astNodesToEliminate) {
-            ctx.removeMe()
+            remove(index, ctx)
             return false
         }
         val node = analysisResult.nodeMap[x]?.original
         return if (!isUsed(node)) {
-            ctx.removeMe()
+            remove(index, ctx)
             false
         }
         else {
@@ -40,6 +55,11 @@ class Eliminator(private val analysisResult: AnalysisResult) : JsVisitorWithCont
         }
     }
 
+    private fun remove(index: Int, ctx: JsContext<*>) {
+        ctx.removeMe()
+        removedNodesDigest.update(ByteBuffer.allocate(4).putInt(index).array())
+    }
+
     override fun endVisit(x: JsVars, ctx: JsContext<*>) {
         if (x.vars.isEmpty()) {
             ctx.removeMe()
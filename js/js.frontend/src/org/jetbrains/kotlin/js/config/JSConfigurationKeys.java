@@ -69,4 +69,7 @@ public class JSConfigurationKeys {
 
     public static final CompilerConfigurationKey<List<String>> FRIEND_PATHS =
             CompilerConfigurationKey.create("friend module paths");
+
+    public static final CompilerConfigurationKey<Boolean> LAZY_IR_LINKING =
+            CompilerConfigurationKey.create("link IR of library declarations only when they are referenced");
 }
@@ -97,7 +97,7 @@ abstract class BasicIrBoxTest(
                 phaseConfig = config.configuration.get(CLIConfigurationKeys.PHASE_CONFIG) ?: PhaseConfig(jsPhases),
                 immediateDependencies = dependencies,
                 allDependencies = allDependencies
-            )
+            ).jsCode
 
             val wrappedCode = wrapWithModuleEmulationMarkers(jsCode, moduleId = config.moduleId, moduleKind = config.moduleKind)
             outputFile.write(wrappedCode)
@@ -0,0 +1,70 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.js.test
+
+import org.jetbrains.kotlin.backend.common.phaser.PhaseConfig
+import org.jetbrains.kotlin.cli.jvm.compiler.EnvironmentConfigFiles
+import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment
+import org.jetbrains.kotlin.config.CommonConfigurationKeys
+import org.jetbrains.kotlin.config.CompilerConfiguration
+import org.jetbrains.kotlin.ir.backend.js.CompilerResult
+import org.jetbrains.kotlin.ir.backend.js.KlibModuleRef
+import org.jetbrains.kotlin.ir.backend.js.compile
+import org.jetbrains.kotlin.ir.backend.js.jsPhases
+import org.jetbrains.kotlin.js.config.JSConfigurationKeys
+import org.jetbrains.kotlin.serialization.js.ModuleKind
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import org.jetbrains.kotlin.test.KotlinTestWithEnvironment
+
+class IrLazyLinkingTest : KotlinTestWithEnvironment() {
+    override fun createEnvironment() =
+        KotlinCoreEnvironment.createForTests(testRootDisposable, CompilerConfiguration(), EnvironmentConfigFiles.JS_CONFIG_FILES)
+
+    fun testLazyLinkingLinksOnlyReferencedDeclarations() {
+        val eager = compileToJs(lazyLinking = false)
+        val lazy = compileToJs(lazyLinking = true)
+
+        val available = eager.linkingStatistics.availableTopLevelDeclarations
+        assertEquals(available, lazy.linkingStatistics.availableTopLevelDeclarations)
+        assertTrue(eager.linkingStatistics.toString(), eager.linkingStatistics.linkedTopLevelDeclarations <= available)
+        // the unused top level properties of the runtime and everything they reference are not linked
+        assertTrue(
+            "eager: ${eager.linkingStatistics}, lazy: ${lazy.linkingStatistics}",
+            lazy.linkingStatistics.linkedTopLevelDeclarations < eager.linkingStatistics.linkedTopLevelDeclarations
+        )
+
+        for (name in listOf("box", "Counter", "joinToString")) {
+            assertTrue("$name is not generated", name in lazy.jsCode)
+        }
+    }
+
+    private fun compileToJs(lazyLinking: Boolean): CompilerResult {
+        val configuration = environment.configuration.copy().apply {
+            put(CommonConfigurationKeys.MODULE_NAME, "main")
+            put(JSConfigurationKeys.MODULE_KIND, ModuleKind.PLAIN)
+            put(JSConfigurationKeys.LAZY_IR_LINKING, lazyLinking)
+        }
+        val file = KotlinTestUtils.createFile("main.kt", SOURCE, project)
+        return compile(project, listOf(file), configuration, PhaseConfig(jsPhases), RUNTIME, RUNTIME)
+    }
+
+    private companion object {
+        val RUNTIME = listOf(KlibModuleRef("JS_IR_RUNTIME", "compiler/ir/serialization.js/build/fullRuntime/klib"))
+
+        val SOURCE = """
+            class Counter {
+                var count = 0
+                fun inc() = ++count
+            }
+
+            fun box(): String {
+                val counter = Counter()
+                val values = listOf(counter.inc(), counter.inc())
+                return if (values.joinToString() == "1, 2") "OK" else "fail"
+            }
+        """.trimIndent()
+    }
+}
@@ -0,0 +1,122 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package org.jetbrains.kotlin.js.test
+
+import org.jetbrains.kotlin.backend.common.phaser.*
+import org.jetbrains.kotlin.cli.jvm.compiler.EnvironmentConfigFiles
+import org.jetbrains.kotlin.cli.jvm.compiler.KotlinCoreEnvironment
+import org.jetbrains.kotlin.config.CommonConfigurationKeys
+import org.jetbrains.kotlin.config.CompilerConfiguration
+import org.jetbrains.kotlin.ir.backend.js.*
+import org.jetbrains.kotlin.ir.declarations.IrFile
+import org.jetbrains.kotlin.ir.declarations.impl.IrFileImpl
+import org.jetbrains.kotlin.ir.util.patchDeclarationParents
+import org.jetbrains.kotlin.js.config.JSConfigurationKeys
+import org.jetbrains.kotlin.psi.KtFile
+import org.jetbrains.kotlin.serialization.js.ModuleKind
+import org.jetbrains.kotlin.test.KotlinTestUtils
+import org.jetbrains.kotlin.test.KotlinTestWithEnvironment
+
+class IrParallelLoweringTest : KotlinTestWithEnvironment() {
+    override fun createEnvironment() =
+        KotlinCoreEnvironment.createForTests(testRootDisposable, CompilerConfiguration(), EnvironmentConfigFiles.JS_CONFIG_FILES)
+
+    fun testParallelLoweringMatchesSequentialLowering() {
+        val files = createFiles()
+
+        val sequential = compileToJs(files, PhaseConfig(jsPhases))
+        // Also lowers the files sequentially and fails if any of them differs from the parallel result
+        val parallel = compileToJs(files, PhaseConfig(jsPhases, fileLoweringThreads = THREADS, verifyParallelLowering = true))
+
+        assertEquals(sequential, parallel)
+    }
+
+    fun testVerificationDoesNotProfileLoweredCopies() {
+        val profiler = PhaseProfiler(countIrElements = false)
+        compileToJs(createFiles(), PhaseConfig(jsPhases, fileLoweringThreads = THREADS, verifyParallelLowering = true, profiler = profiler))
+
+        val tailrecLowering = profiler.getMeasurements().single { it.phaseName == "TailrecLowering" }
+        assertEquals(FILES, tailrecLowering.invocations)
+    }
+
+    fun testFilesReturnedByFilePhasesReplaceLoweredFiles() {
+        val (module, _, irBuiltIns, symbolTable, _) = loadIr(project, createFiles(), createConfiguration(), RUNTIME, RUNTIME)
+        val context = JsIrBackendContext(module.descriptor, irBuiltIns, symbolTable, module, createConfiguration())
+
+        for (filePhase in listOf(
+            performByIrFile(lower = MoveToNewFilePhase()),
+            performByIrFileInParallel(lower = MoveToNewFilePhase())
+        )) {
+            val files = module.files.toList()
+            val declarationCounts = files.map { it.declarations.size }
+
+            filePhase.invokeToplevel(PhaseConfig(filePhase, fileLoweringThreads = THREADS), context, module)
+
+            assertEquals(files.size, module.files.size)
+            for ((index, file) in module.files.withIndex()) {
+                assertNotSame(files[index], file)
+                assertEquals(files[index].fileEntry.name, file.fileEntry.name)
+                assertEquals(declarationCounts[index], file.declarations.size)
+            }
+        }
+    }
+
+    // Returns a new file with the declarations of the lowered one
+    private class MoveToNewFilePhase : SameTypeCompilerPhase<JsIrBackendContext, IrFile> {
+        override fun invoke(phaseConfig: PhaseConfig, phaserState: PhaserState<IrFile>, context: JsIrBackendContext, input: IrFile): IrFile =
+            IrFileImpl(input.fileEntry, input.packageFragmentDescriptor).apply {
+                declarations += input.declarations
+                input.declarations.clear()
+                patchDeclarationParents()
+            }
+    }
+
+    private fun compileToJs(files: List<KtFile>, phaseConfig: PhaseConfig): String =
+        compile(project, files, createConfiguration(), phaseConfig, RUNTIME, RUNTIME).jsCode
+
+    private fun createConfiguration(): CompilerConfiguration =
+        environment.configuration.copy().apply {
+            put(CommonConfigurationKeys.MODULE_NAME, "main")
+            put(JSConfigurationKeys.MODULE_KIND, ModuleKind.PLAIN)
+        }
+
+    private fun createFiles(): List<KtFile> =
+        (0 until FILES).map { index -> KotlinTestUtils.createFile("file$index.kt", source(index), project) }
+
+    private companion object {
+        const val FILES = 8
+        const val THREADS = 4
+
+        val RUNTIME = listOf(KlibModuleRef("JS_IR_RUNTIME", "compiler/ir/serialization.js/build/fullRuntime/klib"))
+
+        // Each file has lateinit properties and variables, and tailrec functions, some of which call the ones of other files
+        fun source(index: Int): String {
+            val next = (index + 1) % FILES
+            return """
+                package test$index
+
+                class Holder$index {
+                    lateinit var value: String
+
+                    fun isReady() = this::value.isInitialized
+                }
+
+                tailrec fun count$index(n: Int, acc: Int = 0): Int = if (n == 0) acc else count$index(n - 1, acc + $index)
+
+                tailrec fun find$index(values: List<String>, index: Int = 0): Int =
+                    if (index >= values.size || values[index] == "$index") index else find$index(values, index + 1)
+
+                fun use$index(): String {
+                    lateinit var local: String
+                    val holder = Holder$index()
+                    if (!holder.isReady()) holder.value = "h$index"
+                    local = holder.value + count$index(10)
+                    return local + find$index(listOf("a", "$index")) + test$next.count$next(3)
+                }
+            """.trimIndent()
+        }
+    }
+}
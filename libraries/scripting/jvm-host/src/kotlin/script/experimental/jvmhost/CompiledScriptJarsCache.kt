@@ -0,0 +1,177 @@
+/*
+ * Copyright 2010-2019 JetBrains s.r.o. and Kotlin Programming Language contributors.
+ * Use of this source code is governed by the Apache 2.0 license that can be found in the license/LICENSE.txt file.
+ */
+
+package kotlin.script.experimental.jvmhost
+
+import org.jetbrains.kotlin.config.KotlinCompilerVersion
+import java.io.File
+import java.lang.reflect.Modifier
+import java.security.MessageDigest
+import kotlin.reflect.KClass
+import kotlin.script.experimental.api.CompiledScript
+import kotlin.script.experimental.api.KotlinType
+import kotlin.script.experimental.api.ScriptCompilationConfiguration
+import kotlin.script.experimental.api.SourceCode
+import kotlin.script.experimental.jvmhost.impl.KJvmCompiledScript
+
+/**
+ * The cache of compiled scripts persisted between processes as jars in [baseDir], named after the hash of the script text,
+ * its compilation configuration and the compiler version. The jars contain the compiled classes of the scripts, so they can be
+ * put on the classpath as well.
+ *
+ * Files in the configuration, e.g. dependencies, are hashed by their sizes and modification times, and the sizes and modification
+ * times of the files in directories, so a changed dependency leads to a new compilation. Configurations containing functions,
+ * e.g. refinement handlers, can't be hashed in a way which is stable between processes, so such scripts are not cached at all.
+ *
+ * When the cache is larger than [maxSizeBytes] or has more than [maxEntries] jars, the least recently used ones are deleted,
+ * where the usage of a jar is tracked by its modification time. Jars which can't be read are deleted and compiled anew.
+ */
+class CompiledScriptJarsCache(
+    val baseDir: File,
+    val maxSizeBytes: Long = DEFAULT_MAX_SIZE_BYTES,
+    val maxEntries: Int = DEFAULT_MAX_ENTRIES
+) : CompiledJvmScriptsCache {
+
+    init {
+        if (!baseDir.isDirectory && !baseDir.mkdirs()) throw IllegalArgumentException("Unable to create cache directory $baseDir")
+    }
+
+    override fun get(script: SourceCode, scriptCompilationConfiguration: ScriptCompilationConfiguration): CompiledScript<*>? {
+        val jar = jarFor(script, scriptCompilationConfiguration) ?: return null
+        if (!jar.isFile) return null
+
+        return try {
+            KJvmCompiledScript.loadFromJar(jar, scriptCompilationConfiguration).also {
+                jar.setLastModified(System.currentTimeMillis())
+            }
+        } catch (e: Exception) {
+            // e.g. a jar written by an incompatible version of the host, it is replaced with the one compiled anew
+            jar.delete()
+            null
+        }
+    }
+
+    override fun store(
+        compiledScript: CompiledScript<*>, script: SourceCode, scriptCompilationConfiguration: ScriptCompilationConfiguration
+    ) {
+        if (compiledScript !is KJvmCompiledScript<*>) return
+
+        val jar = jarFor(script, scriptCompilationConfiguration) ?: return
+        // the jar is written under a temporary name first, so that other processes using the cache never see it partially written
+        val tempFile = File.createTempFile(jar.nameWithoutExtension, TEMP_FILE_SUFFIX, baseDir)
+        try {
+            compiledScript.saveToJar(tempFile)
+            if (!tempFile.renameTo(jar)) {
+                // the script was stored concurrently by another process, or the target is locked
+                return
+            }
+        } catch (e: Exception) {
+            // e.g. no compiled module or no space left, the script is just not cached
+            return
+        } finally {
+            tempFile.delete()
+        }
+
+        evictLeastRecentlyUsed(jar)
+    }
+
+    private fun jarFor(script: SourceCode, scriptCompilationConfiguration: ScriptCompilationConfiguration): File? =
+        computeHash(script, scriptCompilationConfiguration)?.let { File(baseDir, it + JAR_SUFFIX) }
+
+    private fun evictLeastRecentlyUsed(storedJar: File) {
+        val jars = baseDir.listFiles { file -> file.isFile && file.name.endsWith(JAR_SUFFIX) && file != storedJar } ?: return
+
+        // the jar just stored is kept in any case, the modification times of the others may be not precise enough to tell them apart
+        var totalSize = storedJar.length()
+        var count = 1
+        for (jar in jars.sortedByDescending { it.lastModified() }) {
+            totalSize += jar.length()
+            if (++count > maxEntries || totalSize > maxSizeBytes) {
+                jar.delete()
+            }
+        }
+    }
+
+    companion object {
+        const val DEFAULT_MAX_SIZE_BYTES = 256L * 1024 * 1024
+        const val DEFAULT_MAX_ENTRIES = 10000
+
+        private const val JAR_SUFFIX = ".jar"
+        private const val TEMP_FILE_SUFFIX = ".tmp"
+
+        private const val MAX_VALUE_DEPTH = 16
+
+        // returns null if the configuration has values which can't be hashed in the same way by another process
+        private fun computeHash(script: SourceCode, scriptCompilationConfiguration: ScriptCompilationConfiguration): String? {
+            val digest = MessageDigest.getInstance("SHA-256")
+            fun update(value: String) {
+                digest.update(value.toByteArray())
+                digest.update(0)
+            }
+
+            update(KotlinCompilerVersion.VERSION)
+            // the name of the script defines the name of its class
+            update(script.name ?: "")
+            update(script.text)
+            for ((key, value) in scriptCompilationConfiguration.entries().sortedBy { it.key.name }) {
+                update(key.name)
+                update(value.toStableString(0) ?: return null)
+            }
+            return digest.digest().joinToString("") { "%02x".format(it) }
+        }
+
+        private fun Any?.toStableString(depth: Int): String? {
+            if (depth > MAX_VALUE_DEPTH) return null
+            return when (this) {
+                null, is String, is Number, is Boolean, is Char, is Enum<*> -> toString()
+                // imported scripts and other sources are hashed by their texts rather than by their locations
+                is SourceCode -> "$name:$text"
+                is File -> toStableString()
+                is KotlinType -> typeName
+                is KClass<*> -> java.name
+                is Class<*> -> name
+                is Function<*> -> null
+                is Collection<*> -> elementsToStableString(this, depth)
+                is Array<*> -> elementsToStableString(asList(), depth)
+                is Map<*, *> -> elementsToStableString(entries.map { listOf(it.key, it.value) }, depth)
+                else -> fieldsToStableString(depth)
+            }
+        }
+
+        private fun File.toStableString(): String =
+            when {
+                isFile -> "$path:${length()}:${lastModified()}"
+                isDirectory -> walkTopDown().filter { it.isFile }.map { it.toRelativeString(this) to it }.sortedBy { it.first }
+                    .joinToString(prefix = "$path:[", postfix = "]") { (name, file) -> "$name:${file.length()}:${file.lastModified()}" }
+                else -> "$path:-"
+            }
+
+        private fun elementsToStableString(elements: Collection<*>, depth: Int): String? {
+            val result = StringBuilder("[")
+            for (element in elements) {
+                result.append(element.toStableString(depth + 1) ?: return null).append(',')
+            }
+            return result.append(']').toString()
+        }
+
+        // other values, e.g. dependencies, are hashed by their classes and the values of their fields
+        private fun Any.fieldsToStableString(depth: Int): String? {
+            val result = StringBuilder(javaClass.name).append('(')
+            try {
+                for (klass in generateSequence<Class<*>>(javaClass) { it.superclass }.takeWhile { it != Any::class.java }) {
+                    for (field in klass.declaredFields) {
+                        if (Modifier.isStatic(field.modifiers) || Modifier.isTransient(field.modifiers)) continue
+                        field.isAccessible = true
+                        result.append(field.get(this).toStableString(depth + 1) ?: return null).append(',')
+                    }
+                }
+            } catch (e: Exception) {
+                // e.g. an inaccessible field of a JDK class
+                return null
+            }
+            return result.append(')').toString()
+        }
+    }
+}
@@ -6,21 +6,24 @@
 package kotlin.script.experimental.jvmhost.impl
 
 import org.jetbrains.kotlin.codegen.state.GenerationState
-import java.io.ObjectInputStream
-import java.io.ObjectOutputStream
-import java.io.Serializable
+import java.io.*
 import java.net.URLClassLoader
+import java.util.jar.JarEntry
+import java.util.jar.JarInputStream
+import java.util.jar.JarOutputStream
 import kotlin.reflect.KClass
 import kotlin.script.experimental.api.*
 import kotlin.script.experimental.jvm.JvmDependency
 import kotlin.script.experimental.jvmhost.*
 
 class KJvmCompiledModule(
-    generationState: GenerationState
+    val compilerOutputFiles: Map<String, ByteArray>
 ) : Serializable {
-    val compilerOutputFiles: Map<String, ByteArray> =
+
+    constructor(generationState: GenerationState) : this(
         generationState.factory.asList()
             .associateTo(sortedMapOf<String, ByteArray>()) { it.relativePath to it.asByteArray() }
+    )
 
     companion object {
         @JvmStatic
@@ -89,6 +92,30 @@ class KJvmCompiledScript<out ScriptBase : Any>(
         _compilationConfiguration = configuration
     }
 
+    /**
+     * Writes the compiled classes of the script to [outputJar], along with the serialized script itself, which can be read back
+     * with [loadFromJar]. Since the jar is a regular one, it may be used on the classpath as well.
+     */
+    fun saveToJar(outputJar: File) {
+        val module = compiledModule
+            ?: throw IllegalArgumentException("Unable to save class $scriptClassFQName to jar: no compiled module is provided")
+        // the module is written as the classes of the jar
+        val scriptWithoutModule = KJvmCompiledScript<Any>(sourceLocationId, compilationConfiguration, scriptClassFQName, otherScripts)
+        JarOutputStream(FileOutputStream(outputJar)).use { jar ->
+            for ((path, bytes) in module.compilerOutputFiles) {
+                jar.putNextEntry(JarEntry(path))
+                jar.write(bytes)
+                jar.closeEntry()
+            }
+            jar.putNextEntry(JarEntry(SCRIPT_JAR_ENTRY))
+            ObjectOutputStream(jar).apply {
+                writeObject(scriptWithoutModule)
+                flush()
+            }
+            jar.closeEntry()
+        }
+    }
+
     private fun writeObject(outputStream: ObjectOutputStream) {
         outputStream.writeObject(sourceLocationId)
         outputStream.writeObject(otherScripts)
@@ -108,5 +135,29 @@ class KJvmCompiledScript<out ScriptBase : Any>(
     companion object {
         @JvmStatic
         private val serialVersionUID = 1L
+
+        private const val SCRIPT_JAR_ENTRY = "META-INF/kotlin-script/compiled-script.ser"
+
+        /**
+         * Reads the script written by [saveToJar] from [inputJar], assigning [compilationConfiguration] to it.
+         */
+        fun loadFromJar(inputJar: File, compilationConfiguration: ScriptCompilationConfiguration): KJvmCompiledScript<*> {
+            val compilerOutputFiles = sortedMapOf<String, ByteArray>()
+            var script: KJvmCompiledScript<*>? = null
+            JarInputStream(FileInputStream(inputJar)).use { jar ->
+                while (true) {
+                    val entry = jar.nextJarEntry ?: break
+                    if (entry.name == SCRIPT_JAR_ENTRY) {
+                        script = ObjectInputStream(jar).readObject() as KJvmCompiledScript<*>
+                    } else if (!entry.isDirectory) {
+                        compilerOutputFiles[entry.name] = jar.readBytes()
+                    }
+                }
+            }
+            return (script ?: throw IOException("No compiled script is found in $inputJar")).apply {
+                compiledModule = KJvmCompiledModule(compilerOutputFiles)
+                setCompilationConfiguration(compilationConfiguration)
+            }
+        }
     }
 }
\ No newline at end of file
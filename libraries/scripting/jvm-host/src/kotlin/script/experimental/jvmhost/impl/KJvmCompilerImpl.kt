@@ -4,6 +4,7 @@
  */
 package kotlin.script.experimental.jvmhost.impl
 
+import com.intellij.openapi.Disposable
 import com.intellij.openapi.fileTypes.LanguageFileType
 import com.intellij.openapi.util.Disposer
 import com.intellij.openapi.util.text.StringUtil
@@ -47,6 +48,7 @@ import org.jetbrains.kotlin.scripting.compiler.plugin.ScriptingCompilerConfigura
 import org.jetbrains.kotlin.scripting.compiler.plugin.dependencies.ScriptsCompilationDependencies
 import org.jetbrains.kotlin.scripting.compiler.plugin.dependencies.collectScriptsCompilationDependencies
 import org.jetbrains.kotlin.utils.addToStdlib.firstIsInstanceOrNull
+import java.io.Closeable
 import java.util.*
 import kotlin.reflect.KClass
 import kotlin.reflect.KMutableProperty1
@@ -69,7 +71,37 @@ import kotlin.script.experimental.jvm.withUpdatedClasspath
 import kotlin.script.experimental.jvmhost.KJvmCompilerProxy
 import kotlin.script.experimental.util.getOrError
 
-class KJvmCompilerImpl(val hostConfiguration: ScriptingHostConfiguration) : KJvmCompilerProxy {
+/**
+ * The script compiler. If [keepEnvironmentWarm] is set, the application environment of the compiler and the indices of classpath jars
+ * are retained between compilations until the compiler is [close]d, which saves most of the startup time of every compilation
+ * after the first one when many scripts are compiled in the same process.
+ */
+class KJvmCompilerImpl(
+    val hostConfiguration: ScriptingHostConfiguration,
+    val keepEnvironmentWarm: Boolean = false
+) : KJvmCompilerProxy, Closeable {
+
+    private val warmEnvironmentDisposable: Disposable? = if (keepEnvironmentWarm) Disposer.newDisposable() else null
+    private var isEnvironmentRetained = false
+    private var isClosed = false
+
+    // returns true if the environment is kept warm, i.e. the caches shared between compilations may be used
+    private fun retainEnvironment(kotlinCompilerConfiguration: CompilerConfiguration): Boolean = synchronized(this) {
+        if (warmEnvironmentDisposable == null || isClosed) return false
+        if (!isEnvironmentRetained) {
+            KotlinCoreEnvironment.retainApplicationEnvironmentForProduction(warmEnvironmentDisposable, kotlinCompilerConfiguration)
+            isEnvironmentRetained = true
+        }
+        return true
+    }
+
+    override fun close() {
+        synchronized(this) {
+            if (isClosed) return
+            isClosed = true
+            warmEnvironmentDisposable?.let(Disposer::dispose)
+        }
+    }
 
     override fun compile(
         script: SourceCode,
@@ -104,6 +136,9 @@ class KJvmCompilerImpl(val hostConfiguration: ScriptingHostConfiguration) : KJvm
                 makeScriptDefinition(initialScriptCompilationConfiguration, script, sourcesWithRefinementsState)
             )
 
+            val isEnvironmentWarm = retainEnvironment(kotlinCompilerConfiguration)
+            kotlinCompilerConfiguration.setupSharedCaches(isEnvironmentWarm)
+
             val environment = KotlinCoreEnvironment.createForProduction(
                 disposable, kotlinCompilerConfiguration, EnvironmentConfigFiles.JVM_CONFIG_FILES
             )
@@ -131,6 +166,8 @@ class KJvmCompilerImpl(val hostConfiguration: ScriptingHostConfiguration) : KJvm
             environment.configuration.updateWithRefinedConfigurations(
                 initialScriptCompilationConfiguration, sourcesWithRefinementsState.refinedConfigurations, messageCollector, reportingState
             )
+            // the refined arguments are set up anew, see setupJvmSpecificArguments
+            environment.configuration.setupSharedCaches(isEnvironmentWarm)
 
             val analysisResult = analyze(sourceFiles, environment)
 
@@ -258,6 +295,13 @@ class KJvmCompilerImpl(val hostConfiguration: ScriptingHostConfiguration) : KJvm
 
     companion object {
 
+        private fun CompilerConfiguration.setupSharedCaches(isEnvironmentWarm: Boolean) {
+            if (isEnvironmentWarm) {
+                put(JVMConfigurationKeys.SHARE_CLASSPATH_INDEX, true)
+                put(JVMConfigurationKeys.SHARE_INLINE_CACHE, true)
+            }
+        }
+
         private fun SourceCode.scriptFileName(
             mainScript: SourceCode,
             scriptCompilationConfiguration: ScriptCompilationConfiguration
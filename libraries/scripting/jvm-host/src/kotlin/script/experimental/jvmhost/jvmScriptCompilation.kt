@@ -7,6 +7,7 @@
 
 package kotlin.script.experimental.jvmhost
 
+import java.io.Closeable
 import kotlin.script.experimental.api.*
 import kotlin.script.experimental.host.ScriptingHostConfiguration
 import kotlin.script.experimental.jvm.defaultJvmScriptingHostConfiguration
@@ -59,6 +60,21 @@ open class JvmScriptCompiler(
     }
 }
 
+/**
+ * The script compiler for hosts compiling many scripts in the same process, which keeps the compiler environment and the indices
+ * of the classpath warm between compilations until it is closed (see [KJvmCompilerImpl]).
+ */
+class ReusableJvmScriptCompiler(
+    hostConfiguration: ScriptingHostConfiguration = defaultJvmScriptingHostConfiguration,
+    cache: CompiledJvmScriptsCache = CompiledJvmScriptsCache.NoCache
+) : JvmScriptCompiler(hostConfiguration, KJvmCompilerImpl(hostConfiguration.withDefaults(), keepEnvironmentWarm = true), cache),
+    Closeable {
+
+    override fun close() {
+        (compilerProxy as KJvmCompilerImpl).close()
+    }
+}
+
 interface KJvmCompilerProxy {
     fun compile(
         script: SourceCode,
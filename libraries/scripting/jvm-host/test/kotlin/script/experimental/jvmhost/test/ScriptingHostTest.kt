@@ -18,10 +18,12 @@ import kotlin.script.experimental.host.BasicScriptingHost
 import kotlin.script.experimental.host.FileScriptSource
 import kotlin.script.experimental.host.toScriptSource
 import kotlin.script.experimental.jvm.defaultJvmScriptingHostConfiguration
+import kotlin.script.experimental.jvm.updateClasspath
 import kotlin.script.experimental.jvmhost.*
 import kotlin.script.experimental.jvmhost.impl.CompiledScriptClassLoader
 import kotlin.script.experimental.jvmhost.impl.KJvmCompiledScript
 import kotlin.script.templates.standard.SimpleScriptTemplate
+import kotlin.system.measureNanoTime
 
 class ScriptingHostTest : TestCase() {
 
@@ -229,6 +231,145 @@ class ScriptingHostTest : TestCase() {
         }
     }
 
+    @Test
+    fun testJarCache() {
+        val script = "val x = 1\nprintln(\"x = \$x\")"
+        val expectedOutput = listOf("x = 1")
+        val cacheDir = Files.createTempDirectory("scriptingTestJarCache").toFile()
+        try {
+            val cache = CountingScriptsCache(CompiledScriptJarsCache(cacheDir))
+            checkWithCache(cache, script, expectedOutput)
+            Assert.assertEquals(1, cacheDir.listFiles().count { it.extension == "jar" })
+        } finally {
+            cacheDir.deleteRecursively()
+        }
+    }
+
+    @Test
+    fun testSimpleImportWithJarCache() {
+        val script = "println(\"Hello from imported \$helloScriptName script!\")"
+        val expectedOutput = listOf("Hello from helloWithVal script!", "Hello from imported helloWithVal script!")
+        val scriptCompilationConfiguration = createJvmCompilationConfigurationFromTemplate<SimpleScriptTemplate> {
+            makeSimpleConfigurationWithTestImport()
+        }
+        val cacheDir = Files.createTempDirectory("scriptingTestJarCache").toFile()
+        try {
+            val cache = CompiledScriptJarsCache(cacheDir)
+            val compiler = JvmScriptCompiler(defaultJvmScriptingHostConfiguration, cache = cache)
+            val output = captureOut {
+                runBlocking {
+                    compiler(script.toScriptSource(), scriptCompilationConfiguration).onSuccess {
+                        BasicJvmScriptEvaluator()(it, null)
+                    }.throwOnFailure()
+                }
+            }.lines()
+            Assert.assertEquals(expectedOutput, output)
+
+            // the refinement handler can't be hashed, so the script is not cached
+            Assert.assertEquals(0, cacheDir.listFiles().count { it.extension == "jar" })
+            Assert.assertNull(cache.get(script.toScriptSource(), scriptCompilationConfiguration))
+        } finally {
+            cacheDir.deleteRecursively()
+        }
+    }
+
+    @Test
+    fun testJarCacheWithChangedDependency() {
+        val script = "val x = 1".toScriptSource()
+        val cacheDir = Files.createTempDirectory("scriptingTestJarCache").toFile()
+        val dependencyDir = Files.createTempDirectory("scriptingTestDependency").toFile()
+        try {
+            File(dependencyDir, "a.txt").writeText("a")
+            val scriptCompilationConfiguration = createJvmCompilationConfigurationFromTemplate<SimpleScriptTemplate> {
+                updateClasspath(listOf(dependencyDir))
+            }
+            val cache = CompiledScriptJarsCache(cacheDir)
+            val compiler = JvmScriptCompiler(defaultJvmScriptingHostConfiguration, cache = cache)
+            runBlocking { compiler(script, scriptCompilationConfiguration) }.throwOnFailure()
+            Assert.assertNotNull(cache.get(script, scriptCompilationConfiguration))
+
+            // the same dependency path with different contents is a different configuration
+            File(dependencyDir, "b.txt").writeText("b")
+            Assert.assertNull(cache.get(script, scriptCompilationConfiguration))
+        } finally {
+            cacheDir.deleteRecursively()
+            dependencyDir.deleteRecursively()
+        }
+    }
+
+    @Test
+    fun testJarCacheEviction() {
+        val scripts = listOf("val x = 1", "val y = 2", "val z = 3").map { it.toScriptSource() }
+        val scriptCompilationConfiguration = createJvmCompilationConfigurationFromTemplate<SimpleScriptTemplate>()
+        val cacheDir = Files.createTempDirectory("scriptingTestJarCache").toFile()
+        try {
+            val cache = CompiledScriptJarsCache(cacheDir, maxEntries = 2)
+            val compiler = JvmScriptCompiler(defaultJvmScriptingHostConfiguration, cache = cache)
+            for (script in scripts) {
+                runBlocking { compiler(script, scriptCompilationConfiguration) }.throwOnFailure()
+            }
+            Assert.assertEquals(2, cacheDir.listFiles().count { it.extension == "jar" })
+            Assert.assertNotNull(cache.get(scripts.last(), scriptCompilationConfiguration))
+
+            // a corrupted jar is treated as missing
+            cacheDir.listFiles().filter { it.extension == "jar" }.forEach { it.writeText("corrupted") }
+            Assert.assertNull(cache.get(scripts.last(), scriptCompilationConfiguration))
+        } finally {
+            cacheDir.deleteRecursively()
+        }
+    }
+
+    /**
+     * Run with -Dkotlin.script.startup.benchmark=true
+     */
+    @Test
+    fun testScriptStartupBenchmark() {
+        if (System.getProperty("kotlin.script.startup.benchmark") != "true") return
+
+        val scriptCompilationConfiguration = createJvmCompilationConfigurationFromTemplate<SimpleScriptTemplate>()
+        val evaluator = BasicJvmScriptEvaluator()
+        val cacheDir = Files.createTempDirectory("scriptingTestJarCache").toFile()
+        try {
+            val cache = CompiledScriptJarsCache(cacheDir)
+            repeat(3) { round ->
+                val script = "val x = $round\nx + 1".toScriptSource()
+                fun compileAndEvaluate(cache: CompiledJvmScriptsCache) = runBlocking {
+                    // a new compiler for every run, as in a new process
+                    JvmScriptCompiler(defaultJvmScriptingHostConfiguration, cache = cache)(script, scriptCompilationConfiguration)
+                        .onSuccess { evaluator(it, null) }.throwOnFailure()
+                }
+
+                val uncachedTime = measureNanoTime { compileAndEvaluate(CompiledJvmScriptsCache.NoCache) }
+                val storeTime = measureNanoTime { compileAndEvaluate(cache) }
+                val cachedTime = measureNanoTime { compileAndEvaluate(cache) }
+                println(
+                    "round $round: compile and evaluate ${uncachedTime / 1_000_000} ms, with storing to the jar cache " +
+                            "${storeTime / 1_000_000} ms, from the jar cache ${cachedTime / 1_000_000} ms"
+                )
+            }
+        } finally {
+            cacheDir.deleteRecursively()
+        }
+    }
+
+    @Test
+    fun testReusableCompiler() {
+        val scriptCompilationConfiguration = createJvmCompilationConfigurationFromTemplate<SimpleScriptTemplate>()
+        val evaluator = BasicJvmScriptEvaluator()
+        ReusableJvmScriptCompiler().use { compiler ->
+            val output = captureOut {
+                for (i in 1..3) {
+                    runBlocking {
+                        compiler("println(\"x = $i\")".toScriptSource(), scriptCompilationConfiguration).onSuccess {
+                            evaluator(it, null)
+                        }.throwOnFailure()
+                    }
+                }
+            }.lines()
+            Assert.assertEquals(listOf("x = 1", "x = 2", "x = 3"), output)
+        }
+    }
+
     private fun checkWithCache(
         cache: ScriptingCacheWithCounters, script: String, expectedOutput: List<String>,
         configurationBuilder: ScriptCompilationConfiguration.Builder.() -> Unit = {}
@@ -363,6 +504,30 @@ private class SimpleMemoryScriptsCache : ScriptingCacheWithCounters {
     }
 }
 
+private class CountingScriptsCache(val cache: CompiledJvmScriptsCache) : ScriptingCacheWithCounters {
+
+    private var _storedScripts = 0
+    private var _retrievedScripts = 0
+
+    override val storedScripts: Int
+        get() = _storedScripts
+
+    override val retrievedScripts: Int
+        get() = _retrievedScripts
+
+    override fun get(script: SourceCode, scriptCompilationConfiguration: ScriptCompilationConfiguration): CompiledScript<*>? =
+        cache.get(script, scriptCompilationConfiguration)?.also { _retrievedScripts++ }
+
+    override fun store(
+        compiledScript: CompiledScript<*>,
+        script: SourceCode,
+        scriptCompilationConfiguration: ScriptCompilationConfiguration
+    ) {
+        cache.store(compiledScript, script, scriptCompilationConfiguration)
+        _storedScripts++
+    }
+}
+
 private fun ScriptCompilationConfiguration.Builder.makeSimpleConfigurationWithTestImport() {
     refineConfiguration {
         beforeCompiling { ctx ->
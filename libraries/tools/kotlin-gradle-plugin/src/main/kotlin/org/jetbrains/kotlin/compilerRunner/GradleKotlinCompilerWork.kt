@@ -269,6 +269,7 @@ internal class GradleKotlinCompilerWork @Inject constructor(
             multiModuleICSettings = icEnv.multiModuleICSettings,
             modulesInfo = incrementalModuleInfo!!,
             classpathFqNamesHistory = icEnv.classpathFqNamesHistory,
+            classpathSnapshotDir = icEnv.classpathSnapshotDir,
             kotlinScriptExtensions = kotlinScriptExtensions
         )
 
@@ -16,7 +16,8 @@ internal class IncrementalCompilationEnvironment(
     val usePreciseJavaTracking: Boolean = false,
     val disableMultiModuleIC: Boolean = false,
     val multiModuleICSettings: MultiModuleICSettings,
-    val classpathFqNamesHistory: File? = null
+    val classpathFqNamesHistory: File? = null,
+    val classpathSnapshotDir: File? = null
 ) : Serializable {
     companion object {
         const val serialVersionUID: Long = 0
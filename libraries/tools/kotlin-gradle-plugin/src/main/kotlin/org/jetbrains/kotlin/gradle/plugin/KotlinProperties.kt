@@ -33,6 +33,9 @@ internal fun PropertiesProvider.mapKotlinTaskProperties(task: AbstractKotlinComp
         usePreciseJavaTracking?.let {
             task.usePreciseJavaTracking = it
         }
+        if (useClasspathSnapshots == true) {
+            task.classpathSnapshotDir = File(task.project.rootProject.buildDir, "kotlin/classpath-snapshots")
+        }
     }
 
     if (task is Kotlin2JsCompile) {
@@ -76,6 +79,13 @@ internal class PropertiesProvider(private val project: Project) {
     val usePreciseJavaTracking: Boolean?
         get() = booleanProperty("kotlin.incremental.usePreciseJavaTracking")
 
+    /**
+     * Detects the changes of the classpath from the snapshots of its entries, when the build histories of other modules are not available
+     * (e.g. the dependencies are not built by Gradle)
+     */
+    val useClasspathSnapshots: Boolean?
+        get() = booleanProperty("kotlin.incremental.classpath.snapshots")
+
     val useFallbackCompilerSearch: Boolean?
         get() = booleanProperty("kotlin.useFallbackCompilerSearch")
 
@@ -383,6 +383,10 @@ open class KotlinCompile : AbstractKotlinCompile<K2JVMCompilerArguments>(), Kotl
             logger.kotlinDebug { "Set $this.usePreciseJavaTracking=$value" }
         }
 
+    // the snapshots are shared by the tasks of all projects, and are not an output of any of them
+    @get:Internal
+    internal var classpathSnapshotDir: File? = null
+
     init {
         incremental = true
     }
@@ -432,7 +436,8 @@ open class KotlinCompile : AbstractKotlinCompile<K2JVMCompilerArguments>(), Kotl
                 usePreciseJavaTracking = usePreciseJavaTracking,
                 disableMultiModuleIC = disableMultiModuleIC(),
                 multiModuleICSettings = multiModuleICSettings,
-                classpathFqNamesHistory = getClasspathFqNamesHistoryDir()
+                classpathFqNamesHistory = getClasspathFqNamesHistoryDir(),
+                classpathSnapshotDir = classpathSnapshotDir
             )
         } else null
 